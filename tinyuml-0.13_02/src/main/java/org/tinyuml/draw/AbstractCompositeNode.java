@@ -21,10 +21,15 @@ package org.tinyuml.draw;
 
 import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 
 /**
  * An abstract class that implements the additional functionality introduced
@@ -37,7 +42,104 @@ public abstract class AbstractCompositeNode extends AbstractNode
 implements CompositeNode {
 
   private static final long serialVersionUID = 3667605559862445493L;
-  private List<DiagramElement> children = new LinkedList<DiagramElement>();
+  /**
+   * The number of children from which on the spatial index is used.
+   */
+  private static final int INDEX_THRESHOLD = 64;
+  /**
+   * The children are serialized as a List, as they were before ChildList was
+   * introduced.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("children", List.class)
+  };
+  private transient ChildList<DiagramElement> children =
+    new ChildList<DiagramElement>();
+
+  // The spatial index over the children is created when a child is added
+  // and there are enough children, all of them nodes. It is never created
+  // while drawing, so it can be read by concurrent renderers. It stores the
+  // bounds relative to this node, so it does not need to be updated if this
+  // node is moved. The order values reflect the position in the children list.
+  private transient SpatialIndex<DiagramElement> childIndex;
+  private transient long frontOrder, backOrder;
+  private transient int nonNodeChildren;
+
+  /**
+   * The query results are reused. Each thread has its own results, one for
+   * each level of nested composite nodes that is queried at the same time.
+   */
+  private static final ThreadLocal<QueryResults> QUERY_RESULTS =
+    new ThreadLocal<QueryResults>() {
+      /** {@inheritDoc} */
+      @Override
+      protected QueryResults initialValue() { return new QueryResults(); }
+    };
+
+  /**
+   * The query results of a thread.
+   */
+  private static final class QueryResults {
+    private List<SpatialIndex.Result<DiagramElement>> results =
+      new ArrayList<SpatialIndex.Result<DiagramElement>>();
+    private int depth;
+
+    /**
+     * Returns a result for the next nesting level.
+     * @return the result
+     */
+    SpatialIndex.Result<DiagramElement> acquire() {
+      if (depth == results.size()) {
+        results.add(new SpatialIndex.Result<DiagramElement>());
+      }
+      return results.get(depth++);
+    }
+
+    /**
+     * Releases the result of the current nesting level.
+     * @param result the result
+     */
+    void release(SpatialIndex.Result<DiagramElement> result) {
+      result.clear();
+      depth--;
+    }
+  }
+
+  /**
+   * Change flags of the nodes whose notifications are pending.
+   */
+  static final int MOVED = 1, RESIZED = 2;
+  // The open change transaction. The changed nodes are kept in the order of
+  // their first change, the flags record which notifications are due.
+  private transient int changeDepth;
+  private transient List<AbstractNode> changedNodes;
+  private transient IdentityHashMap<AbstractNode, Integer> changeFlags;
+
+  /**
+   * Writes the children to the stream.
+   * @param stream an ObjectOutputStream
+   * @throws IOException if I/O error occured
+   */
+  private void writeObject(ObjectOutputStream stream) throws IOException {
+    ObjectOutputStream.PutField fields = stream.putFields();
+    fields.put("children", new LinkedList<DiagramElement>(children));
+    stream.writeFields();
+  }
+
+  /**
+   * Reads the children from the specified stream.
+   * @param stream an ObjectInputStream
+   * @throws IOException if I/O error occured
+   * @throws ClassNotFoundException if class was not found
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream stream)
+    throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = stream.readFields();
+    children = new ChildList<DiagramElement>(
+      (List<DiagramElement>) fields.get("children", null));
+    rebuildChildIndex();
+  }
 
   /**
    * {@inheritDoc}
@@ -46,12 +148,17 @@ implements CompositeNode {
   public Object clone() {
     AbstractCompositeNode cloned = null;
     cloned = (AbstractCompositeNode) super.clone();
-    cloned.children = new LinkedList<DiagramElement>();
+    cloned.children = new ChildList<DiagramElement>();
+    cloned.childIndex = null;
+    cloned.changeDepth = 0;
+    cloned.changedNodes = null;
+    cloned.changeFlags = null;
     for (DiagramElement element : children) {
       DiagramElement clonedChild = (DiagramElement) element.clone();
       clonedChild.setParent(cloned);
       cloned.children.add(clonedChild);
     }
+    cloned.rebuildChildIndex();
     return cloned;
   }
 
@@ -65,9 +172,17 @@ implements CompositeNode {
    * {@inheritDoc}
    */
   public void addChild(DiagramElement child) {
-    if (!children.contains(child)) {
+    if (children.add(child)) {
       child.setParent(this);
-      children.add(child);
+      if (!(child instanceof AbstractNode)) {
+        nonNodeChildren++;
+        childIndex = null;
+      } else if (childIndex != null) {
+        childIndex.insert(child, getRelativeBounds((Node) child),
+          frontOrder++);
+      } else {
+        createChildIndex();
+      }
     }
   }
 
@@ -75,7 +190,14 @@ implements CompositeNode {
    * {@inheritDoc}
    */
   public void removeChild(DiagramElement child) {
-    children.remove(child);
+    if (!children.remove(child)) return;
+    if (!(child instanceof AbstractNode)) {
+      nonNodeChildren--;
+      createChildIndex();
+    } else if (childIndex != null) {
+      childIndex.remove(child);
+      if (children.size() < INDEX_THRESHOLD / 2) childIndex = null;
+    }
   }
 
   /**
@@ -85,8 +207,8 @@ implements CompositeNode {
     // If we want to use getChildren() here, we need to take care
     // of the Diagram, which joins the children collection with the connections
     // A solution would be to implement the diagram through delegation
-    children.remove(child);
-    children.add(child);
+    children.moveToLast(child);
+    if (childIndex != null) childIndex.setOrder(child, frontOrder++);
   }
 
   /**
@@ -95,8 +217,8 @@ implements CompositeNode {
   public void putChildToBack(DiagramElement child) {
     // If we want to use getChildren() here, we need to take care
     // of the Diagram, which joins the children collection with the connections
-    children.remove(child);
-    children.add(0, child);
+    children.moveToFirst(child);
+    if (childIndex != null) childIndex.setOrder(child, backOrder--);
   }
 
   /**
@@ -109,15 +231,31 @@ implements CompositeNode {
     // This is a little trick: We check children in the reverse drawing
     // order, so it there is an element in front of another, we select
     // the element in the front
-    ListIterator<DiagramElement> iter =
-      getChildren().listIterator(getChildren().size());
-    while (iter.hasPrevious()) {
-      DiagramElement child = iter.previous();
-      if (child.contains(x, y)) {
-        return getDeepestElement(child, x, y);
+    SpatialIndex<DiagramElement> index = childIndex;
+    if (index == null) {
+      List<DiagramElement> candidates = getChildren();
+      for (int i = candidates.size() - 1; i >= 0; i--) {
+        DiagramElement child = candidates.get(i);
+        if (child.contains(x, y)) {
+          return getDeepestElement(child, x, y);
+        }
       }
+      return NullElement.getInstance();
+    }
+    QueryResults results = QUERY_RESULTS.get();
+    SpatialIndex.Result<DiagramElement> candidates = results.acquire();
+    try {
+      queryChildIndex(index, x, y, x, y, candidates);
+      for (int i = candidates.size() - 1; i >= 0; i--) {
+        DiagramElement child = candidates.get(i);
+        if (child.contains(x, y)) {
+          return getDeepestElement(child, x, y);
+        }
+      }
+      return NullElement.getInstance();
+    } finally {
+      results.release(candidates);
     }
-    return NullElement.getInstance();
   }
 
   /**
@@ -143,10 +281,38 @@ implements CompositeNode {
    */
   public void draw(DrawingContext drawingContext) {
     Rectangle clipBounds = drawingContext.getClipBounds();
-    for (DiagramElement child : children) {
-      if (child.isVisible(clipBounds)) {
-        child.draw(drawingContext);
+    SpatialIndex<DiagramElement> index = childIndex;
+    if (clipBounds == null || index == null) {
+      for (int i = 0; i < children.size(); i++) {
+        drawChild(drawingContext, children.get(i), clipBounds);
       }
+      return;
+    }
+    QueryResults results = QUERY_RESULTS.get();
+    SpatialIndex.Result<DiagramElement> candidates = results.acquire();
+    try {
+      queryChildIndex(index, clipBounds.getMinX(), clipBounds.getMinY(),
+        clipBounds.getMaxX(), clipBounds.getMaxY(), candidates);
+      for (int i = 0; i < candidates.size(); i++) {
+        drawChild(drawingContext, candidates.get(i), clipBounds);
+      }
+    } finally {
+      results.release(candidates);
+    }
+  }
+
+  /**
+   * Draws a child if it is visible within the clip bounds.
+   * @param drawingContext the DrawingContext
+   * @param child the child
+   * @param clipBounds the clip bounds
+   */
+  private void drawChild(DrawingContext drawingContext, DiagramElement child,
+    Rectangle clipBounds) {
+    if (child.isVisible(clipBounds)) {
+      drawingContext.beginGroup(child);
+      child.draw(drawingContext);
+      drawingContext.endGroup();
     }
   }
 
@@ -165,7 +331,9 @@ implements CompositeNode {
   public void getChildrenInSpecifiedBounds(Rectangle2D bounds,
     Collection<DiagramElement> resultCollection) {
     if (intersects(bounds)) {
-      for (DiagramElement child : getChildren()) {
+      Collection<DiagramElement> candidates = childIndex == null ?
+        getChildren() : findChildCandidates(bounds);
+      for (DiagramElement child : candidates) {
         if (child.intersects(bounds)) {
           resultCollection.add(child);
           // Recursively ask the child
@@ -178,6 +346,18 @@ implements CompositeNode {
     }
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void invalidateAbsolutePosition() {
+    super.invalidateAbsolutePosition();
+    for (int i = 0; i < children.size(); i++) {
+      DiagramElement child = children.get(i);
+      if (child instanceof Node) invalidateAbsolutePosition((Node) child);
+    }
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -190,4 +370,190 @@ implements CompositeNode {
       }
     }
   }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void beginChanges() {
+    changeDepth++;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void commitChanges() {
+    if (changeDepth == 0) {
+      throw new IllegalStateException("no change transaction is open");
+    }
+    if (changeDepth > 1) {
+      changeDepth--;
+      return;
+    }
+    // the transaction stays open while the notifications are delivered, so
+    // changes made by the listeners are collected and delivered in the next
+    // round instead of being reported recursively
+    try {
+      do {
+        deliverPendingChanges();
+        changesCommitted();
+      } while (changedNodes != null);
+    } finally {
+      changeDepth = 0;
+      changedNodes = null;
+      changeFlags = null;
+    }
+  }
+
+  /**
+   * Determines whether a change transaction is open on this node.
+   * @return true if changes are collected, false otherwise
+   */
+  protected final boolean isChanging() { return changeDepth > 0; }
+
+  /**
+   * Called on the outermost commit after the collected notifications were
+   * delivered. Subclasses can override this to perform work that was deferred
+   * while the transaction was open. Changes made here are delivered as well.
+   */
+  protected void changesCommitted() { }
+
+  /**
+   * Records a change of the specified node in the open transaction.
+   * @param node the changed node
+   * @param change the kind of change, MOVED or RESIZED
+   */
+  final void addPendingChange(AbstractNode node, int change) {
+    if (changedNodes == null) {
+      changedNodes = new ArrayList<AbstractNode>();
+      changeFlags = new IdentityHashMap<AbstractNode, Integer>();
+    }
+    Integer flags = changeFlags.get(node);
+    if (flags == null) {
+      changedNodes.add(node);
+      changeFlags.put(node, change);
+    } else if ((flags & change) == 0) {
+      changeFlags.put(node, flags | change);
+    }
+  }
+
+  /**
+   * Notifies the listeners of all collected changes, once per node and kind
+   * of change.
+   */
+  private void deliverPendingChanges() {
+    List<AbstractNode> nodes = changedNodes;
+    IdentityHashMap<AbstractNode, Integer> flags = changeFlags;
+    changedNodes = null;
+    changeFlags = null;
+    if (nodes == null) return;
+    for (int i = 0; i < nodes.size(); i++) {
+      AbstractNode node = nodes.get(i);
+      int nodeFlags = flags.get(node);
+      if ((nodeFlags & MOVED) != 0) node.fireNodeMoved();
+      if ((nodeFlags & RESIZED) != 0) node.fireNodeResized();
+    }
+  }
+
+  /**
+   * Notifies this node that the specified connection was added to it or that
+   * the connection's points might have changed. Does nothing by default,
+   * subclasses that index their connections can override this method.
+   * @param connection the connection
+   */
+  protected void connectionChanged(Connection connection) { }
+
+  /**
+   * Returns the children whose bounds might intersect the specified area, in
+   * drawing order. This is only called while the spatial index is active,
+   * subclasses that manage additional children outside of the index can
+   * override this method to add them.
+   * @param area the area in absolute coordinates
+   * @return the candidate children
+   */
+  protected List<DiagramElement> findChildCandidates(Rectangle2D area) {
+    List<DiagramElement> result = new ArrayList<DiagramElement>();
+    SpatialIndex.Result<DiagramElement> found =
+      new SpatialIndex.Result<DiagramElement>();
+    queryChildIndex(childIndex, area.getMinX(), area.getMinY(),
+      area.getMaxX(), area.getMaxY(), found);
+    for (int i = 0; i < found.size(); i++) result.add(found.get(i));
+    return result;
+  }
+
+  /**
+   * Notifies this node that the position or size of the specified child or
+   * one of its parts has changed. If the child is in the spatial index, its
+   * entry is updated. Since the bounds of this node might depend on its parts,
+   * the change is propagated to the parent.
+   * @param child the child that changed
+   */
+  final void childBoundsChanged(AbstractNode child) {
+    if (childIndex != null) {
+      childIndex.update(child, getRelativeBounds(child));
+    }
+    boundsChanged();
+  }
+
+  /**
+   * Creates the spatial index over the children if there is none yet, there
+   * are enough children and all of them are nodes. Otherwise the children
+   * are searched linearly.
+   */
+  private void createChildIndex() {
+    if (childIndex != null || nonNodeChildren > 0 ||
+        children.size() < INDEX_THRESHOLD) {
+      return;
+    }
+    SpatialIndex<DiagramElement> index = new SpatialIndex<DiagramElement>();
+    frontOrder = 0;
+    backOrder = -1;
+    for (int i = 0; i < children.size(); i++) {
+      DiagramElement child = children.get(i);
+      index.insert(child, getRelativeBounds((Node) child), frontOrder++);
+    }
+    childIndex = index;
+  }
+
+  /**
+   * Counts the children that are not nodes and creates the spatial index
+   * for children that were set without addChild().
+   */
+  private void rebuildChildIndex() {
+    childIndex = null;
+    nonNodeChildren = 0;
+    for (int i = 0; i < children.size(); i++) {
+      if (!(children.get(i) instanceof AbstractNode)) nonNodeChildren++;
+    }
+    createChildIndex();
+  }
+
+  /**
+   * Queries the spatial index with an absolute area. The area is converted
+   * to coordinates relative to this node and enlarged by one unit to
+   * compensate rounding errors, the children are tested exactly afterwards.
+   * @param index the spatial index
+   * @param x1 the absolute x1
+   * @param y1 the absolute y1
+   * @param x2 the absolute x2
+   * @param y2 the absolute y2
+   * @param result the result
+   */
+  private void queryChildIndex(SpatialIndex<DiagramElement> index, double x1,
+    double y1, double x2, double y2,
+    SpatialIndex.Result<DiagramElement> result) {
+    double absx = getAbsoluteX1(), absy = getAbsoluteY1();
+    index.query(x1 - absx - 1, y1 - absy - 1, x2 - absx + 1, y2 - absy + 1,
+      result);
+  }
+
+  /**
+   * Returns the bounds of the specified child relative to this node.
+   * @param child the child node
+   * @return the relative bounds
+   */
+  private Rectangle2D getRelativeBounds(Node child) {
+    return new Rectangle2D.Double(child.getOrigin().getX(),
+      child.getOrigin().getY(), child.getSize().getWidth(),
+      child.getSize().getHeight());
+  }
 }
@@ -23,6 +23,10 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -40,10 +44,71 @@ implements Connection, NodeChangeListener {
   private static final long serialVersionUID = -1014584869536016852L;
   private Node node1, node2;
   protected static final double DELTA = 3.0;
+  /**
+   * The space around the line segments that is covered by arrow heads and
+   * other decorations at the end points.
+   */
+  protected static final double DECORATION_MARGIN = 15.0;
   private CompositeNode parent;
   private boolean isValid;
   private boolean isDashed;
-  private List<Point2D> points;
+  private Polyline points;
+  private transient Rectangle2D cachedBounds;
+  /**
+   * The points are serialized as a List, as they were before Polyline was
+   * introduced.
+   */
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("node1", Node.class),
+    new ObjectStreamField("node2", Node.class),
+    new ObjectStreamField("parent", CompositeNode.class),
+    new ObjectStreamField("isValid", Boolean.TYPE),
+    new ObjectStreamField("isDashed", Boolean.TYPE),
+    new ObjectStreamField("points", List.class)
+  };
+
+  /**
+   * Writes the instance variables to the stream.
+   * @param stream an ObjectOutputStream
+   * @throws IOException if I/O error occured
+   */
+  private void writeObject(ObjectOutputStream stream) throws IOException {
+    ObjectOutputStream.PutField fields = stream.putFields();
+    fields.put("node1", node1);
+    fields.put("node2", node2);
+    fields.put("parent", parent);
+    fields.put("isValid", isValid);
+    fields.put("isDashed", isDashed);
+    List<Point2D> pointList = null;
+    if (points != null) {
+      pointList = new LinkedList<Point2D>();
+      for (int i = 0; i < points.size(); i++) {
+        pointList.add(new Point2D.Double(points.getX(i), points.getY(i)));
+      }
+    }
+    fields.put("points", pointList);
+    stream.writeFields();
+  }
+
+  /**
+   * Reads the instance variables from the specified stream.
+   * @param stream an ObjectInputStream
+   * @throws IOException if I/O error occured
+   * @throws ClassNotFoundException if class was not found
+   */
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream stream)
+    throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = stream.readFields();
+    node1 = (Node) fields.get("node1", null);
+    node2 = (Node) fields.get("node2", null);
+    parent = (CompositeNode) fields.get("parent", null);
+    isValid = fields.get("isValid", false);
+    isDashed = fields.get("isDashed", false);
+    List<Point2D> pointList = (List<Point2D>) fields.get("points", null);
+    points = pointList == null ? null : new Polyline(pointList);
+    if (points != null) points.setOwner(this);
+  }
 
   /**
    * {@inheritDoc}
@@ -53,9 +118,10 @@ implements Connection, NodeChangeListener {
     AbstractConnection cloned = null;
     try {
       cloned = (AbstractConnection) super.clone();
+      cloned.cachedBounds = null;
       if (points != null) {
-        cloned.points = new LinkedList<Point2D>();
-        for (Point2D point : points) cloned.points.add((Point2D) point.clone());
+        cloned.points = points.clone();
+        cloned.points.setOwner(cloned);
       }
     } catch (CloneNotSupportedException ignore) {
       ignore.printStackTrace();
@@ -110,7 +176,10 @@ implements Connection, NodeChangeListener {
   /**
    * {@inheritDoc}
    */
-  public void setParent(CompositeNode aParent) { parent = aParent; }
+  public void setParent(CompositeNode aParent) {
+    parent = aParent;
+    notifyParent();
+  }
 
   /**
    * {@inheritDoc}
@@ -129,24 +198,72 @@ implements Connection, NodeChangeListener {
    * {@inheritDoc}
    */
   public Rectangle2D getAbsoluteBounds() {
-    double minx = Double.MAX_VALUE, miny = Double.MAX_VALUE,
-      maxx = Double.MIN_VALUE, maxy = Double.MIN_VALUE;
-    for (Point2D point : getPoints()) {
-      minx = Math.min(minx, point.getX());
-      miny = Math.min(miny, point.getY());
-      maxx = Math.max(maxx, point.getX());
-      maxy = Math.max(maxy, point.getY());
+    return (Rectangle2D) getCachedBounds().clone();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Rectangle2D getAbsoluteBounds(Rectangle2D result) {
+    result.setRect(getCachedBounds());
+    return result;
+  }
+
+  /**
+   * Returns the bounding box of the connection points. The bounds are cached
+   * until the points are set again or the connection is invalidated.
+   * @return the cached bounds, this object must not be modified
+   */
+  private Rectangle2D getCachedBounds() {
+    if (cachedBounds == null) {
+      double minx = Double.MAX_VALUE, miny = Double.MAX_VALUE,
+        maxx = -Double.MAX_VALUE, maxy = -Double.MAX_VALUE;
+      for (int i = 0; i < points.size(); i++) {
+        minx = Math.min(minx, points.getX(i));
+        miny = Math.min(miny, points.getY(i));
+        maxx = Math.max(maxx, points.getX(i));
+        maxy = Math.max(maxy, points.getY(i));
+      }
+      cachedBounds = new Rectangle2D.Double(minx, miny, maxx - minx,
+        maxy - miny);
     }
-    return new Rectangle2D.Double(minx, miny, maxx - minx, maxy - miny);
+    return cachedBounds;
+  }
+
+  /**
+   * Determines whether the bounds of this connection, enlarged by the
+   * specified margin, intersect the specified area. Invalid connections
+   * recalculate their points when they are drawn, so their current bounds
+   * can not be used and this method returns true.
+   * @param x the area's x coordinate
+   * @param y the area's y coordinate
+   * @param width the area's width
+   * @param height the area's height
+   * @param margin the margin to add to the bounds
+   * @return true if the area might intersect, false otherwise
+   */
+  private boolean mightIntersect(double x, double y, double width,
+    double height, double margin) {
+    if (!isValid()) return true;
+    Rectangle2D bounds = getCachedBounds();
+    return x <= bounds.getMaxX() + margin && x + width >= bounds.getX() - margin
+      && y <= bounds.getMaxY() + margin
+      && y + height >= bounds.getY() - margin;
   }
 
   /**
    * {@inheritDoc}
    */
   public boolean intersects(Rectangle2D bounds) {
-    List<Line2D> segments = getSegments();
-    for (Line2D segment : segments) {
-      if (segment.intersects(bounds)) return true;
+    if (!mightIntersect(bounds.getX(), bounds.getY(), bounds.getWidth(),
+      bounds.getHeight(), 0)) {
+      return false;
+    }
+    for (int i = 1; i < points.size(); i++) {
+      if (bounds.intersectsLine(points.getX(i - 1), points.getY(i - 1),
+        points.getX(i), points.getY(i))) {
+        return true;
+      }
     }
     return false;
   }
@@ -165,7 +282,31 @@ implements Connection, NodeChangeListener {
    * Sets the validity property.
    * @param flag the value of the validity property
    */
-  public void setValid(boolean flag) { isValid = flag; }
+  public void setValid(boolean flag) {
+    isValid = flag;
+    // the points might have been changed in place
+    cachedBounds = null;
+    notifyParent();
+  }
+
+  /**
+   * Called when the points were changed through the List view of the
+   * polyline.
+   */
+  void pointsChanged() {
+    cachedBounds = null;
+    notifyParent();
+  }
+
+  /**
+   * Lets the parent know that this connection was added to it or that its
+   * points might have changed.
+   */
+  private void notifyParent() {
+    if (parent instanceof AbstractCompositeNode) {
+      ((AbstractCompositeNode) parent).connectionChanged(this);
+    }
+  }
 
   /**
    * {@inheritDoc}
@@ -191,7 +332,10 @@ implements Connection, NodeChangeListener {
   /**
    * {@inheritDoc}
    */
-  public boolean isVisible(Rectangle2D bounds) { return true; }
+  public boolean isVisible(Rectangle2D bounds) {
+    return mightIntersect(bounds.getX(), bounds.getY(), bounds.getWidth(),
+      bounds.getHeight(), DECORATION_MARGIN);
+  }
 
   /**
    * {@inheritDoc}
@@ -236,9 +380,8 @@ implements Connection, NodeChangeListener {
    * @return the first segment connecting to node 1
    */
   private Line2D getFirstSegmentToNode1() {
-    Line2D firstSegment = new Line2D.Double();
-    firstSegment.setLine(points.get(1), points.get(0));
-    return firstSegment;
+    return new Line2D.Double(points.getX(1), points.getY(1), points.getX(0),
+      points.getY(0));
   }
 
   /**
@@ -246,10 +389,9 @@ implements Connection, NodeChangeListener {
    * @return the line segment connecting to Node 2
    */
   private Line2D getLastSegmentToNode2() {
-    Line2D lastSegment = new Line2D.Double();
-    lastSegment.setLine(points.get(points.size() - 2),
-                        points.get(points.size() - 1));
-    return lastSegment;
+    int last = points.size() - 1;
+    return new Line2D.Double(points.getX(last - 1), points.getY(last - 1),
+      points.getX(last), points.getY(last));
   }
 
   /**
@@ -261,30 +403,67 @@ implements Connection, NodeChangeListener {
    * {@inheritDoc}
    */
   public Point2D getEndPoint2() {
-    return getPoints().get(getPoints().size() - 1);
+    return getPoints().get(points.size() - 1);
   }
 
   /**
    * {@inheritDoc}
    */
   public boolean contains(double xcoord, double ycoord) {
-    for (Line2D segment : getSegments()) {
-      if (segment.ptSegDist(xcoord, ycoord) < DELTA) return true;
+    if (!mightIntersect(xcoord, ycoord, 0, 0, DELTA)) return false;
+    return indexOfSegmentAt(xcoord, ycoord) >= 0;
+  }
+
+  /**
+   * Returns the index of the first segment that is within DELTA of the
+   * specified point. The segments are not created as Line2D objects, so this
+   * is cheap enough for hit testing while the mouse moves.
+   * @param xcoord the x coordinate
+   * @param ycoord the y coordinate
+   * @return the index of the segment's start point or -1 if there is none
+   */
+  private int indexOfSegmentAt(double xcoord, double ycoord) {
+    for (int i = 0; i < points.size() - 1; i++) {
+      if (Line2D.ptSegDist(points.getX(i), points.getY(i), points.getX(i + 1),
+        points.getY(i + 1), xcoord, ycoord) < DELTA) {
+        return i;
+      }
     }
-    return false;
+    return -1;
   }
 
   /**
    * {@inheritDoc}
+   * The List is a live view of the polyline. Changes through it update the
+   * cached bounds and the spatial index of the parent.
    */
-  public List<Point2D> getPoints() { return points; }
+  public List<Point2D> getPoints() {
+    return points == null ? null : points.asList();
+  }
 
   /**
-   * Sets the connection points.
+   * Sets the connection points. The coordinates are copied.
    * @param thePoints the points
    */
   public void setPoints(List<Point2D> thePoints) {
-    points = thePoints;
+    setPolyline(thePoints == null ? null : new Polyline(thePoints));
+  }
+
+  /**
+   * Returns the connection points as a polyline. This is the preferred way
+   * to read the points, it does not allocate.
+   * @return the polyline
+   */
+  public Polyline getPolyline() { return points; }
+
+  /**
+   * Sets the connection points as a polyline, which is not copied.
+   * @param aPolyline the polyline
+   */
+  protected void setPolyline(Polyline aPolyline) {
+    if (points != null && points != aPolyline) points.setOwner(null);
+    points = aPolyline;
+    if (points != null) points.setOwner(this);
     setValid(true);
   }
 
@@ -293,12 +472,9 @@ implements Connection, NodeChangeListener {
    */
   public List<Line2D> getSegments() {
     List<Line2D> result = new ArrayList<Line2D>();
-    Point2D firstpoint = getPoints().get(0);
-    Point2D nextpoint;
-    for (int i = 1; i < getPoints().size(); i++) {
-      nextpoint = getPoints().get(i);
-      result.add(new Line2D.Double(firstpoint, nextpoint));
-      firstpoint = nextpoint;
+    for (int i = 1; i < points.size(); i++) {
+      result.add(new Line2D.Double(points.getX(i - 1), points.getY(i - 1),
+        points.getX(i), points.getY(i)));
     }
     return result;
   }
@@ -307,35 +483,37 @@ implements Connection, NodeChangeListener {
    * {@inheritDoc}
    */
   public Line2D getSegmentAtPoint(double xcoord, double ycoord) {
-    for (Line2D segment : getSegments()) {
-      if (segment.ptSegDist(xcoord, ycoord) < 3.0) {
-        return segment;
-      }
-    }
-    return null;
+    if (!mightIntersect(xcoord, ycoord, 0, 0, DELTA)) return null;
+    int index = indexOfSegmentAt(xcoord, ycoord);
+    if (index < 0) return null;
+    return new Line2D.Double(points.getX(index), points.getY(index),
+      points.getX(index + 1), points.getY(index + 1));
   }
 
   /**
    * {@inheritDoc}
    */
   public void draw(DrawingContext drawingContext) {
-    for (Line2D segment : getSegments()) {
-      drawSegment(drawingContext, segment);
+    for (int i = 1; i < points.size(); i++) {
+      drawSegment(drawingContext, points.getX(i - 1), points.getY(i - 1),
+        points.getX(i), points.getY(i));
     }
   }
 
   /**
    * Draws a line segment using the current line style.
    * @param drawingContext the DrawingContext
-   * @param segment the segment to draw
+   * @param x1 the x coordinate of the start point
+   * @param y1 the y coordinate of the start point
+   * @param x2 the x coordinate of the end point
+   * @param y2 the y coordinate of the end point
    */
-  private void drawSegment(DrawingContext drawingContext, Line2D segment) {
+  private void drawSegment(DrawingContext drawingContext, double x1,
+    double y1, double x2, double y2) {
     if (isDashed()) {
-      drawingContext.drawDashedLine(segment.getX1(), segment.getY1(),
-        segment.getX2(), segment.getY2());
+      drawingContext.drawDashedLine(x1, y1, x2, y2);
     } else {
-      drawingContext.drawLine(segment.getX1(), segment.getY1(),
-        segment.getX2(), segment.getY2());
+      drawingContext.drawLine(x1, y1, x2, y2);
     }
   }
 
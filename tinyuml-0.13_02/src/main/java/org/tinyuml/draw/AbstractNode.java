@@ -47,6 +47,13 @@ public abstract class AbstractNode implements Node {
     new ArrayList<NodeChangeListener>();
   private List<Connection> connections = new ArrayList<Connection>();
   private transient NodeSelection selection;
+  // The cached absolute position. Every invalidation increments the stamp,
+  // the coordinates are valid while validStamp is one more than the stamp.
+  // A calculation publishes its result with the stamp it started with, so an
+  // invalidation during the calculation is not lost. Threads that render the
+  // diagram in parallel can read the cache while the diagram is not modified.
+  private transient double absoluteX, absoluteY;
+  private transient volatile int positionStamp, validStamp;
 
   /**
    * Writes the instance variables to the stream.
@@ -93,6 +100,8 @@ public abstract class AbstractNode implements Node {
       node.minimumSize = (Dimension2D) minimumSize.clone();
       node.connections = new ArrayList<Connection>();
       node.changeListeners = new ArrayList<NodeChangeListener>();
+      node.validStamp = 0;
+      node.positionStamp = 0;
       // just copy the the parent to avoid the recursion
       node.selection = null; // do not copy the selection
       return node;
@@ -110,7 +119,10 @@ public abstract class AbstractNode implements Node {
   /**
    * {@inheritDoc}
    */
-  public void setParent(CompositeNode aParent) { parent = aParent; }
+  public void setParent(CompositeNode aParent) {
+    parent = aParent;
+    invalidateAbsolutePosition();
+  }
 
   /**
    * {@inheritDoc}
@@ -134,20 +146,55 @@ public abstract class AbstractNode implements Node {
    */
   public void setOrigin(double xpos, double ypos) {
     origin.setLocation(xpos, ypos);
+    invalidateAbsolutePosition();
+    boundsChanged();
   }
 
   /**
    * {@inheritDoc}
    */
   public double getAbsoluteX1() {
-    return parent.getAbsoluteX1() + getOrigin().getX();
+    if (validStamp != positionStamp + 1) calculateAbsolutePosition();
+    return absoluteX;
   }
 
   /**
    * {@inheritDoc}
    */
   public double getAbsoluteY1() {
-    return parent.getAbsoluteY1() + getOrigin().getY();
+    if (validStamp != positionStamp + 1) calculateAbsolutePosition();
+    return absoluteY;
+  }
+
+  /**
+   * Calculates the absolute position from the parent's absolute position.
+   * This happens when it is needed for the first time after a change.
+   */
+  private void calculateAbsolutePosition() {
+    int stamp = positionStamp;
+    absoluteX = parent.getAbsoluteX1() + getOrigin().getX();
+    absoluteY = parent.getAbsoluteY1() + getOrigin().getY();
+    validStamp = stamp + 1;
+  }
+
+  /**
+   * Discards the cached absolute position. Called whenever the origin or the
+   * parent of this node changes. Subclasses that contain other nodes
+   * override this to discard the positions of their descendants as well.
+   */
+  protected void invalidateAbsolutePosition() {
+    positionStamp++;
+  }
+
+  /**
+   * Discards the cached absolute position of a node that is part of this
+   * node, like a compartment or a label.
+   * @param part the part, can be null
+   */
+  protected final void invalidateAbsolutePosition(Node part) {
+    if (part instanceof AbstractNode) {
+      ((AbstractNode) part).invalidateAbsolutePosition();
+    }
   }
 
   /**
@@ -200,6 +247,18 @@ public abstract class AbstractNode implements Node {
    */
   protected void setSizePlain(double width, double height) {
     size.setSize(width, height);
+    boundsChanged();
+  }
+
+  /**
+   * Reports a change of position or size to the parent, so it can keep its
+   * spatial index up to date. The parent field is accessed directly, because
+   * this is called in constructors and on partially initialized objects.
+   */
+  protected final void boundsChanged() {
+    if (parent instanceof AbstractCompositeNode) {
+      ((AbstractCompositeNode) parent).childBoundsChanged(this);
+    }
   }
 
   /**
@@ -220,6 +279,8 @@ public abstract class AbstractNode implements Node {
         !GeometryUtil.getInstance().equals(ypos, getAbsoluteY1())) {
       origin.setLocation(xpos - parent.getAbsoluteX1(),
                          ypos - parent.getAbsoluteY1());
+      invalidateAbsolutePosition();
+      boundsChanged();
       notifyNodeMoved();
     }
   }
@@ -242,23 +303,25 @@ public abstract class AbstractNode implements Node {
    * {@inheritDoc}
    */
   public boolean isVisible(Rectangle2D clipBounds) {
-    return clipBounds.intersects(DrawingShapeFactory.getInstance().createRect2d(
-      getAbsoluteX1(), getAbsoluteY1(), getSize().getWidth(),
-      getSize().getHeight()));
+    return clipBounds.intersects(getAbsoluteX1(), getAbsoluteY1(),
+      getSize().getWidth(), getSize().getHeight());
   }
 
   /**
    * {@inheritDoc}
    */
   public boolean intersects(Line2D line) {
-    return getAbsoluteBounds().intersectsLine(line);
+    return GeometryUtil.getInstance().intersectsLine(getAbsoluteX1(),
+      getAbsoluteY1(), getSize().getWidth(), getSize().getHeight(),
+      line.getX1(), line.getY1(), line.getX2(), line.getY2());
   }
 
   /**
    * {@inheritDoc}
    */
   public boolean intersects(Rectangle2D bounds) {
-    return getAbsoluteBounds().intersects(bounds);
+    return bounds.intersects(getAbsoluteX1(), getAbsoluteY1(),
+      getSize().getWidth(), getSize().getHeight());
   }
 
   /**
@@ -266,8 +329,16 @@ public abstract class AbstractNode implements Node {
    * @return the absolute bounds for this node
    */
   public Rectangle2D getAbsoluteBounds() {
-    return new Rectangle2D.Double(getAbsoluteX1(), getAbsoluteY1(),
-      getSize().getWidth(), getSize().getHeight());
+    return getAbsoluteBounds(new Rectangle2D.Double());
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Rectangle2D getAbsoluteBounds(Rectangle2D result) {
+    result.setRect(getAbsoluteX1(), getAbsoluteY1(), getSize().getWidth(),
+      getSize().getHeight());
+    return result;
   }
 
   /**
@@ -384,8 +455,11 @@ public abstract class AbstractNode implements Node {
    * Notifies the listeners that this node has moved.
    */
   protected void notifyNodeMoved() {
-    for (NodeChangeListener l : getNodeChangeListeners()) {
-      l.nodeMoved(this);
+    AbstractCompositeNode transactionOwner = getTransactionOwner();
+    if (transactionOwner != null) {
+      transactionOwner.addPendingChange(this, AbstractCompositeNode.MOVED);
+    } else {
+      fireNodeMoved();
     }
   }
 
@@ -393,11 +467,67 @@ public abstract class AbstractNode implements Node {
    * Notifies all listeners that this Node was resized.
    */
   protected void notifyNodeResized() {
+    AbstractCompositeNode transactionOwner = getTransactionOwner();
+    if (transactionOwner != null) {
+      transactionOwner.addPendingChange(this, AbstractCompositeNode.RESIZED);
+    } else {
+      fireNodeResized();
+    }
+  }
+
+  /**
+   * Immediately calls nodeMoved() on the listeners.
+   */
+  final void fireNodeMoved() {
+    for (NodeChangeListener l : getNodeChangeListeners()) {
+      l.nodeMoved(this);
+    }
+  }
+
+  /**
+   * Immediately calls nodeResized() on the listeners.
+   */
+  final void fireNodeResized() {
     for (NodeChangeListener l : getNodeChangeListeners()) {
       l.nodeResized(this);
     }
   }
 
+  /**
+   * Determines the outermost node among this node and its ancestors that has
+   * an open change transaction. The parents are followed through the fields,
+   * so that no overridable methods are invoked on the way.
+   * @return the node that collects this node's changes or null if the changes
+   * should be reported immediately
+   */
+  private AbstractCompositeNode getTransactionOwner() {
+    AbstractCompositeNode result = null;
+    AbstractNode node = this;
+    while (node != null) {
+      if (node instanceof AbstractCompositeNode &&
+          ((AbstractCompositeNode) node).isChanging()) {
+        result = (AbstractCompositeNode) node;
+      }
+      node = node.parent instanceof AbstractNode ?
+        (AbstractNode) node.parent : null;
+    }
+    return result;
+  }
+
+  /**
+   * Notifies the listeners if the size differs from the specified previous
+   * size. Used after recalculating the layout, which often results in the
+   * same size, e.g. after loading a model.
+   * @param oldWidth the previous width
+   * @param oldHeight the previous height
+   */
+  protected void notifyNodeResized(double oldWidth, double oldHeight) {
+    if (oldWidth != getSize().getWidth() ||
+        oldHeight != getSize().getHeight()) {
+      notifyNodeResized();
+    }
+  }
+
   // *************************************************************************
   // ***** Connections
   // ********************
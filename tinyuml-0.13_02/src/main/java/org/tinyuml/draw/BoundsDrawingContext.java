@@ -0,0 +1,258 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.draw;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * A DrawingContext that does not draw anything, but records the area that
+ * is covered by the drawing operations. This is used to determine which
+ * part of the screen needs to be repainted if decorations like selection
+ * handles or rubber bands change.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class BoundsDrawingContext implements DrawingContext {
+
+  /**
+   * The area around a drawn outline that is affected by the stroke width and
+   * antialiasing.
+   */
+  private static final double STROKE_MARGIN = 2;
+  private Graphics2D scratchGraphics =
+    new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+  private DrawingContextImpl fontContext = new DrawingContextImpl();
+  private Rectangle clipBounds =
+    new Rectangle(-Integer.MAX_VALUE / 2, -Integer.MAX_VALUE / 2,
+    Integer.MAX_VALUE, Integer.MAX_VALUE);
+  private Rectangle2D coveredArea;
+
+  /**
+   * Constructor.
+   */
+  public BoundsDrawingContext() {
+    fontContext.setGraphics2D(scratchGraphics, clipBounds);
+  }
+
+  /**
+   * Returns the area that was covered since the last reset.
+   * @return the covered area or null if nothing was drawn
+   */
+  public Rectangle2D getCoveredArea() { return coveredArea; }
+
+  /**
+   * Resets the covered area.
+   */
+  public void reset() { coveredArea = null; }
+
+  /**
+   * Adds the specified rectangle to the covered area.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param width the width
+   * @param height the height
+   * @param margin the margin around the rectangle
+   */
+  private void cover(double x, double y, double width, double height,
+    double margin) {
+    Rectangle2D rect = new Rectangle2D.Double(x - margin, y - margin,
+      width + 2 * margin, height + 2 * margin);
+    if (coveredArea == null) {
+      coveredArea = rect;
+    } else {
+      coveredArea.add(rect);
+    }
+  }
+
+  /**
+   * Adds the specified line to the covered area.
+   * @param x0 the x coordinate of the start point
+   * @param y0 the y coordinate of the start point
+   * @param x1 the x coordinate of the end point
+   * @param y1 the y coordinate of the end point
+   */
+  private void coverLine(double x0, double y0, double x1, double y1) {
+    cover(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0),
+      Math.abs(y1 - y0), STROKE_MARGIN);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setGraphics2D(Graphics2D g2d, Rectangle bounds) {
+    clipBounds = bounds;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawDashedLine(double x0, double y0, double x1, double y1) {
+    coverLine(x0, y0, x1, y1);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawGridLine(double x0, double y0, double x1, double y1) {
+    coverLine(x0, y0, x1, y1);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawGrid(double x, double y, double width, double height,
+    double gridSize) {
+    cover(x, y, width, height, STROKE_MARGIN);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawLine(double x0, double y0, double x1, double y1) {
+    coverLine(x0, y0, x1, y1);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawRectangle(double x, double y, double width, double height,
+    Color fillColor) {
+    cover(x, y, width, height, STROKE_MARGIN);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void fillRectangle(double x, double y, double width, double height,
+    Color fillColor) {
+    cover(x, y, width, height, STROKE_MARGIN);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawRectangle(double x, double y, double width, double height,
+    Color strokeColor, Color fillColor) {
+    cover(x, y, width, height, STROKE_MARGIN);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawRubberband(double x, double y, double width, double height) {
+    cover(x, y, width, height, STROKE_MARGIN);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Rectangle getClipBounds() { return clipBounds; }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void draw(Shape shape, Color fillColor) {
+    Rectangle2D bounds = shape.getBounds2D();
+    cover(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight(),
+      STROKE_MARGIN);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawSymbol(Shape symbol, AffineTransform transform,
+    Color fillColor) {
+    draw(transform.createTransformedShape(symbol), fillColor);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void beginGroup(DiagramElement element) { }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void endGroup() { }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawLabel(String text, double x, double y, FontType fontType) {
+    FontMetrics fm = getFontMetrics(fontType);
+    cover(x, y - fm.getMaxAscent(), getTextWidth(text, fontType),
+      fm.getHeight(), STROKE_MARGIN);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawTextLayout(TextLayout line, String text, double x,
+    double y) {
+    cover(x, y - line.getAscent(), line.getAdvance(),
+      line.getAscent() + line.getDescent(), STROKE_MARGIN);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void beginBatch() { }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void endBatch() { }
+
+  /**
+   * {@inheritDoc}
+   */
+  public double getTextWidth(String text, FontType fontType) {
+    return fontContext.getTextWidth(text, fontType);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Font getFont(FontType fontType) {
+    return fontContext.getFont(fontType);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public FontMetrics getFontMetrics(FontType fontType) {
+    return fontContext.getFontMetrics(fontType);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Graphics2D getGraphics2D() { return scratchGraphics; }
+}
@@ -0,0 +1,331 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.draw;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * An ordered list of distinct elements for the children of a composite node.
+ * The elements are compared by identity. Membership tests take constant
+ * time. Appending, prepending, removing and moving an element to the front
+ * or the back take logarithmic time: the elements are kept in an array that
+ * has room at both ends, and removed elements leave a hole. A binary indexed
+ * tree over the occupied slots finds the element at an index in logarithmic
+ * time while there are holes, and in constant time otherwise. The holes are
+ * closed in place once there are more holes than elements.
+ * Reading the list does not change it, so it can be read by several threads
+ * at the same time, and index access does not allocate.
+ *
+ * @param <E> the element type
+ * @author agent
+ * @version 1.0
+ */
+public final class ChildList<E> extends AbstractList<E>
+implements RandomAccess {
+
+  private static final int MIN_CAPACITY = 8;
+  private Object[] slots = new Object[MIN_CAPACITY];
+  // the binary indexed tree over the occupancy of the slots, 1-based
+  private int[] occupied = new int[MIN_CAPACITY + 1];
+  // the occupied slots are in [head, tail), some of them might be holes
+  private int head = MIN_CAPACITY / 2, tail = MIN_CAPACITY / 2;
+  private int size;
+  private Map<E, Integer> slotIndexes = new IdentityHashMap<E, Integer>();
+
+  /**
+   * Constructor.
+   */
+  public ChildList() { }
+
+  /**
+   * Constructor, adds the specified elements in their iteration order.
+   * @param elements the elements
+   */
+  public ChildList(Collection<? extends E> elements) {
+    for (E element : elements) add(element);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int size() { return size; }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public E get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("index: " + index + " size: " + size);
+    }
+    if (tail - head == size) return (E) slots[head + index];
+    return (E) slots[findSlot(index)];
+  }
+
+  /**
+   * {@inheritDoc}
+   * This compares by identity and takes constant time.
+   */
+  @Override
+  public boolean contains(Object element) {
+    return slotIndexes.containsKey(element);
+  }
+
+  /**
+   * {@inheritDoc}
+   * This compares by identity and takes logarithmic time.
+   */
+  @Override
+  public int indexOf(Object element) {
+    Integer slot = slotIndexes.get(element);
+    if (slot == null) return -1;
+    return tail - head == size ? slot - head : countOccupied(slot);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int lastIndexOf(Object element) { return indexOf(element); }
+
+  /**
+   * Appends the specified element. Elements that are already contained are
+   * not added again.
+   * @param element the element
+   * @return true if the element was added, false if it was contained
+   */
+  @Override
+  public boolean add(E element) {
+    if (contains(element)) return false;
+    if (tail == slots.length) compact(size + 1);
+    put(element, tail++);
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   * Elements that are already contained are not added again. Inserting in
+   * the middle takes linear time.
+   */
+  @Override
+  public void add(int index, E element) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("index: " + index + " size: " + size);
+    }
+    if (contains(element)) return;
+    if (index == size) {
+      add(element);
+    } else if (index == 0) {
+      addFirst(element);
+    } else {
+      compact(size + 1);
+      int slot = head + index;
+      System.arraycopy(slots, slot, slots, slot + 1, tail - slot);
+      slots[slot] = null;
+      tail++;
+      for (int i = slot + 1; i < tail; i++) {
+        slotIndexes.put(elementAt(i), i);
+      }
+      rebuildTree();
+      put(element, slot);
+    }
+  }
+
+  /**
+   * Inserts the specified element at the front of the list, unless it is
+   * already contained.
+   * @param element the element
+   * @return true if the element was added, false if it was contained
+   */
+  public boolean addFirst(E element) {
+    if (contains(element)) return false;
+    if (head == 0) compact(size + 1);
+    put(element, --head);
+    return true;
+  }
+
+  /**
+   * Moves the specified element to the end of the list.
+   * @param element the element
+   */
+  public void moveToLast(E element) {
+    if (remove(element)) add(element);
+  }
+
+  /**
+   * Moves the specified element to the front of the list.
+   * @param element the element
+   */
+  public void moveToFirst(E element) {
+    if (remove(element)) addFirst(element);
+  }
+
+  /**
+   * {@inheritDoc}
+   * This takes logarithmic amortized time.
+   */
+  @Override
+  public boolean remove(Object element) {
+    Integer slot = slotIndexes.remove(element);
+    if (slot == null) return false;
+    slots[slot] = null;
+    updateTree(slot, -1);
+    size--;
+    modCount++;
+    // shrink the occupied range if the element was at one of its ends
+    while (tail > head && slots[tail - 1] == null) tail--;
+    while (head < tail && slots[head] == null) head++;
+    if (tail - head - size > size) compact(size);
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public E remove(int index) {
+    E element = get(index);
+    remove(element);
+    return element;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public void clear() {
+    slots = new Object[MIN_CAPACITY];
+    occupied = new int[MIN_CAPACITY + 1];
+    head = tail = MIN_CAPACITY / 2;
+    size = 0;
+    slotIndexes.clear();
+    modCount++;
+  }
+
+  /**
+   * Stores an element in the specified slot.
+   * @param element the element
+   * @param slot the slot index
+   */
+  private void put(E element, int slot) {
+    slots[slot] = element;
+    slotIndexes.put(element, slot);
+    updateTree(slot, 1);
+    size++;
+    modCount++;
+  }
+
+  /**
+   * Returns the element in the specified slot.
+   * @param slot the slot index
+   * @return the element
+   */
+  @SuppressWarnings("unchecked")
+  private E elementAt(int slot) { return (E) slots[slot]; }
+
+  /**
+   * Adds the specified value to the occupancy of a slot.
+   * @param slot the slot index
+   * @param delta 1 if the slot was occupied, -1 if it was freed
+   */
+  private void updateTree(int slot, int delta) {
+    for (int i = slot + 1; i < occupied.length; i += i & -i) {
+      occupied[i] += delta;
+    }
+  }
+
+  /**
+   * Counts the occupied slots before the specified slot.
+   * @param slot the slot index
+   * @return the number of occupied slots before it
+   */
+  private int countOccupied(int slot) {
+    int count = 0;
+    for (int i = slot; i > 0; i -= i & -i) count += occupied[i];
+    return count;
+  }
+
+  /**
+   * Finds the slot of the element at the specified index.
+   * @param index the index
+   * @return the slot index
+   */
+  private int findSlot(int index) {
+    int slot = 0, remaining = index + 1;
+    for (int step = Integer.highestOneBit(slots.length); step > 0;
+         step >>= 1) {
+      int next = slot + step;
+      if (next < occupied.length && occupied[next] < remaining) {
+        slot = next;
+        remaining -= occupied[next];
+      }
+    }
+    return slot;
+  }
+
+  /**
+   * Rebuilds the binary indexed tree from the slots in linear time.
+   */
+  private void rebuildTree() {
+    Arrays.fill(occupied, 0);
+    for (int i = 1; i < occupied.length; i++) {
+      if (slots[i - 1] != null) occupied[i]++;
+      int parent = i + (i & -i);
+      if (parent < occupied.length) occupied[parent] += occupied[i];
+    }
+  }
+
+  /**
+   * Closes the holes and centers the elements, so that there is room for the
+   * specified number of elements plus the same amount of free space, split
+   * between both ends. The array is only replaced if it is too small.
+   * @param minSize the minimum number of elements to make room for
+   */
+  private void compact(int minSize) {
+    int capacity = Math.max(MIN_CAPACITY, minSize * 2);
+    int dest = 0;
+    if (capacity > slots.length) {
+      Object[] newSlots = new Object[capacity];
+      for (int i = head; i < tail; i++) {
+        if (slots[i] != null) newSlots[dest++] = slots[i];
+      }
+      slots = newSlots;
+      occupied = new int[capacity + 1];
+    } else {
+      for (int i = head; i < tail; i++) {
+        if (slots[i] != null) slots[dest++] = slots[i];
+      }
+      Arrays.fill(slots, dest, slots.length, null);
+    }
+    head = (slots.length - size) / 2;
+    tail = head + size;
+    System.arraycopy(slots, 0, slots, head, size);
+    Arrays.fill(slots, 0, head, null);
+    for (int i = head; i < tail; i++) slotIndexes.put(elementAt(i), i);
+    rebuildTree();
+  }
+}
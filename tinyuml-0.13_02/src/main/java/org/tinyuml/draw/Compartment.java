@@ -59,6 +59,15 @@ implements CompositeNode {
     setSize(MIN_WIDTH, MIN_HEIGHT);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void invalidateAbsolutePosition() {
+    super.invalidateAbsolutePosition();
+    for (Label label : labels) invalidateAbsolutePosition(label);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -52,4 +52,19 @@ public interface CompositeNode extends Node, CompositeElement {
    * @param child the child to bring to the back
    */
   void putChildToBack(DiagramElement child);
+
+  /**
+   * Opens a change transaction. Until the matching commitChanges(), moves and
+   * resizes of this node and its descendants are collected instead of being
+   * reported to the NodeChangeListeners. Transactions can be nested, only
+   * the outermost commit delivers the changes.
+   */
+  void beginChanges();
+
+  /**
+   * Closes the change transaction opened by the matching beginChanges(). On
+   * the outermost commit, each changed node notifies its listeners exactly
+   * once per kind of change.
+   */
+  void commitChanges();
 }
@@ -43,6 +43,15 @@ public interface DiagramElement extends Serializable, Cloneable {
    */
   Rectangle2D getAbsoluteBounds();
 
+  /**
+   * Stores the element's bounding box in absolute coordinates in the
+   * specified rectangle. This variant does not allocate and should be
+   * preferred in code that runs while painting or dragging.
+   * @param result the rectangle to store the bounds in
+   * @return the result rectangle
+   */
+  Rectangle2D getAbsoluteBounds(Rectangle2D result);
+
   /**
    * Determines whether this elements intersects with the specified Rectangle2D.
    * @param bounds the rectangle to check against
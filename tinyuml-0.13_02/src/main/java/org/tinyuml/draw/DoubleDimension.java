@@ -48,6 +48,22 @@ public class DoubleDimension extends Dimension2D implements Serializable {
     setSize(w, h);
   }
 
+  /**
+   * Returns the specified dimension if it already has the specified size and
+   * a new DoubleDimension otherwise. This is used to cache calculated sizes
+   * that are handed out to callers, which must not modify them.
+   * @param cached the cached dimension, can be null
+   * @param w the width
+   * @param h the height
+   * @return a dimension with the specified size
+   */
+  public static Dimension2D reuse(Dimension2D cached, double w, double h) {
+    if (cached != null && cached.getWidth() == w && cached.getHeight() == h) {
+      return cached;
+    }
+    return new DoubleDimension(w, h);
+  }
+
   /**
    * {@inheritDoc}
    */
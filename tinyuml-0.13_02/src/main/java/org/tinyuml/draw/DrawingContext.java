@@ -25,6 +25,8 @@ import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
 
 /**
  * DrawingContext is a very simple abstraction above the Java2D API. It provides
@@ -69,6 +71,19 @@ public interface DrawingContext {
    */
   void drawGridLine(double x0, double y0, double x1, double y1);
 
+  /**
+   * Draws the grid lines within the specified area with the default grid
+   * line color. The first vertical and horizontal lines are placed at the
+   * area's origin. Only the part that intersects the clip bounds is drawn.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param width the width
+   * @param height the height
+   * @param gridSize the distance between two grid lines
+   */
+  void drawGrid(double x, double y, double width, double height,
+    double gridSize);
+
   /**
    * Draws a line with the default line color.
    * @param x0 the x0 coordinate
@@ -139,6 +154,30 @@ public interface DrawingContext {
    */
   void draw(Shape shape, Color fillColor);
 
+  /**
+   * Draws a symbol, a shape that is drawn repeatedly at different positions,
+   * like an arrow tip. The symbol is defined in its own coordinate system and
+   * placed with the specified transform. Symbols without a fill color are
+   * drawn like lines.
+   * @param symbol the symbol shape, which must not be modified afterwards
+   * @param transform the transform from symbol to diagram coordinates
+   * @param fillColor the fill color or null if the symbol is not filled
+   */
+  void drawSymbol(Shape symbol, AffineTransform transform, Color fillColor);
+
+  /**
+   * Starts the drawing operations of a diagram element. Calls can be nested
+   * and each must be followed by a call to endGroup().
+   * @param element the element that is drawn
+   */
+  void beginGroup(DiagramElement element);
+
+  /**
+   * Ends the drawing operations of the element passed to the last
+   * beginGroup() call.
+   */
+  void endGroup();
+
   // ***********************************************************************
   // ***** Drawing text
   // ******************************************
@@ -152,6 +191,40 @@ public interface DrawingContext {
    */
   void drawLabel(String text, double x, double y, FontType fontType);
 
+  /**
+   * Draws a line of text that was laid out before, e.g. by the
+   * MultilineLayouter.
+   * @param line the laid out line
+   * @param text the text of the line
+   * @param x the x coordinate
+   * @param y the y coordinate of the baseline
+   */
+  void drawTextLayout(TextLayout line, String text, double x, double y);
+
+  /**
+   * Starts a batch. Until the batch is ended, solid and dashed lines are
+   * collected into a single path per line style, outlined shapes and texts
+   * are deferred, so they are drawn above the lines. Texts are drawn in
+   * black. Shapes handed to draw() must not be modified while the batch is
+   * active. Drawing contexts that write the elements to a document may draw
+   * them immediately instead.
+   */
+  void beginBatch();
+
+  /**
+   * Draws the lines, shapes and texts that were collected since beginBatch()
+   * was called and ends the batch.
+   */
+  void endBatch();
+
+  /**
+   * Returns the width of the specified text in the specified font type.
+   * @param text the text
+   * @param fontType the FontType
+   * @return the width
+   */
+  double getTextWidth(String text, FontType fontType);
+
   /**
    * Returns the font for the specified font type.
    * @param fontType the font type
@@ -19,18 +19,35 @@
  */
 package org.tinyuml.draw;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
+import java.awt.Paint;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.TexturePaint;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * This class provides a very thin abstraction on Java2D and groups it together
  * with the global drawing settings.
+ * Changing the stroke, color or font of a Graphics2D object is not free, so
+ * the current values are tracked and only actual changes are passed on.
+ * The state changes within a frame, which starts with setGraphics2D(), are
+ * counted for profiling.
  * Serialization note: DrawingContext should not be serialized.
  *
  * @author Wei-ju Wu
@@ -47,8 +64,104 @@ public class DrawingContextImpl implements DrawingContext {
 
   private Graphics2D g2d;
   private DrawingShapeFactory shapeFactory = DrawingShapeFactory.getInstance();
+  // The shapes are reused, each drawing context is used by a single thread
+  private Line2D line2d = new Line2D.Double();
+  private Rectangle2D rect2d = new Rectangle2D.Double();
   private Color gridColor = new Color(230, 230, 230);
   private Rectangle bounds = new Rectangle();
+  private Stroke currentStroke;
+  private Color currentColor;
+  private Font currentFont;
+  private int stateChangeCount, skippedStateChangeCount;
+  private boolean batching;
+  private Path2D solidLines = new Path2D.Double();
+  private Path2D dashedLines = new Path2D.Double();
+  private List<DeferredDrawing> deferredDrawings =
+    new ArrayList<DeferredDrawing>();
+  private Map<GridTileKey, BufferedImage> gridTiles =
+    new HashMap<GridTileKey, BufferedImage>();
+
+  /**
+   * The maximum number of grid cells in one grid tile.
+   */
+  private static final int MAX_GRID_TILE_CELLS = 8;
+
+  /**
+   * The key for a cached grid tile.
+   */
+  private static final class GridTileKey {
+    private double gridSize, scaleFactor;
+
+    /**
+     * Constructor.
+     * @param aGridSize the grid size
+     * @param aScaleFactor the scale factor
+     */
+    GridTileKey(double aGridSize, double aScaleFactor) {
+      gridSize = aGridSize;
+      scaleFactor = aScaleFactor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof GridTileKey)) return false;
+      GridTileKey other = (GridTileKey) o;
+      return gridSize == other.gridSize && scaleFactor == other.scaleFactor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      long bits = Double.doubleToLongBits(gridSize) * 31 +
+        Double.doubleToLongBits(scaleFactor);
+      return (int) (bits ^ (bits >>> 32));
+    }
+  }
+
+  /**
+   * A shape or a text whose drawing is deferred until the end of a batch.
+   * A text has either a font type or a text layout.
+   */
+  private static final class DeferredDrawing {
+    private Shape shape;
+    private Color fillColor;
+    private String text;
+    private FontType fontType;
+    private TextLayout layout;
+    private double x, y;
+
+    /**
+     * Constructor for a shape.
+     * @param aShape the shape
+     * @param aFillColor the fill color
+     */
+    DeferredDrawing(Shape aShape, Color aFillColor) {
+      shape = aShape;
+      fillColor = aFillColor;
+    }
+
+    /**
+     * Constructor for a text.
+     * @param aText the text
+     * @param aFontType the font type, null for a text layout
+     * @param aLayout the text layout, null for a label
+     * @param xpos the x coordinate
+     * @param ypos the y coordinate of the baseline
+     */
+    DeferredDrawing(String aText, FontType aFontType, TextLayout aLayout,
+      double xpos, double ypos) {
+      text = aText;
+      fontType = aFontType;
+      layout = aLayout;
+      x = xpos;
+      y = ypos;
+    }
+  }
 
   /**
    * {@inheritDoc}
@@ -56,15 +169,168 @@ public class DrawingContextImpl implements DrawingContext {
   public void setGraphics2D(Graphics2D aG2d, Rectangle theBounds) {
     this.g2d = aG2d;
     this.bounds = theBounds;
+    clearBatch();
+    resetState();
+    stateChangeCount = 0;
+    skippedStateChangeCount = 0;
+  }
+
+  /**
+   * Returns the number of stroke, color and font changes that were passed on
+   * to the Graphics2D object in the current frame.
+   * @return the number of state changes
+   */
+  public int getStateChangeCount() { return stateChangeCount; }
+
+  /**
+   * Returns the number of stroke, color and font changes that were skipped
+   * in the current frame, because the value was already set.
+   * @return the number of skipped state changes
+   */
+  public int getSkippedStateChangeCount() { return skippedStateChangeCount; }
+
+  /**
+   * Forgets the tracked state, the next changes will be passed on to the
+   * Graphics2D object.
+   */
+  private void resetState() {
+    currentStroke = null;
+    currentColor = null;
+    currentFont = null;
+  }
+
+  /**
+   * Sets the stroke if it differs from the current stroke.
+   * @param stroke the stroke
+   */
+  private void setStroke(Stroke stroke) {
+    if (stroke.equals(currentStroke)) {
+      skippedStateChangeCount++;
+    } else {
+      g2d.setStroke(stroke);
+      currentStroke = stroke;
+      stateChangeCount++;
+    }
+  }
+
+  /**
+   * Sets the color if it differs from the current color. Like in
+   * Graphics2D, a null color is ignored.
+   * @param color the color
+   */
+  private void setColor(Color color) {
+    if (color == null || color.equals(currentColor)) {
+      skippedStateChangeCount++;
+    } else {
+      g2d.setColor(color);
+      currentColor = color;
+      stateChangeCount++;
+    }
+  }
+
+  /**
+   * Sets the font if it differs from the current font.
+   * @param font the font
+   */
+  private void setFont(Font font) {
+    if (font.equals(currentFont)) {
+      skippedStateChangeCount++;
+    } else {
+      g2d.setFont(font);
+      currentFont = font;
+      stateChangeCount++;
+    }
+  }
+
+  /**
+   * Returns the reused Line2D object, set to the specified coordinates.
+   * @param x0 x0 coordinate
+   * @param y0 y0 coordinate
+   * @param x1 x1 coordinate
+   * @param y1 y1 coordinate
+   * @return the Line2D object
+   */
+  private Line2D createLine2d(double x0, double y0, double x1, double y1) {
+    line2d.setLine(x0, y0, x1, y1);
+    return line2d;
+  }
+
+  /**
+   * Returns the reused Rectangle2D object, set to the specified dimensions.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param width the width
+   * @param height the height
+   * @return the Rectangle2D object
+   */
+  private Rectangle2D createRect2d(double x, double y, double width,
+    double height) {
+    rect2d.setFrame(x, y, width, height);
+    return rect2d;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void beginBatch() {
+    batching = true;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void endBatch() {
+    if (!batching) return;
+    batching = false;
+    if (dashedLines.getCurrentPoint() != null) {
+      setStroke(shapeFactory.getDashedStroke());
+      setColor(Color.BLACK);
+      g2d.draw(dashedLines);
+    }
+    if (solidLines.getCurrentPoint() != null) {
+      setStroke(shapeFactory.getStandardStroke());
+      setColor(Color.BLACK);
+      g2d.draw(solidLines);
+    }
+    for (DeferredDrawing deferred : deferredDrawings) {
+      if (deferred.shape != null) {
+        draw(deferred.shape, deferred.fillColor);
+      } else {
+        // without a batch, the text would follow the black lines
+        setColor(Color.BLACK);
+        if (deferred.layout != null) {
+          drawTextLayout(deferred.layout, deferred.text, deferred.x,
+            deferred.y);
+        } else {
+          drawLabel(deferred.text, deferred.x, deferred.y, deferred.fontType);
+        }
+      }
+    }
+    clearBatch();
+  }
+
+  /**
+   * Discards the collected lines, shapes and texts.
+   */
+  private void clearBatch() {
+    batching = false;
+    solidLines.reset();
+    dashedLines.reset();
+    deferredDrawings.clear();
   }
 
   /**
    * {@inheritDoc}
    */
   public void drawDashedLine(double x0, double y0, double x1, double y1) {
-    g2d.setStroke(shapeFactory.getDashedStroke());
-    g2d.setColor(Color.BLACK);
-    Line2D line = shapeFactory.createLine2d(x0, y0, x1, y1);
+    if (batching) {
+      dashedLines.moveTo(x0, y0);
+      dashedLines.lineTo(x1, y1);
+      return;
+    }
+    setStroke(shapeFactory.getDashedStroke());
+    setColor(Color.BLACK);
+    Line2D line = createLine2d(x0, y0, x1, y1);
     g2d.draw(line);
   }
 
@@ -72,18 +338,158 @@ public class DrawingContextImpl implements DrawingContext {
    * {@inheritDoc}
    */
   public void drawGridLine(double x0, double y0, double x1, double y1) {
-    g2d.setColor(gridColor);
-    g2d.setStroke(shapeFactory.createGridStroke());
-    g2d.draw(shapeFactory.createLine2d(x0, y0, x1, y1));
+    setColor(gridColor);
+    setStroke(shapeFactory.createGridStroke());
+    g2d.draw(createLine2d(x0, y0, x1, y1));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawGrid(double x, double y, double width, double height,
+    double gridSize) {
+    Rectangle2D area = new Rectangle2D.Double(x, y, width, height);
+    Rectangle2D.intersect(area, bounds, area);
+    if (area.isEmpty()) return;
+    if (!fillGridFromTile(x, y, area, gridSize)) {
+      drawGridLines(x, y, area, gridSize);
+    }
+  }
+
+  /**
+   * Draws the grid lines that intersect the specified area one by one.
+   * @param x the grid origin's x coordinate
+   * @param y the grid origin's y coordinate
+   * @param area the area to draw
+   * @param gridSize the grid size
+   */
+  private void drawGridLines(double x, double y, Rectangle2D area,
+    double gridSize) {
+    setColor(gridColor);
+    setStroke(shapeFactory.createGridStroke());
+    double xpos = x + Math.ceil((area.getMinX() - x) / gridSize) * gridSize;
+    while (xpos <= area.getMaxX()) {
+      g2d.draw(createLine2d(xpos, area.getMinY(), xpos,
+        area.getMaxY()));
+      xpos += gridSize;
+    }
+    double ypos = y + Math.ceil((area.getMinY() - y) / gridSize) * gridSize;
+    while (ypos <= area.getMaxY()) {
+      g2d.draw(createLine2d(area.getMinX(), ypos, area.getMaxX(),
+        ypos));
+      ypos += gridSize;
+    }
+  }
+
+  /**
+   * Fills the specified area with a cached grid tile. The tile is rendered in
+   * device space, so this is only possible if the current transform is a
+   * uniform scale and translation and a whole number of grid cells fits into
+   * a tile with an integral pixel size.
+   * @param x the grid origin's x coordinate
+   * @param y the grid origin's y coordinate
+   * @param area the area to fill
+   * @param gridSize the grid size
+   * @return true if the area was filled, false if the grid lines need to be
+   * drawn one by one
+   */
+  private boolean fillGridFromTile(double x, double y, Rectangle2D area,
+    double gridSize) {
+    AffineTransform transform = g2d.getTransform();
+    if ((transform.getType() & ~(AffineTransform.TYPE_TRANSLATION |
+      AffineTransform.TYPE_UNIFORM_SCALE)) != 0 ||
+      transform.getScaleX() <= 0) {
+      return false;
+    }
+    double scaleFactor = transform.getScaleX();
+    BufferedImage tile = getGridTile(gridSize, scaleFactor);
+    if (tile == null) return false;
+    double offset = getGridTileOffset(scaleFactor);
+    Rectangle2D anchor = new Rectangle2D.Double(
+      transform.getTranslateX() + x * scaleFactor - offset,
+      transform.getTranslateY() + y * scaleFactor - offset,
+      tile.getWidth(), tile.getHeight());
+    Rectangle2D deviceArea = transform.createTransformedShape(area)
+      .getBounds2D();
+    Paint paint = g2d.getPaint();
+    g2d.setTransform(new AffineTransform());
+    g2d.setPaint(new TexturePaint(tile, anchor));
+    g2d.fill(deviceArea);
+    g2d.setPaint(paint);
+    g2d.setTransform(transform);
+    return true;
+  }
+
+  /**
+   * Returns the cached grid tile for the specified grid size and scale factor.
+   * The tile is created on the first request.
+   * @param gridSize the grid size
+   * @param scaleFactor the scale factor
+   * @return the tile or null if no suitable tile size exists
+   */
+  private BufferedImage getGridTile(double gridSize, double scaleFactor) {
+    GridTileKey key = new GridTileKey(gridSize, scaleFactor);
+    if (gridTiles.containsKey(key)) return gridTiles.get(key);
+    BufferedImage tile = createGridTile(gridSize, scaleFactor);
+    gridTiles.put(key, tile);
+    return tile;
+  }
+
+  /**
+   * Returns the distance of the first grid line from the tile's edges. The
+   * lines are not placed directly on the edge, because they would be cut.
+   * @param scaleFactor the scale factor
+   * @return the offset
+   */
+  private double getGridTileOffset(double scaleFactor) {
+    return Math.ceil(scaleFactor);
+  }
+
+  /**
+   * Renders a new grid tile.
+   * @param gridSize the grid size
+   * @param scaleFactor the scale factor
+   * @return the tile or null if no suitable tile size exists
+   */
+  private BufferedImage createGridTile(double gridSize, double scaleFactor) {
+    double cellSize = gridSize * scaleFactor;
+    double offset = getGridTileOffset(scaleFactor);
+    if (cellSize < 2 * offset + 2) return null;
+    for (int cells = 1; cells <= MAX_GRID_TILE_CELLS; cells++) {
+      double tileSize = cells * cellSize;
+      if (Math.abs(tileSize - Math.round(tileSize)) < 1e-6) {
+        int size = (int) Math.round(tileSize);
+        BufferedImage tile = new BufferedImage(size, size,
+          BufferedImage.TYPE_INT_ARGB);
+        Graphics2D tileGraphics = tile.createGraphics();
+        tileGraphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+          RenderingHints.VALUE_ANTIALIAS_ON);
+        tileGraphics.setColor(gridColor);
+        tileGraphics.setStroke(new BasicStroke((float) scaleFactor));
+        for (int i = 0; i < cells; i++) {
+          double pos = offset + i * cellSize;
+          tileGraphics.draw(new Line2D.Double(pos, 0, pos, size));
+          tileGraphics.draw(new Line2D.Double(0, pos, size, pos));
+        }
+        tileGraphics.dispose();
+        return tile;
+      }
+    }
+    return null;
   }
 
   /**
    * {@inheritDoc}
    */
   public void drawLine(double x0, double y0, double x1, double y1) {
-    g2d.setStroke(shapeFactory.getStandardStroke());
-    g2d.setColor(Color.BLACK);
-    Line2D line = shapeFactory.createLine2d(x0, y0, x1, y1);
+    if (batching) {
+      solidLines.moveTo(x0, y0);
+      solidLines.lineTo(x1, y1);
+      return;
+    }
+    setStroke(shapeFactory.getStandardStroke());
+    setColor(Color.BLACK);
+    Line2D line = createLine2d(x0, y0, x1, y1);
     g2d.draw(line);
   }
 
@@ -104,13 +510,13 @@ public class DrawingContextImpl implements DrawingContext {
    */
   public void drawRectangle(double x, double y, double width, double height,
     Color strokeColor, Color fillColor) {
-    g2d.setStroke(shapeFactory.getStandardStroke());
-    Rectangle2D rect = shapeFactory.createRect2d(x, y, width, height);
+    setStroke(shapeFactory.getStandardStroke());
+    Rectangle2D rect = createRect2d(x, y, width, height);
     if (fillColor != null) {
-      g2d.setColor(fillColor);
+      setColor(fillColor);
       g2d.fill(rect);
     }
-    g2d.setColor(strokeColor == null ? Color.BLACK : strokeColor);
+    setColor(strokeColor == null ? Color.BLACK : strokeColor);
     g2d.draw(rect);
   }
 
@@ -119,17 +525,17 @@ public class DrawingContextImpl implements DrawingContext {
    */
   public void fillRectangle(double x, double y, double width, double height,
     Color fillColor) {
-    g2d.setColor(fillColor);
-    g2d.fill(shapeFactory.createRect2d(x, y, width, height));
+    setColor(fillColor);
+    g2d.fill(createRect2d(x, y, width, height));
   }
 
   /**
    * {@inheritDoc}
    */
   public void drawRubberband(double x, double y, double width, double height) {
-    g2d.setColor(Color.BLACK);
-    g2d.setStroke(shapeFactory.getDashedStroke());
-    g2d.draw(shapeFactory.createRect2d(x, y, width, height));
+    setColor(Color.BLACK);
+    setStroke(shapeFactory.getDashedStroke());
+    g2d.draw(createRect2d(x, y, width, height));
   }
 
   /**
@@ -143,13 +549,44 @@ public class DrawingContextImpl implements DrawingContext {
    * {@inheritDoc}
    */
   public void draw(Shape shape, Color fillColor) {
-    g2d.setColor(fillColor);
+    if (batching) {
+      deferredDrawings.add(new DeferredDrawing(shape, fillColor));
+      return;
+    }
+    setColor(fillColor);
     g2d.fill(shape);
-    g2d.setColor(Color.BLACK);
-    g2d.setStroke(shapeFactory.getStandardStroke());
+    setColor(Color.BLACK);
+    setStroke(shapeFactory.getStandardStroke());
     g2d.draw(shape);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public void drawSymbol(Shape symbol, AffineTransform transform,
+    Color fillColor) {
+    Shape shape = transform.createTransformedShape(symbol);
+    if (fillColor != null) {
+      draw(shape, fillColor);
+    } else if (batching) {
+      solidLines.append(shape, false);
+    } else {
+      setStroke(shapeFactory.getStandardStroke());
+      setColor(Color.BLACK);
+      g2d.draw(shape);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void beginGroup(DiagramElement element) { }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void endGroup() { }
+
   // ***********************************************************************
   // ***** Drawing text
   // ******************************************
@@ -158,10 +595,34 @@ public class DrawingContextImpl implements DrawingContext {
    * {@inheritDoc}
    */
   public void drawLabel(String text, double x, double y, FontType fontType) {
-    g2d.setFont(getFont(fontType));
+    if (batching) {
+      deferredDrawings.add(new DeferredDrawing(text, fontType, null, x, y));
+      return;
+    }
+    setFont(getFont(fontType));
     g2d.drawString(text, (float) x, (float) y);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public void drawTextLayout(TextLayout line, String text, double x,
+    double y) {
+    if (batching) {
+      deferredDrawings.add(new DeferredDrawing(text, null, line, x, y));
+      return;
+    }
+    line.draw(g2d, (float) x, (float) y);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public double getTextWidth(String text, FontType fontType) {
+    return TextMeasurementCache.getInstance().getStringWidth(fontType, text,
+      getFontMetrics(fontType));
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -183,5 +644,9 @@ public class DrawingContextImpl implements DrawingContext {
   /**
    * {@inheritDoc}
    */
-  public Graphics2D getGraphics2D() { return g2d; }
+  public Graphics2D getGraphics2D() {
+    // the caller might change the state directly
+    resetState();
+    return g2d;
+  }
 }
@@ -27,18 +27,32 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 
 /**
- * A factory class for creating drawing Shapes for the Java2D system. It relies
- * on the fact that rendering is done in a single thread. We can reduce creation
- * of unnecessary Shape objects by reusing them in the Factory and
- * reinitializing them.
+ * A factory class for creating drawing Shapes for the Java2D system. We can
+ * reduce creation of unnecessary Shape objects by reusing them in the Factory
+ * and reinitializing them. The reused shapes are kept per thread, so several
+ * threads can render and hit-test at the same time. A returned shape is only
+ * valid until the same thread requests the next shape of its type.
  *
  * @author Wei-ju Wu
  * @version 1.0
  */
 public final class DrawingShapeFactory {
 
-  private Rectangle2D rect2d = new Rectangle2D.Double(0, 0, 10, 10);
-  private Line2D line2d = new Line2D.Double(0, 0, 10, 10);
+  /**
+   * The reused shapes of a thread.
+   */
+  private static final class ScratchShapes {
+    private Rectangle2D rect2d = new Rectangle2D.Double(0, 0, 10, 10);
+    private Line2D line2d = new Line2D.Double(0, 0, 10, 10);
+  }
+
+  private ThreadLocal<ScratchShapes> scratchShapes =
+    new ThreadLocal<ScratchShapes>() {
+      /** {@inheritDoc} */
+      @Override
+      protected ScratchShapes initialValue() { return new ScratchShapes(); }
+    };
+
   private Stroke borderStroke = new BasicStroke(1);
   private float[] dashes = {4.0f, 6.0f};
   private Stroke gridStroke = new BasicStroke(1);
@@ -71,6 +85,7 @@ public final class DrawingShapeFactory {
    * @return a Rectangle2D object
    */
   public Rectangle2D createRect2d(Point2D origin, Dimension2D size) {
+    Rectangle2D rect2d = scratchShapes.get().rect2d;
     rect2d.setFrame(origin, size);
     return rect2d;
   }
@@ -83,6 +98,7 @@ public final class DrawingShapeFactory {
    * @return a Rectangle2D object
    */
   public Rectangle2D createRect2d(Point2D origin, double width, double height) {
+    Rectangle2D rect2d = scratchShapes.get().rect2d;
     rect2d.setFrame(origin.getX(), origin.getY(), width, height);
     return rect2d;
   }
@@ -97,6 +113,7 @@ public final class DrawingShapeFactory {
    */
   public Rectangle2D createRect2d(double x, double y, double width,
     double height) {
+    Rectangle2D rect2d = scratchShapes.get().rect2d;
     rect2d.setFrame(x, y, width, height);
     return rect2d;
   }
@@ -108,6 +125,7 @@ public final class DrawingShapeFactory {
    * @return a Line2D object
    */
   public Line2D createLine2d(Point2D p0, Point2D p1) {
+    Line2D line2d = scratchShapes.get().line2d;
     line2d.setLine(p0, p1);
     return line2d;
   }
@@ -121,6 +139,7 @@ public final class DrawingShapeFactory {
    * @return the Line2D object
    */
   public Line2D createLine2d(double x0, double y0, double x1, double y1) {
+    Line2D line2d = scratchShapes.get().line2d;
     line2d.setLine(x0, y0, x1, y1);
     return line2d;
   }
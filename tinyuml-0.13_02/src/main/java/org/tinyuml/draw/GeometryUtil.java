@@ -109,6 +109,72 @@ public final class GeometryUtil {
             (r2end >= r1start && r2end <= r1end));
   }
 
+  /**
+   * Determines whether the specified line segment intersects the specified
+   * rectangle. This is the same test as Rectangle2D.intersectsLine(), but it
+   * does not need a Rectangle2D object.
+   * @param x the rectangle's x coordinate
+   * @param y the rectangle's y coordinate
+   * @param width the rectangle's width
+   * @param height the rectangle's height
+   * @param x1 the x coordinate of the segment's start point
+   * @param y1 the y coordinate of the segment's start point
+   * @param x2 the x coordinate of the segment's end point
+   * @param y2 the y coordinate of the segment's end point
+   * @return true if the segment intersects the rectangle, false otherwise
+   */
+  public boolean intersectsLine(double x, double y, double width,
+    double height, double x1, double y1, double x2, double y2) {
+    int out2 = outcode(x, y, width, height, x2, y2);
+    if (out2 == 0) return true;
+    int out1;
+    // clip the start point against the rectangle's sides until it is inside
+    while ((out1 = outcode(x, y, width, height, x1, y1)) != 0) {
+      if ((out1 & out2) != 0) return false;
+      if ((out1 & (Rectangle2D.OUT_LEFT | Rectangle2D.OUT_RIGHT)) != 0) {
+        double side = (out1 & Rectangle2D.OUT_RIGHT) != 0 ? x + width : x;
+        y1 = y1 + (side - x1) * (y2 - y1) / (x2 - x1);
+        x1 = side;
+      } else {
+        double side = (out1 & Rectangle2D.OUT_BOTTOM) != 0 ? y + height : y;
+        x1 = x1 + (side - y1) * (x2 - x1) / (y2 - y1);
+        y1 = side;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the outcode of a point relative to a rectangle, as
+   * Rectangle2D.outcode() does.
+   * @param x the rectangle's x coordinate
+   * @param y the rectangle's y coordinate
+   * @param width the rectangle's width
+   * @param height the rectangle's height
+   * @param px the point's x coordinate
+   * @param py the point's y coordinate
+   * @return the outcode
+   */
+  private int outcode(double x, double y, double width, double height,
+    double px, double py) {
+    int out = 0;
+    if (width <= 0) {
+      out |= Rectangle2D.OUT_LEFT | Rectangle2D.OUT_RIGHT;
+    } else if (px < x) {
+      out |= Rectangle2D.OUT_LEFT;
+    } else if (px > x + width) {
+      out |= Rectangle2D.OUT_RIGHT;
+    }
+    if (height <= 0) {
+      out |= Rectangle2D.OUT_TOP | Rectangle2D.OUT_BOTTOM;
+    } else if (py < y) {
+      out |= Rectangle2D.OUT_TOP;
+    } else if (py > y + height) {
+      out |= Rectangle2D.OUT_BOTTOM;
+    }
+    return out;
+  }
+
   /**
    * Computes the intersection point of the two specified line segments and
    * stores the result in intersectionPoint. It seems that this is a
@@ -70,12 +70,14 @@ public class MultiLineLabel extends SimpleLabel {
     double layoutWidth = getSize().getWidth();
     double textY = y;
     if (layout == null) recalculateSize(drawingContext);
-    for (TextLayout line : layout.getLines()) {
+    for (int i = 0; i < layout.getLines().size(); i++) {
+      TextLayout line = layout.getLines().get(i);
       // Set the left position of the text depending on the text layout
       // direction
       double textX = line.isLeftToRight() ? x : layoutWidth - line.getAdvance();
       textY += line.getAscent();
-      line.draw(drawingContext.getGraphics2D(), (float) textX, (float) textY);
+      drawingContext.drawTextLayout(line, layout.getLineTexts().get(i), textX,
+        textY);
       // Move text position another step downward
       textY += line.getDescent() + line.getLeading();
     }
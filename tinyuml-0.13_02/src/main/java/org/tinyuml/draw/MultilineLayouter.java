@@ -28,19 +28,35 @@ import java.awt.geom.Dimension2D;
 import java.io.Serializable;
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * This class lays out a specified text, with multiple lines and paragraphs.
+ * Since line breaking is slow, the results are cached. Identical texts share
+ * their layout and if a text is edited, only the changed paragraphs are
+ * broken into lines again. The caches are shared by all threads, but the
+ * lock is only held while they are accessed, so texts can be laid out in
+ * parallel.
  *
  * @author Wei-ju Wu
  * @version 1.0
  */
 public final class MultilineLayouter {
 
+  /**
+   * The maximum number of cached layouts.
+   */
+  private static final int MAX_CACHED_LAYOUTS = 1000;
+
+  /**
+   * The maximum number of cached paragraphs.
+   */
+  private static final int MAX_CACHED_PARAGRAPHS = 10000;
+
   private static MultilineLayouter instance = new MultilineLayouter();
 
   /**
@@ -48,14 +64,19 @@ public final class MultilineLayouter {
    */
   public static class MultilineLayout implements Serializable {
     private static final long serialVersionUID = -3976357437019657274L;
-    private List<TextLayout> lines = new LinkedList<TextLayout>();
+    private List<TextLayout> lines = new ArrayList<TextLayout>();
+    private List<String> lineTexts = new ArrayList<String>();
     private Dimension2D size = new DoubleDimension();
 
     /**
      * Adds a line to the result.
      * @param line the line to add
+     * @param text the text of the line
      */
-    public void addLine(TextLayout line) { lines.add(line); }
+    public void addLine(TextLayout line, String text) {
+      lines.add(line);
+      lineTexts.add(text);
+    }
 
     /**
      * Sets the size of the layout.
@@ -77,8 +98,94 @@ public final class MultilineLayouter {
      * @return the lines in the layout
      */
     public List<TextLayout> getLines() { return lines; }
+
+    /**
+     * Returns the texts of the lines in the layout.
+     * @return the line texts, in the same order as the lines
+     */
+    public List<String> getLineTexts() { return lineTexts; }
   }
 
+  /**
+   * The key of a cached layout or paragraph.
+   */
+  private static final class LayoutKey {
+    private String text;
+    private Font font;
+    private double layoutWidth;
+    private FontRenderContext fontRenderContext;
+
+    /**
+     * Constructor.
+     * @param aText the text
+     * @param aFont the font
+     * @param aLayoutWidth the layout width
+     * @param aFontRenderContext the FontRenderContext
+     */
+    LayoutKey(String aText, Font aFont, double aLayoutWidth,
+      FontRenderContext aFontRenderContext) {
+      text = aText;
+      font = aFont;
+      layoutWidth = aLayoutWidth;
+      fontRenderContext = aFontRenderContext;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof LayoutKey)) return false;
+      LayoutKey other = (LayoutKey) o;
+      return text.equals(other.text) && font.equals(other.font) &&
+        layoutWidth == other.layoutWidth &&
+        fontRenderContext.equals(other.fontRenderContext);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      long bits = Double.doubleToLongBits(layoutWidth);
+      return ((text.hashCode() * 31 + font.hashCode()) * 31 +
+        (int) (bits ^ (bits >>> 32))) * 31 + fontRenderContext.hashCode();
+    }
+  }
+
+  /**
+   * A map that discards its least recently used entries if it exceeds its
+   * capacity.
+   * @param <K> the key type
+   * @param <V> the value type
+   */
+  private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 1L;
+    private int capacity;
+
+    /**
+     * Constructor.
+     * @param aCapacity the capacity
+     */
+    LruMap(int aCapacity) {
+      super(16, 0.75f, true);
+      capacity = aCapacity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  private Map<LayoutKey, MultilineLayout> layouts =
+    new LruMap<LayoutKey, MultilineLayout>(MAX_CACHED_LAYOUTS);
+  private Map<LayoutKey, MultilineLayout> paragraphs =
+    new LruMap<LayoutKey, MultilineLayout>(MAX_CACHED_PARAGRAPHS);
+
   /**
    * Returns the layouter instance.
    * @return the singleton instance
@@ -91,23 +198,95 @@ public final class MultilineLayouter {
   private MultilineLayouter() { }
 
   /**
-   * Calculates the layout.
+   * Calculates the layout. The result is shared with other callers and must
+   * not be modified.
    * @param fontRenderContext the FontRenderContext
    * @param font the Font
    * @param text the text
    * @param layoutWidth the width of the layout area
    * @return the layout result
    */
-  public MultilineLayout calculateLayout(FontRenderContext fontRenderContext,
-    Font font, String text, double layoutWidth) {
+  public MultilineLayout calculateLayout(
+    FontRenderContext fontRenderContext, Font font, String text,
+    double layoutWidth) {
     // Layout multiline text
-    MultilineLayout result = new MultilineLayout();
-    if (text == null || text.isEmpty()) return result;
-    Map<TextAttribute, Object> styleMap = new HashMap<TextAttribute, Object>();
-    styleMap.put(TextAttribute.FONT, font);
+    if (text == null || text.isEmpty()) return new MultilineLayout();
+    LayoutKey key = new LayoutKey(text, font, layoutWidth, fontRenderContext);
+    MultilineLayout result = getCached(layouts, key);
+    if (result != null) return result;
+
+    result = new MultilineLayout();
     String[] textlines = text.split("\n");
     double height = 0;
     for (String textline : textlines) {
+      MultilineLayout paragraph = getParagraphLayout(fontRenderContext, font,
+        textline, layoutWidth);
+      for (int i = 0; i < paragraph.getLines().size(); i++) {
+        TextLayout line = paragraph.getLines().get(i);
+        result.addLine(line, paragraph.getLineTexts().get(i));
+        height += (line.getAscent() + line.getDescent() + line.getLeading());
+      }
+    }
+    result.setSize(layoutWidth, height);
+    return putCached(layouts, key, result);
+  }
+
+  /**
+   * Returns a cached layout.
+   * @param cache the cache
+   * @param key the key
+   * @return the layout or null if it is not cached
+   */
+  private synchronized MultilineLayout getCached(
+    Map<LayoutKey, MultilineLayout> cache, LayoutKey key) {
+    return cache.get(key);
+  }
+
+  /**
+   * Adds a layout to the cache. If another thread has added a layout for
+   * the same key in the meantime, that layout is kept and returned, so
+   * identical texts still share their layout.
+   * @param cache the cache
+   * @param key the key
+   * @param layout the layout
+   * @return the cached layout
+   */
+  private synchronized MultilineLayout putCached(
+    Map<LayoutKey, MultilineLayout> cache, LayoutKey key,
+    MultilineLayout layout) {
+    MultilineLayout cached = cache.get(key);
+    if (cached != null) return cached;
+    cache.put(key, layout);
+    return layout;
+  }
+
+  /**
+   * Returns the lines of a single paragraph. Paragraphs are cached
+   * separately, so only the changed paragraphs of an edited text need to be
+   * broken into lines again. An empty paragraph is a single empty line with
+   * the height of the font.
+   * @param fontRenderContext the FontRenderContext
+   * @param font the Font
+   * @param textline the paragraph text
+   * @param layoutWidth the width of the layout area
+   * @return the paragraph layout, its size is not set
+   */
+  private MultilineLayout getParagraphLayout(
+    FontRenderContext fontRenderContext, Font font, String textline,
+    double layoutWidth) {
+    LayoutKey key = new LayoutKey(textline, font, layoutWidth,
+      fontRenderContext);
+    MultilineLayout lines = getCached(paragraphs, key);
+    if (lines != null) return lines;
+
+    lines = new MultilineLayout();
+    if (textline.isEmpty()) {
+      // a TextLayout can not be empty, a space has the height of the font
+      lines.addLine(new TextLayout(" ", font, fontRenderContext), "");
+    } else {
+      Map<TextAttribute, Object> styleMap =
+        new HashMap<TextAttribute, Object>();
+      styleMap.put(TextAttribute.FONT, font);
       AttributedString attribText = new AttributedString(textline, styleMap);
       AttributedCharacterIterator iter = attribText.getIterator();
       int textStart = iter.getBeginIndex();
@@ -116,12 +295,26 @@ public final class MultilineLayouter {
         fontRenderContext);
       measurer.setPosition(textStart);
       while (measurer.getPosition() < textEnd) {
+        int lineStart = measurer.getPosition();
         TextLayout line = measurer.nextLayout((float) layoutWidth);
-        result.addLine(line);
-        height += (line.getAscent() + line.getDescent() + line.getLeading());
+        lines.addLine(line, textline.substring(lineStart,
+          measurer.getPosition()));
       }
     }
-    result.setSize(layoutWidth, height);
-    return result;
+    return putCached(paragraphs, key, lines);
+  }
+
+  /**
+   * Returns the number of cached layouts.
+   * @return the number of cached layouts
+   */
+  public synchronized int getCachedLayoutCount() { return layouts.size(); }
+
+  /**
+   * Removes all cached layouts and paragraphs.
+   */
+  public synchronized void clearCache() {
+    layouts.clear();
+    paragraphs.clear();
   }
 }
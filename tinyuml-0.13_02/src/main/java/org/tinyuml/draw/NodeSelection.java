@@ -52,6 +52,9 @@ public class NodeSelection implements Selection, NodeChangeListener {
   private Point2D anchor = new Point2D.Double();
   private Point2D tmpPos = new Point2D.Double();
   private Dimension2D tmpSize = new DoubleDimension();
+  // reused while dragging to avoid allocations on every mouse event
+  private Rectangle2D tmpTargetBounds = new Rectangle2D.Double();
+  private Rectangle2D tmpNodeBounds = new Rectangle2D.Double();
   private int resizeDirection = -1;
 
   /**
@@ -206,7 +209,8 @@ public class NodeSelection implements Selection, NodeChangeListener {
   private boolean isDraggedToANewParent(DiagramElement dropTarget) {
     return dropTarget != node && dropTarget.canNestElements() &&
       !dropTarget.isAncestor(node) &&
-      dropTarget.getAbsoluteBounds().contains(getNodeTargetBounds());
+      dropTarget.getAbsoluteBounds(tmpTargetBounds).contains(
+        getNodeTargetBounds());
   }
 
   /**
@@ -214,10 +218,9 @@ public class NodeSelection implements Selection, NodeChangeListener {
    * @return the target bounds
    */
   private Rectangle2D getNodeTargetBounds() {
-    Rectangle2D result = node.getAbsoluteBounds();
-    result.setRect(tmpPos.getX(), tmpPos.getY(), result.getWidth(),
-      result.getHeight());
-    return result;
+    tmpNodeBounds.setRect(tmpPos.getX(), tmpPos.getY(),
+      node.getSize().getWidth(), node.getSize().getHeight());
+    return tmpNodeBounds;
   }
 
   /**
@@ -505,11 +508,8 @@ public class NodeSelection implements Selection, NodeChangeListener {
     DiagramElement element = editor.getDiagram().getChildAt(tmpPos.getX(),
       tmpPos.getY());
     if (isDraggedToANewParent(element)) {
-      Rectangle2D targetBounds = element.getAbsoluteBounds();
-      // create an even larger bounds rectangle and draw it
-      Rectangle2D targetSilhouette = (Rectangle2D) targetBounds.clone();
-      targetSilhouette.setRect(targetBounds.getX() - 5, targetBounds.getY(),
-        targetBounds.getWidth() + 10, targetBounds.getHeight() + 5);
+      Rectangle2D targetBounds = element.getAbsoluteBounds(tmpTargetBounds);
+      // draw an even larger bounds rectangle
       drawingContext.drawRectangle(targetBounds.getX() - 5,
         targetBounds.getY() - 5, targetBounds.getWidth() + 10,
         targetBounds.getHeight() + 10, ACCEPT_COLOR, null);
@@ -0,0 +1,388 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.draw;
+
+import java.awt.geom.Point2D;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * This class stores the points of a connection as packed coordinates in a
+ * double array. Iterating over the points and accessing them by index does
+ * not allocate and is constant time. For the code that works with Point2D
+ * objects, asList() provides a live List view, whose points write through
+ * to this polyline. Changes through the List view are reported to the
+ * connection that owns the polyline, changes through the methods of this
+ * class are not, their callers invalidate the connection themselves.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public final class Polyline implements Serializable, Cloneable {
+
+  private static final long serialVersionUID = 3719265836270219463L;
+  private static final int INITIAL_CAPACITY = 4;
+  private double[] coords;
+  private int size;
+  private transient PointList pointList;
+  private transient PointView[] views;
+  private transient AbstractConnection owner;
+
+  /**
+   * Constructor.
+   */
+  public Polyline() {
+    coords = new double[INITIAL_CAPACITY * 2];
+  }
+
+  /**
+   * Constructor, copies the coordinates of the specified points.
+   * @param points the points
+   */
+  public Polyline(List<Point2D> points) {
+    coords = new double[Math.max(INITIAL_CAPACITY, points.size()) * 2];
+    for (Point2D point : points) addPoint(point.getX(), point.getY());
+  }
+
+  /**
+   * {@inheritDoc}
+   * The coordinates are copied.
+   */
+  @Override
+  public Polyline clone() {
+    try {
+      Polyline cloned = (Polyline) super.clone();
+      cloned.coords = coords.clone();
+      cloned.pointList = null;
+      cloned.views = null;
+      cloned.owner = null;
+      return cloned;
+    } catch (CloneNotSupportedException ignore) {
+      throw new AssertionError(ignore);
+    }
+  }
+
+  /**
+   * Sets the connection that is notified about changes through the List
+   * view.
+   * @param anOwner the owner, can be null
+   */
+  void setOwner(AbstractConnection anOwner) { owner = anOwner; }
+
+  /**
+   * Notifies the owner about a change through the List view.
+   */
+  private void viewChanged() {
+    if (owner != null) owner.pointsChanged();
+  }
+
+  /**
+   * Returns the number of points.
+   * @return the number of points
+   */
+  public int size() { return size; }
+
+  /**
+   * Returns true if this polyline has no points.
+   * @return true if empty, false otherwise
+   */
+  public boolean isEmpty() { return size == 0; }
+
+  /**
+   * Returns the x coordinate of the specified point.
+   * @param index the point index
+   * @return the x coordinate
+   */
+  public double getX(int index) {
+    checkIndex(index);
+    return coords[index * 2];
+  }
+
+  /**
+   * Returns the y coordinate of the specified point.
+   * @param index the point index
+   * @return the y coordinate
+   */
+  public double getY(int index) {
+    checkIndex(index);
+    return coords[index * 2 + 1];
+  }
+
+  /**
+   * Sets the coordinates of the specified point.
+   * @param index the point index
+   * @param x the x coordinate
+   * @param y the y coordinate
+   */
+  public void setPoint(int index, double x, double y) {
+    checkIndex(index);
+    coords[index * 2] = x;
+    coords[index * 2 + 1] = y;
+  }
+
+  /**
+   * Appends a point.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   */
+  public void addPoint(double x, double y) {
+    addPoint(size, x, y);
+  }
+
+  /**
+   * Inserts a point at the specified index.
+   * @param index the index
+   * @param x the x coordinate
+   * @param y the y coordinate
+   */
+  public void addPoint(int index, double x, double y) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("index: " + index + " size: " + size);
+    }
+    if (coords.length < (size + 1) * 2) {
+      double[] newCoords = new double[coords.length * 2];
+      System.arraycopy(coords, 0, newCoords, 0, size * 2);
+      coords = newCoords;
+    }
+    System.arraycopy(coords, index * 2, coords, index * 2 + 2,
+      (size - index) * 2);
+    coords[index * 2] = x;
+    coords[index * 2 + 1] = y;
+    if (views != null && index < size) {
+      // the views stay with their points
+      ensureViewCapacity(size + 1);
+      System.arraycopy(views, index, views, index + 1, size - index);
+      views[index] = null;
+      for (int i = index + 1; i <= size; i++) {
+        if (views[i] != null) views[i].index = i;
+      }
+    }
+    size++;
+  }
+
+  /**
+   * Removes the point at the specified index.
+   * @param index the index
+   */
+  public void removePoint(int index) {
+    checkIndex(index);
+    if (views != null && index < views.length) {
+      detachView(index);
+      System.arraycopy(views, index + 1, views, index,
+        views.length - index - 1);
+      views[views.length - 1] = null;
+      for (int i = index; i < Math.min(size - 1, views.length); i++) {
+        if (views[i] != null) views[i].index = i;
+      }
+    }
+    System.arraycopy(coords, index * 2 + 2, coords, index * 2,
+      (size - index - 1) * 2);
+    size--;
+  }
+
+  /**
+   * Removes all points.
+   */
+  public void clear() {
+    if (views != null) {
+      for (int i = 0; i < Math.min(size, views.length); i++) detachView(i);
+      views = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * Returns a List view of the points. The points in the view are bound to
+   * their index, modifying them modifies this polyline. Point2D.clone() on
+   * them returns a detached copy.
+   * @return the List view
+   */
+  public List<Point2D> asList() {
+    if (pointList == null) pointList = new PointList();
+    return pointList;
+  }
+
+  /**
+   * Checks the specified point index.
+   * @param index the index
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("index: " + index + " size: " + size);
+    }
+  }
+
+  /**
+   * Returns the view of the point at the specified index. The views are
+   * created once per point and reused afterwards, they move with their
+   * point when points are inserted or removed.
+   * @param index the index
+   * @return the view
+   */
+  private PointView getView(int index) {
+    checkIndex(index);
+    ensureViewCapacity(index + 1);
+    if (views[index] == null) views[index] = new PointView(index);
+    return views[index];
+  }
+
+  /**
+   * Makes sure that the view array can hold the specified number of views.
+   * @param capacity the capacity
+   */
+  private void ensureViewCapacity(int capacity) {
+    if (views == null || views.length < capacity) {
+      PointView[] newViews = new PointView[Math.max(capacity,
+        coords.length / 2)];
+      if (views != null) System.arraycopy(views, 0, newViews, 0, views.length);
+      views = newViews;
+    }
+  }
+
+  /**
+   * Detaches the view of a point that is removed. The view keeps the last
+   * coordinates of the point and no longer writes through.
+   * @param index the index of the point
+   */
+  private void detachView(int index) {
+    PointView view = views[index];
+    if (view != null) {
+      view.x = coords[index * 2];
+      view.y = coords[index * 2 + 1];
+      view.index = -1;
+      views[index] = null;
+    }
+  }
+
+  /**
+   * A Point2D that represents a point of the polyline. After the point was
+   * removed, the view holds its last coordinates.
+   */
+  private final class PointView extends Point2D {
+
+    private int index;
+    private double x, y;
+
+    /**
+     * Constructor.
+     * @param anIndex the point index
+     */
+    PointView(int anIndex) { index = anIndex; }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getX() { return index < 0 ? x : Polyline.this.getX(index); }
+
+    /**
+     * {@inheritDoc}
+     */
+    public double getY() { return index < 0 ? y : Polyline.this.getY(index); }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setLocation(double aX, double aY) {
+      if (index < 0) {
+        x = aX;
+        y = aY;
+      } else {
+        setPoint(index, aX, aY);
+        viewChanged();
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object clone() { return new Point2D.Double(getX(), getY()); }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      return "Polyline.Point[" + getX() + ", " + getY() + "]";
+    }
+  }
+
+  /**
+   * The List view of the polyline.
+   */
+  private final class PointList extends AbstractList<Point2D>
+  implements RandomAccess {
+
+    /**
+     * {@inheritDoc}
+     */
+    public Point2D get(int index) { return getView(index); }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() { return size; }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Point2D set(int index, Point2D point) {
+      Point2D previous = new Point2D.Double(getX(index), getY(index));
+      setPoint(index, point.getX(), point.getY());
+      viewChanged();
+      return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void add(int index, Point2D point) {
+      addPoint(index, point.getX(), point.getY());
+      modCount++;
+      viewChanged();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Point2D remove(int index) {
+      Point2D previous = new Point2D.Double(getX(index), getY(index));
+      removePoint(index);
+      modCount++;
+      viewChanged();
+      return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear() {
+      Polyline.this.clear();
+      modCount++;
+      viewChanged();
+    }
+  }
+}
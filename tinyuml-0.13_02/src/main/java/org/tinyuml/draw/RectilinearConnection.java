@@ -20,7 +20,6 @@
 package org.tinyuml.draw;
 
 import java.awt.geom.Point2D;
-import java.util.List;
 import org.tinyuml.draw.GeometryUtil.Orientation;
 
 /**
@@ -60,23 +59,25 @@ public class RectilinearConnection extends AbstractConnection {
    * {@inheritDoc}
    */
   @Override
-  public void setPoints(List<Point2D> thePoints) {
-    super.setPoints(thePoints);
-    node1ConnectPoint = getPointInNodeCoordinates(getNode1(), thePoints.get(0));
-    node2ConnectPoint = getPointInNodeCoordinates(getNode2(),
-      thePoints.get(thePoints.size() - 1));
+  protected void setPolyline(Polyline aPolyline) {
+    super.setPolyline(aPolyline);
+    node1ConnectPoint = getPointInNodeCoordinates(getNode1(), aPolyline, 0);
+    node2ConnectPoint = getPointInNodeCoordinates(getNode2(), aPolyline,
+      aPolyline.size() - 1);
   }
 
   /**
-   * Returns a new point which contains the coordinates of point in the
-   * specified node's coordinates.
+   * Returns a new point which contains the coordinates of a polyline point
+   * in the specified node's coordinates.
    * @param node the node
-   * @param point the point
+   * @param polyline the polyline
+   * @param index the index of the point in the polyline
    * @return the new Point2D object
    */
-  private Point2D getPointInNodeCoordinates(Node node, Point2D point) {
-    return new Point2D.Double(point.getX() - node.getAbsoluteX1(),
-      point.getY() - node.getAbsoluteY1());
+  private Point2D getPointInNodeCoordinates(Node node, Polyline polyline,
+    int index) {
+    return new Point2D.Double(polyline.getX(index) - node.getAbsoluteX1(),
+      polyline.getY(index) - node.getAbsoluteY1());
   }
 
   /**
@@ -95,7 +96,7 @@ public class RectilinearConnection extends AbstractConnection {
    * {@inheritDoc}
    */
   public void resetPoints() {
-    getPoints().clear();
+    getPolyline().clear();
     reconnectPulledOffNodes();
   }
 
@@ -115,7 +116,7 @@ public class RectilinearConnection extends AbstractConnection {
    * Reconnects the connection to the pulled off nodes.
    */
   private void reconnectPulledOffNodes() {
-    if (getPoints().size() <= 3) {
+    if (getPolyline().size() <= 3) {
       // If there are at most three connection points, simply recalculate the
       // connection between the two nodes completely
       setPoints(RectilinearLineBuilder.getInstance().calculateLineSegments(
@@ -123,7 +124,8 @@ public class RectilinearConnection extends AbstractConnection {
     } else {
       reattachConnectionPoint(getNode1(), node1ConnectPoint, 0, 1);
       reattachConnectionPoint(getNode2(),
-        node2ConnectPoint, getPoints().size() - 1, getPoints().size() - 2);
+        node2ConnectPoint, getPolyline().size() - 1,
+        getPolyline().size() - 2);
     // TODO: If the node intersects a middle segment, reduce the segments
     }
     setValid(true);
@@ -19,7 +19,9 @@
  */
 package org.tinyuml.draw;
 
+import java.awt.Shape;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 
 /**
@@ -31,6 +33,24 @@ import java.awt.geom.Point2D;
  */
 public class SimpleArrowTip {
 
+  /**
+   * The arrow tip at the origin, pointing in the direction of the x axis.
+   */
+  private static final Shape SYMBOL = createSymbol();
+
+  /**
+   * Creates the arrow tip symbol.
+   * @return the symbol
+   */
+  private static Shape createSymbol() {
+    GeneralPath symbol = new GeneralPath();
+    symbol.moveTo(-10, -4);
+    symbol.lineTo(0, 0);
+    symbol.moveTo(-10, 4);
+    symbol.lineTo(0, 0);
+    return symbol;
+  }
+
   /**
    * Draws the arrow.
    * @param drawingContext the drawing context
@@ -39,18 +59,8 @@ public class SimpleArrowTip {
    */
   public void draw(DrawingContext drawingContext, Point2D endpoint,
     AffineTransform rotationTransform) {
-    Point2D arrowPoint0 = new Point2D.Double(),
-            arrowPoint1 = new Point2D.Double();
-    arrowPoint0.setLocation(endpoint.getX() - 10,
-                            endpoint.getY() - 4);
-    arrowPoint1.setLocation(endpoint.getX() - 10,
-                            endpoint.getY() + 4);
-    rotationTransform.transform(arrowPoint0, arrowPoint0);
-    rotationTransform.transform(arrowPoint1, arrowPoint1);
-
-    drawingContext.drawLine(arrowPoint0.getX(), arrowPoint0.getY(),
-      endpoint.getX(), endpoint.getY());
-    drawingContext.drawLine(arrowPoint1.getX(), arrowPoint1.getY(),
-      endpoint.getX(), endpoint.getY());
+    AffineTransform transform = new AffineTransform(rotationTransform);
+    transform.translate(endpoint.getX(), endpoint.getY());
+    drawingContext.drawSymbol(SYMBOL, transform, null);
   }
 }
@@ -21,7 +21,6 @@ package org.tinyuml.draw;
 
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -66,11 +65,10 @@ public class SimpleConnection extends AbstractConnection {
    * {@inheritDoc}
    */
   public void resetPoints() {
-    setPoints(new ArrayList<Point2D>());
-    getPoints().add(new Point2D.Double(getNode1().getAbsCenterX(),
-      getNode1().getAbsCenterY()));
-    getPoints().add(new Point2D.Double(getNode2().getAbsCenterX(),
-      getNode2().getAbsCenterY()));
+    Polyline polyline = new Polyline();
+    polyline.addPoint(getNode1().getAbsCenterX(), getNode1().getAbsCenterY());
+    polyline.addPoint(getNode2().getAbsCenterX(), getNode2().getAbsCenterY());
+    setPolyline(polyline);
     reconnectEndPointsToNodes();
   }
 
@@ -100,7 +98,8 @@ public class SimpleConnection extends AbstractConnection {
   private void connectStartPointToNode1() {
     double x = getNode1().getAbsCenterX(), y = getNode1().getAbsCenterY();
     getPoints().get(0).setLocation(x, y);
-    Line2D segment = getSegments().get(0);
+    Line2D segment = new Line2D.Double(getPoints().get(0),
+      getPoints().get(1));
     getNode1().calculateIntersection(segment, getPoints().get(0));
   }
 
@@ -112,8 +111,8 @@ public class SimpleConnection extends AbstractConnection {
     Point2D pointToNode2 = points.get(points.size() - 1);
     double x = getNode2().getAbsCenterX(), y = getNode2().getAbsCenterY();
     pointToNode2.setLocation(x, y);
-    List<Line2D> segments = getSegments();
-    Line2D segment = segments.get(segments.size() - 1);
+    Line2D segment = new Line2D.Double(points.get(points.size() - 2),
+      pointToNode2);
     getNode2().calculateIntersection(segment, points.get(points.size() - 1));
   }
 
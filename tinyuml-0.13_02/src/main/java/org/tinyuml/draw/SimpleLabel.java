@@ -78,7 +78,7 @@ public class SimpleLabel extends AbstractNode implements Label {
    */
   public void recalculateSize(DrawingContext drawingContext) {
     FontMetrics fm = drawingContext.getFontMetrics(fontType);
-    setSize(fm.stringWidth(getText()), fm.getHeight());
+    setSize(drawingContext.getTextWidth(getText(), fontType), fm.getHeight());
     valid = true;
   }
 
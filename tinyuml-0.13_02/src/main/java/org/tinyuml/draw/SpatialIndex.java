@@ -0,0 +1,462 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.draw;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A loose quadtree that maps diagram elements to their bounding boxes. The
+ * bounds can be in any coordinate system, as long as the queries use the same
+ * one, e.g. AbstractCompositeNode stores the bounds of its children relative
+ * to itself. It is used to find the elements at a position or within an area
+ * without testing every element. Each element is stored together with an
+ * order value, query results are always returned in ascending order, so
+ * clients can preserve the drawing order of their children.
+ * The index only narrows down the candidates, clients still need to perform
+ * the exact tests on the returned elements. Queries on the drawing path can
+ * use a reusable Result, so they do not allocate.
+ *
+ * @param <T> the element type
+ * @author agent
+ * @version 1.0
+ */
+public class SpatialIndex<T> {
+
+  private static final double INITIAL_SIZE = 1024;
+  private static final int MAX_DEPTH = 12;
+
+  /**
+   * An element entry, stores a copy of the bounds and the cell it is
+   * currently stored in.
+   */
+  private static class Entry<T> {
+    private T element;
+    private double x1, y1, x2, y2;
+    private long order;
+    private Cell<T> cell;
+
+    /**
+     * Determines whether this entry's bounds intersect the specified area.
+     * Edges are inclusive, so this test never rejects more than the exact
+     * tests on the elements.
+     * @param ax1 the area's x1
+     * @param ay1 the area's y1
+     * @param ax2 the area's x2
+     * @param ay2 the area's y2
+     * @return true if intersecting, false otherwise
+     */
+    boolean intersects(double ax1, double ay1, double ax2, double ay2) {
+      return x1 <= ax2 && x2 >= ax1 && y1 <= ay2 && y2 >= ay1;
+    }
+  }
+
+  /**
+   * A quadrant of the tree. The loose bounds of a cell extend the cell by
+   * half its size in every direction.
+   */
+  private static class Cell<T> {
+    private double x, y, size;
+    private int depth;
+    private List<Entry<T>> entries;
+    private List<Cell<T>> children;
+
+    /**
+     * Constructor.
+     * @param xpos the x position
+     * @param ypos the y position
+     * @param aSize the size of the cell
+     * @param aDepth the depth of the cell in the tree
+     */
+    Cell(double xpos, double ypos, double aSize, int aDepth) {
+      x = xpos;
+      y = ypos;
+      size = aSize;
+      depth = aDepth;
+    }
+
+    /**
+     * Determines whether the loose bounds of this cell intersect the
+     * specified area.
+     * @param ax1 the area's x1
+     * @param ay1 the area's y1
+     * @param ax2 the area's x2
+     * @param ay2 the area's y2
+     * @return true if intersecting, false otherwise
+     */
+    boolean looselyIntersects(double ax1, double ay1, double ax2, double ay2) {
+      double margin = size / 2;
+      return x - margin <= ax2 && x + size + margin >= ax1 &&
+        y - margin <= ay2 && y + size + margin >= ay1;
+    }
+
+    /**
+     * Returns the child cell with the specified quadrant number, it is
+     * created if necessary.
+     * @param quadrant the quadrant number
+     * @return the child cell
+     */
+    Cell<T> getChild(int quadrant) {
+      if (children == null) {
+        children = new ArrayList<Cell<T>>(4);
+        for (int i = 0; i < 4; i++) children.add(null);
+      }
+      Cell<T> child = children.get(quadrant);
+      if (child == null) {
+        double half = size / 2;
+        child = new Cell<T>(x + ((quadrant & 1) == 0 ? 0 : half),
+          y + ((quadrant & 2) == 0 ? 0 : half), half, depth + 1);
+        children.set(quadrant, child);
+      }
+      return child;
+    }
+
+    /**
+     * Adds an entry to this cell.
+     * @param entry the entry
+     */
+    void add(Entry<T> entry) {
+      if (entries == null) entries = new ArrayList<Entry<T>>();
+      entries.add(entry);
+      entry.cell = this;
+    }
+
+    /**
+     * Removes an entry from this cell.
+     * @param entry the entry
+     */
+    void remove(Entry<T> entry) {
+      entries.remove(entry);
+      entry.cell = null;
+    }
+  }
+
+  /**
+   * The result of a query, which can be reused for further queries. A result
+   * must not be used by several threads at the same time, but several
+   * threads can query the same index with their own results.
+   * @param <T> the element type
+   */
+  public static final class Result<T> {
+    private Entry<?>[] found = new Entry<?>[16];
+    private int size;
+
+    /**
+     * Returns the number of elements found.
+     * @return the number of elements
+     */
+    public int size() { return size; }
+
+    /**
+     * Returns the element at the specified position, the elements are in
+     * ascending order.
+     * @param index the position
+     * @return the element
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+      if (index >= size) {
+        throw new IndexOutOfBoundsException("index: " + index + " size: " +
+          size);
+      }
+      return (T) found[index].element;
+    }
+
+    /**
+     * Removes all elements, so the result does not keep them alive.
+     */
+    public void clear() {
+      Arrays.fill(found, 0, size, null);
+      size = 0;
+    }
+
+    /**
+     * Adds an entry.
+     * @param entry the entry
+     */
+    private void add(Entry<?> entry) {
+      if (size == found.length) found = Arrays.copyOf(found, size * 2);
+      found[size++] = entry;
+    }
+
+    /**
+     * Sorts the entries by their order values. A shell sort is used, since
+     * it sorts in place.
+     */
+    private void sort() {
+      for (int gap = size / 2; gap > 0; gap = gap == 2 ? 1 : gap * 5 / 11) {
+        for (int i = gap; i < size; i++) {
+          Entry<?> entry = found[i];
+          int j = i;
+          for (; j >= gap && found[j - gap].order > entry.order; j -= gap) {
+            found[j] = found[j - gap];
+          }
+          found[j] = entry;
+        }
+      }
+    }
+  }
+
+  private Map<T, Entry<T>> entries = new IdentityHashMap<T, Entry<T>>();
+  private Cell<T> root = new Cell<T>(0, 0, INITIAL_SIZE, 0);
+
+  /**
+   * Returns the number of elements in this index.
+   * @return the number of elements
+   */
+  public int size() { return entries.size(); }
+
+  /**
+   * Determines whether the specified element is stored in this index.
+   * @param element the element
+   * @return true if contained, false otherwise
+   */
+  public boolean contains(T element) { return entries.containsKey(element); }
+
+  /**
+   * Adds an element to the index. If the element was already added, its
+   * bounds and order are updated.
+   * @param element the element
+   * @param bounds the absolute bounds
+   * @param order the order value
+   */
+  public void insert(T element, Rectangle2D bounds, long order) {
+    Entry<T> entry = entries.get(element);
+    if (entry == null) {
+      entry = new Entry<T>();
+      entry.element = element;
+      entries.put(element, entry);
+    }
+    entry.order = order;
+    place(entry, bounds);
+  }
+
+  /**
+   * Updates the bounds of the specified element. Elements that are not in the
+   * index are ignored.
+   * @param element the element
+   * @param bounds the new absolute bounds
+   * @return true if the element was in the index, false otherwise
+   */
+  public boolean update(T element, Rectangle2D bounds) {
+    Entry<T> entry = entries.get(element);
+    if (entry == null) return false;
+    place(entry, bounds);
+    return true;
+  }
+
+  /**
+   * Sets a new order value for the specified element. Elements that are not
+   * in the index are ignored.
+   * @param element the element
+   * @param order the new order value
+   */
+  public void setOrder(T element, long order) {
+    Entry<T> entry = entries.get(element);
+    if (entry != null) entry.order = order;
+  }
+
+  /**
+   * Removes the specified element from the index.
+   * @param element the element to remove
+   * @return true if the element was in the index, false otherwise
+   */
+  public boolean remove(T element) {
+    Entry<T> entry = entries.remove(element);
+    if (entry == null) return false;
+    entry.cell.remove(entry);
+    return true;
+  }
+
+  /**
+   * Removes all elements.
+   */
+  public void clear() {
+    entries.clear();
+    root = new Cell<T>(0, 0, INITIAL_SIZE, 0);
+  }
+
+  /**
+   * Adds all elements whose bounds intersect or touch the specified area to
+   * the result list, in ascending order.
+   * @param area the area
+   * @param result the result list
+   */
+  public void query(Rectangle2D area, List<? super T> result) {
+    Result<T> found = new Result<T>();
+    query(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY(),
+      found);
+    for (int i = 0; i < found.size(); i++) result.add(found.get(i));
+  }
+
+  /**
+   * Adds all elements whose bounds contain the specified point to the result
+   * list, in ascending order.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param result the result list
+   */
+  public void query(double x, double y, List<? super T> result) {
+    query(new Rectangle2D.Double(x, y, 0, 0), result);
+  }
+
+  /**
+   * Replaces the contents of the result with all elements whose bounds
+   * intersect or touch the specified area, in ascending order. This does not
+   * allocate once the result has grown to the number of elements found.
+   * @param x1 the area's x1
+   * @param y1 the area's y1
+   * @param x2 the area's x2
+   * @param y2 the area's y2
+   * @param result the result
+   */
+  public void query(double x1, double y1, double x2, double y2,
+    Result<T> result) {
+    result.clear();
+    collect(root, x1, y1, x2, y2, result);
+    result.sort();
+  }
+
+  /**
+   * Recursively collects the entries that intersect the specified area.
+   * @param cell the cell to start with
+   * @param x1 the area's x1
+   * @param y1 the area's y1
+   * @param x2 the area's x2
+   * @param y2 the area's y2
+   * @param found the result
+   */
+  private void collect(Cell<T> cell, double x1, double y1, double x2,
+    double y2, Result<T> found) {
+    // the root cell can hold elements outside of its loose bounds
+    if (cell != root && !cell.looselyIntersects(x1, y1, x2, y2)) return;
+    if (cell.entries != null) {
+      for (int i = 0; i < cell.entries.size(); i++) {
+        Entry<T> entry = cell.entries.get(i);
+        if (entry.intersects(x1, y1, x2, y2)) found.add(entry);
+      }
+    }
+    if (cell.children != null) {
+      for (int i = 0; i < cell.children.size(); i++) {
+        Cell<T> child = cell.children.get(i);
+        if (child != null) collect(child, x1, y1, x2, y2, found);
+      }
+    }
+  }
+
+  /**
+   * Stores the entry with the specified bounds in the matching cell.
+   * @param entry the entry
+   * @param bounds the bounds
+   */
+  private void place(Entry<T> entry, Rectangle2D bounds) {
+    entry.x1 = bounds.getMinX();
+    entry.y1 = bounds.getMinY();
+    entry.x2 = bounds.getMaxX();
+    entry.y2 = bounds.getMaxY();
+    if (!isFinite(entry)) {
+      // degenerate bounds are kept in the root, which is always searched
+      if (entry.cell != root) {
+        if (entry.cell != null) entry.cell.remove(entry);
+        root.add(entry);
+      }
+      return;
+    }
+    if (!fitsInRoot(entry)) {
+      if (entry.cell != null) entry.cell.remove(entry);
+      growRoot(entry);
+      return;
+    }
+    Cell<T> cell = findCell(entry);
+    if (cell != entry.cell) {
+      if (entry.cell != null) entry.cell.remove(entry);
+      cell.add(entry);
+    }
+  }
+
+  /**
+   * Determines the deepest cell whose loose bounds contain the entry. Since
+   * the loose bounds are twice as large as the cell, this is the cell that
+   * contains the entry's center and is at least as large as the entry.
+   * @param entry the entry
+   * @return the cell
+   */
+  private Cell<T> findCell(Entry<T> entry) {
+    double centerx = (entry.x1 + entry.x2) / 2;
+    double centery = (entry.y1 + entry.y2) / 2;
+    double extent = Math.max(entry.x2 - entry.x1, entry.y2 - entry.y1);
+    Cell<T> cell = root;
+    while (cell.depth < MAX_DEPTH && extent <= cell.size / 2) {
+      double half = cell.size / 2;
+      int quadrant = (centerx < cell.x + half ? 0 : 1) |
+        (centery < cell.y + half ? 0 : 2);
+      cell = cell.getChild(quadrant);
+    }
+    return cell;
+  }
+
+  /**
+   * Determines whether the bounds of the entry are finite.
+   * @param entry the entry
+   * @return true if all coordinates are finite numbers, false otherwise
+   */
+  private boolean isFinite(Entry<T> entry) {
+    return !Double.isNaN(entry.x1 + entry.x2 + entry.y1 + entry.y2) &&
+      !Double.isInfinite(entry.x1 + entry.x2 + entry.y1 + entry.y2);
+  }
+
+  /**
+   * Determines whether the root cell can hold the specified entry.
+   * @param entry the entry
+   * @return true if the entry fits, false otherwise
+   */
+  private boolean fitsInRoot(Entry<T> entry) {
+    double centerx = (entry.x1 + entry.x2) / 2;
+    double centery = (entry.y1 + entry.y2) / 2;
+    double extent = Math.max(entry.x2 - entry.x1, entry.y2 - entry.y1);
+    return centerx >= root.x && centerx < root.x + root.size &&
+      centery >= root.y && centery < root.y + root.size && extent <= root.size;
+  }
+
+  /**
+   * Doubles the root cell towards the specified entry until the entry fits
+   * and reinserts all entries. Since the size grows exponentially, this
+   * happens rarely.
+   * @param entry the entry that did not fit
+   */
+  private void growRoot(Entry<T> entry) {
+    double centerx = (entry.x1 + entry.x2) / 2;
+    double centery = (entry.y1 + entry.y2) / 2;
+    do {
+      double x = centerx < root.x ? root.x - root.size : root.x;
+      double y = centery < root.y ? root.y - root.size : root.y;
+      root = new Cell<T>(x, y, root.size * 2, 0);
+    } while (!fitsInRoot(entry));
+    for (Entry<T> current : entries.values()) {
+      current.cell = null;
+      if (isFinite(current)) findCell(current).add(current);
+      else root.add(current);
+    }
+  }
+}
@@ -0,0 +1,624 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.draw;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A DrawingContext that writes SVG elements to a Writer while the diagram
+ * is drawn. In contrast to a generated DOM, only the element that is
+ * currently drawn is held in memory. The document is started with
+ * startDocument() and needs to be finished with endDocument().
+ * Every diagram element is written as a group. Symbols are defined once
+ * when they are first drawn and referenced afterwards. The lines within a
+ * batch are written immediately, so they stay in their element's group.
+ * Text is written as glyph outlines by default, so the document looks the
+ * same on systems that do not have the diagram fonts. Each glyph that is
+ * used is defined once and referenced afterwards, which embeds only the
+ * used subset of the fonts.
+ * Like a PrintWriter, this class does not throw I/O errors while drawing,
+ * the first error is recorded and can be retrieved with getError().
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class SvgDrawingContext implements DrawingContext {
+
+  private static final String DASH_ARRAY = "4,6";
+  private static final Color GRID_COLOR = new Color(230, 230, 230);
+
+  private Writer writer;
+  private IOException error;
+  private StringBuilder buffer = new StringBuilder();
+  private Graphics2D scratchGraphics =
+    new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+  private DrawingContextImpl fontContext = new DrawingContextImpl();
+  private Rectangle clipBounds = new Rectangle();
+  private Map<String, String> symbolIds = new HashMap<String, String>();
+  private Map<String, String> glyphIds = new HashMap<String, String>();
+  private int glyphCount;
+  private boolean textAsShapes = true;
+  private int groupDepth;
+
+  /**
+   * Constructor.
+   * @param aWriter the Writer to write to, which should be buffered
+   */
+  public SvgDrawingContext(Writer aWriter) {
+    writer = aWriter;
+    fontContext.setGraphics2D(scratchGraphics, clipBounds);
+  }
+
+  /**
+   * Returns the number of symbols that were defined.
+   * @return the number of symbols
+   */
+  public int getSymbolCount() { return symbolIds.size(); }
+
+  /**
+   * Returns the number of glyphs that were defined.
+   * @return the number of glyphs
+   */
+  public int getGlyphCount() { return glyphCount; }
+
+  /**
+   * Determines whether text is written as glyph outlines or as text
+   * elements. Text elements are smaller and can be searched, but they are
+   * rendered with the fonts of the viewing system. The default is true.
+   * @param flag true to write text as glyph outlines
+   */
+  public void setTextAsShapes(boolean flag) { textAsShapes = flag; }
+
+  /**
+   * Returns the first I/O error that occurred while writing.
+   * @return the error or null if no error occurred
+   */
+  public IOException getError() { return error; }
+
+  /**
+   * Writes the start of the SVG document. The clip bounds are set to the
+   * document's size.
+   * @param width the document width
+   * @param height the document height
+   */
+  public void startDocument(int width, int height) {
+    clipBounds = new Rectangle(0, 0, width, height);
+    buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    buffer.append("<svg xmlns=\"http://www.w3.org/2000/svg\"");
+    buffer.append(" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"");
+    buffer.append(width).append("\" height=\"").append(height);
+    buffer.append("\" viewBox=\"0 0 ").append(width).append(' ');
+    buffer.append(height).append("\">\n");
+    buffer.append("<!-- Generated by TinyUML -->\n");
+    buffer.append("<g fill=\"none\" stroke=\"#000000\" stroke-width=\"1\"");
+    buffer.append(" font-family=\"");
+    buffer.append(getFont(FontType.DEFAULT).getName());
+    buffer.append("\" font-size=\"");
+    buffer.append(getFont(FontType.DEFAULT).getSize()).append("\">\n");
+    writeBuffer();
+  }
+
+  /**
+   * Writes the end of the SVG document and flushes the Writer.
+   */
+  public void endDocument() {
+    for (; groupDepth > 0; groupDepth--) buffer.append("</g>\n");
+    buffer.append("</g>\n</svg>\n");
+    writeBuffer();
+    try {
+      writer.flush();
+    } catch (IOException ex) {
+      if (error == null) error = ex;
+    }
+  }
+
+  /**
+   * Writes the buffer contents and clears the buffer.
+   */
+  private void writeBuffer() {
+    if (error == null) {
+      try {
+        writer.append(buffer);
+      } catch (IOException ex) {
+        error = ex;
+      }
+    }
+    buffer.setLength(0);
+  }
+
+  // ***********************************************************************
+  // ***** Formatting
+  // ******************************************
+
+  /**
+   * Appends a coordinate, rounded to two decimal places.
+   * @param sb the StringBuilder
+   * @param value the value
+   */
+  private static void appendNumber(StringBuilder sb, double value) {
+    appendNumber(sb, value, 100);
+  }
+
+  /**
+   * Appends a number, rounded to the specified precision.
+   * @param sb the StringBuilder
+   * @param value the value
+   * @param precision the reciprocal of the precision, a power of 10
+   */
+  private static void appendNumber(StringBuilder sb, double value,
+    long precision) {
+    long rounded = Math.round(value * precision);
+    if (rounded % precision == 0) {
+      sb.append(rounded / precision);
+    } else {
+      sb.append(rounded / (double) precision);
+    }
+  }
+
+  /**
+   * Appends an attribute with a numeric value.
+   * @param name the attribute name
+   * @param value the value
+   */
+  private void appendAttribute(String name, double value) {
+    buffer.append(' ').append(name).append("=\"");
+    appendNumber(buffer, value);
+    buffer.append('"');
+  }
+
+  /**
+   * Appends a color attribute. A null color is written as "none".
+   * @param name the attribute name
+   * @param color the color
+   */
+  private void appendColor(String name, Color color) {
+    buffer.append(' ').append(name).append("=\"");
+    if (color == null) {
+      buffer.append("none\"");
+      return;
+    }
+    buffer.append('#');
+    String hex = Integer.toHexString(color.getRGB() & 0xffffff);
+    for (int i = hex.length(); i < 6; i++) buffer.append('0');
+    buffer.append(hex).append('"');
+    if (color.getAlpha() != 255) {
+      buffer.append(' ').append(name).append("-opacity=\"");
+      appendNumber(buffer, color.getAlpha() / 255.0);
+      buffer.append('"');
+    }
+  }
+
+  /**
+   * Appends the text with the XML special characters escaped. Characters
+   * that are not allowed in XML are omitted.
+   * @param text the text
+   */
+  private void appendEscaped(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '&': buffer.append("&amp;"); break;
+        case '<': buffer.append("&lt;"); break;
+        case '>': buffer.append("&gt;"); break;
+        case '"': buffer.append("&quot;"); break;
+        default:
+          if (c >= ' ' || c == '\t') buffer.append(c);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Appends a line to the specified path data.
+   * @param sb the path data
+   * @param x0 the x0 coordinate
+   * @param y0 the y0 coordinate
+   * @param x1 the x1 coordinate
+   * @param y1 the y1 coordinate
+   */
+  private static void appendLinePath(StringBuilder sb, double x0, double y0,
+    double x1, double y1) {
+    sb.append('M');
+    appendNumber(sb, x0);
+    sb.append(' ');
+    appendNumber(sb, y0);
+    sb.append('L');
+    appendNumber(sb, x1);
+    sb.append(' ');
+    appendNumber(sb, y1);
+  }
+
+  /**
+   * Appends the path data of the specified shape.
+   * @param sb the StringBuilder
+   * @param shape the shape
+   */
+  private static void appendShapePath(StringBuilder sb, Shape shape) {
+    double[] coords = new double[6];
+    for (PathIterator iter = shape.getPathIterator(null); !iter.isDone();
+      iter.next()) {
+      int type = iter.currentSegment(coords);
+      int points = 0;
+      switch (type) {
+        case PathIterator.SEG_MOVETO: sb.append('M'); points = 1; break;
+        case PathIterator.SEG_LINETO: sb.append('L'); points = 1; break;
+        case PathIterator.SEG_QUADTO: sb.append('Q'); points = 2; break;
+        case PathIterator.SEG_CUBICTO: sb.append('C'); points = 3; break;
+        case PathIterator.SEG_CLOSE: default: sb.append('Z'); break;
+      }
+      for (int i = 0; i < points * 2; i++) {
+        if (i > 0) sb.append(' ');
+        appendNumber(sb, coords[i]);
+      }
+    }
+  }
+
+  /**
+   * Appends a transform attribute. Translations are written in their short
+   * form, the matrix entries are written with four decimal places.
+   * @param transform the transform
+   */
+  private void appendTransform(AffineTransform transform) {
+    if (transform.isIdentity()) return;
+    buffer.append(" transform=\"");
+    if (transform.getType() == AffineTransform.TYPE_TRANSLATION) {
+      buffer.append("translate(");
+      appendNumber(buffer, transform.getTranslateX());
+      buffer.append(' ');
+      appendNumber(buffer, transform.getTranslateY());
+    } else {
+      double[] matrix = new double[6];
+      transform.getMatrix(matrix);
+      buffer.append("matrix(");
+      for (int i = 0; i < matrix.length; i++) {
+        if (i > 0) buffer.append(' ');
+        appendNumber(buffer, matrix[i], i < 4 ? 10000 : 100);
+      }
+    }
+    buffer.append(")\"");
+  }
+
+  /**
+   * Appends a rectangle element without the closing bracket.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param width the width
+   * @param height the height
+   */
+  private void appendRect(double x, double y, double width, double height) {
+    buffer.append("<rect");
+    appendAttribute("x", x);
+    appendAttribute("y", y);
+    appendAttribute("width", width);
+    appendAttribute("height", height);
+  }
+
+  /**
+   * Appends a text element.
+   * @param text the text
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param font the font
+   */
+  private void appendText(String text, double x, double y, Font font) {
+    // empty lines of a multiline text have nothing to draw
+    if (text.isEmpty()) return;
+    if (textAsShapes) {
+      appendGlyphs(text, x, y, font);
+      return;
+    }
+    buffer.append("<text");
+    appendAttribute("x", x);
+    appendAttribute("y", y);
+    if (font.isBold()) buffer.append(" font-weight=\"bold\"");
+    if (font.isItalic()) buffer.append(" font-style=\"italic\"");
+    buffer.append(" fill=\"#000000\" stroke=\"none\">");
+    appendEscaped(text);
+    buffer.append("</text>\n");
+  }
+
+  /**
+   * Appends a text as a group of glyph references. The text is kept in the
+   * aria-label attribute of the group.
+   * @param text the text
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param font the font
+   */
+  private void appendGlyphs(String text, double x, double y, Font font) {
+    FontRenderContext frc = scratchGraphics.getFontRenderContext();
+    GlyphVector glyphs = font.createGlyphVector(frc, text);
+    buffer.append("<g fill=\"#000000\" stroke=\"none\" aria-label=\"");
+    appendEscaped(text);
+    buffer.append("\">\n");
+    for (int i = 0; i < glyphs.getNumGlyphs(); i++) {
+      String id = getGlyphId(font, glyphs.getGlyphCode(i), frc);
+      if (id == null) continue;
+      Point2D position = glyphs.getGlyphPosition(i);
+      buffer.append("<use xlink:href=\"#").append(id).append('"');
+      appendAttribute("x", x + position.getX());
+      appendAttribute("y", y + position.getY());
+      buffer.append("/>\n");
+    }
+    buffer.append("</g>\n");
+  }
+
+  /**
+   * Returns the id of the glyph outline. The outline is defined when the
+   * glyph is first used.
+   * @param font the font
+   * @param glyphCode the glyph code
+   * @param frc the FontRenderContext
+   * @return the id or null if the glyph has no outline, like a space
+   */
+  private String getGlyphId(Font font, int glyphCode, FontRenderContext frc) {
+    String key = font.getFontName() + " " + font.getSize2D() + " " +
+      glyphCode;
+    if (glyphIds.containsKey(key)) return glyphIds.get(key);
+    Shape outline = font.createGlyphVector(frc, new int[] { glyphCode })
+      .getGlyphOutline(0);
+    String id = null;
+    if (!outline.getBounds2D().isEmpty()) {
+      id = "g" + (++glyphCount);
+      buffer.append("<defs><path id=\"").append(id).append("\" d=\"");
+      appendShapePath(buffer, outline);
+      buffer.append("\"/></defs>\n");
+    }
+    glyphIds.put(key, id);
+    return id;
+  }
+
+  // ***********************************************************************
+  // ***** DrawingContext
+  // ******************************************
+
+  /**
+   * {@inheritDoc}
+   */
+  public void setGraphics2D(Graphics2D g2d, Rectangle bounds) {
+    clipBounds = bounds;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void beginBatch() { }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void endBatch() { }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void beginGroup(DiagramElement element) {
+    buffer.append("<g class=\"");
+    buffer.append(element.getClass().getSimpleName()).append("\">\n");
+    writeBuffer();
+    groupDepth++;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void endGroup() {
+    if (groupDepth == 0) return;
+    groupDepth--;
+    buffer.append("</g>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawDashedLine(double x0, double y0, double x1, double y1) {
+    buffer.append("<path d=\"");
+    appendLinePath(buffer, x0, y0, x1, y1);
+    buffer.append("\" stroke-dasharray=\"").append(DASH_ARRAY);
+    buffer.append("\"/>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawGridLine(double x0, double y0, double x1, double y1) {
+    buffer.append("<path d=\"");
+    appendLinePath(buffer, x0, y0, x1, y1);
+    buffer.append('"');
+    appendColor("stroke", GRID_COLOR);
+    buffer.append("/>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawGrid(double x, double y, double width, double height,
+    double gridSize) {
+    Rectangle2D area = new Rectangle2D.Double(x, y, width, height);
+    Rectangle2D.intersect(area, clipBounds, area);
+    if (area.isEmpty()) return;
+    buffer.append("<path d=\"");
+    double xpos = x + Math.ceil((area.getMinX() - x) / gridSize) * gridSize;
+    for (; xpos <= area.getMaxX(); xpos += gridSize) {
+      appendLinePath(buffer, xpos, area.getMinY(), xpos, area.getMaxY());
+    }
+    double ypos = y + Math.ceil((area.getMinY() - y) / gridSize) * gridSize;
+    for (; ypos <= area.getMaxY(); ypos += gridSize) {
+      appendLinePath(buffer, area.getMinX(), ypos, area.getMaxX(), ypos);
+    }
+    buffer.append('"');
+    appendColor("stroke", GRID_COLOR);
+    buffer.append("/>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawLine(double x0, double y0, double x1, double y1) {
+    buffer.append("<path d=\"");
+    appendLinePath(buffer, x0, y0, x1, y1);
+    buffer.append("\"/>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawRectangle(double x, double y, double width, double height,
+    Color fillColor) {
+    drawRectangle(x, y, width, height, null, fillColor);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void fillRectangle(double x, double y, double width, double height,
+    Color fillColor) {
+    appendRect(x, y, width, height);
+    appendColor("fill", fillColor);
+    buffer.append(" stroke=\"none\"/>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawRectangle(double x, double y, double width, double height,
+    Color strokeColor, Color fillColor) {
+    appendRect(x, y, width, height);
+    if (fillColor != null) appendColor("fill", fillColor);
+    if (strokeColor != null) appendColor("stroke", strokeColor);
+    buffer.append("/>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawRubberband(double x, double y, double width, double height) {
+    appendRect(x, y, width, height);
+    buffer.append(" stroke-dasharray=\"").append(DASH_ARRAY);
+    buffer.append("\"/>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Rectangle getClipBounds() { return clipBounds; }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void draw(Shape shape, Color fillColor) {
+    buffer.append("<path d=\"");
+    appendShapePath(buffer, shape);
+    buffer.append('"');
+    appendColor("fill", fillColor);
+    buffer.append("/>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawSymbol(Shape symbol, AffineTransform transform,
+    Color fillColor) {
+    StringBuilder pathData = new StringBuilder();
+    appendShapePath(pathData, symbol);
+    String key = pathData.toString();
+    String id = symbolIds.get(key);
+    if (id == null) {
+      id = "s" + (symbolIds.size() + 1);
+      symbolIds.put(key, id);
+      buffer.append("<defs><path id=\"").append(id).append("\" d=\"");
+      buffer.append(key).append("\"/></defs>\n");
+    }
+    buffer.append("<use xlink:href=\"#").append(id).append('"');
+    appendTransform(transform);
+    if (fillColor != null) appendColor("fill", fillColor);
+    buffer.append("/>\n");
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawLabel(String text, double x, double y, FontType fontType) {
+    appendText(text, x, y, getFont(fontType));
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void drawTextLayout(TextLayout line, String text, double x,
+    double y) {
+    appendText(text, x, y, getFont(FontType.DEFAULT));
+    writeBuffer();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public double getTextWidth(String text, FontType fontType) {
+    return fontContext.getTextWidth(text, fontType);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Font getFont(FontType fontType) {
+    return fontContext.getFont(fontType);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public FontMetrics getFontMetrics(FontType fontType) {
+    return fontContext.getFontMetrics(fontType);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public Graphics2D getGraphics2D() { return scratchGraphics; }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.draw;
+
+import java.awt.FontMetrics;
+import java.awt.font.FontRenderContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.tinyuml.draw.DrawingContext.FontType;
+
+/**
+ * A cache for the widths of label texts. Measuring a string is comparatively
+ * expensive and labels are measured again every time their element is
+ * invalidated, although most of the texts do not change. The widths are
+ * cached by font type, text and font render context, the least recently used
+ * entries are discarded if the capacity is exceeded. The cache is shared by
+ * all drawing contexts.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public final class TextMeasurementCache {
+
+  /**
+   * The default number of cached texts.
+   */
+  public static final int DEFAULT_CAPACITY = 20000;
+
+  /**
+   * The key of a measured text.
+   */
+  private static final class MeasurementKey {
+    private FontType fontType;
+    private String text;
+    private FontRenderContext fontRenderContext;
+
+    /**
+     * Constructor.
+     * @param aFontType the font type
+     * @param aText the text
+     * @param aFontRenderContext the font render context
+     */
+    MeasurementKey(FontType aFontType, String aText,
+      FontRenderContext aFontRenderContext) {
+      fontType = aFontType;
+      text = aText;
+      fontRenderContext = aFontRenderContext;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof MeasurementKey)) return false;
+      MeasurementKey other = (MeasurementKey) o;
+      return fontType == other.fontType && text.equals(other.text) &&
+        (fontRenderContext == null ? other.fontRenderContext == null :
+        fontRenderContext.equals(other.fontRenderContext));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      return (fontType.hashCode() * 31 + text.hashCode()) * 31 +
+        (fontRenderContext == null ? 0 : fontRenderContext.hashCode());
+    }
+  }
+
+  private static TextMeasurementCache instance =
+    new TextMeasurementCache(DEFAULT_CAPACITY);
+  private Map<MeasurementKey, Integer> widths;
+  private long hitCount, missCount;
+
+  /**
+   * Constructor.
+   * @param capacity the maximum number of cached texts
+   */
+  public TextMeasurementCache(final int capacity) {
+    widths = new LinkedHashMap<MeasurementKey, Integer>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      /** {@inheritDoc} */
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<MeasurementKey, Integer> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Returns the shared instance.
+   * @return the shared instance
+   */
+  public static TextMeasurementCache getInstance() { return instance; }
+
+  /**
+   * Returns the width of the specified text. If the text was not measured
+   * before, it is measured with the specified FontMetrics, which need to
+   * belong to the font of the specified font type.
+   * @param fontType the font type
+   * @param text the text
+   * @param fontMetrics the FontMetrics to measure the text with
+   * @return the width of the text
+   */
+  public synchronized int getStringWidth(FontType fontType, String text,
+    FontMetrics fontMetrics) {
+    MeasurementKey key = new MeasurementKey(fontType, text,
+      fontMetrics.getFontRenderContext());
+    Integer width = widths.get(key);
+    if (width == null) {
+      missCount++;
+      width = fontMetrics.stringWidth(text);
+      widths.put(key, width);
+    } else {
+      hitCount++;
+    }
+    return width;
+  }
+
+  /**
+   * Returns the number of cached texts.
+   * @return the number of cached texts
+   */
+  public synchronized int size() { return widths.size(); }
+
+  /**
+   * Returns the number of texts that were taken from the cache.
+   * @return the hit count
+   */
+  public synchronized long getHitCount() { return hitCount; }
+
+  /**
+   * Returns the number of texts that had to be measured.
+   * @return the miss count
+   */
+  public synchronized long getMissCount() { return missCount; }
+
+  /**
+   * Removes all cached texts and resets the statistics.
+   */
+  public synchronized void clear() {
+    widths.clear();
+    hitCount = 0;
+    missCount = 0;
+  }
+}
@@ -43,6 +43,15 @@ public class UmlModelImpl implements UmlModel {
    */
   public UmlModelImpl() { }
 
+  /**
+   * Constructor with a diagram list, e.g. one that loads its diagrams on
+   * demand.
+   * @param diagramList the diagram list
+   */
+  public UmlModelImpl(List<UmlDiagram> diagramList) {
+    diagrams = diagramList;
+  }
+
   /**
    * {@inheritDoc}
    */
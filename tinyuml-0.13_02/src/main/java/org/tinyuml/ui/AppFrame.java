@@ -30,9 +30,10 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.text.MessageFormat;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -45,15 +46,21 @@ import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JToolBar;
 import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import org.tinyuml.draw.Label;
 import org.tinyuml.draw.DiagramElement;
 import org.tinyuml.draw.LabelChangeListener;
+import org.tinyuml.model.UmlDiagram;
 import org.tinyuml.model.UmlModel;
 import org.tinyuml.util.AppCommandListener;
 import org.tinyuml.umldraw.structure.StructureDiagram;
 import org.tinyuml.model.UmlModelImpl;
+import org.tinyuml.ui.commands.LazyDiagramList;
+import org.tinyuml.ui.commands.ModelJournal;
 import org.tinyuml.ui.commands.ModelReader;
+import org.tinyuml.ui.commands.ModelSaveListener;
 import org.tinyuml.ui.commands.ModelWriter;
 import org.tinyuml.ui.commands.PngExporter;
 import org.tinyuml.ui.commands.SvgExporter;
@@ -75,11 +82,13 @@ import org.tinyuml.util.MethodCall;
 
 
 public class AppFrame extends JFrame
-implements EditorStateListener, AppCommandListener, SelectionListener {
+implements EditorStateListener, AppCommandListener, SelectionListener,
+  ModelSaveListener {
 
   private JTabbedPane tabbedPane;
   private JLabel coordLabel = new JLabel("    ");
   private JLabel memLabel = new JLabel("    ");
+  private JLabel statusLabel = new JLabel();
   private UmlModel umlModel;
   private DiagramEditor currentEditor;
   private transient Timer timer = new Timer();
@@ -88,7 +97,9 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
   private transient MainToolbarManager toolbarmanager;
   private transient MenuManager menumanager;
   private transient File currentFile;
-  private LinkedList<DiagramEditor> diagramEditors;
+  private transient ModelJournal journal;
+  private transient boolean unsavedChanges;
+  private Map<Component, DiagramEditor> diagramEditors;
   private Collection<DiagramElement> lastCopiedElements;
   private transient Map<String, MethodCall> selectorMap =
     new HashMap<String, MethodCall>();
@@ -109,6 +120,7 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
     toolbarmanager = null;
     menumanager = null;
     currentFile = null;
+    journal = null;
     initSelectorMap();
   }
 
@@ -119,7 +131,7 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
    */
   public AppFrame() {
 	
-	diagramEditors = new LinkedList<DiagramEditor>();
+	diagramEditors = new HashMap<Component, DiagramEditor>();
 	lastCopiedElements = null;
 		
     setTitle(getResourceString("application.title"));
@@ -143,7 +155,12 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
     newModel();
     pack();
     scheduleMemTimer();
+    scheduleJournalTimer();
     initSelectorMap();
+    SwingUtilities.invokeLater(new Runnable() {
+      /** {@inheritDoc} */
+      public void run() { recoverUntitledModel(); }
+    });
     //setExtendedState(JFrame.MAXIMIZED_BOTH);
   }
  
@@ -182,21 +199,111 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
   private JTabbedPane createEditorArea() {
     tabbedPane = new JTabbedPane();
     tabbedPane.setPreferredSize(new Dimension(800, 600));
+    tabbedPane.addChangeListener(new ChangeListener() {
+      /** {@inheritDoc} */
+      public void stateChanged(ChangeEvent e) {
+        selectedTabChanged();
+      }
+    });
     return tabbedPane;
   }
 
+  /**
+   * Creates the tabs for the diagrams of the current model. Diagrams that
+   * were not loaded yet only get an empty tab, they are loaded when their
+   * tab is selected for the first time.
+   */
+  private void createEditors() {
+    tabbedPane.removeAll();
+    diagramEditors.clear();
+    List<? extends UmlDiagram> diagrams = umlModel.getDiagrams();
+    LazyDiagramList lazyDiagrams = diagrams instanceof LazyDiagramList ?
+      (LazyDiagramList) diagrams : null;
+    for (int i = 0; i < diagrams.size(); i++) {
+      if (i > 0 && lazyDiagrams != null && !lazyDiagrams.isLoaded(i)) {
+        tabbedPane.add(lazyDiagrams.getDiagramName(i), new JPanel());
+      } else {
+        createEditor((StructureDiagram) diagrams.get(i));
+      }
+    }
+    tabbedPane.setSelectedIndex(0);
+    // the first tab is already selected, so the listener is not notified
+    currentEditor = diagramEditors.get(tabbedPane.getComponentAt(
+      tabbedPane.getSelectedIndex()));
+  }
+
+  /**
+   * Decodes the diagrams that were not opened yet on background threads, so
+   * selecting their tabs does not have to wait for them.
+   */
+  private void preloadDiagrams() {
+    if (!(umlModel.getDiagrams() instanceof LazyDiagramList)) return;
+    final LazyDiagramList diagrams = (LazyDiagramList) umlModel.getDiagrams();
+    Thread loader = new Thread(new Runnable() {
+      /** {@inheritDoc} */
+      public void run() {
+        try {
+          diagrams.loadAll(Runtime.getRuntime().availableProcessors());
+        } catch (IOException ex) {
+          // the error is reported when the diagram's tab is selected
+          ex.printStackTrace();
+        }
+      }
+    }, "diagram loader");
+    loader.setDaemon(true);
+    loader.start();
+  }
+
+  /**
+   * Makes the editor in the selected tab the current editor, the diagram is
+   * loaded if necessary.
+   */
+  private void selectedTabChanged() {
+    int index = tabbedPane.getSelectedIndex();
+    if (index < 0) return;
+    DiagramEditor editor = diagramEditors.get(tabbedPane.getComponentAt(index));
+    if (editor == null) {
+      try {
+        StructureDiagram diagram =
+          (StructureDiagram) umlModel.getDiagrams().get(index);
+        Component editorPanel = createEditorPanel(diagram);
+        tabbedPane.setComponentAt(index, editorPanel);
+        editor = diagramEditors.get(editorPanel);
+      } catch (IllegalStateException ex) {
+        JOptionPane.showMessageDialog(this, ex.getMessage(),
+          getResourceString("error.readfile.title"),
+          JOptionPane.ERROR_MESSAGE);
+        return;
+      }
+    }
+    if (editor != currentEditor) {
+      currentEditor = editor;
+      updateMenuAndToolbars(currentEditor);
+    }
+  }
+
   /**
    * Creates an editor for the specified diagram and adds it to the tabbed
    * pane.
    * @param diagram the diagram
    */
   private void createEditor(StructureDiagram diagram) {
-    currentEditor = new DiagramEditor(this, diagram);
-    currentEditor.addEditorStateListener(this);
-    currentEditor.addSelectionListener(this);
-    currentEditor.addAppCommandListener(editorDispatcher);
-    currentEditor.addAppCommandListener(this);
-    JScrollPane spane = new JScrollPane(currentEditor);
+    tabbedPane.add(diagram.getLabelText(), createEditorPanel(diagram));
+  }
+
+  /**
+   * Creates an editor for the specified diagram and the panel that contains
+   * it.
+   * @param diagram the diagram
+   * @return the editor panel
+   */
+  private Component createEditorPanel(StructureDiagram diagram) {
+    DiagramEditor editor = new DiagramEditor(this, diagram);
+    editor.addEditorStateListener(this);
+    editor.addSelectionListener(this);
+    editor.addAppCommandListener(editorDispatcher);
+    editor.addAppCommandListener(this);
+    JScrollPane spane = new JScrollPane(editor);
     JPanel editorPanel = new JPanel(new BorderLayout());
     spane.getVerticalScrollBar().setUnitIncrement(10);
     spane.getHorizontalScrollBar().setUnitIncrement(10);
@@ -205,7 +312,8 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
     staticToolbarManager.addCommandListener(editorDispatcher);
     editorPanel.add(spane, BorderLayout.CENTER);
     editorPanel.add(toolbar, BorderLayout.NORTH);
-    final Component comp = tabbedPane.add(diagram.getLabelText(), editorPanel);
+    final Component comp = editorPanel;
+    diagramEditors.put(comp, editor);
     diagram.addNameLabelChangeListener(new LabelChangeListener() {
       /** {@inheritDoc} */
       public void labelTextChanged(Label label) {
@@ -213,6 +321,7 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
                               label.getText());
       }
     });
+    return editorPanel;
   }
 
   /**
@@ -241,6 +350,7 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
   private void installStatusbar() {
     JPanel statusbar = new JPanel(new BorderLayout());
     statusbar.add(coordLabel, BorderLayout.WEST);
+    statusbar.add(statusLabel, BorderLayout.CENTER);
     statusbar.add(memLabel, BorderLayout.EAST);
     getContentPane().add(statusbar, BorderLayout.SOUTH);
   }
@@ -277,6 +387,13 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
     updateMenuAndToolbars(editor);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public void diagramModified(DiagramEditor editor) {
+    journal.diagramModified(editor.getDiagram());
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -385,6 +502,7 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
    */
   public void quitApplication() {
     if (canQuit()) {
+      journal.discard();
       timer.cancel();
       timer.purge();
       dispose();
@@ -397,7 +515,7 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
    * @return true if can quit safely, false otherwise
    */
   private boolean canQuit() {
-    if (currentEditor.canUndo()) {
+    if (isModified()) {
       return JOptionPane.showConfirmDialog(this,
         ApplicationResources.getInstance().getString("confirm.quit.message"),
         ApplicationResources.getInstance().getString("confirm.quit.title"),
@@ -422,8 +540,100 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
       StructureDiagram diagram = new StructureDiagram(umlModel);
       umlModel.addDiagram(diagram);
       diagram.setLabelText("Class diagram 1");
-      tabbedPane.removeAll();
-      createEditor(diagram);
+      createEditors();
+      startJournal(null);
+    }
+  }
+
+  /**
+   * Determines whether the model has changes that were not saved. Changes
+   * that were recovered or could not be saved are not in the undo history,
+   * and changes that are being saved in the background are not saved until
+   * the file is written.
+   * @return true if the model was modified
+   */
+  private boolean isModified() {
+    return currentEditor.canUndo() || unsavedChanges || journal.isSaving();
+  }
+
+  /**
+   * Discards the journal of the previous model and starts a journal for the
+   * current model.
+   * @param file the model file, null if the model was not saved yet
+   */
+  private void startJournal(File file) {
+    if (journal != null) journal.discard();
+    journal = new ModelJournal(file);
+    unsavedChanges = false;
+  }
+
+  /**
+   * Offers to recover the changes from a journal that was left by a previous
+   * session.
+   * @param file the model file, null for a model that was not saved yet
+   * @return true if the model was recovered
+   */
+  private boolean recoverModel(File file) {
+    if (!ModelJournal.canRecover(file)) return false;
+    boolean recover = JOptionPane.showConfirmDialog(this,
+      getResourceString("confirm.recover.message"),
+      getResourceString("confirm.recover.title"),
+      JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
+    if (recover) {
+      try {
+        umlModel = ModelJournal.recover(file);
+        // the recovered model replaces the journal it was read from
+        journal.compact(umlModel);
+        unsavedChanges = true;
+        return true;
+      } catch (IOException ex) {
+        ex.printStackTrace();
+        JOptionPane.showMessageDialog(this, ex.getMessage(),
+          getResourceString("error.readfile.title"),
+          JOptionPane.ERROR_MESSAGE);
+      }
+    }
+    journal.discard();
+    return false;
+  }
+
+  /**
+   * Offers to recover the changes to a model that was never saved.
+   */
+  private void recoverUntitledModel() {
+    if (currentFile == null && !isModified() && recoverModel(null)) {
+      createEditors();
+    }
+  }
+
+  /**
+   * Starts the timer task that writes the changes to the journal.
+   */
+  private void scheduleJournalTimer() {
+    TimerTask task = new TimerTask() {
+      public void run() {
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            flushJournal();
+          }
+        });
+      }
+    };
+    // every 2 seconds
+    timer.schedule(task, 2000, 2000);
+  }
+
+  /**
+   * Writes the changes since the last call to the journal.
+   */
+  private void flushJournal() {
+    try {
+      journal.flush(umlModel);
+    } catch (IOException ex) {
+      // the changes are recorded again with the next flush
+      ex.printStackTrace();
+      statusLabel.setText(MessageFormat.format(
+        getResourceString("status.journalfailed"), ex.getMessage()));
     }
   }
 
@@ -432,7 +642,7 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
    * @return true the model can be created, false otherwise
    */
   private boolean canCreateNewModel() {
-    if (currentEditor != null && currentEditor.canUndo()) {
+    if (currentEditor != null && isModified()) {
       return JOptionPane.showConfirmDialog(this,
         ApplicationResources.getInstance().getString("confirm.new.message"),
         ApplicationResources.getInstance().getString("confirm.new.title"),
@@ -528,8 +738,10 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
         try {
           currentFile = fileChooser.getSelectedFile();
           umlModel = ModelReader.getInstance().readModel(currentFile);
-          tabbedPane.removeAll();
-          createEditor((StructureDiagram) umlModel.getDiagrams().get(0));
+          startJournal(currentFile);
+          recoverModel(currentFile);
+          createEditors();
+          preloadDiagrams();
           updateFrameTitle();
         } catch (IOException ex) {
           JOptionPane.showMessageDialog(this, ex.getMessage(),
@@ -545,7 +757,7 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
    * @return true if can quit safely, false otherwise
    */
   private boolean canOpen() {
-    if (currentEditor.canUndo()) {
+    if (isModified()) {
       return JOptionPane.showConfirmDialog(this,
         ApplicationResources.getInstance().getString("confirm.open.message"),
         ApplicationResources.getInstance().getString("confirm.open.title"),
@@ -562,8 +774,11 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
     fileChooser.setDialogTitle(getResourceString("dialog.saveas.title"));
     fileChooser.addChoosableFileFilter(createModelFileFilter());
     if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
-      currentFile = saveModelFile(fileChooser.getSelectedFile());
-      updateFrameTitle();
+      File file = saveModelFile(fileChooser.getSelectedFile());
+      if (file != null) {
+        currentFile = file;
+        updateFrameTitle();
+      }
     }
   }
 
@@ -579,17 +794,24 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
   }
 
   /**
-   * Writes the current model file. The returned file is different if the input
-   * file does not have the tsm extension.
+   * Writes the current model file. The model is written in the background,
+   * editing can continue while the file is written. The returned file is
+   * different if the input file does not have the tsm extension.
    * @param file the file to write
-   * @return the file that was written
+   * @return the file that is written or null if it is not written
    */
   private File saveModelFile(File file) {
     File result = null;
     try {
-      result = ModelWriter.getInstance().writeModel(this, file, umlModel);
-      currentEditor.clearUndoManager();
-      updateMenuAndToolbars(currentEditor);
+      result = ModelWriter.getInstance().saveModel(this, file, umlModel,
+        this);
+      if (result != null) {
+        saveProgress(result, 0);
+        journal.saveStarted();
+        unsavedChanges = false;
+        currentEditor.clearUndoManager();
+        updateMenuAndToolbars(currentEditor);
+      }
     } catch (IOException ex) {
       ex.printStackTrace();
       JOptionPane.showMessageDialog(this, ex.getMessage(),
@@ -598,6 +820,35 @@ implements EditorStateListener, AppCommandListener, SelectionListener {
     return result;
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public void saveProgress(File file, int percent) {
+    statusLabel.setText(MessageFormat.format(
+      getResourceString("status.saving"), file.getName(), percent));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void saveFinished(File file) {
+    journal.saveFinished(file);
+    statusLabel.setText(MessageFormat.format(
+      getResourceString("status.saved"), file.getName()));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void saveFailed(File file, IOException ex) {
+    journal.saveFailed(umlModel);
+    unsavedChanges = true;
+    ex.printStackTrace();
+    statusLabel.setText("");
+    JOptionPane.showMessageDialog(this, ex.getMessage(),
+      getResourceString("error.savefile.title"), JOptionPane.ERROR_MESSAGE);
+  }
+
   /**
    * Sets the frame title according to the current working file.
    */
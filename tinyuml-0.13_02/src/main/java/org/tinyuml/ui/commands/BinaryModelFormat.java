@@ -0,0 +1,114 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.commands;
+
+/**
+ * Constants of the binary model format. A binary model file starts with the
+ * magic bytes, the format version and the format flags, followed by a table
+ * of contents with the name and the length of each diagram chunk, and then
+ * the chunks themselves. Version 1 files have no names in the table of
+ * contents, files before version 3 have no flags. If the file is compressed,
+ * each chunk is compressed on its own and the table of contents also lists
+ * the uncompressed length.
+ * The table of contents allows to decode each diagram on its own, only when
+ * it is needed. A chunk is self-contained: it starts
+ * with its own string table, followed by the diagram and its elements, which
+ * reference each other by ids rather than by object references.
+ * Numbers are written as variable length integers, coordinates as fixed point
+ * deltas (see BinaryModelOutput).
+ *
+ * @author agent
+ * @version 1.0
+ */
+public final class BinaryModelFormat {
+
+  /**
+   * The magic bytes at the start of a binary model file. Files written by
+   * Java serialization start with 0xACED instead.
+   */
+  public static final byte[] MAGIC = { 'T', 'S', 'M', 'B' };
+
+  /**
+   * The current format version.
+   */
+  public static final int VERSION = 3;
+
+  /**
+   * Format flag for files whose chunks are compressed with a Deflater.
+   */
+  public static final int FORMAT_COMPRESSED = 1;
+
+  // Node kinds
+  public static final int NODE_CLASS = 1;
+  public static final int NODE_COMPONENT = 2;
+  public static final int NODE_PACKAGE = 3;
+  public static final int NODE_NOTE = 4;
+
+  // Relation kinds
+  public static final int RELATION_ASSOCIATION = 1;
+  public static final int RELATION_DEPENDENCY = 2;
+  public static final int RELATION_COMPOSITION = 3;
+  public static final int RELATION_AGGREGATION = 4;
+  public static final int RELATION_INHERITANCE = 5;
+  public static final int RELATION_INTERFACE_REALIZATION = 6;
+  public static final int RELATION_NOTE_CONNECTOR = 7;
+
+  // Class flags
+  public static final int CLASS_ABSTRACT = 1;
+  public static final int CLASS_SHOW_ATTRIBUTES = 2;
+  public static final int CLASS_SHOW_OPERATIONS = 4;
+  public static final int CLASS_SHOW_STEREOTYPES = 8;
+
+  // Connection flags
+  public static final int CONNECTION_RECTILINEAR = 1;
+  public static final int CONNECTION_DASHED = 2;
+  public static final int CONNECTION_VALID = 4;
+  public static final int CONNECTION_HAS_RELATION = 8;
+
+  // Relation flags
+  public static final int RELATION_NAVIGABLE_1 = 1;
+  public static final int RELATION_NAVIGABLE_2 = 2;
+  public static final int RELATION_CAN_SET_NAVIGABILITY_1 = 4;
+  public static final int RELATION_CAN_SET_NAVIGABILITY_2 = 8;
+
+  // Association flags
+  public static final int ASSOCIATION_SHOW_NAME = 1;
+  public static final int ASSOCIATION_SHOW_MULTIPLICITIES = 2;
+
+  /**
+   * Private constructor.
+   */
+  private BinaryModelFormat() { }
+
+  /**
+   * Determines whether the specified header starts with the magic bytes of
+   * the binary format.
+   * @param header the first bytes of a file
+   * @param length the number of valid bytes in header
+   * @return true if the header denotes a binary model file
+   */
+  public static boolean isBinaryFormat(byte[] header, int length) {
+    if (length < MAGIC.length) return false;
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (header[i] != MAGIC[i]) return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.commands;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the primitives written by BinaryModelOutput from a ByteBuffer.
+ * Before strings can be read, the string table has to be read with
+ * readStringTable().
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class BinaryModelInput {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private ByteBuffer buffer;
+  private String[] strings = new String[1];
+
+  /**
+   * Constructor.
+   * @param aBuffer the buffer to read from, starting at its position
+   */
+  public BinaryModelInput(ByteBuffer aBuffer) {
+    buffer = aBuffer;
+  }
+
+  /**
+   * Decompresses data that was compressed with BinaryModelOutput.deflate().
+   * @param data the compressed data
+   * @param size the uncompressed size
+   * @return the uncompressed data
+   * @throws IOException if the data is corrupt
+   */
+  public static ByteBuffer inflate(ByteBuffer data, int size)
+    throws IOException {
+    byte[] input;
+    int offset = 0;
+    if (data.hasArray()) {
+      input = data.array();
+      offset = data.arrayOffset() + data.position();
+    } else {
+      input = new byte[data.remaining()];
+      data.duplicate().get(input);
+    }
+    byte[] result = new byte[size];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(input, offset, data.remaining());
+      int count = 0;
+      while (count < size && !inflater.finished()) {
+        int inflated = inflater.inflate(result, count, size - count);
+        if (inflated == 0 && (inflater.needsInput() ||
+            inflater.needsDictionary())) {
+          break;
+        }
+        count += inflated;
+      }
+      if (count != size) throw new IOException("corrupt compressed data");
+    } catch (DataFormatException ex) {
+      throw new IOException("corrupt compressed data");
+    } finally {
+      inflater.end();
+    }
+    return ByteBuffer.wrap(result);
+  }
+
+  /**
+   * Reads a single unsigned byte.
+   * @return the byte value
+   */
+  public int readByte() { return buffer.get() & 0xff; }
+
+  /**
+   * Reads a variable length quantity.
+   * @return the value
+   * @throws IOException if the value is malformed
+   */
+  public long readVarLong() throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      result |= (long) (b & 0x7f) << shift;
+      if (b >= 0) return result;
+    }
+    throw new IOException("malformed number");
+  }
+
+  /**
+   * Reads a variable length quantity that fits into an int.
+   * @return the value
+   * @throws IOException if the value is malformed
+   */
+  public int readVarInt() throws IOException {
+    long value = readVarLong();
+    if ((value & ~0xffffffffL) != 0) {
+      throw new IOException("malformed number");
+    }
+    return (int) value;
+  }
+
+  /**
+   * Reads a non-negative count, which has to be smaller than the number of
+   * remaining bytes, so corrupt files do not cause huge allocations.
+   * @return the count
+   * @throws IOException if the value is out of range
+   */
+  public int readCount() throws IOException {
+    int value = readVarInt();
+    if (value < 0 || value > buffer.remaining()) {
+      throw new IOException("invalid count: " + value);
+    }
+    return value;
+  }
+
+  /**
+   * Reads a signed int value.
+   * @return the value
+   * @throws IOException if the value is malformed
+   */
+  public int readSignedVarInt() throws IOException {
+    int value = readVarInt();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Reads a coordinate that was written relative to the specified reference.
+   * @param reference the reference value
+   * @return the coordinate
+   * @throws IOException if the value is malformed
+   */
+  public double readCoordinate(double reference) throws IOException {
+    long code = readVarLong();
+    int tag = (int) (code & 3);
+    if (tag == BinaryModelOutput.COORDINATE_RAW) {
+      return Double.longBitsToDouble(buffer.getLong());
+    }
+    long zigzag = code >>> 2;
+    long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+    if (tag == BinaryModelOutput.COORDINATE_INTEGRAL) return reference + delta;
+    if (tag == BinaryModelOutput.COORDINATE_FIXED) {
+      return reference + delta / BinaryModelOutput.COORDINATE_SCALE;
+    }
+    throw new IOException("malformed coordinate");
+  }
+
+  /**
+   * Reads the string table.
+   * @throws IOException if the table is malformed
+   */
+  public void readStringTable() throws IOException {
+    int size = readCount();
+    strings = new String[size + 1];
+    for (int i = 1; i <= size; i++) strings[i] = readRawString();
+  }
+
+  /**
+   * Reads a string that was written with writeRawString().
+   * @return the string
+   * @throws IOException if the data is malformed
+   */
+  public String readRawString() throws IOException {
+    int length = readCount();
+    String result;
+    if (buffer.hasArray()) {
+      result = new String(buffer.array(),
+        buffer.arrayOffset() + buffer.position(), length, UTF8);
+      buffer.position(buffer.position() + length);
+    } else {
+      result = decodeString(length);
+    }
+    return result;
+  }
+
+  /**
+   * Decodes a string directly from a buffer that is not backed by an array,
+   * e.g. a mapped file. Names are mostly ASCII, which does not need a
+   * decoder.
+   * @param length the encoded length
+   * @return the string
+   */
+  private String decodeString(int length) {
+    int start = buffer.position();
+    char[] chars = new char[length];
+    int i = 0;
+    while (i < length) {
+      byte b = buffer.get(start + i);
+      if (b < 0) break;
+      chars[i++] = (char) b;
+    }
+    String result;
+    if (i == length) {
+      result = new String(chars);
+    } else {
+      ByteBuffer encoded = buffer.slice();
+      encoded.limit(length);
+      result = UTF8.decode(encoded).toString();
+    }
+    buffer.position(start + length);
+    return result;
+  }
+
+  /**
+   * Reads a string as an index into the string table.
+   * @return the string, can be null
+   * @throws IOException if the index is out of range
+   */
+  public String readString() throws IOException {
+    int index = readVarInt();
+    if (index < 0 || index >= strings.length) {
+      throw new IOException("invalid string index: " + index);
+    }
+    return strings[index];
+  }
+}
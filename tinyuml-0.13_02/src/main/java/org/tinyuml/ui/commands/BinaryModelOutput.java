@@ -0,0 +1,318 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.commands;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An unsynchronized, growable byte buffer that encodes the primitives of the
+ * binary model format. Integers are written as variable length quantities,
+ * 7 bits per byte, low order groups first. Strings are collected in a string
+ * table and written as indexes into the table, index 0 denotes null.
+ * Coordinates are written as the difference to a reference value, either in
+ * whole units or in 1/64 units, which covers the values produced by the
+ * editor in one to three bytes. Values that can not be represented exactly
+ * that way are written as raw doubles, so the encoding is lossless.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class BinaryModelOutput {
+
+  /**
+   * The number of fixed point units per coordinate unit.
+   */
+  public static final double COORDINATE_SCALE = 64.0;
+  /** Tag for a coordinate difference in whole units. */
+  public static final int COORDINATE_INTEGRAL = 0;
+  /** Tag for a coordinate difference in fixed point units. */
+  public static final int COORDINATE_FIXED = 1;
+  /** Tag for a raw double coordinate. */
+  public static final int COORDINATE_RAW = 2;
+  private static final double MAX_FIXED = (double) (1L << 52);
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private byte[] buffer;
+  private int count;
+  private Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+  private List<String> strings = new ArrayList<String>();
+
+  /**
+   * Constructor.
+   * @param initialCapacity the initial buffer size
+   */
+  public BinaryModelOutput(int initialCapacity) {
+    buffer = new byte[Math.max(16, initialCapacity)];
+  }
+
+  /**
+   * Returns the number of bytes written.
+   * @return the number of bytes written
+   */
+  public int size() { return count; }
+
+  /**
+   * Returns the strings that were written with writeString() in the order
+   * of their indexes, starting with index 1.
+   * @return the string table
+   */
+  public List<String> getStrings() { return strings; }
+
+  /**
+   * Writes a single byte.
+   * @param value the byte value
+   */
+  public void writeByte(int value) {
+    ensureCapacity(1);
+    buffer[count++] = (byte) value;
+  }
+
+  /**
+   * Writes the specified bytes.
+   * @param bytes the bytes
+   * @param offset the start offset
+   * @param length the number of bytes
+   */
+  public void writeBytes(byte[] bytes, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(bytes, offset, buffer, count, length);
+    count += length;
+  }
+
+  /**
+   * Appends the contents of another output. The string table of the other
+   * output is not merged.
+   * @param other the other output
+   */
+  public void writeOutput(BinaryModelOutput other) {
+    writeBytes(other.buffer, 0, other.count);
+  }
+
+  /**
+   * Writes a non-negative long value as a variable length quantity.
+   * @param value the value
+   */
+  public void writeVarLong(long value) {
+    ensureCapacity(10);
+    while ((value & ~0x7fL) != 0) {
+      buffer[count++] = (byte) ((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    buffer[count++] = (byte) value;
+  }
+
+  /**
+   * Writes a non-negative int value as a variable length quantity.
+   * @param value the value
+   */
+  public void writeVarInt(int value) {
+    writeVarLong(value & 0xffffffffL);
+  }
+
+  /**
+   * Writes a signed int value, small negative values are mapped to small
+   * positive values before encoding.
+   * @param value the value
+   */
+  public void writeSignedVarInt(int value) {
+    writeVarInt((value << 1) ^ (value >> 31));
+  }
+
+  /**
+   * Writes a coordinate relative to a reference value. The lowest two bits
+   * of the written quantity tell whether an integral difference, a fixed
+   * point difference or a raw double is written.
+   * @param value the value to write
+   * @param reference the reference value
+   */
+  public void writeCoordinate(double value, double reference) {
+    double diff = value - reference;
+    double units = Math.rint(diff * COORDINATE_SCALE);
+    if (Math.abs(diff) < MAX_FIXED && Math.rint(diff) == diff &&
+        isSame(reference + diff, value)) {
+      writeTaggedDelta((long) diff, COORDINATE_INTEGRAL);
+    } else if (Math.abs(units) < MAX_FIXED &&
+               isSame(reference + units / COORDINATE_SCALE, value)) {
+      writeTaggedDelta((long) units, COORDINATE_FIXED);
+    } else {
+      writeVarLong(COORDINATE_RAW);
+      long bits = Double.doubleToLongBits(value);
+      ensureCapacity(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[count++] = (byte) (bits >>> shift);
+      }
+    }
+  }
+
+  /**
+   * Compares two doubles bitwise, so the sign of zero is preserved.
+   * @param value1 the first value
+   * @param value2 the second value
+   * @return true if both values have the same representation
+   */
+  private static boolean isSame(double value1, double value2) {
+    return Double.doubleToLongBits(value1) == Double.doubleToLongBits(value2);
+  }
+
+  /**
+   * Writes a signed difference together with a coordinate tag.
+   * @param delta the difference
+   * @param tag the tag
+   */
+  private void writeTaggedDelta(long delta, int tag) {
+    writeVarLong((((delta << 1) ^ (delta >> 63)) << 2) | tag);
+  }
+
+  /**
+   * Writes a string as an index into the string table. Equal strings share
+   * the same index.
+   * @param str the string, can be null
+   */
+  public void writeString(String str) {
+    if (str == null) {
+      writeVarInt(0);
+      return;
+    }
+    Integer index = stringIndexes.get(str);
+    if (index == null) {
+      strings.add(str);
+      index = strings.size();
+      stringIndexes.put(str, index);
+    }
+    writeVarInt(index);
+  }
+
+  /**
+   * Writes the specified strings as a string table.
+   * @param table the string table
+   */
+  public void writeStringTable(List<String> table) {
+    writeVarInt(table.size());
+    for (String str : table) writeRawString(str);
+  }
+
+  /**
+   * Writes a string directly as its length followed by the UTF-8 bytes.
+   * @param str the string
+   */
+  public void writeRawString(String str) {
+    byte[] bytes = str.getBytes(UTF8);
+    writeVarInt(bytes.length);
+    writeBytes(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Writes the remaining bytes of the specified buffer. The position of the
+   * buffer is not changed.
+   * @param data the buffer
+   */
+  public void writeBuffer(ByteBuffer data) {
+    int length = data.remaining();
+    ensureCapacity(length);
+    data.duplicate().get(buffer, count, length);
+    count += length;
+  }
+
+  /**
+   * Writes the contents of this buffer to the specified stream.
+   * @param out the OutputStream
+   * @throws IOException if an I/O error occurred
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(buffer, 0, count);
+  }
+
+  /**
+   * Returns a buffer that wraps the bytes written so far.
+   * @return the buffer
+   */
+  public ByteBuffer toByteBuffer() {
+    return ByteBuffer.wrap(buffer, 0, count);
+  }
+
+  /**
+   * Compresses the bytes written so far.
+   * @param level the compression level of the Deflater
+   * @return the compressed data
+   */
+  public BinaryModelOutput deflate(int level) {
+    BinaryModelOutput result = new BinaryModelOutput(count / 4 + 64);
+    Deflater deflater = new Deflater(level);
+    try {
+      deflater.setInput(buffer, 0, count);
+      deflater.finish();
+      while (!deflater.finished()) {
+        result.ensureCapacity(4096);
+        result.count += deflater.deflate(result.buffer, result.count,
+          result.buffer.length - result.count);
+      }
+    } finally {
+      deflater.end();
+    }
+    return result;
+  }
+
+  /**
+   * Returns the CRC-32 checksum of the bytes written so far.
+   * @return the checksum
+   */
+  public long getChecksum() {
+    CRC32 crc = new CRC32();
+    crc.update(buffer, 0, count);
+    return crc.getValue();
+  }
+
+  /**
+   * Writes a range of this buffer to the specified stream.
+   * @param out the OutputStream
+   * @param offset the start of the range
+   * @param length the length of the range
+   * @throws IOException if an I/O error occurred
+   */
+  public void writeTo(OutputStream out, int offset, int length)
+    throws IOException {
+    if (offset < 0 || length < 0 || offset + length > count) {
+      throw new IndexOutOfBoundsException();
+    }
+    out.write(buffer, offset, length);
+  }
+
+  /**
+   * Makes sure the buffer can hold the specified number of additional bytes.
+   * @param additional the number of additional bytes
+   */
+  private void ensureCapacity(int additional) {
+    if (count + additional > buffer.length) {
+      byte[] newBuffer = new byte[Math.max(buffer.length * 2,
+        count + additional)];
+      System.arraycopy(buffer, 0, newBuffer, 0, count);
+      buffer = newBuffer;
+    }
+  }
+}
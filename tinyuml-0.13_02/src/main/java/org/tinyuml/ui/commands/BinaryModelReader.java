@@ -0,0 +1,406 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.commands;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.tinyuml.draw.CompositeNode;
+import org.tinyuml.draw.Connection;
+import org.tinyuml.draw.RectilinearConnection;
+import org.tinyuml.draw.SimpleConnection;
+import org.tinyuml.model.ElementType;
+import org.tinyuml.model.Multiplicity;
+import org.tinyuml.model.Relation;
+import org.tinyuml.model.RelationType;
+import org.tinyuml.model.UmlClass;
+import org.tinyuml.model.UmlModel;
+import org.tinyuml.model.UmlModelImpl;
+import org.tinyuml.model.UmlProperty;
+import org.tinyuml.model.UmlRelation;
+import org.tinyuml.model.UmlStereotype;
+import org.tinyuml.umldraw.shared.NoteElement;
+import org.tinyuml.umldraw.shared.UmlConnection;
+import org.tinyuml.umldraw.shared.UmlNode;
+import org.tinyuml.umldraw.structure.Association;
+import org.tinyuml.umldraw.structure.ClassElement;
+import org.tinyuml.umldraw.structure.DiagramElementFactory;
+import org.tinyuml.umldraw.structure.StructureDiagram;
+import static org.tinyuml.ui.commands.BinaryModelFormat.*;
+
+/**
+ * Reads a UmlModel that was written by BinaryModelWriter. The diagrams are
+ * decoded on demand by a LazyDiagramList. The elements are created by the
+ * diagram's element factory and then set to the stored
+ * state, so they are wired up the same way as elements created in the
+ * editor.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class BinaryModelReader {
+
+  private static final Relation.ReadingDirection[] READING_DIRECTIONS =
+    Relation.ReadingDirection.values();
+  private static final int MAX_COMPRESSION_RATIO = 1032;
+  private BinaryModelInput in;
+  private DiagramElementFactory factory;
+  private List<UmlNode> nodes;
+
+  /**
+   * Reads the table of contents of a model from the specified buffer. The
+   * diagrams are decoded when they are accessed for the first time, so the
+   * buffer must not be modified afterwards.
+   * @param buffer the buffer, starting at the magic bytes
+   * @return the model
+   * @throws IOException if the data is not a valid binary model
+   */
+  public UmlModel readModel(ByteBuffer buffer) throws IOException {
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      buffer.get(magic);
+      if (!isBinaryFormat(magic, magic.length)) {
+        throw new IOException("not a binary model file");
+      }
+      in = new BinaryModelInput(buffer);
+      int version = in.readVarInt();
+      if (version < 1 || version > VERSION) {
+        throw new IOException("unsupported format version: " + version);
+      }
+      int flags = version >= 3 ? in.readVarInt() : 0;
+      if ((flags & ~FORMAT_COMPRESSED) != 0) {
+        throw new IOException("unsupported format flags: " + flags);
+      }
+      boolean compressed = (flags & FORMAT_COMPRESSED) != 0;
+      int numDiagrams = in.readCount();
+      int[] chunkSizes = new int[numDiagrams];
+      int[] uncompressedSizes = new int[numDiagrams];
+      String[] names = new String[numDiagrams];
+      for (int i = 0; i < numDiagrams; i++) {
+        chunkSizes[i] = in.readCount();
+        if (version >= 2) names[i] = in.readRawString();
+        uncompressedSizes[i] = compressed ? in.readVarInt() : -1;
+        // the Deflater can not compress by more than about 1:1032
+        if (uncompressedSizes[i] / MAX_COMPRESSION_RATIO > chunkSizes[i]) {
+          throw new IOException("invalid chunk size");
+        }
+      }
+      LazyDiagramList diagrams = new LazyDiagramList();
+      UmlModel model = new UmlModelImpl(diagrams);
+      diagrams.setModel(model);
+      int position = buffer.position();
+      for (int i = 0; i < numDiagrams; i++) {
+        if (chunkSizes[i] > buffer.limit() - position) {
+          throw new IOException("truncated file");
+        }
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.position(position);
+        chunk.limit(position + chunkSizes[i]);
+        diagrams.addCompressedChunk(names[i], chunk.slice(),
+          uncompressedSizes[i]);
+        position += chunkSizes[i];
+      }
+      return model;
+    } catch (BufferUnderflowException ex) {
+      throw new IOException("truncated file");
+    } finally {
+      in = null;
+    }
+  }
+
+  /**
+   * Reads a diagram from its chunk.
+   * @param model the model the diagram belongs to
+   * @param chunk the chunk data
+   * @return the diagram
+   * @throws IOException if the chunk is not valid
+   */
+  public StructureDiagram readDiagram(UmlModel model, ByteBuffer chunk)
+    throws IOException {
+    try {
+      return decodeDiagram(model, chunk);
+    } catch (BufferUnderflowException ex) {
+      throw new IOException("truncated diagram");
+    } finally {
+      in = null;
+      factory = null;
+      nodes = null;
+    }
+  }
+
+  /**
+   * Decodes a diagram.
+   * @param model the model the diagram belongs to
+   * @param chunk the chunk data
+   * @return the diagram
+   * @throws IOException if the chunk is not valid
+   */
+  private StructureDiagram decodeDiagram(UmlModel model, ByteBuffer chunk)
+    throws IOException {
+    in = new BinaryModelInput(chunk);
+    in.readStringTable();
+    StructureDiagram diagram = new StructureDiagram(model);
+    factory = diagram.getElementFactory();
+    nodes = new ArrayList<UmlNode>();
+    diagram.setName(in.readString());
+    diagram.setGridSize(in.readVarInt());
+    diagram.setOrigin(in.readCoordinate(0), in.readCoordinate(0));
+    double width = in.readCoordinate(0), height = in.readCoordinate(0);
+    readNodes(diagram);
+    int numConnections = in.readCount();
+    for (int i = 0; i < numConnections; i++) {
+      diagram.addChild(readConnection());
+    }
+    // adding the nodes might have grown the diagram
+    diagram.setSize(width, height);
+    return diagram;
+  }
+
+  /**
+   * Reads a list of sibling nodes and adds them to the specified parent.
+   * @param parent the parent node
+   * @throws IOException if the data is not valid
+   */
+  private void readNodes(CompositeNode parent) throws IOException {
+    int numNodes = in.readCount();
+    for (int i = 0; i < numNodes; i++) readNode(parent);
+  }
+
+  /**
+   * Reads a node and its children.
+   * @param parent the parent node
+   * @throws IOException if the data is not valid
+   */
+  private void readNode(CompositeNode parent) throws IOException {
+    int kind = in.readByte();
+    double x = in.readCoordinate(0), y = in.readCoordinate(0);
+    double width = in.readCoordinate(0), height = in.readCoordinate(0);
+    UmlNode node = factory.createNode(getElementType(kind));
+    nodes.add(node);
+    // the node is added first, because the diagram listens to size changes
+    // of its nodes and needs the absolute position
+    parent.addChild(node);
+    if (kind == NODE_CLASS) {
+      readClassData((ClassElement) node);
+    } else if (kind == NODE_NOTE) {
+      ((NoteElement) node).setLabelText(in.readString());
+    } else {
+      node.getModelElement().setName(in.readString());
+    }
+    node.setOrigin(x, y);
+    node.setSize(width, height);
+    if (kind == NODE_PACKAGE) readNodes((CompositeNode) node);
+  }
+
+  /**
+   * Reads the data of a class element.
+   * @param classElement the class element
+   * @throws IOException if the data is not valid
+   */
+  private void readClassData(ClassElement classElement) throws IOException {
+    UmlClass umlclass = (UmlClass) classElement.getModelElement();
+    umlclass.setName(in.readString());
+    int flags = in.readByte();
+    umlclass.setAbstract((flags & CLASS_ABSTRACT) != 0);
+    classElement.setShowAttributes((flags & CLASS_SHOW_ATTRIBUTES) != 0);
+    classElement.setShowOperations((flags & CLASS_SHOW_OPERATIONS) != 0);
+    classElement.setShowStereotypes((flags & CLASS_SHOW_STEREOTYPES) != 0);
+    // the cloned class has its own lists, filling them directly and setting
+    // the attributes last rebuilds the labels only once
+    List<UmlProperty> attributes = new ArrayList<UmlProperty>();
+    int count = in.readCount();
+    for (int i = 0; i < count; i++) attributes.add(readProperty());
+    List<UmlProperty> methods = umlclass.getMethods();
+    methods.clear();
+    count = in.readCount();
+    for (int i = 0; i < count; i++) methods.add(readProperty());
+    List<UmlStereotype> stereotypes = umlclass.getStereotypes();
+    stereotypes.clear();
+    count = in.readCount();
+    for (int i = 0; i < count; i++) {
+      UmlStereotype stereotype =
+        (UmlStereotype) UmlStereotype.getPrototype().clone();
+      stereotype.setName(in.readString());
+      stereotypes.add(stereotype);
+    }
+    umlclass.setAttributes(attributes);
+  }
+
+  /**
+   * Reads a property.
+   * @return the property
+   * @throws IOException if the data is not valid
+   */
+  private UmlProperty readProperty() throws IOException {
+    UmlProperty property = (UmlProperty) UmlProperty.getPrototype().clone();
+    property.setName(in.readString());
+    return property;
+  }
+
+  /**
+   * Reads a connection.
+   * @return the connection
+   * @throws IOException if the data is not valid
+   */
+  private UmlConnection readConnection() throws IOException {
+    RelationType relationType = getRelationType(in.readByte());
+    UmlNode node1 = getNode(in.readVarInt());
+    UmlNode node2 = getNode(in.readVarInt());
+    UmlConnection conn = factory.createConnection(relationType, node1, node2);
+    int flags = in.readByte();
+    boolean rectilinear = (flags & CONNECTION_RECTILINEAR) != 0;
+    if (rectilinear != conn.isRectilinear()) {
+      Connection oldConnection = conn.getConnection();
+      Connection newConnection = rectilinear ? new RectilinearConnection() :
+        new SimpleConnection();
+      newConnection.copyData(oldConnection);
+      oldConnection.setNode1(null);
+      oldConnection.setNode2(null);
+      conn.setConnection(newConnection);
+    }
+    conn.setIsDashed((flags & CONNECTION_DASHED) != 0);
+    int numPoints = in.readCount();
+    if (numPoints > 0) {
+      List<Point2D> points = new ArrayList<Point2D>(numPoints);
+      double x = 0, y = 0;
+      for (int i = 0; i < numPoints; i++) {
+        x = in.readCoordinate(x);
+        y = in.readCoordinate(y);
+        points.add(new Point2D.Double(x, y));
+      }
+      conn.setPoints(points);
+    }
+    if ((flags & CONNECTION_VALID) == 0) conn.invalidate();
+    if ((flags & CONNECTION_HAS_RELATION) != 0) {
+      readRelation((Relation) conn.getModelElement());
+    }
+    if (conn instanceof Association) {
+      Association association = (Association) conn;
+      int assocFlags = in.readByte();
+      association.setShowName((assocFlags & ASSOCIATION_SHOW_NAME) != 0);
+      association.setShowMultiplicities(
+        (assocFlags & ASSOCIATION_SHOW_MULTIPLICITIES) != 0);
+    }
+    return conn;
+  }
+
+  /**
+   * Reads the data of a relation.
+   * @param relation the relation
+   * @throws IOException if the data is not valid
+   */
+  private void readRelation(Relation relation) throws IOException {
+    if (relation == null) throw new IOException("missing relation");
+    relation.setName(in.readString());
+    int flags = in.readByte();
+    relation.setNavigableToElement1((flags & RELATION_NAVIGABLE_1) != 0);
+    relation.setNavigableToElement2((flags & RELATION_NAVIGABLE_2) != 0);
+    if (relation instanceof UmlRelation) {
+      UmlRelation umlrelation = (UmlRelation) relation;
+      umlrelation.setCanSetElement1Navigability(
+        (flags & RELATION_CAN_SET_NAVIGABILITY_1) != 0);
+      umlrelation.setCanSetElement2Navigability(
+        (flags & RELATION_CAN_SET_NAVIGABILITY_2) != 0);
+    }
+    int direction = in.readByte();
+    if (direction >= READING_DIRECTIONS.length) {
+      throw new IOException("invalid reading direction: " + direction);
+    }
+    relation.setNameReadingDirection(READING_DIRECTIONS[direction]);
+    relation.setElement1Multiplicity(readMultiplicity());
+    relation.setElement2Multiplicity(readMultiplicity());
+  }
+
+  /**
+   * Reads a multiplicity.
+   * @return the multiplicity
+   * @throws IOException if the data is not valid
+   */
+  private Multiplicity readMultiplicity() throws IOException {
+    int lower = in.readSignedVarInt();
+    int upper = in.readSignedVarInt();
+    return upper == 0 ? Multiplicity.getUnboundedInstance(lower) :
+      Multiplicity.getBoundedInstance(lower, upper - 1);
+  }
+
+  /**
+   * Returns the node with the specified id.
+   * @param id the node id
+   * @return the node
+   * @throws IOException if there is no such node
+   */
+  private UmlNode getNode(int id) throws IOException {
+    if (id < 0 || id >= nodes.size()) {
+      throw new IOException("invalid node id: " + id);
+    }
+    return nodes.get(id);
+  }
+
+  /**
+   * Maps a node kind to the ElementType used by the element factory.
+   * @param kind the node kind
+   * @return the ElementType
+   * @throws IOException if the kind is unknown
+   */
+  private ElementType getElementType(int kind) throws IOException {
+    switch (kind) {
+      case NODE_CLASS:
+        return ElementType.CLASS;
+      case NODE_COMPONENT:
+        return ElementType.COMPONENT;
+      case NODE_PACKAGE:
+        return ElementType.PACKAGE;
+      case NODE_NOTE:
+        return ElementType.NOTE;
+      default:
+        throw new IOException("unknown node kind: " + kind);
+    }
+  }
+
+  /**
+   * Maps a relation kind to the RelationType used by the element factory.
+   * @param kind the relation kind
+   * @return the RelationType
+   * @throws IOException if the kind is unknown
+   */
+  private RelationType getRelationType(int kind) throws IOException {
+    switch (kind) {
+      case RELATION_ASSOCIATION:
+        return RelationType.ASSOCIATION;
+      case RELATION_DEPENDENCY:
+        return RelationType.DEPENDENCY;
+      case RELATION_COMPOSITION:
+        return RelationType.COMPOSITION;
+      case RELATION_AGGREGATION:
+        return RelationType.AGGREGATION;
+      case RELATION_INHERITANCE:
+        return RelationType.INHERITANCE;
+      case RELATION_INTERFACE_REALIZATION:
+        return RelationType.INTERFACE_REALIZATION;
+      case RELATION_NOTE_CONNECTOR:
+        return RelationType.NOTE_CONNECTOR;
+      default:
+        throw new IOException("unknown relation kind: " + kind);
+    }
+  }
+}
@@ -0,0 +1,463 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.commands;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import org.tinyuml.draw.DiagramElement;
+import org.tinyuml.draw.Node;
+import org.tinyuml.model.Multiplicity;
+import org.tinyuml.model.NamedElement;
+import org.tinyuml.model.Relation;
+import org.tinyuml.model.UmlClass;
+import org.tinyuml.model.UmlDiagram;
+import org.tinyuml.model.UmlModel;
+import org.tinyuml.umldraw.shared.NoteConnection;
+import org.tinyuml.umldraw.shared.NoteElement;
+import org.tinyuml.umldraw.shared.UmlConnection;
+import org.tinyuml.umldraw.shared.UmlNode;
+import org.tinyuml.umldraw.structure.Association;
+import org.tinyuml.umldraw.structure.ClassElement;
+import org.tinyuml.umldraw.structure.ComponentElement;
+import org.tinyuml.umldraw.structure.Dependency;
+import org.tinyuml.umldraw.structure.Inheritance;
+import org.tinyuml.umldraw.structure.PackageElement;
+import org.tinyuml.umldraw.structure.StructureDiagram;
+import static org.tinyuml.ui.commands.BinaryModelFormat.*;
+
+/**
+ * Writes a UmlModel in the binary model format. Each diagram is encoded into
+ * its own chunk, which is listed in the table of contents. Nodes are numbered
+ * in pre-order and connections refer to their nodes by these numbers.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class BinaryModelWriter {
+
+  private Map<DiagramElement, Integer> nodeIds;
+  private BinaryModelOutput out;
+  private int compressionLevel;
+
+  /**
+   * Sets the compression level for the diagram chunks. A level of 0 writes
+   * an uncompressed file, the levels 1 to 9 are the Deflater levels.
+   * @param level the compression level
+   */
+  public void setCompressionLevel(int level) {
+    if (level < 0 || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("invalid compression level: " +
+        level);
+    }
+    compressionLevel = level;
+  }
+
+  /**
+   * Writes the specified model to the stream. The stream is not closed.
+   * @param model the model
+   * @param stream the OutputStream
+   * @throws IOException if an I/O error occurred or the model contains
+   * elements that can not be stored
+   */
+  public void writeModel(UmlModel model, OutputStream stream)
+    throws IOException {
+    encodeModel(model).writeTo(stream);
+  }
+
+  /**
+   * Encodes the specified model completely into memory. Diagrams that were
+   * not loaded yet may still refer to the file they were read from, so that
+   * file must not be truncated before the model was encoded.
+   * @param model the model
+   * @return the encoded model
+   * @throws IOException if the model contains elements that can not be
+   * stored
+   */
+  public BinaryModelOutput encodeModel(UmlModel model) throws IOException {
+    return finishModel(snapshotModel(model));
+  }
+
+  /**
+   * Encodes the diagrams of the specified model into memory without
+   * compressing them. This is the part of encodeModel() that needs access to
+   * the model, the result does not refer to the model anymore and can be
+   * passed to finishModel() on another thread.
+   * @param model the model
+   * @return the snapshot
+   * @throws IOException if the model contains elements that can not be
+   * stored
+   */
+  public ModelSnapshot snapshotModel(UmlModel model) throws IOException {
+    List<? extends UmlDiagram> diagrams = model.getDiagrams();
+    LazyDiagramList lazyDiagrams = diagrams instanceof LazyDiagramList ?
+      (LazyDiagramList) diagrams : null;
+    ModelSnapshot snapshot = new ModelSnapshot();
+    for (int i = 0; i < diagrams.size(); i++) {
+      // diagrams that were not loaded are copied without decoding them,
+      // compressed chunks are copied as they are
+      ByteBuffer chunk = lazyDiagrams == null ? null :
+        lazyDiagrams.getCompressedChunk(i);
+      int size = -1;
+      if (chunk != null) {
+        size = lazyDiagrams.getUncompressedSize(i);
+      } else if (lazyDiagrams != null) {
+        chunk = lazyDiagrams.getChunk(i);
+      }
+      snapshot.chunks.add(chunk != null ? copyChunk(chunk) :
+        encodeChunk(diagrams.get(i)));
+      snapshot.sizes.add(size);
+      snapshot.names.add(lazyDiagrams == null ? diagrams.get(i).getName() :
+        lazyDiagrams.getDiagramName(i));
+    }
+    return snapshot;
+  }
+
+  /**
+   * Compresses or decompresses the chunks of a snapshot according to the
+   * compression level and assembles the model file.
+   * @param snapshot the snapshot
+   * @return the encoded model
+   * @throws IOException if a compressed chunk of the snapshot is corrupt
+   */
+  public BinaryModelOutput finishModel(ModelSnapshot snapshot)
+    throws IOException {
+    boolean compressed = compressionLevel > 0;
+    List<BinaryModelOutput> chunks = new ArrayList<BinaryModelOutput>();
+    List<String> names = snapshot.names;
+    int[] sizes = new int[snapshot.chunks.size()];
+    for (int i = 0; i < sizes.length; i++) {
+      BinaryModelOutput data = snapshot.chunks.get(i);
+      sizes[i] = snapshot.sizes.get(i);
+      if (sizes[i] >= 0 && !compressed) {
+        data = copyChunk(BinaryModelInput.inflate(data.toByteBuffer(),
+          sizes[i]));
+      } else if (sizes[i] < 0 && compressed) {
+        sizes[i] = data.size();
+        data = data.deflate(compressionLevel);
+      }
+      chunks.add(data);
+    }
+    int size = 64;
+    for (BinaryModelOutput chunk : chunks) size += chunk.size() + 16;
+    BinaryModelOutput result = new BinaryModelOutput(size);
+    result.writeBytes(MAGIC, 0, MAGIC.length);
+    result.writeVarInt(VERSION);
+    result.writeVarInt(compressed ? FORMAT_COMPRESSED : 0);
+    result.writeVarInt(chunks.size());
+    for (int i = 0; i < chunks.size(); i++) {
+      result.writeVarInt(chunks.get(i).size());
+      result.writeRawString(names.get(i) == null ? "" : names.get(i));
+      if (compressed) result.writeVarInt(sizes[i]);
+    }
+    for (BinaryModelOutput chunk : chunks) result.writeOutput(chunk);
+    return result;
+  }
+
+  /**
+   * An encoded model whose diagram chunks are not yet in the format of the
+   * file. Chunks of diagrams that were not loaded keep their compression.
+   */
+  public static final class ModelSnapshot {
+
+    private List<BinaryModelOutput> chunks = new ArrayList<BinaryModelOutput>();
+    private List<String> names = new ArrayList<String>();
+    // the uncompressed size of compressed chunks, -1 for uncompressed chunks
+    private List<Integer> sizes = new ArrayList<Integer>();
+
+    /**
+     * Constructor.
+     */
+    private ModelSnapshot() { }
+  }
+
+  /**
+   * Copies an encoded chunk.
+   * @param chunk the chunk
+   * @return the copy
+   */
+  private BinaryModelOutput copyChunk(ByteBuffer chunk) {
+    BinaryModelOutput copy = new BinaryModelOutput(chunk.remaining());
+    copy.writeBuffer(chunk);
+    return copy;
+  }
+
+  /**
+   * Encodes a single diagram into a chunk as it is stored in a model file.
+   * @param diagram the diagram
+   * @return the encoded chunk
+   * @throws IOException if the diagram contains elements that can not be
+   * stored
+   */
+  public BinaryModelOutput encodeChunk(UmlDiagram diagram) throws IOException {
+    if (!(diagram instanceof StructureDiagram)) {
+      throw new IOException("unsupported diagram type: " +
+        diagram.getClass().getName());
+    }
+    return encodeDiagram((StructureDiagram) diagram);
+  }
+
+  /**
+   * Encodes a diagram into a chunk.
+   * @param diagram the diagram
+   * @return the encoded chunk
+   * @throws IOException if the diagram contains unsupported elements
+   */
+  private BinaryModelOutput encodeDiagram(StructureDiagram diagram)
+    throws IOException {
+    nodeIds = new IdentityHashMap<DiagramElement, Integer>();
+    out = new BinaryModelOutput(4096);
+    out.writeString(diagram.getName());
+    out.writeVarInt(diagram.getGridSize());
+    out.writeCoordinate(diagram.getOrigin().getX(), 0);
+    out.writeCoordinate(diagram.getOrigin().getY(), 0);
+    out.writeCoordinate(diagram.getSize().getWidth(), 0);
+    out.writeCoordinate(diagram.getSize().getHeight(), 0);
+    List<UmlConnection> connections = new ArrayList<UmlConnection>();
+    List<UmlNode> nodes = new ArrayList<UmlNode>();
+    for (DiagramElement child : diagram.getChildren()) {
+      if (child instanceof UmlConnection) {
+        connections.add((UmlConnection) child);
+      } else {
+        nodes.add(checkNode(child));
+      }
+    }
+    writeNodes(nodes);
+    out.writeVarInt(connections.size());
+    for (UmlConnection conn : connections) writeConnection(conn);
+
+    BinaryModelOutput chunk = new BinaryModelOutput(out.size() + 1024);
+    chunk.writeStringTable(out.getStrings());
+    chunk.writeOutput(out);
+    out = null;
+    nodeIds = null;
+    return chunk;
+  }
+
+  /**
+   * Checks whether the specified element is a node that can be written.
+   * @param element the element
+   * @return the element as a UmlNode
+   * @throws IOException if the element is not supported
+   */
+  private UmlNode checkNode(DiagramElement element) throws IOException {
+    if (element instanceof ClassElement || element instanceof PackageElement ||
+        element instanceof ComponentElement || element instanceof NoteElement) {
+      return (UmlNode) element;
+    }
+    throw new IOException("unsupported element type: " +
+      element.getClass().getName());
+  }
+
+  /**
+   * Writes a list of sibling nodes, each followed by its children.
+   * @param nodes the nodes
+   * @throws IOException if a node is not supported
+   */
+  private void writeNodes(List<UmlNode> nodes) throws IOException {
+    out.writeVarInt(nodes.size());
+    for (UmlNode node : nodes) writeNode(node);
+  }
+
+  /**
+   * Writes a node and its children.
+   * @param node the node
+   * @throws IOException if the node is not supported
+   */
+  private void writeNode(UmlNode node) throws IOException {
+    nodeIds.put(node, nodeIds.size());
+    if (node instanceof ClassElement) {
+      out.writeByte(NODE_CLASS);
+    } else if (node instanceof ComponentElement) {
+      out.writeByte(NODE_COMPONENT);
+    } else if (node instanceof PackageElement) {
+      out.writeByte(NODE_PACKAGE);
+    } else {
+      out.writeByte(NODE_NOTE);
+    }
+    out.writeCoordinate(node.getOrigin().getX(), 0);
+    out.writeCoordinate(node.getOrigin().getY(), 0);
+    out.writeCoordinate(node.getSize().getWidth(), 0);
+    out.writeCoordinate(node.getSize().getHeight(), 0);
+    if (node instanceof ClassElement) {
+      writeClassData((ClassElement) node);
+    } else if (node instanceof NoteElement) {
+      out.writeString(((NoteElement) node).getLabelText());
+    } else {
+      out.writeString(node.getModelElement().getName());
+    }
+    if (node instanceof PackageElement) {
+      List<UmlNode> children = new ArrayList<UmlNode>();
+      for (DiagramElement child : ((PackageElement) node).getChildren()) {
+        children.add(checkNode(child));
+      }
+      writeNodes(children);
+    }
+  }
+
+  /**
+   * Writes the data of a class element.
+   * @param classElement the class element
+   */
+  private void writeClassData(ClassElement classElement) {
+    UmlClass umlclass = (UmlClass) classElement.getModelElement();
+    int flags = 0;
+    if (umlclass.isAbstract()) flags |= CLASS_ABSTRACT;
+    if (classElement.showAttributes()) flags |= CLASS_SHOW_ATTRIBUTES;
+    if (classElement.showOperations()) flags |= CLASS_SHOW_OPERATIONS;
+    if (classElement.showStereotypes()) flags |= CLASS_SHOW_STEREOTYPES;
+    out.writeString(umlclass.getName());
+    out.writeByte(flags);
+    writeNames(umlclass.getAttributes());
+    writeNames(umlclass.getMethods());
+    writeNames(umlclass.getStereotypes());
+  }
+
+  /**
+   * Writes the names of the specified elements.
+   * @param elements the elements
+   */
+  private void writeNames(List<? extends NamedElement> elements) {
+    out.writeVarInt(elements.size());
+    for (NamedElement element : elements) out.writeString(element.getName());
+  }
+
+  /**
+   * Writes a connection.
+   * @param conn the connection
+   * @throws IOException if the connection is not supported
+   */
+  private void writeConnection(UmlConnection conn) throws IOException {
+    out.writeByte(getRelationKind(conn));
+    out.writeVarInt(getNodeId(conn.getNode1()));
+    out.writeVarInt(getNodeId(conn.getNode2()));
+    Relation relation = (Relation) conn.getModelElement();
+    int flags = 0;
+    if (conn.isRectilinear()) flags |= CONNECTION_RECTILINEAR;
+    if (conn.isDashed()) flags |= CONNECTION_DASHED;
+    if (conn.isValid()) flags |= CONNECTION_VALID;
+    if (relation != null) flags |= CONNECTION_HAS_RELATION;
+    out.writeByte(flags);
+    List<Point2D> points = conn.getPoints();
+    if (points == null) {
+      out.writeVarInt(0);
+    } else {
+      out.writeVarInt(points.size());
+      double lastx = 0, lasty = 0;
+      for (Point2D point : points) {
+        out.writeCoordinate(point.getX(), lastx);
+        out.writeCoordinate(point.getY(), lasty);
+        lastx = point.getX();
+        lasty = point.getY();
+      }
+    }
+    if (relation != null) writeRelation(relation);
+    if (conn instanceof Association) {
+      Association association = (Association) conn;
+      flags = 0;
+      if (association.showName()) flags |= ASSOCIATION_SHOW_NAME;
+      if (association.showMultiplicities()) {
+        flags |= ASSOCIATION_SHOW_MULTIPLICITIES;
+      }
+      out.writeByte(flags);
+    }
+  }
+
+  /**
+   * Writes the data of a relation.
+   * @param relation the relation
+   */
+  private void writeRelation(Relation relation) {
+    int flags = 0;
+    if (relation.isNavigableToElement1()) flags |= RELATION_NAVIGABLE_1;
+    if (relation.isNavigableToElement2()) flags |= RELATION_NAVIGABLE_2;
+    if (relation.canSetElement1Navigability()) {
+      flags |= RELATION_CAN_SET_NAVIGABILITY_1;
+    }
+    if (relation.canSetElement2Navigability()) {
+      flags |= RELATION_CAN_SET_NAVIGABILITY_2;
+    }
+    out.writeString(relation.getName());
+    out.writeByte(flags);
+    out.writeByte(relation.getNameReadingDirection().ordinal());
+    writeMultiplicity(relation.getElement1Multiplicity());
+    writeMultiplicity(relation.getElement2Multiplicity());
+  }
+
+  /**
+   * Writes a multiplicity. The upper bound is written incremented by one,
+   * 0 stands for no upper limit.
+   * @param multiplicity the multiplicity
+   */
+  private void writeMultiplicity(Multiplicity multiplicity) {
+    out.writeSignedVarInt(multiplicity.getLowerBound());
+    if (multiplicity.noUpperLimit()) {
+      out.writeVarInt(0);
+    } else {
+      out.writeSignedVarInt(multiplicity.getUpperBound() + 1);
+    }
+  }
+
+  /**
+   * Returns the id of a node that was written before.
+   * @param node the node
+   * @return the node id
+   * @throws IOException if the node is not part of the diagram
+   */
+  private int getNodeId(Node node) throws IOException {
+    Integer id = nodeIds.get(node);
+    if (id == null) throw new IOException("connection to an unknown node");
+    return id;
+  }
+
+  /**
+   * Determines the relation kind of a connection.
+   * @param conn the connection
+   * @return the relation kind
+   * @throws IOException if the connection type is not supported
+   */
+  private int getRelationKind(UmlConnection conn) throws IOException {
+    if (conn instanceof Association) {
+      switch (((Association) conn).getAssociationType()) {
+        case COMPOSITION:
+          return RELATION_COMPOSITION;
+        case AGGREGATION:
+          return RELATION_AGGREGATION;
+        default:
+          return RELATION_ASSOCIATION;
+      }
+    } else if (conn instanceof Inheritance) {
+      return conn.isDashed() ? RELATION_INTERFACE_REALIZATION :
+        RELATION_INHERITANCE;
+    } else if (conn instanceof Dependency) {
+      return RELATION_DEPENDENCY;
+    } else if (conn instanceof NoteConnection) {
+      return RELATION_NOTE_CONNECTOR;
+    }
+    throw new IOException("unsupported connection type: " +
+      conn.getClass().getName());
+  }
+}
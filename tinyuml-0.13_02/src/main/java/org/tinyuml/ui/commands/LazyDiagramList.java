@@ -0,0 +1,388 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.commands;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.tinyuml.model.UmlDiagram;
+import org.tinyuml.model.UmlModel;
+
+/**
+ * The diagram list of a model that was read from a binary model file. The
+ * diagrams are only decoded when they are accessed for the first time, until
+ * then the list keeps the encoded chunk and the name from the table of
+ * contents. Unloaded diagrams can not have been changed, so their chunks can
+ * be written back unchanged.
+ * If the chunks are slices of a mapped file, the mapping can be released
+ * with releaseMapping(), some platforms do not allow to replace or delete a
+ * file while it is mapped.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class LazyDiagramList extends AbstractList<UmlDiagram>
+implements Serializable {
+
+  private static final long serialVersionUID = 3260946811253431047L;
+  private UmlModel model;
+  private List<UmlDiagram> diagrams = new ArrayList<UmlDiagram>();
+  private List<String> names = new ArrayList<String>();
+  private List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+  // the uncompressed size of compressed chunks, -1 for uncompressed chunks
+  private List<Integer> sizes = new ArrayList<Integer>();
+  // the generation of each entry, a new one is assigned whenever an entry is
+  // added or replaced, but not when its chunk is copied by releaseMapping()
+  private List<Integer> generations = new ArrayList<Integer>();
+  private int generation;
+  // the mapped file the chunks were sliced from and the number of decoders
+  // that might still read from it, it is only unmapped when none is left
+  private transient ByteBuffer mapping;
+  private transient int activeDecoders;
+  private transient boolean unmapPending;
+
+  /**
+   * Sets the model the diagrams belong to.
+   * @param aModel the model
+   */
+  public void setModel(UmlModel aModel) { model = aModel; }
+
+  /**
+   * Sets the mapped file the chunks are slices of.
+   * @param aMapping the mapped file contents
+   */
+  public synchronized void setMapping(ByteBuffer aMapping) {
+    mapping = aMapping;
+  }
+
+  /**
+   * Determines whether chunks of this list still refer to a mapped file.
+   * Mainly for testing purposes.
+   * @return true if the file is mapped
+   */
+  public synchronized boolean isMapped() { return mapping != null; }
+
+  /**
+   * Copies the chunks that are still slices of the mapped file into the heap
+   * and unmaps the file. If a chunk is being decoded by loadAll(), the file
+   * is unmapped as soon as the decoding is finished. Buffers that were
+   * obtained from getChunk() or getCompressedChunk() before must not be used
+   * afterwards.
+   */
+  public synchronized void releaseMapping() {
+    if (mapping == null || unmapPending) return;
+    for (int i = 0; i < chunks.size(); i++) {
+      ByteBuffer chunk = chunks.get(i);
+      if (chunk != null && chunk.isDirect()) {
+        ByteBuffer copy = ByteBuffer.allocate(chunk.remaining());
+        copy.put(chunk.duplicate());
+        copy.flip();
+        chunks.set(i, copy);
+      }
+    }
+    if (activeDecoders == 0) unmap(); else unmapPending = true;
+  }
+
+  /**
+   * Called when a decoder of loadAll() is finished or was never started.
+   */
+  private synchronized void decoderFinished() {
+    if (--activeDecoders == 0 && unmapPending) unmap();
+  }
+
+  /**
+   * Unmaps the file. The mapping is released when it is garbage collected
+   * anyway, this only does it immediately where the runtime allows it.
+   */
+  private void unmap() {
+    ByteBuffer buffer = mapping;
+    mapping = null;
+    unmapPending = false;
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+    } catch (Exception ignore) {
+      // the mapping is released by the garbage collector
+    }
+  }
+
+  /**
+   * Adds an encoded diagram.
+   * @param name the diagram name from the table of contents, can be null
+   * @param chunk the encoded diagram
+   */
+  public synchronized void addChunk(String name, ByteBuffer chunk) {
+    addCompressedChunk(name, chunk, -1);
+  }
+
+  /**
+   * Adds a compressed encoded diagram.
+   * @param name the diagram name from the table of contents, can be null
+   * @param chunk the compressed diagram
+   * @param size the uncompressed size of the chunk
+   */
+  public synchronized void addCompressedChunk(String name, ByteBuffer chunk,
+    int size) {
+    diagrams.add(null);
+    names.add(name);
+    chunks.add(chunk);
+    sizes.add(size);
+    generations.add(generation++);
+  }
+
+  /**
+   * Replaces the diagram at the specified index with an encoded diagram. If
+   * the index equals the size of the list, the diagram is added.
+   * @param index the index
+   * @param name the diagram name
+   * @param chunk the encoded diagram
+   */
+  public synchronized void setChunk(int index, String name, ByteBuffer chunk) {
+    if (index == diagrams.size()) {
+      addChunk(name, chunk);
+    } else {
+      diagrams.set(index, null);
+      names.set(index, name);
+      chunks.set(index, chunk);
+      sizes.set(index, -1);
+      generations.set(index, generation++);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public synchronized int size() { return diagrams.size(); }
+
+  /**
+   * Returns the diagram at the specified index, decoding it if necessary.
+   * @param index the index
+   * @return the diagram
+   * @throws IllegalStateException if the diagram data is invalid
+   */
+  public synchronized UmlDiagram get(int index) {
+    UmlDiagram diagram = diagrams.get(index);
+    if (diagram == null) {
+      try {
+        diagram = new BinaryModelReader().readDiagram(model,
+          getChunk(index));
+      } catch (IOException ex) {
+        throw new IllegalStateException("diagram " + index +
+          " could not be read: " + ex.getMessage(), ex);
+      }
+      diagrams.set(index, diagram);
+      chunks.set(index, null);
+    }
+    return diagram;
+  }
+
+  /**
+   * Decodes all diagrams that were not loaded yet on a pool of worker
+   * threads. Each chunk is decoded on its own and the elements of a diagram
+   * only refer to each other, so the decoded diagrams just need to be stored
+   * in the list. If some diagrams can not be decoded, the others are still
+   * stored and the first error is reported.
+   * @param threadCount the number of threads
+   * @throws IOException if a diagram could not be decoded
+   */
+  public void loadAll(int threadCount) throws IOException {
+    ExecutorService executor =
+      Executors.newFixedThreadPool(Math.max(1, threadCount));
+    List<Integer> indexes = new ArrayList<Integer>();
+    List<Integer> sourceGenerations = new ArrayList<Integer>();
+    List<Future<UmlDiagram>> results = new ArrayList<Future<UmlDiagram>>();
+    IOException error = null;
+    try {
+      synchronized (this) {
+        for (int i = 0; i < diagrams.size(); i++) {
+          if (diagrams.get(i) == null) {
+            indexes.add(i);
+            sourceGenerations.add(generations.get(i));
+            activeDecoders++;
+            results.add(executor.submit(
+              new DiagramDecoder(chunks.get(i).duplicate(), sizes.get(i))));
+          }
+        }
+      }
+      for (int i = 0; i < indexes.size(); i++) {
+        try {
+          setLoadedDiagram(indexes.get(i), sourceGenerations.get(i),
+            results.get(i).get());
+        } catch (ExecutionException ex) {
+          if (error == null) {
+            error = new IOException("diagram " + indexes.get(i) +
+              " could not be read: " + ex.getCause().getMessage());
+            error.initCause(ex.getCause());
+          }
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      error = new IOException("loading was interrupted");
+      error.initCause(ex);
+    } finally {
+      // decoders that were never started do not finish by themselves
+      for (int i = executor.shutdownNow().size(); i > 0; i--) {
+        decoderFinished();
+      }
+    }
+    if (error != null) throw error;
+  }
+
+  /**
+   * Stores a diagram that was decoded by loadAll(), unless the diagram was
+   * loaded or replaced in the meantime. Only the generation tells whether the
+   * entry was replaced, releaseMapping() replaces the chunks with copies.
+   * @param index the index
+   * @param chunkGeneration the generation of the entry the diagram was
+   * decoded from
+   * @param diagram the decoded diagram
+   */
+  private synchronized void setLoadedDiagram(int index, int chunkGeneration,
+    UmlDiagram diagram) {
+    if (index < diagrams.size() && diagrams.get(index) == null &&
+        generations.get(index) == chunkGeneration) {
+      diagrams.set(index, diagram);
+      chunks.set(index, null);
+    }
+  }
+
+  /**
+   * Decodes a single chunk on a worker thread.
+   */
+  private class DiagramDecoder implements Callable<UmlDiagram> {
+
+    private ByteBuffer chunk;
+    private int size;
+
+    /**
+     * Constructor.
+     * @param aChunk the chunk
+     * @param aSize the uncompressed size, -1 if the chunk is not compressed
+     */
+    public DiagramDecoder(ByteBuffer aChunk, int aSize) {
+      chunk = aChunk;
+      size = aSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public UmlDiagram call() throws IOException {
+      try {
+        ByteBuffer data = size < 0 ? chunk :
+          BinaryModelInput.inflate(chunk, size);
+        return new BinaryModelReader().readDiagram(model, data);
+      } finally {
+        chunk = null;
+        decoderFinished();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void add(int index, UmlDiagram diagram) {
+    diagrams.add(index, diagram);
+    names.add(index, null);
+    chunks.add(index, null);
+    sizes.add(index, -1);
+    generations.add(index, generation++);
+    modCount++;
+  }
+
+  /**
+   * Determines whether the diagram at the specified index was decoded.
+   * @param index the index
+   * @return true if the diagram was decoded
+   */
+  public synchronized boolean isLoaded(int index) {
+    return diagrams.get(index) != null;
+  }
+
+  /**
+   * Returns the name of the diagram at the specified index without decoding
+   * it.
+   * @param index the index
+   * @return the diagram name
+   */
+  public synchronized String getDiagramName(int index) {
+    UmlDiagram diagram = diagrams.get(index);
+    return diagram == null ? names.get(index) : diagram.getName();
+  }
+
+  /**
+   * Returns the encoded data of the diagram at the specified index,
+   * compressed chunks are decompressed.
+   * @param index the index
+   * @return the encoded diagram or null if the diagram was decoded
+   * @throws IOException if a compressed chunk is corrupt
+   */
+  public synchronized ByteBuffer getChunk(int index) throws IOException {
+    ByteBuffer chunk = chunks.get(index);
+    if (chunk == null) return null;
+    int size = sizes.get(index);
+    return size < 0 ? chunk.duplicate() :
+      BinaryModelInput.inflate(chunk.duplicate(), size);
+  }
+
+  /**
+   * Returns the compressed data of the diagram at the specified index.
+   * @param index the index
+   * @return the compressed diagram or null if the diagram was decoded or is
+   * not compressed
+   */
+  public synchronized ByteBuffer getCompressedChunk(int index) {
+    ByteBuffer chunk = chunks.get(index);
+    return chunk == null || sizes.get(index) < 0 ? null : chunk.duplicate();
+  }
+
+  /**
+   * Returns the uncompressed size of the diagram at the specified index.
+   * @param index the index
+   * @return the uncompressed size or -1 if the diagram is not compressed
+   */
+  public synchronized int getUncompressedSize(int index) {
+    return sizes.get(index);
+  }
+
+  /**
+   * Replaces this list with a plain list of all diagrams on serialization.
+   * @return the replacement object
+   */
+  private Object writeReplace() {
+    return new ArrayList<UmlDiagram>(this);
+  }
+}
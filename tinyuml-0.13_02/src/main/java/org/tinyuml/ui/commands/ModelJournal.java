@@ -0,0 +1,775 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.commands;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import javax.swing.SwingUtilities;
+import org.tinyuml.model.UmlDiagram;
+import org.tinyuml.model.UmlModel;
+import org.tinyuml.model.UmlModelImpl;
+import org.tinyuml.ui.commands.BinaryModelWriter.ModelSnapshot;
+
+/**
+ * An append-only journal of the changes to a model since it was last saved.
+ * The journal is kept next to the model file. Each record is a complete
+ * snapshot of a diagram that was modified since the previous flush, so an
+ * autosave costs as much as encoding the modified diagrams, however small
+ * the change was, but unmodified diagrams cost nothing.
+ * The diagrams are encoded and the records are written on the thread of the
+ * ModelWriter, in order with the saved models, while editing continues. A
+ * record that was encoded while the model was modified might be
+ * inconsistent, it is discarded and the diagram is encoded again with the
+ * next flush. Only the latest record of each diagram is needed, they are
+ * kept in memory and the journal is rewritten with only these records when
+ * it grows larger than twice their size.
+ * The journal header identifies the model file by its length and
+ * modification time, a journal that does not match its model file is not
+ * recovered. Each record is followed by a checksum, so a record that was
+ * only partially written before a crash is ignored.
+ * The journal is used on the event dispatch thread.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class ModelJournal {
+
+  private static final byte[] MAGIC = { 'T', 'S', 'M', 'J' };
+  private static final int VERSION = 1;
+  private static final int RECORD_DIAGRAM = 1;
+  private static final int RECORD_MODEL = 2;
+  private static final int HEADER_SIZE = 64;
+  private static final long COMPACT_MIN_SIZE = 1024 * 1024;
+  private static final String SUFFIX = ".journal";
+
+  private File modelFile;
+  private File journalFile;
+  private boolean started;
+  private long journalSize;
+  private int pendingSaves;
+  private int modificationCount;
+  // the records that are encoded in the background, the diagrams they
+  // contain and the modification count when the encoding was started
+  private Future<Map<Integer, BinaryModelOutput>> pendingRecords;
+  private List<UmlDiagram> encodedDiagrams;
+  private int encodedModificationCount;
+  private JournalWrite pendingWrite;
+  private IOException writeError;
+  // the record of a recovered model and the latest record of each diagram
+  // since then, which are the contents of a compacted journal
+  private BinaryModelOutput modelRecord;
+  private Map<Integer, BinaryModelOutput> diagramRecords =
+    new TreeMap<Integer, BinaryModelOutput>();
+  private Set<UmlDiagram> modifiedDiagrams =
+    Collections.newSetFromMap(new IdentityHashMap<UmlDiagram, Boolean>());
+
+  /**
+   * A write to the journal file in the background.
+   */
+  private static final class JournalWrite {
+    // the size of the journal after the write
+    private Future<Long> journalSize;
+    // the diagrams that need to be recorded again if the write fails
+    private List<UmlDiagram> diagrams;
+    // the records the journal consists of after the write
+    private boolean replacesJournal;
+    private BinaryModelOutput modelRecord;
+    private Map<Integer, BinaryModelOutput> diagramRecords;
+  }
+
+  /**
+   * Constructor.
+   * @param aModelFile the model file, null if the model was not saved yet
+   */
+  public ModelJournal(File aModelFile) {
+    setModelFile(aModelFile);
+  }
+
+  /**
+   * Returns the journal file for the specified model file. The journal of
+   * a model that was not saved yet is stored in the user's home directory.
+   * @param modelFile the model file, can be null
+   * @return the journal file
+   */
+  public static File getJournalFile(File modelFile) {
+    if (modelFile == null) {
+      return new File(System.getProperty("user.home"),
+        ".tinyuml-untitled" + SUFFIX);
+    }
+    return new File(modelFile.getPath() + SUFFIX);
+  }
+
+  /**
+   * Sets the model file and the journal file that belongs to it.
+   * @param aModelFile the model file, can be null
+   */
+  private void setModelFile(File aModelFile) {
+    modelFile = aModelFile;
+    journalFile = getJournalFile(aModelFile);
+    started = false;
+    // pending records and writes of the previous journal are obsolete
+    pendingRecords = null;
+    encodedDiagrams = null;
+    pendingWrite = null;
+    modelRecord = null;
+    diagramRecords.clear();
+  }
+
+  /**
+   * Marks a diagram as modified, it is recorded with the next flush().
+   * @param diagram the modified diagram
+   */
+  public synchronized void diagramModified(UmlDiagram diagram) {
+    modifiedDiagrams.add(diagram);
+    modificationCount++;
+  }
+
+  /**
+   * Starts to record the diagrams that were modified since the last flush.
+   * They are encoded in the background and appended to the journal as soon
+   * as the encoding is finished. Nothing is recorded while a save is in
+   * progress, the journal still refers to the previous contents of the model
+   * file then, or while a previous flush is not finished. If the journal
+   * could not be written, the diagrams are recorded again with the next
+   * flush.
+   * @param model the model
+   * @throws IOException if a previous flush could not be written
+   */
+  public synchronized void flush(UmlModel model) throws IOException {
+    throwWriteError();
+    if (pendingSaves > 0 || pendingRecords != null) return;
+    if (pendingWrite != null) {
+      if (!pendingWrite.journalSize.isDone()) return;
+      finishWrite();
+      if (pendingWrite != null) return;
+    }
+    if (!modifiedDiagrams.isEmpty()) encodeRecords(model);
+  }
+
+  /**
+   * Encodes the modified diagrams into records on the thread of the
+   * ModelWriter. When the encoding is finished, the records are written
+   * from the event dispatch thread.
+   * @param model the model
+   */
+  private void encodeRecords(UmlModel model) {
+    if (!started && modelFile == null) {
+      // without a model file, the journal has to contain all diagrams
+      markLoadedDiagrams(model);
+    }
+    final List<Integer> indexes = new ArrayList<Integer>();
+    final List<UmlDiagram> diagrams = new ArrayList<UmlDiagram>();
+    List<? extends UmlDiagram> modelDiagrams = model.getDiagrams();
+    for (int i = 0; i < modelDiagrams.size(); i++) {
+      if (isLoaded(modelDiagrams, i) &&
+          modifiedDiagrams.contains(modelDiagrams.get(i))) {
+        indexes.add(i);
+        diagrams.add(modelDiagrams.get(i));
+      }
+    }
+    modifiedDiagrams.clear();
+    if (diagrams.isEmpty()) return;
+    encodedDiagrams = diagrams;
+    encodedModificationCount = modificationCount;
+    pendingRecords = ModelWriter.getInstance().submit(
+      new Callable<Map<Integer, BinaryModelOutput>>() {
+        /** {@inheritDoc} */
+        public Map<Integer, BinaryModelOutput> call() throws IOException {
+          try {
+            return encodeDiagrams(indexes, diagrams);
+          } finally {
+            SwingUtilities.invokeLater(new Runnable() {
+              /** {@inheritDoc} */
+              public void run() { recordsEncoded(diagrams); }
+            });
+          }
+        }
+      });
+  }
+
+  /**
+   * Encodes diagram records.
+   * @param indexes the indexes of the diagrams
+   * @param diagrams the diagrams
+   * @return the records by diagram index
+   * @throws IOException if a diagram can not be encoded
+   */
+  private static Map<Integer, BinaryModelOutput> encodeDiagrams(
+    List<Integer> indexes, List<UmlDiagram> diagrams) throws IOException {
+    BinaryModelWriter writer = new BinaryModelWriter();
+    Map<Integer, BinaryModelOutput> records =
+      new TreeMap<Integer, BinaryModelOutput>();
+    for (int i = 0; i < diagrams.size(); i++) {
+      UmlDiagram diagram = diagrams.get(i);
+      BinaryModelOutput payload = new BinaryModelOutput(4096);
+      payload.writeVarInt(indexes.get(i));
+      payload.writeRawString(diagram.getName() == null ? "" :
+        diagram.getName());
+      payload.writeOutput(writer.encodeChunk(diagram));
+      BinaryModelOutput record = new BinaryModelOutput(payload.size() + 16);
+      writeRecord(record, RECORD_DIAGRAM, payload);
+      records.put(indexes.get(i), record);
+    }
+    return records;
+  }
+
+  /**
+   * Called on the event dispatch thread when the encoding of the specified
+   * diagrams is finished. Every modification of the model is reported
+   * before the event dispatch thread processes this call, so if there were
+   * none since the encoding was started, the records are consistent.
+   * @param diagrams the encoded diagrams
+   */
+  private synchronized void recordsEncoded(List<UmlDiagram> diagrams) {
+    // the records might have been handled or dropped already
+    if (encodedDiagrams != diagrams) return;
+    try {
+      writeRecords();
+    } catch (IOException ex) {
+      writeError = ex;
+    }
+  }
+
+  /**
+   * Writes the records that were encoded in the background, unless the
+   * model was modified while they were encoded.
+   * @throws IOException if the diagrams could not be encoded
+   */
+  private void writeRecords() throws IOException {
+    Future<Map<Integer, BinaryModelOutput>> records = pendingRecords;
+    List<UmlDiagram> diagrams = encodedDiagrams;
+    pendingRecords = null;
+    encodedDiagrams = null;
+    if (modificationCount != encodedModificationCount) {
+      modifiedDiagrams.addAll(diagrams);
+      return;
+    }
+    final Map<Integer, BinaryModelOutput> result = getResult(records,
+      diagrams);
+    final BinaryModelOutput header = started ? null : createHeader();
+    final File file = journalFile;
+    final long size = journalSize;
+    JournalWrite write = new JournalWrite();
+    write.diagrams = diagrams;
+    write.replacesJournal = !started;
+    write.diagramRecords = result;
+    write.journalSize = ModelWriter.getInstance().submit(
+      new Callable<Long>() {
+        /** {@inheritDoc} */
+        public Long call() throws IOException {
+          BinaryModelOutput data = header == null ?
+            new BinaryModelOutput(4096) : header;
+          for (BinaryModelOutput record : result.values()) {
+            data.writeOutput(record);
+          }
+          if (header == null) {
+            appendRecords(file, size, data);
+            return size + data.size();
+          }
+          ModelWriter.getInstance().writeFile(data, file);
+          return (long) data.size();
+        }
+      });
+    pendingWrite = write;
+  }
+
+  /**
+   * Waits for the pending write and takes over the records it wrote. If the
+   * journal has grown too large, it is rewritten in the background.
+   * @throws IOException if the journal could not be written
+   */
+  private void finishWrite() throws IOException {
+    JournalWrite write = pendingWrite;
+    pendingWrite = null;
+    journalSize = getResult(write.journalSize, write.diagrams);
+    started = true;
+    if (write.replacesJournal) {
+      modelRecord = write.modelRecord;
+      diagramRecords.clear();
+    }
+    diagramRecords.putAll(write.diagramRecords);
+    if (pendingSaves == 0 &&
+        journalSize > Math.max(COMPACT_MIN_SIZE, 2 * getCompactedSize())) {
+      rewriteJournal();
+    }
+  }
+
+  /**
+   * Returns the size of the journal with only the latest records.
+   * @return the size of the compacted journal
+   */
+  private long getCompactedSize() {
+    long size = HEADER_SIZE;
+    if (modelRecord != null) size += modelRecord.size();
+    for (BinaryModelOutput record : diagramRecords.values()) {
+      size += record.size();
+    }
+    return size;
+  }
+
+  /**
+   * Replaces the journal in the background with the latest records, which
+   * are kept in memory, so nothing needs to be encoded.
+   */
+  private void rewriteJournal() {
+    final BinaryModelOutput journal = createHeader();
+    final BinaryModelOutput model = modelRecord;
+    final List<BinaryModelOutput> records =
+      new ArrayList<BinaryModelOutput>(diagramRecords.values());
+    final File file = journalFile;
+    JournalWrite write = new JournalWrite();
+    // if the journal could not be replaced, it is unchanged
+    write.diagrams = Collections.emptyList();
+    write.replacesJournal = true;
+    write.modelRecord = model;
+    write.diagramRecords = new TreeMap<Integer, BinaryModelOutput>(
+      diagramRecords);
+    write.journalSize = ModelWriter.getInstance().submit(
+      new Callable<Long>() {
+        /** {@inheritDoc} */
+        public Long call() throws IOException {
+          if (model != null) journal.writeOutput(model);
+          for (BinaryModelOutput record : records) journal.writeOutput(record);
+          ModelWriter.getInstance().writeFile(journal, file);
+          return (long) journal.size();
+        }
+      });
+    pendingWrite = write;
+  }
+
+  /**
+   * Appends records to the journal file. If they could not be written
+   * completely, the journal is truncated to its previous size, so later
+   * records do not follow a partial record.
+   * @param file the journal file
+   * @param size the size of the journal before the records are appended
+   * @param records the records
+   * @throws IOException if the records could not be written
+   */
+  private static void appendRecords(File file, long size,
+    BinaryModelOutput records) throws IOException {
+    boolean written = false;
+    try {
+      FileOutputStream out = new FileOutputStream(file, true);
+      try {
+        records.writeTo(out);
+      } finally {
+        out.close();
+      }
+      written = true;
+    } finally {
+      if (!written) truncate(file, size);
+    }
+  }
+
+  /**
+   * Truncates the journal file to the size of the records that were written
+   * successfully.
+   * @param file the journal file
+   * @param size the size
+   */
+  private static void truncate(File file, long size) {
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(size);
+      } finally {
+        raf.close();
+      }
+    } catch (IOException ex) {
+      // a partial record is ignored on recovery
+      ex.printStackTrace();
+    }
+  }
+
+  /**
+   * Replaces the journal with a single snapshot of the whole model, this is
+   * used for a recovered model. The snapshot is taken on the calling thread
+   * and written in the background.
+   * @param model the model
+   * @throws IOException if the model could not be encoded or a previous
+   * flush could not be written
+   */
+  public synchronized void compact(UmlModel model) throws IOException {
+    waitForWrites();
+    final BinaryModelWriter writer = new BinaryModelWriter();
+    final ModelSnapshot snapshot = writer.snapshotModel(model);
+    final BinaryModelOutput journal = createHeader();
+    final BinaryModelOutput record = new BinaryModelOutput(4096);
+    final File file = journalFile;
+    final JournalWrite write = new JournalWrite();
+    write.diagrams = new ArrayList<UmlDiagram>();
+    List<? extends UmlDiagram> diagrams = model.getDiagrams();
+    for (int i = 0; i < diagrams.size(); i++) {
+      if (isLoaded(diagrams, i)) write.diagrams.add(diagrams.get(i));
+    }
+    write.replacesJournal = true;
+    write.modelRecord = record;
+    write.diagramRecords = Collections.emptyMap();
+    modifiedDiagrams.clear();
+    write.journalSize = ModelWriter.getInstance().submit(
+      new Callable<Long>() {
+        /** {@inheritDoc} */
+        public Long call() throws IOException {
+          writeRecord(record, RECORD_MODEL, writer.finishModel(snapshot));
+          journal.writeOutput(record);
+          ModelWriter.getInstance().writeFile(journal, file);
+          return (long) journal.size();
+        }
+      });
+    pendingWrite = write;
+  }
+
+  /**
+   * Waits until the records that are encoded or written in the background
+   * are written. If writing failed, the previous journal is unchanged and
+   * the affected diagrams are recorded again with the next flush.
+   * @throws IOException if the journal could not be written
+   */
+  public synchronized void waitForWrites() throws IOException {
+    throwWriteError();
+    if (pendingRecords != null) {
+      try {
+        pendingRecords.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException ex) {
+        // reported by writeRecords()
+      }
+      writeRecords();
+    }
+    while (pendingWrite != null) finishWrite();
+  }
+
+  /**
+   * Throws the error of records that were written in the background.
+   * @throws IOException the error
+   */
+  private void throwWriteError() throws IOException {
+    if (writeError != null) {
+      IOException ex = writeError;
+      writeError = null;
+      throw ex;
+    }
+  }
+
+  /**
+   * Returns the result of a task that encoded or wrote records of the
+   * specified diagrams. If the task failed, the diagrams are recorded again.
+   * @param task the task
+   * @param diagrams the diagrams
+   * @return the result
+   * @throws IOException if the task failed
+   */
+  private <T> T getResult(Future<T> task, List<UmlDiagram> diagrams)
+    throws IOException {
+    try {
+      return task.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      modifiedDiagrams.addAll(diagrams);
+      throw new IOException(ex.getMessage());
+    } catch (ExecutionException ex) {
+      modifiedDiagrams.addAll(diagrams);
+      if (ex.getCause() instanceof IOException) {
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException(String.valueOf(ex.getCause()));
+    }
+  }
+
+  /**
+   * Marks all loaded diagrams of the model as modified.
+   * @param model the model
+   */
+  private void markLoadedDiagrams(UmlModel model) {
+    List<? extends UmlDiagram> diagrams = model.getDiagrams();
+    for (int i = 0; i < diagrams.size(); i++) {
+      if (isLoaded(diagrams, i)) modifiedDiagrams.add(diagrams.get(i));
+    }
+  }
+
+  /**
+   * Notifies the journal that the model is being saved. The snapshot that is
+   * saved contains all modifications so far.
+   */
+  public synchronized void saveStarted() {
+    pendingSaves++;
+    modifiedDiagrams.clear();
+    pendingRecords = null;
+    encodedDiagrams = null;
+  }
+
+  /**
+   * Determines whether a save of the model is in progress. The changes are
+   * not safe until it is finished, if it fails they are recorded again.
+   * @return true if the model is being saved
+   */
+  public synchronized boolean isSaving() { return pendingSaves > 0; }
+
+  /**
+   * Notifies the journal that the model was saved to the specified file. The
+   * old journal is obsolete then, a new journal for the file is started with
+   * the next modification.
+   * @param file the file the model was saved to
+   */
+  public synchronized void saveFinished(File file) {
+    if (pendingSaves == 0) return;
+    if (--pendingSaves == 0) {
+      journalFile.delete();
+      setModelFile(file);
+    }
+  }
+
+  /**
+   * Notifies the journal that saving the model failed. The journal still
+   * refers to the previous contents of the model file, so all diagrams are
+   * recorded again.
+   * @param model the model
+   */
+  public synchronized void saveFailed(UmlModel model) {
+    if (pendingSaves == 0) return;
+    pendingSaves--;
+    markLoadedDiagrams(model);
+  }
+
+  /**
+   * Deletes the journal, the changes are discarded. Pending writes are
+   * waited for, so they do not recreate the journal afterwards.
+   */
+  public synchronized void discard() {
+    try {
+      waitForWrites();
+    } catch (IOException ignore) {
+      // the journal is deleted anyway
+    }
+    journalFile.delete();
+    setModelFile(modelFile);
+    modifiedDiagrams.clear();
+  }
+
+  /**
+   * Determines whether there is a journal that can be recovered for the
+   * specified model file.
+   * @param modelFile the model file, can be null
+   * @return true if there is a matching journal
+   */
+  public static boolean canRecover(File modelFile) {
+    File file = getJournalFile(modelFile);
+    if (!file.isFile()) return false;
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(readFile(file));
+      readHeader(new BinaryModelInput(buffer), buffer, modelFile);
+      return true;
+    } catch (IOException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Recovers a model by replaying the journal of the specified model file.
+   * Records that were not written completely are ignored.
+   * @param modelFile the model file, can be null
+   * @return the recovered model
+   * @throws IOException if the journal or the model file could not be read
+   */
+  public static UmlModel recover(File modelFile) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(readFile(getJournalFile(modelFile)));
+    BinaryModelInput in = new BinaryModelInput(buffer);
+    readHeader(in, buffer, modelFile);
+    UmlModel base = modelFile == null ? new UmlModelImpl() :
+      ModelReader.getInstance().readModel(modelFile);
+    UmlModel model = new BinaryModelReader().readModel(
+      new BinaryModelWriter().encodeModel(base).toByteBuffer());
+    // the recovered model is a copy, the model file can be replaced
+    ModelReader.getInstance().releaseFile(base);
+    while (buffer.hasRemaining()) {
+      int type;
+      ByteBuffer payload;
+      // a record that was not written completely ends the journal
+      try {
+        type = in.readByte();
+        int length = in.readCount();
+        payload = buffer.slice();
+        payload.limit(length);
+        buffer.position(buffer.position() + length);
+        if (in.readVarLong() != getChecksum(payload)) break;
+      } catch (IOException ex) {
+        break;
+      } catch (BufferUnderflowException ex) {
+        break;
+      }
+      model = applyRecord(model, type, payload);
+    }
+    return model;
+  }
+
+  /**
+   * Applies a journal record to the model.
+   * @param model the model
+   * @param type the record type
+   * @param payload the record data
+   * @return the resulting model
+   * @throws IOException if the record is invalid
+   */
+  private static UmlModel applyRecord(UmlModel model, int type,
+    ByteBuffer payload) throws IOException {
+    if (type == RECORD_MODEL) {
+      return new BinaryModelReader().readModel(payload);
+    }
+    if (type != RECORD_DIAGRAM) {
+      throw new IOException("invalid journal record: " + type);
+    }
+    BinaryModelInput in = new BinaryModelInput(payload);
+    int index = in.readVarInt();
+    String name = in.readRawString();
+    LazyDiagramList diagrams = (LazyDiagramList) model.getDiagrams();
+    if (index > diagrams.size()) {
+      throw new IOException("invalid diagram index: " + index);
+    }
+    diagrams.setChunk(index, name, payload.slice());
+    return model;
+  }
+
+  /**
+   * Creates the journal header for the current model file.
+   * @return the header
+   */
+  private BinaryModelOutput createHeader() {
+    BinaryModelOutput header = new BinaryModelOutput(HEADER_SIZE);
+    header.writeBytes(MAGIC, 0, MAGIC.length);
+    header.writeVarInt(VERSION);
+    for (long value : getStamp(modelFile)) header.writeVarLong(value);
+    return header;
+  }
+
+  /**
+   * Returns the length and the modification time of the model file, which
+   * identify the contents the journal refers to.
+   * @param file the model file, can be null
+   * @return the stamp values
+   */
+  private static long[] getStamp(File file) {
+    if (file == null || !file.isFile()) return new long[] { 0, 0 };
+    return new long[] { file.length() + 1, file.lastModified() };
+  }
+
+  /**
+   * Reads and checks the journal header.
+   * @param in the input
+   * @param buffer the journal contents
+   * @param modelFile the model file, can be null
+   * @throws IOException if the header is invalid or does not match the model
+   * file
+   */
+  private static void readHeader(BinaryModelInput in, ByteBuffer buffer,
+    File modelFile) throws IOException {
+    try {
+      for (int i = 0; i < MAGIC.length; i++) {
+        if (buffer.get() != MAGIC[i]) {
+          throw new IOException("not a journal file");
+        }
+      }
+      if (in.readVarInt() != VERSION) {
+        throw new IOException("unsupported journal version");
+      }
+      for (long value : getStamp(modelFile)) {
+        if (in.readVarLong() != value) {
+          throw new IOException("the journal does not match the model file");
+        }
+      }
+    } catch (BufferUnderflowException ex) {
+      throw new IOException("truncated journal");
+    }
+  }
+
+  /**
+   * Appends a record to the output.
+   * @param out the output
+   * @param type the record type
+   * @param payload the record data
+   */
+  private static void writeRecord(BinaryModelOutput out, int type,
+    BinaryModelOutput payload) {
+    out.writeByte(type);
+    out.writeVarInt(payload.size());
+    out.writeOutput(payload);
+    out.writeVarLong(payload.getChecksum());
+  }
+
+  /**
+   * Computes the checksum of the remaining bytes of a heap buffer.
+   * @param buffer the buffer
+   * @return the checksum
+   */
+  private static long getChecksum(ByteBuffer buffer) {
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(),
+      buffer.remaining());
+    return crc.getValue();
+  }
+
+  /**
+   * Determines whether the diagram at the specified index was loaded. Only
+   * loaded diagrams can have been modified.
+   * @param diagrams the diagram list
+   * @param index the index
+   * @return true if the diagram is loaded
+   */
+  private static boolean isLoaded(List<? extends UmlDiagram> diagrams,
+    int index) {
+    return !(diagrams instanceof LazyDiagramList) ||
+      ((LazyDiagramList) diagrams).isLoaded(index);
+  }
+
+  /**
+   * Reads the complete contents of a file.
+   * @param file the file
+   * @return the contents
+   * @throws IOException if an I/O error occurred
+   */
+  private static byte[] readFile(File file) throws IOException {
+    byte[] data = new byte[(int) file.length()];
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(data);
+    } finally {
+      in.close();
+    }
+    return data;
+  }
+}
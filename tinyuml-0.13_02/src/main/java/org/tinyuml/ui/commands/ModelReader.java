@@ -23,7 +23,13 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import org.tinyuml.model.UmlDiagram;
 import org.tinyuml.model.UmlModel;
 import org.tinyuml.util.ApplicationResources;
 
@@ -36,6 +42,11 @@ import org.tinyuml.util.ApplicationResources;
  */
 public final class ModelReader extends FileHandler {
 
+  /**
+   * Binary files of at least this size are mapped into memory instead of
+   * being read into the heap.
+   */
+  private static final long MAP_THRESHOLD = 256 * 1024;
   private static ModelReader instance = new ModelReader();
 
   /**
@@ -45,30 +56,95 @@ public final class ModelReader extends FileHandler {
   public static ModelReader getInstance() { return instance; }
 
   /**
-   * Reads a UmlModel object from a file.
+   * Reads a UmlModel object from a file. Files in the binary model format
+   * are decoded by BinaryModelReader, older files were written by Java
+   * serialization and are read with an ObjectInputStream. Large binary files
+   * are mapped into memory, so only the pages of the table of contents and
+   * of the diagrams that are actually opened are read.
    * @param file the file
    * @return the UmlModel object
    * @throws IOException if I/O error occurred
    */
   public UmlModel readModel(File file) throws IOException {
-    FileInputStream fis = null;
-    BufferedInputStream bis = null;
+    FileInputStream in = new FileInputStream(file);
+    try {
+      FileChannel channel = in.getChannel();
+      ByteBuffer header = ByteBuffer.allocate(BinaryModelFormat.MAGIC.length);
+      while (header.hasRemaining() && channel.read(header) >= 0) { }
+      if (!BinaryModelFormat.isBinaryFormat(header.array(),
+        header.position())) {
+        channel.position(0);
+        return readSerializedModel(new BufferedInputStream(in));
+      }
+      ByteBuffer contents = readContents(channel);
+      UmlModel model = new BinaryModelReader().readModel(contents);
+      if (contents instanceof MappedByteBuffer &&
+          model.getDiagrams() instanceof LazyDiagramList) {
+        ((LazyDiagramList) model.getDiagrams()).setMapping(contents);
+      }
+      return model;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Releases the file the specified model was read from, if it is still
+   * mapped into memory. This needs to be done before the file is replaced,
+   * because mapped files can not be replaced or deleted on all platforms.
+   * The chunks of the diagrams that were not loaded yet are copied into the
+   * heap.
+   * @param model the model
+   */
+  public void releaseFile(UmlModel model) {
+    List<? extends UmlDiagram> diagrams = model.getDiagrams();
+    if (diagrams instanceof LazyDiagramList) {
+      ((LazyDiagramList) diagrams).releaseMapping();
+    }
+  }
+
+  /**
+   * Reads a UmlModel that was written with Java serialization.
+   * @param stream the InputStream
+   * @return the UmlModel object
+   * @throws IOException if I/O error occurred
+   */
+  private UmlModel readSerializedModel(InputStream stream) throws IOException {
     ObjectInputStream in = null;
     try {
-      fis = new FileInputStream(file);
-      bis = new BufferedInputStream(fis);
-      in = new ObjectInputStream(bis);
+      in = new ObjectInputStream(stream);
       return (UmlModel) in.readObject();
     } catch (ClassNotFoundException ex) {
       throw new IOException(ApplicationResources.getInstance()
         .getString("error.readfile.message"));
     } finally {
       if (in != null) in.close();
-      if (bis != null) bis.close();
-      if (fis != null) fis.close();
     }
   }
 
+  /**
+   * Returns the complete contents of a file. Large files are mapped, the
+   * mapping stays valid after the channel was closed.
+   * @param channel the file channel
+   * @return the contents
+   * @throws IOException if I/O error occurred
+   */
+  private ByteBuffer readContents(FileChannel channel) throws IOException {
+    long length = channel.size();
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException(ApplicationResources.getInstance()
+        .getString("error.readfile.message"));
+    }
+    if (length >= MAP_THRESHOLD) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+    ByteBuffer data = ByteBuffer.allocate((int) length);
+    channel.position(0);
+    while (data.hasRemaining() && channel.read(data) >= 0) { }
+    data.flip();
+    return data;
+  }
+
   /**
    * {@inheritDoc}
    */
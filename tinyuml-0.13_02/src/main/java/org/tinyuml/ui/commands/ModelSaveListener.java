@@ -0,0 +1,54 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.commands;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Receives the state of a model file that is written in the background. All
+ * methods are called on the event dispatch thread.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public interface ModelSaveListener {
+
+  /**
+   * Called while the file is written.
+   * @param file the file
+   * @param percent the percentage of the data written so far
+   */
+  void saveProgress(File file, int percent);
+
+  /**
+   * Called after the file was written completely.
+   * @param file the file
+   */
+  void saveFinished(File file);
+
+  /**
+   * Called if the file could not be written. The previous contents of the
+   * file are unchanged.
+   * @param file the file
+   * @param ex the exception
+   */
+  void saveFailed(File file, IOException ex);
+}
@@ -20,22 +20,37 @@
 package org.tinyuml.ui.commands;
 
 import java.awt.Component;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import javax.swing.SwingUtilities;
 import org.tinyuml.model.UmlModel;
+import org.tinyuml.ui.commands.BinaryModelWriter.ModelSnapshot;
+import org.tinyuml.util.ApplicationResources;
 
 /**
- * This class writes the current model and diagram data to an XML file.
+ * This class writes the current model and diagram data to a file. Files are
+ * written to a temporary file first, which then replaces the target file, so
+ * the target file is never left partially written.
  *
  * @author Wei-ju Wu
  * @version 1.0
  */
 public final class ModelWriter extends FileWriter {
 
+  private static final int BLOCK_SIZE = 64 * 1024;
   private static ModelWriter instance = new ModelWriter();
+  private ExecutorService executor;
+  private int compressionLevel = Math.max(0, Math.min(
+    Deflater.BEST_COMPRESSION,
+    Integer.getInteger("tinyuml.compression", 0)));
 
   /**
    * Returns the singleton instance.
@@ -44,7 +59,48 @@ public final class ModelWriter extends FileWriter {
   public static ModelWriter getInstance() { return instance; }
 
   /**
-   * Writes the specified UmlModel to a file.
+   * Private constructor.
+   */
+  private ModelWriter() {
+    // a single thread keeps the writes in order, it terminates when idle so
+    // it does not keep the application alive, but a pending write does
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>());
+    pool.allowCoreThreadTimeOut(true);
+    executor = pool;
+  }
+
+  /**
+   * Sets the compression level for model files. A level of 0 writes
+   * uncompressed files, the levels 1 to 9 are the Deflater levels. The
+   * default is 0, a different default can be set with the system property
+   * tinyuml.compression. Uncompressed files can be mapped and their diagrams
+   * decoded without inflating them first.
+   * @param level the compression level
+   */
+  public void setCompressionLevel(int level) {
+    if (level < 0 || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("invalid compression level: " +
+        level);
+    }
+    compressionLevel = level;
+  }
+
+  /**
+   * Creates a BinaryModelWriter with the current compression level.
+   * @return the writer
+   */
+  private BinaryModelWriter createWriter() {
+    BinaryModelWriter writer = new BinaryModelWriter();
+    writer.setCompressionLevel(compressionLevel);
+    return writer;
+  }
+
+  /**
+   * Writes the specified UmlModel to a file in the binary model format. The
+   * model is encoded before the file is opened, because a model that was
+   * read from the same file may still refer to its mapped contents. The
+   * mapping is released before the file is replaced.
    * @param comp the parent component for the confirmation dialog
    * @param file the file
    * @param model the model
@@ -53,24 +109,165 @@ public final class ModelWriter extends FileWriter {
    */
   public File writeModel(Component comp, File file, UmlModel model)
     throws IOException {
-    FileOutputStream fos = null;
-    BufferedOutputStream bos = null;
-    ObjectOutputStream os = null;
     File theFile = getFileWithExtension(file);
     if (canWrite(comp, theFile)) {
+      BinaryModelOutput data = createWriter().encodeModel(model);
+      ModelReader.getInstance().releaseFile(model);
+      writeSnapshot(data, theFile, null);
+    }
+    return theFile;
+  }
+
+  /**
+   * Writes the specified UmlModel to a file in the background. The model is
+   * encoded into a snapshot on the calling thread, so it can be changed as
+   * soon as this method returns without affecting the file. The chunks of
+   * the snapshot are compressed in the background. Writes are performed in
+   * the order they were requested.
+   * @param comp the parent component for the confirmation dialog
+   * @param file the file
+   * @param model the model
+   * @param listener the listener that is notified about the progress
+   * @return the file that is actually written or null if the user chose not
+   * to replace an existing file
+   * @throws IOException if the model can not be stored
+   */
+  public File saveModel(Component comp, File file, UmlModel model,
+    final ModelSaveListener listener) throws IOException {
+    final File theFile = getFileWithExtension(file);
+    if (!canWrite(comp, theFile)) return null;
+    final BinaryModelWriter writer = createWriter();
+    final ModelSnapshot snapshot = writer.snapshotModel(model);
+    ModelReader.getInstance().releaseFile(model);
+    executor.execute(new Runnable() {
+      /** {@inheritDoc} */
+      public void run() {
+        try {
+          writeSnapshot(writer.finishModel(snapshot), theFile, listener);
+          fireSaveFinished(listener, theFile);
+        } catch (IOException ex) {
+          fireSaveFailed(listener, theFile, ex);
+        }
+      }
+    });
+    return theFile;
+  }
+
+  /**
+   * Runs a task on the thread that writes the model files, after all writes
+   * that were requested before.
+   * @param task the task
+   * @return the result of the task
+   */
+  <T> Future<T> submit(Callable<T> task) {
+    return executor.submit(task);
+  }
+
+  /**
+   * Writes encoded data to the specified file, replacing it atomically.
+   * @param data the data
+   * @param file the file
+   * @throws IOException if the file could not be written
+   */
+  void writeFile(BinaryModelOutput data, File file) throws IOException {
+    writeSnapshot(data, file, null);
+  }
+
+  /**
+   * Writes an encoded model to a temporary file in the directory of the
+   * target file and replaces the target file with it. The replacement is
+   * only atomic on platforms where File.renameTo() overwrites an existing
+   * file. Elsewhere the target file is deleted first, and if the temporary
+   * file can not be renamed after that, it is kept and its path is reported
+   * in the exception.
+   * @param snapshot the encoded model
+   * @param file the target file
+   * @param listener the listener to report the progress to, can be null
+   * @throws IOException if the file could not be written
+   */
+  private void writeSnapshot(BinaryModelOutput snapshot, File file,
+    ModelSaveListener listener) throws IOException {
+    File dir = file.getAbsoluteFile().getParentFile();
+    File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+    boolean keepTempFile = false;
+    try {
+      FileOutputStream fos = new FileOutputStream(tempFile);
       try {
-        fos = new FileOutputStream(theFile);
-        bos = new BufferedOutputStream(fos);
-        os = new ObjectOutputStream(bos);
-        os.writeObject(model);
-        os.flush();
+        int total = snapshot.size();
+        int lastPercent = -1;
+        for (int offset = 0; offset < total; offset += BLOCK_SIZE) {
+          snapshot.writeTo(fos, offset, Math.min(BLOCK_SIZE, total - offset));
+          int percent = (int) ((offset + BLOCK_SIZE) * 100L / total);
+          if (listener != null && percent != lastPercent && percent < 100) {
+            fireSaveProgress(listener, file, percent);
+            lastPercent = percent;
+          }
+        }
+        fos.getFD().sync();
       } finally {
-        if (os != null) os.close();
-        if (bos != null) bos.close();
-        if (fos != null) fos.close();
+        fos.close();
+      }
+      // renaming over an existing file is not possible on all platforms
+      if (!tempFile.renameTo(file)) {
+        ApplicationResources resources = ApplicationResources.getInstance();
+        if (file.exists() && !file.delete()) {
+          throw new IOException(resources.getString("error.savefile.message")
+            + " " + file.getName());
+        }
+        // from here on the temporary file holds the only copy
+        keepTempFile = true;
+        if (!tempFile.renameTo(file)) {
+          throw new IOException(resources.getString("error.savefile.message")
+            + " " + file.getName() + ". "
+            + resources.getString("error.savefile.keptdata") + " "
+            + tempFile.getPath());
+        }
       }
+    } finally {
+      if (!keepTempFile && tempFile.exists()) tempFile.delete();
     }
-    return theFile;
+  }
+
+  /**
+   * Notifies the listener about the progress on the event dispatch thread.
+   * @param listener the listener
+   * @param file the file
+   * @param percent the progress in percent
+   */
+  private void fireSaveProgress(final ModelSaveListener listener,
+    final File file, final int percent) {
+    SwingUtilities.invokeLater(new Runnable() {
+      /** {@inheritDoc} */
+      public void run() { listener.saveProgress(file, percent); }
+    });
+  }
+
+  /**
+   * Notifies the listener about a finished write on the event dispatch
+   * thread.
+   * @param listener the listener
+   * @param file the file
+   */
+  private void fireSaveFinished(final ModelSaveListener listener,
+    final File file) {
+    SwingUtilities.invokeLater(new Runnable() {
+      /** {@inheritDoc} */
+      public void run() { listener.saveFinished(file); }
+    });
+  }
+
+  /**
+   * Notifies the listener about a failed write on the event dispatch thread.
+   * @param listener the listener
+   * @param file the file
+   * @param ex the exception
+   */
+  private void fireSaveFailed(final ModelSaveListener listener,
+    final File file, final IOException ex) {
+    SwingUtilities.invokeLater(new Runnable() {
+      /** {@inheritDoc} */
+      public void run() { listener.saveFailed(file, ex); }
+    });
   }
 
   /**
@@ -20,20 +20,44 @@
 package org.tinyuml.ui.commands;
 
 import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.tinyuml.ui.diagram.DiagramEditor;
 
 /**
  * This class exports a diagram to a Portable Network Graphics file.
+ * The diagram is rendered in horizontal bands on several threads, the bands
+ * are written to the file in order as soon as they are available, so only
+ * a few bands are held in memory at a time.
  *
  * @author Wei-ju Wu
  * @version 1.0
  */
 public class PngExporter extends FileWriter {
 
+  /** The height of a rendered band in pixels. */
+  public static final int BAND_HEIGHT = 256;
+
+  private int threadCount = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Sets the number of threads used for rendering.
+   * @param count the number of threads
+   */
+  public void setThreadCount(int count) { threadCount = Math.max(1, count); }
+
   /**
    * Export the editor graphics to a file in PNG format.
    * @param editor the editor
@@ -41,13 +65,110 @@ public class PngExporter extends FileWriter {
    * @throws IOException if error occurred
    */
   public void writePNG(DiagramEditor editor, File file) throws IOException {
-    Dimension size = editor.getTotalCanvasSize();
     File theFile = getFileWithExtension(file);
     if (canWrite(editor, theFile)) {
-      BufferedImage image = new BufferedImage((int) size.getWidth(),
-        (int) size.getHeight(), BufferedImage.TYPE_INT_RGB);
-      editor.paintComponentNonScreen(image.getGraphics());
-      ImageIO.write(image, "png", theFile);
+      OutputStream out = new BufferedOutputStream(
+        new FileOutputStream(theFile));
+      try {
+        writePNG(editor, out);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * Export the editor graphics to a stream in PNG format.
+   * @param editor the editor
+   * @param out the OutputStream to write to
+   * @throws IOException if error occurred
+   */
+  public void writePNG(DiagramEditor editor, OutputStream out)
+    throws IOException {
+    Dimension size = editor.getTotalCanvasSize();
+    int width = (int) size.getWidth(), height = (int) size.getHeight();
+    // rendering lays out the elements, which must not happen concurrently
+    editor.validateLayout();
+    StreamingPngWriter writer = new StreamingPngWriter(out, width, height);
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try {
+      LinkedList<Future<BufferedImage>> pending =
+        new LinkedList<Future<BufferedImage>>();
+      int maxPending = 2 * threadCount;
+      int[] row = new int[width];
+      for (int y = 0; y < height || !pending.isEmpty();) {
+        while (y < height && pending.size() < maxPending) {
+          int bandHeight = Math.min(BAND_HEIGHT, height - y);
+          pending.add(executor.submit(new BandRenderer(editor,
+            new Rectangle(0, y, width, bandHeight))));
+          y += bandHeight;
+        }
+        BufferedImage band = getBand(pending.removeFirst());
+        for (int bandY = 0; bandY < band.getHeight(); bandY++) {
+          band.getRGB(0, bandY, width, 1, row, 0, width);
+          writer.writeRow(row, 0);
+        }
+      }
+      writer.close();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Waits for a band to be rendered.
+   * @param future the Future of the band
+   * @return the rendered band
+   * @throws IOException if rendering failed or was interrupted
+   */
+  private BufferedImage getBand(Future<BufferedImage> future)
+    throws IOException {
+    try {
+      return future.get();
+    } catch (ExecutionException ex) {
+      IOException ioex = new IOException("rendering failed");
+      ioex.initCause(ex.getCause());
+      throw ioex;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      IOException ioex = new IOException("export was interrupted");
+      ioex.initCause(ex);
+      throw ioex;
+    }
+  }
+
+  /**
+   * Renders a horizontal band of the diagram.
+   */
+  private static class BandRenderer implements Callable<BufferedImage> {
+
+    private DiagramEditor editor;
+    private Rectangle bounds;
+
+    /**
+     * Constructor.
+     * @param anEditor the editor
+     * @param theBounds the bounds of the band in diagram coordinates
+     */
+    public BandRenderer(DiagramEditor anEditor, Rectangle theBounds) {
+      editor = anEditor;
+      bounds = theBounds;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BufferedImage call() {
+      BufferedImage image = new BufferedImage(bounds.width, bounds.height,
+        BufferedImage.TYPE_INT_RGB);
+      Graphics2D g2d = image.createGraphics();
+      try {
+        g2d.translate(-bounds.x, -bounds.y);
+        editor.paintComponentNonScreen(g2d, bounds);
+      } finally {
+        g2d.dispose();
+      }
+      return image;
     }
   }
 
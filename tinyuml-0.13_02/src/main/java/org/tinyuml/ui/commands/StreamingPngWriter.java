@@ -0,0 +1,209 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.commands;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A minimal PNG encoder that writes an RGB image row by row, so the image
+ * does not need to be held in memory as a whole. Rows have to be written
+ * from top to bottom, after the last row the writer needs to be closed.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class StreamingPngWriter {
+
+  private static final byte[] SIGNATURE = {
+    (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'
+  };
+  private static final int BIT_DEPTH = 8;
+  private static final int COLOR_TYPE_RGB = 2;
+  private static final int FILTER_NONE = 0;
+  private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+  private DataOutputStream out;
+  private int width, height, rowsWritten;
+  private byte[] rowBuffer;
+  private Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+  private DeflaterOutputStream imageData;
+
+  /**
+   * Constructor. Writes the PNG signature and the image header.
+   * @param out the OutputStream to write to
+   * @param width the image width
+   * @param height the image height
+   * @throws IOException if an error occurred
+   */
+  public StreamingPngWriter(OutputStream out, int width, int height)
+    throws IOException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("invalid image size: " + width
+        + "x" + height);
+    }
+    this.out = new DataOutputStream(out);
+    this.width = width;
+    this.height = height;
+    rowBuffer = new byte[1 + width * 3];
+    this.out.write(SIGNATURE);
+    writeHeader();
+    imageData = new DeflaterOutputStream(new ChunkOutputStream("IDAT"),
+      deflater);
+  }
+
+  /**
+   * Returns the number of rows written so far.
+   * @return the number of rows
+   */
+  public int getRowsWritten() { return rowsWritten; }
+
+  /**
+   * Writes the next row of the image.
+   * @param rgb the pixels in TYPE_INT_RGB format
+   * @param offset the offset of the first pixel within rgb
+   * @throws IOException if an error occurred
+   */
+  public void writeRow(int[] rgb, int offset) throws IOException {
+    if (rowsWritten == height) {
+      throw new IllegalStateException("all rows were written");
+    }
+    rowBuffer[0] = FILTER_NONE;
+    for (int x = 0, i = 1; x < width; x++) {
+      int pixel = rgb[offset + x];
+      rowBuffer[i++] = (byte) (pixel >> 16);
+      rowBuffer[i++] = (byte) (pixel >> 8);
+      rowBuffer[i++] = (byte) pixel;
+    }
+    imageData.write(rowBuffer);
+    rowsWritten++;
+  }
+
+  /**
+   * Finishes the image data and writes the end marker. This does not close
+   * the underlying stream.
+   * @throws IOException if an error occurred or not all rows were written
+   */
+  public void close() throws IOException {
+    if (rowsWritten != height) {
+      throw new IOException("only " + rowsWritten + " of " + height
+        + " rows were written");
+    }
+    imageData.close();
+    deflater.end();
+    writeChunk("IEND", new byte[0], 0);
+    out.flush();
+  }
+
+  /**
+   * Writes the IHDR chunk.
+   * @throws IOException if an error occurred
+   */
+  private void writeHeader() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(bytes);
+    header.writeInt(width);
+    header.writeInt(height);
+    header.writeByte(BIT_DEPTH);
+    header.writeByte(COLOR_TYPE_RGB);
+    header.writeByte(0); // compression method
+    header.writeByte(0); // filter method
+    header.writeByte(0); // no interlace
+    writeChunk("IHDR", bytes.toByteArray(), bytes.size());
+  }
+
+  /**
+   * Writes a chunk to the output stream.
+   * @param type the chunk type
+   * @param data the chunk data
+   * @param length the number of bytes in data
+   * @throws IOException if an error occurred
+   */
+  private void writeChunk(String type, byte[] data, int length)
+    throws IOException {
+    byte[] typeBytes = type.getBytes("US-ASCII");
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, 0, length);
+    out.writeInt(length);
+    out.write(typeBytes);
+    out.write(data, 0, length);
+    out.writeInt((int) crc.getValue());
+  }
+
+  /**
+   * Collects the compressed data and writes it as a sequence of chunks
+   * of a limited size.
+   */
+  private class ChunkOutputStream extends OutputStream {
+
+    private String type;
+    private byte[] buffer = new byte[MAX_CHUNK_SIZE];
+    private int count;
+
+    /**
+     * Constructor.
+     * @param aType the chunk type
+     */
+    public ChunkOutputStream(String aType) { type = aType; }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(int b) throws IOException {
+      if (count == buffer.length) flush();
+      buffer[count++] = (byte) b;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length) flush();
+        int n = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void flush() throws IOException {
+      if (count > 0) {
+        writeChunk(type, buffer, count);
+        count = 0;
+      }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() throws IOException { flush(); }
+  }
+}
@@ -19,20 +19,21 @@
  */
 package org.tinyuml.ui.commands;
 
+import java.awt.Color;
+import java.awt.Dimension;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.apache.batik.svggen.SVGGeneratorContext;
-import org.apache.batik.svggen.SVGGraphics2D;
+import java.io.Writer;
+import org.tinyuml.draw.SvgDrawingContext;
 import org.tinyuml.ui.diagram.DiagramEditor;
-import org.w3c.dom.DOMImplementation;
-import org.w3c.dom.Document;
 
 /**
- * This class exports a diagram to SVG format.
+ * This class exports a diagram to SVG format. The elements are written to
+ * the file while the diagram is drawn, so the memory needed does not depend
+ * on the size of the diagram.
  *
  * @author Wei-ju Wu
  * @version 1.0
@@ -46,36 +47,35 @@ public class SvgExporter extends FileWriter {
    * @throws IOException if error occurred
    */
   public void writeSVG(DiagramEditor editor, File file) throws IOException {
-    FileOutputStream out = null;
-    OutputStreamWriter writer = null;
-    try {
-      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-      DocumentBuilder builder = factory.newDocumentBuilder();
-      DOMImplementation domImpl = builder.getDOMImplementation();
-      Document doc =
-        domImpl.createDocument("http://www.w3.org/2000/svg", "svg", null);
-      SVGGeneratorContext ctx = SVGGeneratorContext.createDefault(doc);
-      ctx.setComment("Generated by TinyUML with Batik SVG Generator");
-      ctx.setEmbeddedFontsOn(true);
-      SVGGraphics2D g2d = new SVGGraphics2D(ctx, true);
-      g2d.setSVGCanvasSize(editor.getTotalCanvasSize());
-      editor.paintComponentNonScreen(g2d);
-
-      // write the file
-      File theFile = getFileWithExtension(file);
-      if (canWrite(editor, theFile)) {
-        out = new FileOutputStream(theFile);
-        writer = new OutputStreamWriter(out, "UTF-8");
-        g2d.stream(writer);
+    File theFile = getFileWithExtension(file);
+    if (canWrite(editor, theFile)) {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(theFile), "UTF-8"));
+      try {
+        writeSVG(editor, writer);
+      } finally {
+        writer.close();
       }
-    } catch (Exception ex) {
-      ex.printStackTrace();
-    } finally  {
-      if (writer != null) { writer.close(); }
-      if (out != null) { out.close(); }
     }
   }
 
+  /**
+   * Writes the specified diagram editor as SVG to a Writer.
+   * @param editor a DiagramEditor
+   * @param writer the Writer to write to
+   * @throws IOException if error occurred
+   */
+  public void writeSVG(DiagramEditor editor, Writer writer)
+    throws IOException {
+    Dimension size = editor.getTotalCanvasSize();
+    SvgDrawingContext context = new SvgDrawingContext(writer);
+    context.startDocument(size.width, size.height);
+    context.fillRectangle(0, 0, size.width, size.height, Color.WHITE);
+    editor.getDiagram().draw(context, false);
+    context.endDocument();
+    if (context.getError() != null) throw context.getError();
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -0,0 +1,359 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.diagram;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import org.tinyuml.draw.AbstractCompositeNode;
+import org.tinyuml.draw.CompositeNode;
+import org.tinyuml.draw.Connection;
+import org.tinyuml.draw.DiagramElement;
+import org.tinyuml.draw.Label;
+import org.tinyuml.draw.Node;
+import org.tinyuml.umldraw.structure.Association;
+import org.tinyuml.umldraw.structure.StructureDiagram;
+
+/**
+ * This class keeps track of the areas of a diagram whose appearance has
+ * changed. It remembers the bounds of every element, so the changed elements
+ * only need to be reported with elementChanged(), and not their previous
+ * positions. update() compares the remembered bounds of the reported
+ * elements, their children and their connections with the current bounds.
+ * All elements are only compared in the first update and after scanAll(),
+ * which is meant for changes that are not reported, like undo and redo.
+ * Changes that do not affect the bounds need to be added as damage.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class DamageTracker {
+
+  /**
+   * The space around a node that might be covered by its outline.
+   */
+  private static final double NODE_MARGIN = 2;
+
+  /**
+   * The space around a label that might be covered by its decorations.
+   */
+  private static final double LABEL_MARGIN = 10;
+
+  /**
+   * The space around a connection that might be covered by its decorations.
+   */
+  private static final double CONNECTION_MARGIN = 16;
+
+  private StructureDiagram diagram;
+  private Map<DiagramElement, Rectangle2D> knownBounds =
+    new IdentityHashMap<DiagramElement, Rectangle2D>();
+  // the map of the previous update, which is reused to avoid allocations
+  private Map<DiagramElement, Rectangle2D> spareBounds =
+    new IdentityHashMap<DiagramElement, Rectangle2D>();
+  private Map<DiagramElement, Boolean> changedElements =
+    new IdentityHashMap<DiagramElement, Boolean>();
+  private List<DiagramElement> checkedElements =
+    new ArrayList<DiagramElement>();
+  private boolean scanAllPending = true;
+  private Rectangle2D knownDiagramBounds;
+  private Rectangle2D damage;
+  private Rectangle2D tmpBounds = new Rectangle2D.Double();
+  private Rectangle2D tmpLabelBounds = new Rectangle2D.Double();
+
+  /**
+   * Constructor.
+   * @param aDiagram the diagram to track
+   */
+  public DamageTracker(StructureDiagram aDiagram) {
+    diagram = aDiagram;
+  }
+
+  /**
+   * Adds the current bounds of the specified element to the damaged area.
+   * @param element the element
+   */
+  public void addDamage(DiagramElement element) {
+    addDamage(getDamageBounds(element));
+  }
+
+  /**
+   * Adds the specified area to the damaged area.
+   * @param area the area in diagram coordinates
+   */
+  public void addDamage(Rectangle2D area) {
+    if (area == null) return;
+    if (damage == null) {
+      damage = (Rectangle2D) area.clone();
+    } else {
+      damage.add(area);
+    }
+  }
+
+  /**
+   * Marks the whole diagram as damaged.
+   */
+  public void damageAll() {
+    addDamage(new Rectangle2D.Double(-Double.MAX_VALUE / 2,
+      -Double.MAX_VALUE / 2, Double.MAX_VALUE, Double.MAX_VALUE));
+  }
+
+  /**
+   * Reports that the specified element might have changed its bounds or was
+   * added or removed. Its bounds, the bounds of its children and, for nodes,
+   * of its connections are compared in the next update.
+   * @param element the element
+   */
+  public void elementChanged(DiagramElement element) {
+    changedElements.put(element, Boolean.TRUE);
+  }
+
+  /**
+   * Requests that the next update compares the bounds of all elements
+   * instead of the reported ones. This is used after changes that were not
+   * reported, like undo and redo.
+   */
+  public void scanAll() {
+    scanAllPending = true;
+  }
+
+  /**
+   * Returns the damaged area and resets it.
+   * @return the damaged area or null if nothing was damaged
+   */
+  public Rectangle2D takeDamage() {
+    Rectangle2D result = damage;
+    damage = null;
+    return result;
+  }
+
+  /**
+   * Compares the current bounds of the reported elements with the bounds
+   * that were recorded for them. The previous and the current bounds of all
+   * changed, added or removed elements are added to the damaged area.
+   * Connections that were invalidated are compared again in the following
+   * updates, until they have recalculated their points.
+   * The first call only records the bounds of all elements.
+   * The recorded rectangles are updated in place, so an update does not
+   * allocate anything unless elements were added.
+   */
+  public void update() {
+    boolean isFirstUpdate = knownDiagramBounds == null;
+    diagram.getAbsoluteBounds(tmpBounds);
+    if (isFirstUpdate) {
+      knownDiagramBounds = new Rectangle2D.Double();
+    } else if (!knownDiagramBounds.equals(tmpBounds)) {
+      addDamage(knownDiagramBounds);
+      addDamage(tmpBounds);
+    }
+    knownDiagramBounds.setRect(tmpBounds);
+    if (scanAllPending) {
+      scanAllPending = false;
+      changedElements.clear();
+      compareAllBounds(!isFirstUpdate);
+    } else if (!changedElements.isEmpty()) {
+      checkedElements.addAll(changedElements.keySet());
+      changedElements.clear();
+      for (DiagramElement element : checkedElements) {
+        checkElement(element, isAttached(element));
+      }
+      checkedElements.clear();
+    }
+  }
+
+  /**
+   * Compares the bounds of all elements with the recorded bounds.
+   * @param trackChanges true if changed and added elements are damaged
+   */
+  private void compareAllBounds(boolean trackChanges) {
+    Map<DiagramElement, Rectangle2D> currentBounds = spareBounds;
+    collectBounds(diagram, currentBounds, trackChanges);
+    // the remaining elements were removed
+    for (Rectangle2D previous : knownBounds.values()) {
+      addDamage(previous);
+    }
+    knownBounds.clear();
+    spareBounds = knownBounds;
+    knownBounds = currentBounds;
+  }
+
+  /**
+   * Recursively records the bounds of the children of the specified node.
+   * The recorded bounds are moved from knownBounds to the result map.
+   * @param node the node
+   * @param result the map to add the bounds to
+   * @param trackChanges true if changed and added elements are damaged
+   */
+  private void collectBounds(AbstractCompositeNode node,
+    Map<DiagramElement, Rectangle2D> result, boolean trackChanges) {
+    for (DiagramElement child : node.getChildren()) {
+      Rectangle2D previous = knownBounds.remove(child);
+      if (isInvalidConnection(child)) {
+        addDamage(previous);
+        elementChanged(child);
+      } else if (getDamageBounds(child, tmpBounds) == null) {
+        addDamage(previous);
+      } else if (previous == null) {
+        if (trackChanges) addDamage(tmpBounds);
+        result.put(child, (Rectangle2D) tmpBounds.clone());
+      } else {
+        if (!previous.equals(tmpBounds)) {
+          addDamage(previous);
+          addDamage(tmpBounds);
+          previous.setRect(tmpBounds);
+        }
+        result.put(child, previous);
+      }
+      if (child instanceof AbstractCompositeNode) {
+        collectBounds((AbstractCompositeNode) child, result, trackChanges);
+      }
+    }
+  }
+
+  /**
+   * Compares the bounds of the specified element, its children and, if it is
+   * a node, its connections with the recorded bounds and records the current
+   * bounds. The recorded bounds of detached elements are discarded.
+   * @param element the element
+   * @param attached true if the element is part of the diagram
+   */
+  private void checkElement(DiagramElement element, boolean attached) {
+    Rectangle2D previous = knownBounds.get(element);
+    if (!attached || isInvalidConnection(element)
+        || getDamageBounds(element, tmpBounds) == null) {
+      if (previous != null) {
+        addDamage(previous);
+        knownBounds.remove(element);
+      }
+      // the points are recalculated when the connection is drawn
+      if (attached && isInvalidConnection(element)) elementChanged(element);
+    } else if (previous == null) {
+      addDamage(tmpBounds);
+      knownBounds.put(element, (Rectangle2D) tmpBounds.clone());
+    } else if (!previous.equals(tmpBounds)) {
+      addDamage(previous);
+      addDamage(tmpBounds);
+      previous.setRect(tmpBounds);
+    }
+    if (element instanceof AbstractCompositeNode) {
+      for (DiagramElement child :
+           ((AbstractCompositeNode) element).getChildren()) {
+        checkElement(child, attached);
+      }
+    }
+    if (element instanceof Node) {
+      for (Connection conn : ((Node) element).getConnections()) {
+        checkElement(conn, attached && isAttached(conn));
+      }
+    }
+  }
+
+  /**
+   * Determines whether the specified element is part of the diagram, i.e.
+   * whether it and all of its ancestors are contained in their parents.
+   * @param element the element
+   * @return true if the element is part of the diagram
+   */
+  private boolean isAttached(DiagramElement element) {
+    DiagramElement current = element;
+    while (current != diagram) {
+      CompositeNode parent = current.getParent();
+      if (!(parent instanceof AbstractCompositeNode) ||
+          !((AbstractCompositeNode) parent).getChildren().contains(current)) {
+        return false;
+      }
+      current = parent;
+    }
+    return true;
+  }
+
+  /**
+   * Determines whether the specified element is a connection that needs to
+   * recalculate its points.
+   * @param element the element
+   * @return true if the element is an invalid connection
+   */
+  private static boolean isInvalidConnection(DiagramElement element) {
+    return element instanceof Connection && !element.isValid();
+  }
+
+  /**
+   * Returns the area that is covered when the specified element is drawn.
+   * A label inside of an element covers the area of the element's part that
+   * contains it. The labels that belong to the diagram itself, like the name
+   * label and the connection labels, can grow to the right when their text
+   * changes, so the area extends to the right border of the diagram.
+   * @param element the element
+   * @return the covered area or null if the element is not drawn
+   */
+  public Rectangle2D getDamageBounds(DiagramElement element) {
+    return getDamageBounds(element, new Rectangle2D.Double());
+  }
+
+  /**
+   * Stores the area that is covered when the specified element is drawn
+   * in the specified rectangle.
+   * @param element the element
+   * @param bounds the rectangle to store the area in
+   * @return the bounds rectangle or null if the element is not drawn
+   */
+  private Rectangle2D getDamageBounds(DiagramElement element,
+    Rectangle2D bounds) {
+    if (element instanceof Label) {
+      if (element.getParent() != diagram) {
+        return getDamageBounds(element.getParent(), bounds);
+      }
+      element.getAbsoluteBounds(bounds);
+      bounds.setFrameFromDiagonal(bounds.getX() - LABEL_MARGIN,
+        bounds.getY() - LABEL_MARGIN,
+        Math.max(bounds.getMaxX(), diagram.getAbsoluteX2()) + LABEL_MARGIN,
+        bounds.getMaxY() + LABEL_MARGIN);
+      return bounds;
+    }
+    double margin = NODE_MARGIN;
+    if (element instanceof Connection) {
+      margin = CONNECTION_MARGIN;
+      if (((Connection) element).getPoints().isEmpty()) return null;
+    }
+    element.getAbsoluteBounds(bounds);
+    bounds.setRect(bounds.getX() - margin, bounds.getY() - margin,
+      bounds.getWidth() + 2 * margin, bounds.getHeight() + 2 * margin);
+    if (element instanceof Association) {
+      Association association = (Association) element;
+      if (association.showMultiplicities()) {
+        bounds.add(association.getMultiplicity1Label().getAbsoluteBounds(
+          tmpLabelBounds));
+        bounds.add(association.getMultiplicity2Label().getAbsoluteBounds(
+          tmpLabelBounds));
+      }
+      if (association.showName()) {
+        // the reading direction triangle is drawn beside the name label
+        Rectangle2D labelBounds =
+          association.getNameLabel().getAbsoluteBounds(tmpLabelBounds);
+        labelBounds.setRect(labelBounds.getX() - LABEL_MARGIN,
+          labelBounds.getY(), labelBounds.getWidth() + 2 * LABEL_MARGIN,
+          labelBounds.getHeight());
+        bounds.add(labelBounds);
+      }
+    }
+    return bounds;
+  }
+}
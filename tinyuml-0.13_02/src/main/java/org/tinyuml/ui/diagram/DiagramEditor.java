@@ -32,6 +32,8 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.geom.Dimension2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.util.ArrayList;
@@ -47,6 +49,7 @@ import javax.swing.event.UndoableEditListener;
 import javax.swing.undo.UndoManager;
 import org.tinyuml.draw.Connection;
 import org.tinyuml.model.RelationType;
+import org.tinyuml.draw.BoundsDrawingContext;
 import org.tinyuml.draw.DiagramOperations;
 import org.tinyuml.draw.DiagramElement;
 import org.tinyuml.draw.DrawingContext;
@@ -106,6 +109,34 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
   private transient List<UndoableEditListener> editListeners =
     new ArrayList<UndoableEditListener>();
   private transient Scaling scaling = Scaling.SCALING_100;
+  /**
+   * The number of times the tiles are rendered again if elements changed
+   * their size while they were drawn.
+   */
+  private static final int MAX_TILE_PASSES = 2;
+  /**
+   * The number of pixels a repainted region is extended by to cover
+   * antialiased edges.
+   */
+  private static final int REGION_MARGIN = 2;
+  /**
+   * The rendered diagram is kept in a tile cache if the system property
+   * tinyuml.tilecache is set to true.
+   */
+  private static final boolean TILE_CACHE_ENABLED =
+    Boolean.getBoolean("tinyuml.tilecache");
+  /**
+   * The memory budget shared by the tile caches of all editors, which can be
+   * set in megabytes with the system property tinyuml.tilecache.budget.
+   */
+  private static final TileCache.MemoryBudget TILE_CACHE_BUDGET =
+    new TileCache.MemoryBudget(1024L * 1024 *
+      Long.getLong("tinyuml.tilecache.budget",
+        TileCache.DEFAULT_MEMORY_BUDGET / (1024 * 1024)));
+  private transient TileCache tileCache;
+  private transient DamageTracker damageTracker;
+  private transient BoundsDrawingContext overlayContext;
+  private transient Rectangle2D overlayArea;
 
   /**
    * Reset the transient values for serialization.
@@ -130,6 +161,10 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
     editorMode = selectionHandler;
     mouseEvent = new EditorMouseEvent();
     scaling = Scaling.SCALING_100;
+    tileCache = null;
+    damageTracker = null;
+    overlayContext = new BoundsDrawingContext();
+    overlayArea = null;
   }
 
   /**
@@ -189,6 +224,9 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
 
     installHandlers();
     setToDiagramSize();
+    damageTracker = new DamageTracker(diagram);
+    damageTracker.update();
+    setTileCacheEnabled(TILE_CACHE_ENABLED);
   }
 
   /**
@@ -267,6 +305,10 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
 		// le cambiamos el parent al objeto clonado para poder ponerlo
 		// en este diagrama, pues puede venir de otro diagrama!
 		copia.setParent(getDiagram());
+		// like the nodes created by the factory, the diagram listens to them
+		if (copia instanceof Node) {
+			((Node) copia).addNodeChangeListener(getDiagram());
+		}
 		
 		clonedElements.put(elem, copia);
 	}
@@ -303,7 +345,7 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
   public void paintComponent(Graphics g) {
     Rectangle clipBounds = new Rectangle();
     g.getClipBounds(clipBounds);
-    paintComponent(g, clipBounds, true);
+    paintComponent(g, clipBounds, drawingContext, true);
   }
 
   /**
@@ -312,21 +354,52 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
    */
   public void paintComponentNonScreen(Graphics g) {
     Dimension canvasSize = getTotalCanvasSize();
-    Rectangle clipBounds = new Rectangle(0, 0, canvasSize.width,
-      canvasSize.height);
+    paintComponentNonScreen(g, new Rectangle(0, 0, canvasSize.width,
+      canvasSize.height));
+  }
+
+  /**
+   * Paints the specified region of the component into a non-screen Graphics
+   * object. Every call uses its own DrawingContext, so several regions can
+   * be painted by different threads at the same time, provided that
+   * validateLayout() was called before.
+   * @param g the Graphics object
+   * @param clipBounds the region to paint in component coordinates
+   */
+  public void paintComponentNonScreen(Graphics g, Rectangle clipBounds) {
     g.setClip(clipBounds);
-    paintComponent(g, clipBounds, false);
+    paintComponent(g, clipBounds, new DrawingContextImpl(), false);
+  }
+
+  /**
+   * Lays out all elements of the diagram. The elements calculate their sizes
+   * and connection paths when they are drawn, so this draws the whole diagram
+   * into a small image. After this, painting does not modify the elements.
+   */
+  public void validateLayout() {
+    Dimension canvasSize = getTotalCanvasSize();
+    BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g2d = image.createGraphics();
+    paintComponent(g2d, new Rectangle(0, 0, canvasSize.width,
+      canvasSize.height), new DrawingContextImpl(), false);
+    g2d.dispose();
   }
 
   /**
    * Paints this component with a specified bounds object.
    * @param g the graphics context
    * @param bounds the bounding rectangle to repaint
+   * @param context the DrawingContext to draw with
    * @param toScreen true if rendered to screen, false otherwise
    * otherwise
    */
-  private void paintComponent(Graphics g, Rectangle bounds, boolean toScreen) {
+  private void paintComponent(Graphics g, Rectangle bounds,
+    DrawingContext context, boolean toScreen) {
     Graphics2D g2d = (Graphics2D) g;
+    if (toScreen && tileCache != null) {
+      paintFromTileCache(g2d, bounds);
+      return;
+    }
     setRenderingHints(g2d);
     if (scaling.getScaleFactor() != 1.0) {
       g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
@@ -335,24 +408,238 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
         RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
     }
 
-    boolean gridVisible = diagram.isGridVisible();
     Color background = Color.GRAY;
+    Rectangle clipBounds = bounds;
     if (toScreen) {
       // Scaling is only interesting if rendering to screen
       scaleDiagram(g2d);
+      // the diagram elements expect the clip bounds in diagram coordinates
+      if (g2d.getClipBounds() != null) clipBounds = g2d.getClipBounds();
     } else {
-      diagram.setGridVisible(false);
       background = Color.WHITE;
     }
-    clearScreen(g, bounds, background);
-    drawingContext.setGraphics2D(g2d, bounds);
-    diagram.draw(drawingContext);
+    clearScreen(g, clipBounds, background);
+    context.setGraphics2D(g2d, clipBounds);
+    diagram.draw(context, toScreen && diagram.isGridVisible());
     // Draw user interface specific elements (e.g. selections)
     if (toScreen) {
-      editorMode.draw(drawingContext);
+      editorMode.draw(context);
+      recordOverlayArea();
+    }
+    restoreRenderingHints(g2d);
+    if (toScreen) repaintOutside(takeElementDamage(), bounds);
+  }
+
+  /**
+   * Paints the diagram from the tile cache and draws the user interface
+   * specific elements on top of it.
+   * @param g2d the Graphics2D object
+   * @param bounds the bounding rectangle to repaint
+   */
+  private void paintFromTileCache(Graphics2D g2d, Rectangle bounds) {
+    TileCache.TileRenderer renderer = new TileCache.TileRenderer() {
+      /** {@inheritDoc} */
+      public void renderTile(Graphics2D tileGraphics, Rectangle2D area) {
+        setRenderingHints(tileGraphics);
+        Rectangle tileBounds = area.getBounds();
+        clearScreen(tileGraphics, tileBounds, Color.GRAY);
+        drawingContext.setGraphics2D(tileGraphics, tileBounds);
+        diagram.draw(drawingContext);
+      }
+    };
+    Rectangle2D damage = takeElementDamage();
+    tileCache.paint(g2d, bounds, scaling.getScaleFactor(), renderer);
+    // Elements might have been resized or reconnected while being drawn
+    for (int pass = 0; pass < MAX_TILE_PASSES; pass++) {
+      Rectangle2D layoutDamage = takeElementDamage();
+      if (layoutDamage == null) break;
+      damage = union(damage, layoutDamage);
+      tileCache.paint(g2d, bounds, scaling.getScaleFactor(), renderer);
     }
+
+    setRenderingHints(g2d);
+    scaleDiagram(g2d);
+    Rectangle clipBounds = g2d.getClipBounds();
+    drawingContext.setGraphics2D(g2d, clipBounds == null ? bounds : clipBounds);
+    editorMode.draw(drawingContext);
+    recordOverlayArea();
     restoreRenderingHints(g2d);
-    diagram.setGridVisible(gridVisible);
+    repaintOutside(damage, bounds);
+  }
+
+  /**
+   * Returns the damaged area of the diagram and discards the cached tiles
+   * within it. Only the elements that were reported as changed are compared
+   * with their previous bounds.
+   * @return the damaged area or null if nothing was damaged
+   */
+  private Rectangle2D takeElementDamage() {
+    if (damageTracker == null) return null;
+    damageTracker.update();
+    Rectangle2D damage = damageTracker.takeDamage();
+    if (damage != null && tileCache != null) tileCache.invalidate(damage);
+    return damage;
+  }
+
+  /**
+   * Returns the area covered by the user interface specific elements.
+   * @return the covered area in diagram coordinates or null
+   */
+  private Rectangle2D getOverlayArea() {
+    overlayContext.reset();
+    editorMode.draw(overlayContext);
+    return overlayContext.getCoveredArea();
+  }
+
+  /**
+   * Adds the area covered by the currently painted user interface specific
+   * elements to the area that needs to be cleared on the next change.
+   */
+  private void recordOverlayArea() {
+    overlayArea = union(overlayArea, getOverlayArea());
+  }
+
+  /**
+   * Determines the region of the component that changed since the last call.
+   * This is the previous and current area of the changed diagram elements and
+   * of the user interface specific elements.
+   * @return the changed region in component coordinates or null if nothing
+   * changed
+   */
+  private Rectangle getChangedRegion() {
+    if (damageTracker == null) {
+      return new Rectangle(0, 0, getWidth(), getHeight());
+    }
+    Rectangle2D currentOverlayArea = getOverlayArea();
+    Rectangle2D area = union(takeElementDamage(),
+      union(overlayArea, currentOverlayArea));
+    overlayArea = currentOverlayArea;
+    return area == null ? null : toComponentRegion(area);
+  }
+
+  /**
+   * Converts an area in diagram coordinates into a region of this component.
+   * @param area the area in diagram coordinates
+   * @return the region or null if the area is not within this component
+   */
+  private Rectangle toComponentRegion(Rectangle2D area) {
+    double scaleFactor = scaling.getScaleFactor();
+    Rectangle2D region = new Rectangle2D.Double(area.getX() * scaleFactor,
+      area.getY() * scaleFactor, area.getWidth() * scaleFactor,
+      area.getHeight() * scaleFactor);
+    Rectangle2D.intersect(region, new Rectangle(0, 0, getWidth(), getHeight()),
+      region);
+    if (region.isEmpty()) return null;
+    Rectangle result = region.getBounds();
+    result.grow(REGION_MARGIN, REGION_MARGIN);
+    return result;
+  }
+
+  /**
+   * Schedules a repaint of the damaged area if it is not within the region
+   * that was just painted. This happens if elements changed their layout
+   * while they were drawn.
+   * @param damage the damaged area in diagram coordinates, can be null
+   * @param paintedRegion the painted region in component coordinates
+   */
+  private void repaintOutside(Rectangle2D damage, Rectangle paintedRegion) {
+    if (damage == null) return;
+    Rectangle region = toComponentRegion(damage);
+    if (region != null && !paintedRegion.contains(region)) repaint(region);
+  }
+
+  /**
+   * Schedules a repaint of the changed region.
+   */
+  private void repaintChanges() {
+    Rectangle region = getChangedRegion();
+    if (region != null) repaint(region);
+  }
+
+  /**
+   * Returns the union of two optional rectangles.
+   * @param r1 the first rectangle, can be null
+   * @param r2 the second rectangle, can be null
+   * @return the union or null if both rectangles are null
+   */
+  private static Rectangle2D union(Rectangle2D r1, Rectangle2D r2) {
+    if (r1 == null) return r2;
+    if (r2 == null) return r1;
+    return r1.createUnion(r2);
+  }
+
+  /**
+   * Enables or disables the tile cache. If enabled, the rendered diagram is
+   * kept in image tiles, which are only rendered again if the elements
+   * within them change. The cache is disabled by default, see
+   * TILE_CACHE_ENABLED. The tiles of all editors share one memory budget.
+   * @param flag true to enable the cache, false to disable it
+   */
+  public void setTileCacheEnabled(boolean flag) {
+    if (flag && tileCache == null) {
+      tileCache = new TileCache(TileCache.DEFAULT_TILE_SIZE,
+        TILE_CACHE_BUDGET);
+    } else if (!flag && tileCache != null) {
+      // the tiles would count against the shared budget until collected
+      tileCache.invalidateAll();
+      tileCache = null;
+    }
+    repaint();
+  }
+
+  /**
+   * Returns the tile cache, for configuration and statistics.
+   * @return the tile cache or null if it is not enabled
+   */
+  public TileCache getTileCache() { return tileCache; }
+
+  /**
+   * Marks the area covered by the specified element as changed, and lets the
+   * damage tracker compare the element's bounds with its previous bounds.
+   * @param element the changed element
+   */
+  private void addDamage(DiagramElement element) {
+    if (damageTracker != null) {
+      damageTracker.addDamage(element);
+      damageTracker.elementChanged(element);
+    }
+  }
+
+  /**
+   * Lets the damage tracker compare the bounds of the specified element with
+   * its previous bounds.
+   * @param element the element that was moved, resized, added or removed
+   */
+  private void elementChanged(DiagramElement element) {
+    if (damageTracker != null) damageTracker.elementChanged(element);
+  }
+
+  /**
+   * Marks the areas covered by the selected elements as changed.
+   */
+  private void addSelectionDamage() {
+    for (DiagramElement element : getSelectedElements()) {
+      addDamage(element);
+    }
+  }
+
+  /**
+   * Marks the whole diagram as changed.
+   */
+  private void addDamageAll() {
+    if (damageTracker != null) damageTracker.damageAll();
+  }
+
+  /**
+   * Marks the whole diagram as changed and lets the damage tracker compare
+   * the bounds of all elements. This is needed after changes that are not
+   * reported to the editor.
+   */
+  private void addUnreportedDamage() {
+    if (damageTracker != null) {
+      damageTracker.damageAll();
+      damageTracker.scanAll();
+    }
   }
 
   /**
@@ -429,9 +716,11 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
       String text = currentEditor.getText();
       Label label = currentEditor.getLabel();
       SetLabelTextCommand command = new SetLabelTextCommand(label, text);
+      addDamage(label);
       execute(command);
+      addDamage(label);
       currentEditor.hideEditor();
-      repaint();
+      repaintChanges();
       return true;
     }
     return false;
@@ -580,12 +869,23 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
   /**
    * Undoes the last operation.
    */
-  public void undo() { undoManager.undo(); }
+  public void undo() {
+    // some commands, like setting a label text, do not notify the editor
+    addUnreportedDamage();
+    undoManager.undo();
+    repaintChanges();
+    notifyDiagramModified();
+  }
 
   /**
    * Redoes the last operation.
    */
-  public void redo() { undoManager.redo(); }
+  public void redo() {
+    addUnreportedDamage();
+    undoManager.redo();
+    repaintChanges();
+    notifyDiagramModified();
+  }
 
   /**
    * Rescales the view.
@@ -623,10 +923,13 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
   }
 
   /**
-   * Immediate redraw of the view.
+   * Immediate redraw of the changed parts of the view. This covers the user
+   * interface specific elements and the elements that were reported as
+   * changed.
    */
   public void redraw() {
-    paintImmediately(0, 0, getWidth(), getHeight());
+    Rectangle region = getChangedRegion();
+    if (region != null) paintImmediately(region);
   }
 
   /**
@@ -635,7 +938,8 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
    */
   public void showGrid(boolean flag) {
     diagram.setGridVisible(flag);
-    repaint();
+    addDamageAll();
+    repaintChanges();
   }
 
   /**
@@ -662,6 +966,7 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
   public void bringToFront() {
     if (selectionHandler.getSelectedElements().size() > 0) {
       diagram.bringChildToFront(selectionHandler.getSelectedElements().get(0));
+      addSelectionDamage();
       redraw();
     }
   }
@@ -672,6 +977,7 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
   public void putToBack() {
     if (getSelectedElements().size() > 0) {
       diagram.putChildToBack(getSelectedElements().get(0));
+      addSelectionDamage();
       redraw();
     }
   }
@@ -747,6 +1053,16 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
     // We need to run() after notifying the UndoManager in order to ensure
     // correct menu behaviour
     command.run();
+    notifyDiagramModified();
+  }
+
+  /**
+   * Notifies the listeners that the diagram was modified.
+   */
+  private void notifyDiagramModified() {
+    for (EditorStateListener l : editorListeners) {
+      l.diagramModified(this);
+    }
   }
 
   /**
@@ -786,39 +1102,44 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
    * changes include move operations.
    */
   public void notifyElementsMoved() {
+    // this is also used for changes of the selected connection's appearance
+    addSelectionDamage();
     editorMode.stateChanged();
     notifyStateChanged();
-    repaint();
+    repaintChanges();
   }
 
   /**
    * {@inheritDoc}
    */
   public void notifyElementAdded(DiagramElement element) {
+    elementChanged(element);
     for (EditorStateListener l : editorListeners) {
       l.elementAdded(this);
     }
-    repaint();
+    repaintChanges();
   }
 
   /**
    * {@inheritDoc}
    */
   public void notifyElementRemoved(DiagramElement element) {
+    elementChanged(element);
     for (EditorStateListener l : editorListeners) {
       l.elementRemoved(this);
     }
     selectionHandler.elementRemoved(element);
-    repaint();
+    repaintChanges();
   }
 
   /**
    * {@inheritDoc}
    */
   public void notifyElementResized(DiagramElement element) {
+    addDamage(element);
     editorMode.stateChanged();
     notifyStateChanged();
-    repaint();
+    repaintChanges();
   }
 
   // *************************************************************************
@@ -844,7 +1165,9 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
         umlclass.setMethods(dialog.getMethods());
         umlclass.setAttributes(dialog.getAttributes());
         umlclass.setStereotypes(dialog.getStereotypes());
+        addDamage(element);
         redraw();
+        notifyDiagramModified();
       }
     } else if (element instanceof Association) {
       Association association = (Association) element;
@@ -852,7 +1175,9 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
         association, true);
       dialog.setLocationRelativeTo(frame);
       dialog.setVisible(true);
+      addDamage(element);
       redraw();
+      notifyDiagramModified();
     }
   }
 
@@ -860,7 +1185,8 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
    * {@inheritDoc}
    */
   public void moveElements(Command[] moveOperations) {
-    MoveElementCommand cmd = new MoveElementCommand(this, moveOperations);
+    MoveElementCommand cmd = new MoveElementCommand(this, getDiagram(),
+      moveOperations);
     execute(cmd);
   }
 
@@ -897,11 +1223,21 @@ DiagramEditorNotification, DiagramOperations, NodeChangeListener {
 
   /**
    * {@inheritDoc}
+   * The diagram also forwards the changes of the nodes within it.
    */
-  public void nodeResized(Node node) { setToDiagramSize(); }
+  public void nodeResized(Node node) {
+    if (node == diagram) {
+      setToDiagramSize();
+    } else {
+      elementChanged(node);
+    }
+  }
 
   /**
    * {@inheritDoc}
+   * The diagram also forwards the changes of the nodes within it.
    */
-  public void nodeMoved(Node node) { }
+  public void nodeMoved(Node node) {
+    if (node != diagram) elementChanged(node);
+  }
 }
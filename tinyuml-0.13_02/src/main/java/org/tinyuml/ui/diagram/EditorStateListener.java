@@ -48,4 +48,10 @@ public interface EditorStateListener {
    * @param editor the editor that sent the event
    */
   void elementRemoved(DiagramEditor editor);
+
+  /**
+   * The diagram was modified by a command, an undo or a redo.
+   * @param editor the editor that sent the event
+   */
+  void diagramModified(DiagramEditor editor);
 }
@@ -0,0 +1,453 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.tinyuml.ui.diagram;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache of rendered diagram tiles. The device space is divided into square
+ * tiles of a fixed size, every tile is rendered once into an image and then
+ * copied to the screen until it is invalidated. The tiles have the resolution
+ * of the device, so on screens that scale the Graphics2D transform, e.g.
+ * HiDPI screens, a tile pixel is still copied to exactly one screen pixel.
+ * Tiles are kept separately for each scale factor and device scale. The
+ * memory budget can be shared by several caches, if the memory used by the
+ * tiles of all of them exceeds the budget, the least recently used tiles are
+ * discarded.
+ *
+ * @author agent
+ * @version 1.0
+ */
+public class TileCache {
+
+  /**
+   * The default tile size in pixels.
+   */
+  public static final int DEFAULT_TILE_SIZE = 256;
+
+  /**
+   * The default memory budget in bytes.
+   */
+  public static final long DEFAULT_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+  private static final int BYTES_PER_PIXEL = 4;
+
+  /**
+   * Renders the contents of a tile.
+   */
+  public interface TileRenderer {
+
+    /**
+     * Renders the specified area. The Graphics2D object is already
+     * transformed into diagram coordinates and clipped to the area.
+     * @param g2d the Graphics2D object
+     * @param area the area in diagram coordinates
+     */
+    void renderTile(Graphics2D g2d, Rectangle2D area);
+  }
+
+  /**
+   * A memory budget that is shared by tile caches. When a cache needs room
+   * for a new tile, the least recently used tiles of all caches that share
+   * the budget are discarded. The caches are only weakly referenced, the
+   * tiles of a cache that was garbage collected do not count anymore.
+   */
+  public static final class MemoryBudget {
+    private long limit;
+    private long useCount;
+    private List<WeakReference<TileCache>> caches =
+      new ArrayList<WeakReference<TileCache>>();
+
+    /**
+     * Constructor.
+     * @param aLimit the memory limit in bytes
+     */
+    public MemoryBudget(long aLimit) {
+      limit = aLimit;
+    }
+
+    /**
+     * Returns the memory limit.
+     * @return the memory limit in bytes
+     */
+    public long getLimit() { return limit; }
+
+    /**
+     * Sets the memory limit. Tiles are discarded if they exceed the new
+     * limit.
+     * @param aLimit the memory limit in bytes
+     */
+    public void setLimit(long aLimit) {
+      limit = aLimit;
+      evict(0);
+    }
+
+    /**
+     * Returns the memory used by the tiles of all caches.
+     * @return the memory usage in bytes
+     */
+    public long getUsage() {
+      long usage = 0;
+      for (TileCache cache : getCaches()) usage += cache.getMemoryUsage();
+      return usage;
+    }
+
+    /**
+     * Adds a cache that shares this budget.
+     * @param cache the cache
+     */
+    private void addCache(TileCache cache) {
+      caches.add(new WeakReference<TileCache>(cache));
+    }
+
+    /**
+     * Returns the caches that share this budget and were not garbage
+     * collected.
+     * @return the caches
+     */
+    private List<TileCache> getCaches() {
+      List<TileCache> result = new ArrayList<TileCache>(caches.size());
+      for (Iterator<WeakReference<TileCache>> iter = caches.iterator();
+        iter.hasNext();) {
+        TileCache cache = iter.next().get();
+        if (cache == null) iter.remove(); else result.add(cache);
+      }
+      return result;
+    }
+
+    /**
+     * Returns the next value of the clock that orders the tile uses.
+     * @return the use time
+     */
+    private long nextUse() { return ++useCount; }
+
+    /**
+     * Discards the least recently used tiles of all caches until the
+     * specified number of additional bytes fits into the limit.
+     * @param additionalBytes the number of bytes to make room for
+     */
+    private void evict(long additionalBytes) {
+      List<TileCache> liveCaches = getCaches();
+      long usage = 0;
+      for (TileCache cache : liveCaches) usage += cache.getMemoryUsage();
+      while (usage + additionalBytes > limit) {
+        TileCache oldest = null;
+        for (TileCache cache : liveCaches) {
+          if (!cache.tiles.isEmpty() && (oldest == null ||
+              cache.getOldestUse() < oldest.getOldestUse())) {
+            oldest = cache;
+          }
+        }
+        if (oldest == null) break;
+        oldest.removeOldestTile();
+        usage -= oldest.getBytesPerTile();
+      }
+    }
+  }
+
+  /**
+   * A cached tile and the time it was last used.
+   */
+  private static final class Tile {
+    private BufferedImage image;
+    private long lastUse;
+
+    /**
+     * Constructor.
+     * @param anImage the image
+     * @param aLastUse the use time
+     */
+    Tile(BufferedImage anImage, long aLastUse) {
+      image = anImage;
+      lastUse = aLastUse;
+    }
+  }
+
+  /**
+   * The key of a tile.
+   */
+  private static final class TileKey {
+    private double scaleFactor, deviceScale;
+    private int column, row;
+
+    /**
+     * Constructor.
+     * @param aScaleFactor the scale factor
+     * @param aDeviceScale the scale from user space to device space
+     * @param aColumn the column
+     * @param aRow the row
+     */
+    TileKey(double aScaleFactor, double aDeviceScale, int aColumn, int aRow) {
+      scaleFactor = aScaleFactor;
+      deviceScale = aDeviceScale;
+      column = aColumn;
+      row = aRow;
+    }
+
+    /**
+     * Returns the scale from diagram coordinates to tile pixels.
+     * @return the total scale
+     */
+    double getTotalScale() { return scaleFactor * deviceScale; }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof TileKey)) return false;
+      TileKey other = (TileKey) o;
+      return scaleFactor == other.scaleFactor &&
+        deviceScale == other.deviceScale && column == other.column &&
+        row == other.row;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+      long bits = Double.doubleToLongBits(scaleFactor) * 31 +
+        Double.doubleToLongBits(deviceScale);
+      return ((int) (bits ^ (bits >>> 32)) * 31 + column) * 31 + row;
+    }
+  }
+
+  private int tileSize;
+  private MemoryBudget memoryBudget;
+  private long hitCount, missCount;
+  // in the order of use, the first tile is the least recently used one
+  private Map<TileKey, Tile> tiles =
+    new LinkedHashMap<TileKey, Tile>(16, 0.75f, true);
+
+  /**
+   * Constructor for a cache with its own memory budget.
+   * @param aTileSize the tile size in pixels
+   * @param aMemoryBudget the memory budget in bytes
+   */
+  public TileCache(int aTileSize, long aMemoryBudget) {
+    this(aTileSize, new MemoryBudget(aMemoryBudget));
+  }
+
+  /**
+   * Constructor for a cache that shares a memory budget with other caches.
+   * @param aTileSize the tile size in pixels
+   * @param aMemoryBudget the memory budget
+   */
+  public TileCache(int aTileSize, MemoryBudget aMemoryBudget) {
+    tileSize = aTileSize;
+    memoryBudget = aMemoryBudget;
+    memoryBudget.addCache(this);
+  }
+
+  /**
+   * Returns the tile size.
+   * @return the tile size in pixels
+   */
+  public int getTileSize() { return tileSize; }
+
+  /**
+   * Returns the memory budget, which might be shared with other caches.
+   * @return the memory budget
+   */
+  public MemoryBudget getMemoryBudget() { return memoryBudget; }
+
+  /**
+   * Returns the memory currently used by the tiles of this cache.
+   * @return the memory usage in bytes
+   */
+  public long getMemoryUsage() { return tiles.size() * getBytesPerTile(); }
+
+  /**
+   * Returns the number of cached tiles.
+   * @return the number of tiles
+   */
+  public int getTileCount() { return tiles.size(); }
+
+  /**
+   * Returns the number of tiles that were taken from the cache.
+   * @return the hit count
+   */
+  public long getHitCount() { return hitCount; }
+
+  /**
+   * Returns the number of tiles that had to be rendered.
+   * @return the miss count
+   */
+  public long getMissCount() { return missCount; }
+
+  /**
+   * Resets the hit and miss counts.
+   */
+  public void resetStatistics() {
+    hitCount = 0;
+    missCount = 0;
+  }
+
+  /**
+   * Paints the tiles that intersect the specified clip bounds. Missing tiles
+   * are rendered with the specified renderer. If the Graphics2D transform
+   * scales uniformly, the tiles are rendered in device resolution and copied
+   * without scaling.
+   * @param g2d the Graphics2D object in component coordinates
+   * @param clipBounds the clip bounds in component coordinates
+   * @param scaleFactor the scale factor
+   * @param renderer the renderer for missing tiles
+   */
+  public void paint(Graphics2D g2d, Rectangle clipBounds, double scaleFactor,
+    TileRenderer renderer) {
+    AffineTransform transform = g2d.getTransform();
+    double deviceScale = getDeviceScale(transform);
+    Rectangle deviceClip = clipBounds;
+    if (deviceScale != 1.0) {
+      g2d.setTransform(AffineTransform.getTranslateInstance(
+        transform.getTranslateX(), transform.getTranslateY()));
+      int x1 = (int) Math.floor(clipBounds.x * deviceScale);
+      int y1 = (int) Math.floor(clipBounds.y * deviceScale);
+      deviceClip = new Rectangle(x1, y1,
+        (int) Math.ceil(clipBounds.getMaxX() * deviceScale) - x1,
+        (int) Math.ceil(clipBounds.getMaxY() * deviceScale) - y1);
+    }
+    try {
+      int firstColumn = Math.max(0, deviceClip.x / tileSize);
+      int firstRow = Math.max(0, deviceClip.y / tileSize);
+      int lastColumn = (deviceClip.x + deviceClip.width - 1) / tileSize;
+      int lastRow = (deviceClip.y + deviceClip.height - 1) / tileSize;
+      for (int row = firstRow; row <= lastRow; row++) {
+        for (int column = firstColumn; column <= lastColumn; column++) {
+          BufferedImage tile = getTile(new TileKey(scaleFactor, deviceScale,
+            column, row), renderer);
+          g2d.drawImage(tile, column * tileSize, row * tileSize, null);
+        }
+      }
+    } finally {
+      g2d.setTransform(transform);
+    }
+  }
+
+  /**
+   * Determines the scale from user space to device space. Only transforms
+   * that translate and scale uniformly are considered, the tiles are drawn
+   * through any other transform as they are.
+   * @param transform the Graphics2D transform
+   * @return the device scale or 1 if the transform is not supported
+   */
+  private static double getDeviceScale(AffineTransform transform) {
+    int supportedTypes = AffineTransform.TYPE_TRANSLATION |
+      AffineTransform.TYPE_UNIFORM_SCALE;
+    if ((transform.getType() & ~supportedTypes) != 0 ||
+        transform.getScaleX() <= 0) {
+      return 1.0;
+    }
+    return transform.getScaleX();
+  }
+
+  /**
+   * Discards all tiles that intersect the specified area.
+   * @param area the area in diagram coordinates
+   */
+  public void invalidate(Rectangle2D area) {
+    for (Iterator<TileKey> iter = tiles.keySet().iterator(); iter.hasNext();) {
+      if (getTileArea(iter.next()).intersects(area)) iter.remove();
+    }
+  }
+
+  /**
+   * Discards all tiles.
+   */
+  public void invalidateAll() {
+    tiles.clear();
+  }
+
+  /**
+   * Returns the tile for the specified key. If the tile is not cached, it is
+   * rendered and added to the cache.
+   * @param key the key
+   * @param renderer the renderer
+   * @return the tile
+   */
+  private BufferedImage getTile(TileKey key, TileRenderer renderer) {
+    Tile cached = tiles.get(key);
+    if (cached != null) {
+      hitCount++;
+      cached.lastUse = memoryBudget.nextUse();
+      return cached.image;
+    }
+    missCount++;
+    BufferedImage tile = new BufferedImage(tileSize, tileSize,
+      BufferedImage.TYPE_INT_RGB);
+    Graphics2D tileGraphics = tile.createGraphics();
+    tileGraphics.translate(-key.column * tileSize, -key.row * tileSize);
+    tileGraphics.scale(key.getTotalScale(), key.getTotalScale());
+    Rectangle2D area = getTileArea(key);
+    tileGraphics.clip(area);
+    renderer.renderTile(tileGraphics, area);
+    tileGraphics.dispose();
+    memoryBudget.evict(getBytesPerTile());
+    tiles.put(key, new Tile(tile, memoryBudget.nextUse()));
+    return tile;
+  }
+
+  /**
+   * Returns the area covered by the specified tile in diagram coordinates.
+   * @param key the tile key
+   * @return the area
+   */
+  private Rectangle2D getTileArea(TileKey key) {
+    double size = tileSize / key.getTotalScale();
+    return new Rectangle2D.Double(key.column * size, key.row * size, size,
+      size);
+  }
+
+  /**
+   * Returns the time the least recently used tile was used.
+   * @return the use time
+   */
+  private long getOldestUse() {
+    return tiles.values().iterator().next().lastUse;
+  }
+
+  /**
+   * Discards the least recently used tile.
+   */
+  private void removeOldestTile() {
+    Iterator<TileKey> iter = tiles.keySet().iterator();
+    iter.next();
+    iter.remove();
+  }
+
+  /**
+   * Returns the number of bytes a tile occupies.
+   * @return the number of bytes
+   */
+  private long getBytesPerTile() {
+    return (long) tileSize * tileSize * BYTES_PER_PIXEL;
+  }
+}
@@ -20,6 +20,7 @@
 package org.tinyuml.ui.diagram.commands;
 
 import javax.swing.undo.AbstractUndoableEdit;
+import org.tinyuml.draw.CompositeNode;
 import org.tinyuml.util.Command;
 
 /**
@@ -27,6 +28,9 @@ import org.tinyuml.util.Command;
  * Theoretically, this method simply executes the list of Commands and could
  * also execute anything else. The difference is that this method also
  * notifies the system about an element move.
+ * If a diagram is specified, the operations are executed within a change
+ * transaction on it, so the listeners see each moved node only once and the
+ * diagram is resized only once.
  *
  * @author Wei-ju Wu
  * @version 1.0
@@ -36,6 +40,7 @@ implements Command {
 
   private DiagramEditorNotification notification;
   private Command[] moveOperations;
+  private CompositeNode diagram;
 
   /**
    * Constructor.
@@ -44,7 +49,19 @@ implements Command {
    */
   public MoveElementCommand(DiagramEditorNotification aNotification,
     final Command[] aMoveOperations) {
+    this(aNotification, null, aMoveOperations);
+  }
+
+  /**
+   * Constructor.
+   * @param aNotification the notification
+   * @param aDiagram the diagram to open the change transaction on, can be null
+   * @param aMoveOperations the move operations
+   */
+  public MoveElementCommand(DiagramEditorNotification aNotification,
+    CompositeNode aDiagram, final Command[] aMoveOperations) {
     notification = aNotification;
+    diagram = aDiagram;
     moveOperations = new Command[aMoveOperations.length];
     for (int i = 0; i < aMoveOperations.length; i++) {
       moveOperations[i] = aMoveOperations[i];
@@ -55,8 +72,13 @@ implements Command {
    * {@inheritDoc}
    */
   public void run() {
-    for (Command moveOperation : moveOperations) {
-      moveOperation.run();
+    beginChanges();
+    try {
+      for (Command moveOperation : moveOperations) {
+        moveOperation.run();
+      }
+    } finally {
+      commitChanges();
     }
     notification.notifyElementsMoved();
   }
@@ -67,8 +89,13 @@ implements Command {
   @Override
   public void undo() {
     super.undo();
-    for (Command moveOperation : moveOperations) {
-      moveOperation.undo();
+    beginChanges();
+    try {
+      for (Command moveOperation : moveOperations) {
+        moveOperation.undo();
+      }
+    } finally {
+      commitChanges();
     }
     notification.notifyElementsMoved();
   }
@@ -79,9 +106,28 @@ implements Command {
   @Override
   public void redo() {
     super.redo();
-    for (Command moveOperation : moveOperations) {
-      moveOperation.redo();
+    beginChanges();
+    try {
+      for (Command moveOperation : moveOperations) {
+        moveOperation.redo();
+      }
+    } finally {
+      commitChanges();
     }
     notification.notifyElementsMoved();
   }
+
+  /**
+   * Opens the change transaction on the diagram.
+   */
+  private void beginChanges() {
+    if (diagram != null) diagram.beginChanges();
+  }
+
+  /**
+   * Commits the change transaction on the diagram.
+   */
+  private void commitChanges() {
+    if (diagram != null) diagram.commitChanges();
+  }
 }
@@ -103,6 +103,9 @@ public class BaseConnection implements UmlConnection {
    */
   public void setConnection(Connection aConnection) {
     connection = aConnection;
+    // the parent might index its connections and needs to know the new one
+    CompositeNode parent = aConnection.getParent();
+    if (parent != null) aConnection.setParent(parent);
   }
 
   /**
@@ -191,6 +194,13 @@ public class BaseConnection implements UmlConnection {
     return connection.getAbsoluteBounds();
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  public Rectangle2D getAbsoluteBounds(Rectangle2D result) {
+    return connection.getAbsoluteBounds(result);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -20,6 +20,8 @@
 package org.tinyuml.umldraw.shared;
 
 import java.awt.Color;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import org.tinyuml.draw.AbstractCompositeNode;
 import org.tinyuml.draw.Defaults;
@@ -45,10 +47,24 @@ implements UmlNode, LabelSource {
   private static final int CORNER_SIZE = 10;
   private static final double MARGIN_TOP = CORNER_SIZE + 2;
   private static final Color FILL_COLOR = new Color(249, 249, 145);
+  private static final Shape CORNER = createCorner();
   private String content;
   private Label label = new MultiLineLabel();
   private static NoteElement prototype = new NoteElement();
 
+  /**
+   * Creates the folded corner, placed at the origin.
+   * @return the corner shape
+   */
+  private static Shape createCorner() {
+    GeneralPath corner = new GeneralPath();
+    corner.moveTo(0, 0);
+    corner.lineTo(0, CORNER_SIZE);
+    corner.lineTo(CORNER_SIZE, CORNER_SIZE);
+    corner.closePath();
+    return corner;
+  }
+
   /**
    * Returns the prototype instance.
    * @return the prototype instance
@@ -66,6 +82,15 @@ implements UmlNode, LabelSource {
     label.setOrigin(Defaults.getInstance().getMarginLeft(), MARGIN_TOP);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void invalidateAbsolutePosition() {
+    super.invalidateAbsolutePosition();
+    invalidateAbsolutePosition(label);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -141,13 +166,9 @@ implements UmlNode, LabelSource {
     mainShape.lineTo(x + width, y + height);
     mainShape.lineTo(x, y + height);
     mainShape.closePath();
-    GeneralPath corner = new GeneralPath();
-    corner.moveTo(x + width - CORNER_SIZE, y);
-    corner.lineTo(x + width - CORNER_SIZE, y + CORNER_SIZE);
-    corner.lineTo(x + width, y + CORNER_SIZE);
-    corner.closePath();
     drawingContext.draw(mainShape, FILL_COLOR);
-    drawingContext.draw(corner, FILL_COLOR);
+    drawingContext.drawSymbol(CORNER, AffineTransform.getTranslateInstance(
+      x + width - CORNER_SIZE, y), FILL_COLOR);
     label.draw(drawingContext);
   }
 
@@ -20,10 +20,11 @@
 package org.tinyuml.umldraw.structure;
 
 import java.awt.Color;
+import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
-import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.List;
 import org.tinyuml.draw.CompositeNode;
 import org.tinyuml.draw.DrawingContext;
@@ -48,6 +49,7 @@ import org.tinyuml.draw.SimpleLabel;
 public final class Association extends BaseConnection {
 
   private static final long serialVersionUID = 1866495594812659939L;
+  private static final Shape ROMBUS = createRombus();
   private static Association prototype = new Association();
 
   /**
@@ -207,6 +209,31 @@ public final class Association extends BaseConnection {
     nameLabel.setParent(parent);
   }
 
+  /**
+   * {@inheritDoc}
+   * The labels can extend beyond the decoration margin of the connection, so
+   * they are tested at the position they were drawn at the last time.
+   */
+  @Override
+  public boolean isVisible(Rectangle2D bounds) {
+    if (super.isVisible(bounds)) return true;
+    if (showMultiplicities && (isLabelVisible(multiplicity1Label, bounds) ||
+        isLabelVisible(multiplicity2Label, bounds))) {
+      return true;
+    }
+    return showName && isLabelVisible(nameLabel, bounds);
+  }
+
+  /**
+   * Determines whether the specified label is visible.
+   * @param label the label
+   * @param bounds the clip bounds
+   * @return true if visible, false otherwise
+   */
+  private boolean isLabelVisible(Label label, Rectangle2D bounds) {
+    return label.getParent() != null && label.isVisible(bounds);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -231,21 +258,32 @@ public final class Association extends BaseConnection {
   }
 
   /**
-   * {@inheritDoc}
+   * Creates the rombus symbol with its tip at the origin.
+   * @return the rombus shape
+   */
+  private static Shape createRombus() {
+    GeneralPath rombus = new GeneralPath();
+    rombus.moveTo(-14, 0);
+    rombus.lineTo(-7, -5);
+    rombus.lineTo(0, 0);
+    rombus.lineTo(-7, 5);
+    rombus.closePath();
+    return rombus;
+  }
+
+  /**
+   * Draws the rombus of an aggregation or composition.
+   * @param drawingContext the DrawingContext
+   * @param rotationTransform the rotation
+   * @param filled true for a filled rombus
    */
   private void drawRombus(DrawingContext drawingContext,
     AffineTransform rotationTransform, boolean filled) {
     Point2D endpoint = getEndPoint1();
-    double x = endpoint.getX(), y = endpoint.getY();
-    GeneralPath rombus = new GeneralPath();
-    rombus.moveTo(x - 14, y);
-    rombus.lineTo(x - 7, y - 5);
-    rombus.lineTo(x, y);
-    rombus.lineTo(x - 7, y + 5);
-    rombus.closePath();
-    rombus.transform(rotationTransform);
+    AffineTransform transform = new AffineTransform(rotationTransform);
+    transform.translate(endpoint.getX(), endpoint.getY());
     Color fillColor = filled ? Color.BLACK : Color.WHITE;
-    drawingContext.draw(rombus, fillColor);
+    drawingContext.drawSymbol(ROMBUS, transform, fillColor);
   }
 
   /**
@@ -349,10 +387,11 @@ public final class Association extends BaseConnection {
    */
   private void positionNameLabel() {
     // medium segment
-    List<Line2D> segments = getSegments();
-    Line2D middlesegment = segments.get(segments.size() / 2);
-    int x = (int) (middlesegment.getX2() + middlesegment.getX1()) / 2;
-    int y = (int) (middlesegment.getY2() + middlesegment.getY1()) / 2;
+    List<Point2D> points = getPoints();
+    int middle = (points.size() - 1) / 2;
+    Point2D start = points.get(middle), end = points.get(middle + 1);
+    int x = (int) (end.getX() + start.getX()) / 2;
+    int y = (int) (end.getY() + start.getY()) / 2;
     nameLabel.setAbsolutePos(x, y);
   }
 }
@@ -65,6 +65,15 @@ implements Label, LabelSource {
     label.setParent(this);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void invalidateAbsolutePosition() {
+    super.invalidateAbsolutePosition();
+    invalidateAbsolutePosition(label);
+  }
+
   /**
    * Sets the association.
    * @param assoc the Association
@@ -57,6 +57,7 @@ implements LabelSource, UmlNode, UmlModelElementListener {
   private Label mainLabel;
   private boolean showOperations = true, showAttributes = false,
     showStereotypes = true;
+  private transient Dimension2D minimumSize;
 
   private static ClassElement prototype = new ClassElement();
 
@@ -83,6 +84,17 @@ implements LabelSource, UmlNode, UmlModelElementListener {
     operationsCompartment.setAlignment(Alignment.LEFT);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void invalidateAbsolutePosition() {
+    super.invalidateAbsolutePosition();
+    invalidateAbsolutePosition(mainCompartment);
+    invalidateAbsolutePosition(attributesCompartment);
+    invalidateAbsolutePosition(operationsCompartment);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -367,8 +379,10 @@ implements LabelSource, UmlNode, UmlModelElementListener {
    */
   @Override
   public Dimension2D getMinimumSize() {
-    return new DoubleDimension(calculateMinimumWidth(),
-                               calculateMinimumHeight());
+    // the result is cached, it is requested on every resize step
+    minimumSize = DoubleDimension.reuse(minimumSize, calculateMinimumWidth(),
+                                        calculateMinimumHeight());
+    return minimumSize;
   }
 
   /**
@@ -376,6 +390,7 @@ implements LabelSource, UmlNode, UmlModelElementListener {
    */
   @Override
   public void recalculateSize(DrawingContext drawingContext) {
+    double oldWidth = getSize().getWidth(), oldHeight = getSize().getHeight();
     recalculateMainCompartment(drawingContext);
     recalculateAttributesCompartment(drawingContext);
     recalculateOperationsCompartment(drawingContext);
@@ -387,7 +402,7 @@ implements LabelSource, UmlNode, UmlModelElementListener {
     mainCompartment.setWidth(totalWidth);
     attributesCompartment.setWidth(totalWidth);
     resizeLastCompartmentToFit();
-    notifyNodeResized();
+    notifyNodeResized(oldWidth, oldHeight);
   }
 
   /**
@@ -75,6 +75,15 @@ implements LabelSource, UmlNode {
     mainCompartment.setMarginTop(MARGIN_TOP);
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void invalidateAbsolutePosition() {
+    super.invalidateAbsolutePosition();
+    invalidateAbsolutePosition(mainCompartment);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -122,8 +131,9 @@ implements LabelSource, UmlNode {
    */
   @Override
   public void recalculateSize(DrawingContext drawingContext) {
+    double oldWidth = getSize().getWidth(), oldHeight = getSize().getHeight();
     mainCompartment.recalculateSize(drawingContext);
-    notifyNodeResized();
+    notifyNodeResized(oldWidth, oldHeight);
   }
 
   /**
@@ -55,6 +55,7 @@ implements LabelSource, UmlNode {
   private UmlPackage pkg;
   private Compartment tabCompartment, mainCompartment;
   private Label mainLabel = new SimpleLabel();
+  private transient Dimension2D size, minimumSize;
 
   private static PackageElement prototype = new PackageElement();
 
@@ -86,6 +87,17 @@ implements LabelSource, UmlNode {
     mainCompartment.setSize(120, 42); // size = 120, 60
   }
 
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void invalidateAbsolutePosition() {
+    super.invalidateAbsolutePosition();
+    invalidateAbsolutePosition(tabCompartment);
+    invalidateAbsolutePosition(mainCompartment);
+    invalidateAbsolutePosition(mainLabel);
+  }
+
   /**
    * {@inheritDoc}
    */
@@ -152,9 +164,10 @@ implements LabelSource, UmlNode {
    */
   @Override
   public void recalculateSize(DrawingContext drawingContext) {
+    double oldWidth = getSize().getWidth(), oldHeight = getSize().getHeight();
     tabCompartment.recalculateSize(drawingContext);
     mainCompartment.recalculateSize(drawingContext);
-    notifyNodeResized();
+    notifyNodeResized(oldWidth, oldHeight);
   }
 
   /**
@@ -185,9 +198,10 @@ implements LabelSource, UmlNode {
   public Dimension2D getMinimumSize() {
     Dimension2D minTabSize = tabCompartment.getMinimumSize();
     Dimension2D minMainSize = mainCompartment.getMinimumSize();
-    return new DoubleDimension(
+    minimumSize = DoubleDimension.reuse(minimumSize,
       Math.max(minTabSize.getWidth(), minMainSize.getWidth()),
       minTabSize.getHeight() + minMainSize.getHeight());
+    return minimumSize;
   }
 
   /**
@@ -197,9 +211,11 @@ implements LabelSource, UmlNode {
   public Dimension2D getSize() {
     Dimension2D tabSize = tabCompartment.getSize();
     Dimension2D mainSize = mainCompartment.getSize();
-    return new DoubleDimension(
+    // the result is cached, it is requested whenever the package is drawn
+    size = DoubleDimension.reuse(size,
       Math.max(tabSize.getWidth(), mainSize.getWidth()),
       tabSize.getHeight() + mainSize.getHeight());
+    return size;
   }
 
   /**
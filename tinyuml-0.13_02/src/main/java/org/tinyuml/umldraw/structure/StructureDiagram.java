@@ -23,15 +23,21 @@ import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 import java.util.Set;
 import org.tinyuml.draw.AbstractCompositeNode;
+import org.tinyuml.draw.ChildList;
 import org.tinyuml.draw.CompositeNode;
 import org.tinyuml.draw.Connection;
 import org.tinyuml.draw.Diagram;
@@ -46,7 +52,9 @@ import org.tinyuml.draw.Node;
 import org.tinyuml.draw.NodeChangeListener;
 import org.tinyuml.draw.Selection;
 import org.tinyuml.draw.SimpleLabel;
+import org.tinyuml.draw.SpatialIndex;
 import org.tinyuml.model.UmlModel;
+import org.tinyuml.umldraw.shared.BaseConnection;
 import org.tinyuml.umldraw.shared.DiagramSelection;
 
 /**
@@ -62,10 +70,35 @@ implements NodeChangeListener, LabelSource, Diagram {
   private static final long serialVersionUID = -874538211438595440L;
   private static final int ADDITIONAL_SPACE_RIGHT = 30;
   private static final int ADDITIONAL_SPACE_BOTTOM = 30;
+  /**
+   * The number of connections from which on they are kept in a spatial index.
+   */
+  private static final int CONNECTION_INDEX_THRESHOLD = 64;
+  /**
+   * The distance within which a point hits a connection.
+   */
+  private static final double CONNECTION_HIT_DISTANCE = 3;
+  /**
+   * The distance by which the decorations of a connection can extend beyond
+   * its points.
+   */
+  private static final double CONNECTION_MARGIN = 15;
+  /**
+   * The query results for draw() and getChildAt() are reused, once per
+   * thread.
+   */
+  private static final ThreadLocal<SpatialIndex.Result<Connection>>
+    CONNECTION_RESULTS = new ThreadLocal<SpatialIndex.Result<Connection>>() {
+      /** {@inheritDoc} */
+      @Override
+      protected SpatialIndex.Result<Connection> initialValue() {
+        return new SpatialIndex.Result<Connection>();
+      }
+    };
 
   private int gridSize = 7;
   private String name;
-  private List<Connection> connections = new ArrayList<Connection>();
+  private ChildList<Connection> connections = new ChildList<Connection>();
   private Label nameLabel = new SimpleLabel();
   private UmlModel umlmodel;
 
@@ -74,6 +107,17 @@ implements NodeChangeListener, LabelSource, Diagram {
     new ArrayList<LabelChangeListener>();
   private transient Set<NodeChangeListener> nodeChangeListeners =
     new HashSet<NodeChangeListener>();
+  private transient List<DiagramElement> children;
+  // the nodes the diagram has to be resized to when the transaction commits
+  private transient ChildList<Node> resizeNodes;
+  private transient SpatialIndex<Connection> connectionIndex;
+  // maps the connections that report their changes to the indexed children,
+  // these are different if a child wraps another connection
+  private transient Map<Connection, Connection> indexedConnections;
+  private transient long connectionOrder;
+  // the largest distance by which a drawn association label extended beyond
+  // the points of its association, the index is queried with this margin
+  private transient volatile double labelMargin;
 
   /**
    * Writes the instance variables to the stream.
@@ -83,7 +127,7 @@ implements NodeChangeListener, LabelSource, Diagram {
   private void writeObject(ObjectOutputStream stream) throws IOException {
     stream.writeInt(gridSize);
     stream.writeUTF(name);
-    stream.writeObject(connections);
+    stream.writeObject(new ArrayList<Connection>(connections));
     stream.writeObject(nameLabel);
     stream.writeObject(umlmodel);
   }
@@ -98,7 +142,8 @@ implements NodeChangeListener, LabelSource, Diagram {
     throws IOException, ClassNotFoundException {
     gridSize = stream.readInt();
     name = stream.readUTF();
-    connections = (List<Connection>) stream.readObject();
+    connections = new ChildList<Connection>(
+      (List<Connection>) stream.readObject());
     nameLabel = (Label) stream.readObject();
     umlmodel = (UmlModel) stream.readObject();
 
@@ -106,6 +151,7 @@ implements NodeChangeListener, LabelSource, Diagram {
     snapToGrid = true;
     nameChangeListeners = new ArrayList<LabelChangeListener>();
     nodeChangeListeners = new HashSet<NodeChangeListener>();
+    createConnectionIndex();
   }
 
   /**
@@ -162,6 +208,7 @@ implements NodeChangeListener, LabelSource, Diagram {
    */
   public void setName(String aName) {
     name = aName;
+    nameLabel.invalidate();
     for (LabelChangeListener l : nameChangeListeners) {
       l.labelTextChanged(nameLabel);
     }
@@ -251,19 +298,113 @@ implements NodeChangeListener, LabelSource, Diagram {
    * {@inheritDoc}
    */
   public void draw(DrawingContext drawingContext) {
+    draw(drawingContext, gridVisible);
+  }
+
+  /**
+   * Draws the diagram with or without the grid. Unlike changing the grid
+   * visibility, this does not modify the diagram, so it can be used while
+   * the diagram is drawn by other threads.
+   * @param drawingContext the DrawingContext
+   * @param withGrid true if the grid should be drawn
+   */
+  public void draw(DrawingContext drawingContext, boolean withGrid) {
     Rectangle bounds = drawingContext.getClipBounds();
     drawBackground(drawingContext, bounds);
-    if (gridVisible) drawGrid(drawingContext);
+    if (withGrid) drawGrid(drawingContext);
     drawBorder(drawingContext);
     drawNameLabel(drawingContext);
 
     // Draw container children
     super.draw(drawingContext);
 
-    // Draw associations
-    for (Connection assoc : connections) {
-      assoc.draw(drawingContext);
+    // Draw associations, their lines are drawn together in one batch
+    drawingContext.beginBatch();
+    SpatialIndex<Connection> index = connectionIndex;
+    if (bounds == null || index == null) {
+      for (int i = 0; i < connections.size(); i++) {
+        drawConnection(drawingContext, connections.get(i), bounds);
+      }
+    } else {
+      drawIndexedConnections(drawingContext, index, bounds);
     }
+    drawingContext.endBatch();
+  }
+
+  /**
+   * Draws the connections the spatial index finds within the clip bounds.
+   * The index only knows the bounds of the connection points, so the clip
+   * bounds are extended by the margin the decorations and labels can extend
+   * beyond them. Labels are only positioned when they are drawn, so a label
+   * that grew while it was outside the clip bounds might be missed once.
+   * @param drawingContext the DrawingContext
+   * @param index the connection index
+   * @param clipBounds the clip bounds
+   */
+  private void drawIndexedConnections(DrawingContext drawingContext,
+    SpatialIndex<Connection> index, Rectangle clipBounds) {
+    double margin = Math.max(CONNECTION_MARGIN, labelMargin);
+    SpatialIndex.Result<Connection> candidates = CONNECTION_RESULTS.get();
+    try {
+      index.query(clipBounds.getMinX() - margin, clipBounds.getMinY() - margin,
+        clipBounds.getMaxX() + margin, clipBounds.getMaxY() + margin,
+        candidates);
+      for (int i = 0; i < candidates.size(); i++) {
+        drawConnection(drawingContext, candidates.get(i), clipBounds);
+      }
+    } finally {
+      candidates.clear();
+    }
+  }
+
+  /**
+   * Draws a connection if it is visible within the clip bounds. If the
+   * connection is an association, the margin its labels extend beyond its
+   * points is recorded for the index queries.
+   * @param drawingContext the DrawingContext
+   * @param conn the connection
+   * @param clipBounds the clip bounds
+   */
+  private void drawConnection(DrawingContext drawingContext, Connection conn,
+    Rectangle clipBounds) {
+    if (conn.isVisible(clipBounds)) {
+      drawingContext.beginGroup(conn);
+      conn.draw(drawingContext);
+      drawingContext.endGroup();
+      Connection source = getChangeSource(conn);
+      List<Point2D> points = conn.getPoints();
+      if (source instanceof Association && points != null &&
+          !points.isEmpty()) {
+        Association assoc = (Association) source;
+        Rectangle2D pointBounds = conn.getAbsoluteBounds();
+        if (assoc.showName()) {
+          recordLabelMargin(pointBounds, assoc.getNameLabel());
+        }
+        if (assoc.showMultiplicities()) {
+          recordLabelMargin(pointBounds, assoc.getMultiplicity1Label());
+          recordLabelMargin(pointBounds, assoc.getMultiplicity2Label());
+        }
+      }
+    }
+  }
+
+  /**
+   * Raises the label margin to the distance the specified label extends
+   * beyond the bounds of its association's points. The margin only grows,
+   * so threads that draw at the same time at worst lose an increase that
+   * the next drawing records again.
+   * @param points the bounds of the association's points
+   * @param label the label
+   */
+  private void recordLabelMargin(Rectangle2D points, Label label) {
+    if (label.getParent() == null) return;
+    Rectangle2D bounds = label.getAbsoluteBounds();
+    double extent = Math.max(
+      Math.max(points.getMinX() - bounds.getMinX(),
+               bounds.getMaxX() - points.getMaxX()),
+      Math.max(points.getMinY() - bounds.getMinY(),
+               bounds.getMaxY() - points.getMaxY()));
+    if (extent > labelMargin) labelMargin = extent;
   }
 
   /**
@@ -302,35 +443,17 @@ implements NodeChangeListener, LabelSource, Diagram {
    * @param drawingContext the DrawingContext
    */
   private void drawGrid(DrawingContext drawingContext) {
-    double drawingGridSize = getDrawGridSize();
-
-    // Draw vertical lines
-    double x1 = getOrigin().getX();
-    double x2 = x1 + getSize().getWidth();
-    double y1 = getOrigin().getY();
-    double y2 = y1 + getSize().getHeight();
-
-    // Start at a visible portion
-    double x = x1;
-    while (x <= x2) {
-      drawingContext.drawGridLine(x, y1, x, y2);
-      x += drawingGridSize;
-    }
-
-    // Draw horizontal lines
-    double y = y1;
-    while (y <= y2) {
-      drawingContext.drawGridLine(x1, y, x2, y);
-      y += drawingGridSize;
-    }
+    drawingContext.drawGrid(getOrigin().getX(), getOrigin().getY(),
+      getSize().getWidth(), getSize().getHeight(), getDrawGridSize());
   }
 
+
   /**
    * Draws the name label in the left upper corner.
    * @param drawingContext the DrawingContext
    */
   private void drawNameLabel(DrawingContext drawingContext) {
-    nameLabel.recalculateSize(drawingContext);
+    if (!nameLabel.isValid()) nameLabel.recalculateSize(drawingContext);
     double x = getAbsoluteX1();
     double y = getAbsoluteY1();
     double height = nameLabel.getSize().getHeight() + 6;
@@ -368,27 +491,92 @@ implements NodeChangeListener, LabelSource, Diagram {
 
   /**
    * {@inheritDoc}
+   * The change is forwarded to the diagram's own listeners.
    */
   public void nodeMoved(Node node) {
     resizeToNode(node);
+    for (NodeChangeListener l : nodeChangeListeners) {
+      l.nodeMoved(node);
+    }
   }
 
   /**
    * {@inheritDoc}
+   * The change is forwarded to the diagram's own listeners.
    */
   public void nodeResized(Node node) {
     resizeToNode(node);
+    for (NodeChangeListener l : nodeChangeListeners) {
+      l.nodeResized(node);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void invalidateAbsolutePosition() {
+    super.invalidateAbsolutePosition();
+    invalidateAbsolutePosition(nameLabel);
   }
 
   /**
    * {@inheritDoc}
    */
   @Override
+  public Object clone() {
+    StructureDiagram cloned = (StructureDiagram) super.clone();
+    // the view refers to this diagram
+    cloned.children = null;
+    cloned.resizeNodes = null;
+    cloned.connectionIndex = null;
+    cloned.indexedConnections = null;
+    cloned.createConnectionIndex();
+    return cloned;
+  }
+
+  /**
+   * {@inheritDoc}
+   * The result is a live, read-only view of the nodes and connections.
+   */
+  @Override
   public List<DiagramElement> getChildren() {
-    List<DiagramElement> result = new ArrayList<DiagramElement>();
-    result.addAll(super.getChildren());
-    result.addAll(connections);
-    return result;
+    if (children == null) children = new ChildrenView();
+    return children;
+  }
+
+  /**
+   * A read-only view of the children of the diagram, the nodes followed by
+   * the connections. It is used instead of a copy, so the children can be
+   * traversed without allocating.
+   */
+  private final class ChildrenView extends AbstractList<DiagramElement>
+  implements RandomAccess {
+
+    /**
+     * {@inheritDoc}
+     */
+    public DiagramElement get(int index) {
+      List<DiagramElement> nodes = StructureDiagram.super.getChildren();
+      return index < nodes.size() ? nodes.get(index) :
+        connections.get(index - nodes.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+      return StructureDiagram.super.getChildren().size() + connections.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains(Object element) {
+      return StructureDiagram.super.getChildren().contains(element) ||
+        connections.contains(element);
+    }
   }
 
   /**
@@ -398,6 +586,11 @@ implements NodeChangeListener, LabelSource, Diagram {
   public void addChild(DiagramElement child) {
     if (child instanceof Connection) {
       connections.add((Connection) child);
+      if (connectionIndex != null) {
+        indexConnection((Connection) child);
+      } else {
+        createConnectionIndex();
+      }
       child.setParent(this);
     } else {
       super.addChild(child);
@@ -412,31 +605,166 @@ implements NodeChangeListener, LabelSource, Diagram {
   public void removeChild(DiagramElement child) {
     if (child instanceof Connection) {
       connections.remove((Connection) child);
+      if (connectionIndex != null) {
+        connectionIndex.remove((Connection) child);
+        indexedConnections.remove(getChangeSource((Connection) child));
+        if (connections.size() < CONNECTION_INDEX_THRESHOLD / 2) {
+          connectionIndex = null;
+        }
+      }
     } else {
       super.removeChild(child);
     }
   }
 
+  /**
+   * {@inheritDoc}
+   * The connections are kept in their own spatial index, they are appended
+   * to the nodes.
+   */
+  @Override
+  protected List<DiagramElement> findChildCandidates(Rectangle2D area) {
+    List<DiagramElement> result = super.findChildCandidates(area);
+    if (connectionIndex == null) {
+      result.addAll(connections);
+    } else {
+      connectionIndex.query(area, result);
+    }
+    return result;
+  }
+
   /**
    * {@inheritDoc}
    */
   @Override
   public DiagramElement getChildAt(double x, double y) {
-    for (Connection conn : connections) {
-      if (conn.contains(x, y)) return conn;
+    SpatialIndex<Connection> index = connectionIndex;
+    if (index == null) {
+      for (int i = 0; i < connections.size(); i++) {
+        if (connections.get(i).contains(x, y)) return connections.get(i);
+      }
+      return super.getChildAt(x, y);
+    }
+    SpatialIndex.Result<Connection> candidates = CONNECTION_RESULTS.get();
+    try {
+      index.query(x - CONNECTION_HIT_DISTANCE, y - CONNECTION_HIT_DISTANCE,
+        x + CONNECTION_HIT_DISTANCE, y + CONNECTION_HIT_DISTANCE, candidates);
+      for (int i = 0; i < candidates.size(); i++) {
+        if (candidates.get(i).contains(x, y)) return candidates.get(i);
+      }
+    } finally {
+      candidates.clear();
     }
     return super.getChildAt(x, y);
   }
 
+  /**
+   * {@inheritDoc}
+   * The connection's entry in the spatial index is updated. If the connection
+   * is not known, e.g. because a wrapped connection was replaced, the index
+   * is built again.
+   */
+  @Override
+  protected void connectionChanged(Connection connection) {
+    if (connectionIndex == null) return;
+    Connection child = indexedConnections.get(connection);
+    if (child == null) {
+      connectionIndex = null;
+      createConnectionIndex();
+    } else {
+      connectionIndex.update(child, getIndexBounds(child));
+    }
+  }
+
+  /**
+   * Creates the spatial index over the connections if there is none yet and
+   * there are enough connections. Otherwise the connections are searched
+   * linearly.
+   */
+  private void createConnectionIndex() {
+    if (connectionIndex == null &&
+        connections.size() >= CONNECTION_INDEX_THRESHOLD) {
+      connectionIndex = new SpatialIndex<Connection>();
+      indexedConnections = new IdentityHashMap<Connection, Connection>();
+      connectionOrder = 0;
+      for (int i = 0; i < connections.size(); i++) {
+        indexConnection(connections.get(i));
+      }
+    }
+  }
+
+  /**
+   * Adds the specified connection to the spatial index, after the connections
+   * that are already indexed.
+   * @param conn the connection
+   */
+  private void indexConnection(Connection conn) {
+    indexedConnections.put(getChangeSource(conn), conn);
+    connectionIndex.insert(conn, getIndexBounds(conn), connectionOrder++);
+  }
+
+  /**
+   * Returns the connection that reports the changes of the specified child.
+   * @param conn the child connection
+   * @return the connection that calls connectionChanged()
+   */
+  private static Connection getChangeSource(Connection conn) {
+    return conn instanceof BaseConnection ?
+      ((BaseConnection) conn).getConnection() : conn;
+  }
+
+  /**
+   * Returns the bounds of the specified connection's points.
+   * @param conn the connection
+   * @return the bounds, which are empty if the connection has no points
+   */
+  private static Rectangle2D getIndexBounds(Connection conn) {
+    List<Point2D> points = conn.getPoints();
+    if (points == null || points.isEmpty()) return new Rectangle2D.Double();
+    return conn.getAbsoluteBounds();
+  }
+
   /**
    * Updates this element's bounds according to the specified node. This will
    * happen if the node exceeds the diagram's bounds.
    * @param node the Node to check against
    */
   private void resizeToNode(Node node) {
+    if (isChanging()) {
+      if (resizeNodes == null) resizeNodes = new ChildList<Node>();
+      resizeNodes.add(node);
+      return;
+    }
+    resizeTo(node.getAbsoluteX2(), node.getAbsoluteY2());
+  }
+
+  /**
+   * Resizes the diagram once to all the nodes that changed in the committed
+   * transaction.
+   */
+  @Override
+  protected void changesCommitted() {
+    if (resizeNodes == null) return;
+    double x2 = Double.NEGATIVE_INFINITY, y2 = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < resizeNodes.size(); i++) {
+      Node node = resizeNodes.get(i);
+      x2 = Math.max(x2, node.getAbsoluteX2());
+      y2 = Math.max(y2, node.getAbsoluteY2());
+    }
+    resizeNodes = null;
+    resizeTo(x2, y2);
+  }
+
+  /**
+   * Enlarges this diagram if the specified lower right corner exceeds its
+   * bounds.
+   * @param x2 the right x coordinate
+   * @param y2 the bottom y coordinate
+   */
+  private void resizeTo(double x2, double y2) {
     // see if the element needs to be resized
-    double diffx = node.getAbsoluteX2() - getAbsoluteX2();
-    double diffy = node.getAbsoluteY2() - getAbsoluteY2();
+    double diffx = x2 - getAbsoluteX2();
+    double diffy = y2 - getAbsoluteY2();
     if (diffx > 0 || diffy > 0) {
       setSize(getSize().getWidth() +
               (diffx > 0 ? (diffx + ADDITIONAL_SPACE_RIGHT) : 0),
@@ -23,6 +23,7 @@ import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
 import org.tinyuml.draw.AbstractCompositeNode;
@@ -159,8 +160,12 @@ public class AbstractCompositeNodeTest extends MockObjectTestCase {
       with(eq(clipbounds)).will(returnValue(false));
     mockChild2.expects(once()).method("isVisible").
       with(eq(clipbounds)).will(returnValue(true));
+    mockDrawingContext.expects(once()).method("beginGroup").
+      with(same(mockChild2.proxy())).id("begin");
     mockChild2.expects(once()).method("draw").
-      with(eq(mockDrawingContext.proxy()));
+      with(eq(mockDrawingContext.proxy())).after(mockDrawingContext, "begin");
+    mockDrawingContext.expects(once()).method("endGroup").
+      after(mockChild2, "draw");
     node.draw((DrawingContext) mockDrawingContext.proxy());
   }
 
@@ -313,4 +318,139 @@ public class AbstractCompositeNodeTest extends MockObjectTestCase {
     mockListener3.expects(once()).method("nodeMoved");
     node.setAbsolutePos(300, 400);
   }
+
+  /**
+   * Tests a node with enough children to use the spatial index. The results
+   * need to be the same as with a linear search.
+   */
+  public void testManyChildren() {
+    MyCompositeNode node = new MyCompositeNode();
+    node.setParent(parent);
+    node.setOrigin(10, 10);
+    node.setSize(2000, 2000);
+    List<MyCompositeNode> children = new ArrayList<MyCompositeNode>();
+    for (int i = 0; i < 100; i++) {
+      MyCompositeNode child = new MyCompositeNode();
+      child.setOrigin((i % 10) * 50, (i / 10) * 50);
+      child.setSize(40, 40);
+      node.addChild(child);
+      children.add(child);
+    }
+    MyCompositeNode back = children.get(0), front = children.get(1);
+    assertEquals(back, node.getChildAt(15, 15));
+    assertEquals(NullElement.getInstance(), node.getChildAt(55, 15));
+
+    // the top most child is selected
+    front.setOrigin(20, 20);
+    assertEquals(front, node.getChildAt(40, 40));
+    node.putChildToBack(front);
+    assertEquals(back, node.getChildAt(40, 40));
+    node.bringChildToFront(front);
+    assertEquals(front, node.getChildAt(40, 40));
+    node.removeChild(front);
+    assertEquals(back, node.getChildAt(40, 40));
+
+    // moving the whole node does not invalidate the child positions
+    node.setAbsolutePos(110, 110);
+    assertEquals(back, node.getChildAt(115, 115));
+    assertEquals(NullElement.getInstance(), node.getChildAt(15, 15));
+
+    Collection<DiagramElement> collection = new ArrayList<DiagramElement>();
+    node.getChildrenInSpecifiedBounds(
+      new Rectangle2D.Double(150, 150, 80, 30), collection);
+    assertEquals(2, collection.size());
+    assertTrue(collection.contains(children.get(11)));
+    assertTrue(collection.contains(children.get(12)));
+  }
+
+  /**
+   * The cached absolute positions follow moves and reparenting of ancestors.
+   */
+  public void testCachedAbsolutePosition() {
+    MyCompositeNode node = new MyCompositeNode();
+    node.setParent(parent);
+    node.setOrigin(10, 10);
+    node.setSize(100, 100);
+    CompositeNode child = new MyCompositeNode();
+    child.setOrigin(5, 5);
+    child.setSize(80, 80);
+    node.addChild(child);
+    Node childchild = new MyCompositeNode();
+    childchild.setOrigin(5, 5);
+    childchild.setSize(70, 70);
+    child.addChild(childchild);
+    assertEquals(20.0, childchild.getAbsoluteX1());
+    assertEquals(20.0, childchild.getAbsoluteY1());
+
+    node.setOrigin(30, 40);
+    assertEquals(40.0, childchild.getAbsoluteX1());
+    assertEquals(50.0, childchild.getAbsoluteY1());
+    node.setAbsolutePos(100, 100);
+    assertEquals(110.0, childchild.getAbsoluteX1());
+    assertEquals(110.0, childchild.getAbsoluteY1());
+
+    MyCompositeNode other = new MyCompositeNode();
+    other.setParent(parent);
+    other.setOrigin(0, 0);
+    other.addChild(child);
+    assertEquals(10.0, childchild.getAbsoluteX1());
+    assertEquals(10.0, childchild.getAbsoluteY1());
+
+    // moving a node does not discard the positions of unrelated nodes
+    final int[] parentQueries = new int[1];
+    CompositeNode countingParent = new MyAbsoluteParent() {
+      public double getAbsoluteX1() {
+        parentQueries[0]++;
+        return 0;
+      }
+    };
+    MyCompositeNode cached = new MyCompositeNode();
+    cached.setParent(countingParent);
+    cached.setOrigin(5, 5);
+    assertEquals(5.0, cached.getAbsoluteX1());
+    node.setAbsolutePos(200, 200);
+    other.setOrigin(50, 50);
+    assertEquals(5.0, cached.getAbsoluteX1());
+    assertEquals(1, parentQueries[0]);
+  }
+
+  /**
+   * Tests that the notifications within a change transaction are delivered
+   * once per node on the outermost commit.
+   */
+  public void testChangeTransaction() {
+    MyCompositeNode node = new MyCompositeNode();
+    node.setParent(parent);
+    MyCompositeNode child = new MyCompositeNode();
+    node.addChild(child);
+    Mock mockListener1 = mock(NodeChangeListener.class);
+    Mock mockListener2 = mock(NodeChangeListener.class);
+    node.addNodeChangeListener((NodeChangeListener) mockListener1.proxy());
+    child.addNodeChangeListener((NodeChangeListener) mockListener2.proxy());
+
+    node.beginChanges();
+    node.beginChanges();
+    child.setAbsolutePos(10, 10);
+    child.setAbsolutePos(20, 20);
+    child.setSize(50, 50);
+    node.setAbsolutePos(100, 100);
+    node.commitChanges();
+    // no listener was called yet, the nested commit does not deliver
+    mockListener1.expects(once()).method("nodeMoved").with(same(node));
+    mockListener2.expects(once()).method("nodeMoved").with(same(child));
+    mockListener2.expects(once()).method("nodeResized").with(same(child));
+    node.commitChanges();
+    mockListener1.verify();
+    mockListener2.verify();
+
+    // without a transaction, the notifications are immediate again
+    mockListener2.expects(once()).method("nodeMoved").with(same(child));
+    child.setAbsolutePos(30, 30);
+    try {
+      node.commitChanges();
+      fail("commit without transaction should throw an exception");
+    } catch (IllegalStateException expected) {
+      assertTrue(true);
+    }
+  }
 }
@@ -94,6 +94,42 @@ public class AbstractConnectionTest extends MockObjectTestCase {
     assertEquals(5.0, connection.getAbsoluteBounds().getY());
     assertEquals(40.0, connection.getAbsoluteBounds().getWidth());
     assertEquals(35.0, connection.getAbsoluteBounds().getHeight());
+
+    // negative coordinates
+    points.clear();
+    points.add(new Point2D.Double(-50.0, -40.0));
+    points.add(new Point2D.Double(-10.0, -5.0));
+    connection.setPoints(points);
+    assertEquals(new Rectangle2D.Double(-50.0, -40.0, 40.0, 35.0),
+      connection.getAbsoluteBounds());
+
+    // changes through the points update the bounds
+    connection.getPoints().get(1).setLocation(0.0, 0.0);
+    assertEquals(new Rectangle2D.Double(-50.0, -40.0, 50.0, 40.0),
+      connection.getAbsoluteBounds());
+  }
+
+  /**
+   * Tests the isVisible() method.
+   */
+  public void testIsVisible() {
+    final List<Point2D> points = new ArrayList<Point2D>();
+    points.add(new Point2D.Double(100.0, 100.0));
+    points.add(new Point2D.Double(200.0, 100.0));
+    connection.setPoints(points);
+    assertTrue(connection.isVisible(new Rectangle2D.Double(150, 95, 10, 10)));
+    // the arrow heads are within the margin
+    assertTrue(connection.isVisible(new Rectangle2D.Double(80, 80, 10, 10)));
+    assertFalse(connection.isVisible(new Rectangle2D.Double(0, 0, 50, 50)));
+    assertFalse(connection.contains(50, 100));
+
+    // the points are modified in place, which invalidates the bounds
+    connection.getPoints().get(0).setLocation(10.0, 10.0);
+    connection.invalidate();
+    assertTrue(connection.isVisible(new Rectangle2D.Double(0, 0, 50, 50)));
+    connection.setValid(true);
+    assertTrue(connection.isVisible(new Rectangle2D.Double(0, 0, 50, 50)));
+    assertFalse(connection.isVisible(new Rectangle2D.Double(0, 200, 50, 50)));
   }
   
   /**
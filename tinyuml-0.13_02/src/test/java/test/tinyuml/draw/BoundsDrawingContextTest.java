@@ -0,0 +1,73 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.draw;
+
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import junit.framework.TestCase;
+import org.tinyuml.draw.BoundsDrawingContext;
+import org.tinyuml.draw.DrawingContext.FontType;
+
+/**
+ * A test class for BoundsDrawingContext.
+ * @author agent
+ * @version 1.0
+ */
+public class BoundsDrawingContextTest extends TestCase {
+
+  private BoundsDrawingContext context = new BoundsDrawingContext();
+
+  /**
+   * Tests the initial state.
+   */
+  public void testInitial() {
+    assertNull(context.getCoveredArea());
+    assertNotNull(context.getGraphics2D());
+    assertNotNull(context.getFontMetrics(FontType.DEFAULT));
+  }
+
+  /**
+   * Tests that the drawing operations are added to the covered area.
+   */
+  public void testCoveredArea() {
+    context.drawRectangle(10, 10, 20, 20, null);
+    assertEquals(new Rectangle2D.Double(8, 8, 24, 24),
+      context.getCoveredArea());
+    context.drawLine(50, 40, 45, 30);
+    assertEquals(new Rectangle2D.Double(8, 8, 44, 34),
+      context.getCoveredArea());
+    context.draw(new Ellipse2D.Double(-10, 0, 5, 5), null);
+    assertEquals(new Rectangle2D.Double(-12, -2, 64, 44),
+      context.getCoveredArea());
+    context.reset();
+    assertNull(context.getCoveredArea());
+  }
+
+  /**
+   * Tests the area covered by a label.
+   */
+  public void testDrawLabel() {
+    context.drawLabel("Label", 10, 20, FontType.DEFAULT);
+    Rectangle2D area = context.getCoveredArea();
+    assertTrue(area.getMinY() < 20);
+    assertTrue(area.getMaxY() > 20);
+    assertTrue(area.getWidth() > 10);
+  }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.draw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import junit.framework.*;
+import org.tinyuml.draw.ChildList;
+
+/**
+ * A test for ChildList.
+ * @author agent
+ * @version 1.0
+ */
+public class ChildListTest extends TestCase {
+
+  /**
+   * Tests adding and removing elements.
+   */
+  public void testAddRemove() {
+    ChildList<String> list = new ChildList<String>();
+    String a = "a", b = "b", c = "c";
+    assertTrue(list.add(a));
+    assertTrue(list.add(b));
+    assertFalse("elements are only added once", list.add(a));
+    assertTrue(list.addFirst(c));
+    assertEquals(Arrays.asList(c, a, b), list);
+    assertTrue(list.contains(a));
+    assertEquals(2, list.indexOf(b));
+
+    assertTrue(list.remove(a));
+    assertFalse(list.remove(a));
+    assertFalse(list.contains(a));
+    assertEquals(Arrays.asList(c, b), list);
+    list.add(1, a);
+    assertEquals(Arrays.asList(c, a, b), list);
+    assertEquals(c, list.remove(0));
+    list.clear();
+    assertTrue(list.isEmpty());
+  }
+
+  /**
+   * Tests that the elements are compared by identity.
+   */
+  public void testIdentity() {
+    ChildList<String> list = new ChildList<String>();
+    String a1 = new String("a"), a2 = new String("a");
+    list.add(a1);
+    assertTrue(list.add(a2));
+    assertEquals(2, list.size());
+    list.remove(a2);
+    assertSame(a1, list.get(0));
+  }
+
+  /**
+   * Tests moving elements to the front and back.
+   */
+  public void testReorder() {
+    ChildList<Integer> list = new ChildList<Integer>();
+    Integer[] elements = new Integer[100];
+    for (int i = 0; i < elements.length; i++) {
+      elements[i] = Integer.valueOf(i);
+      list.add(elements[i]);
+    }
+    list.moveToLast(elements[10]);
+    list.moveToFirst(elements[50]);
+    list.remove(elements[20]);
+    assertEquals(99, list.size());
+    assertSame(elements[50], list.get(0));
+    assertSame(elements[0], list.get(1));
+    assertSame(elements[10], list.get(98));
+    assertEquals(98, list.indexOf(elements[10]));
+    assertEquals(-1, list.indexOf(elements[20]));
+
+    // the order of the other elements is kept
+    Iterator<Integer> iter = list.iterator();
+    int previous = -1;
+    iter.next();
+    for (int i = 1; i < 98; i++) {
+      int value = iter.next();
+      assertTrue(value > previous);
+      previous = value;
+    }
+  }
+
+  /**
+   * Prepending many elements keeps the order.
+   */
+  public void testAddFirstMany() {
+    ChildList<Integer> list = new ChildList<Integer>();
+    for (int i = 0; i < 1000; i++) list.addFirst(i);
+    assertEquals(1000, list.size());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(999 - i, list.get(i).intValue());
+    }
+  }
+
+  /**
+   * Random reordering gives the same result as a plain list.
+   */
+  public void testRandomReorder() {
+    ChildList<Object> list = new ChildList<Object>();
+    List<Object> expected = new ArrayList<Object>();
+    Object[] elements = new Object[200];
+    for (int i = 0; i < elements.length; i++) elements[i] = new Object();
+    Random random = new Random(42);
+    for (int i = 0; i < 5000; i++) {
+      Object element = elements[random.nextInt(elements.length)];
+      int index = expected.indexOf(element);
+      switch (random.nextInt(4)) {
+        case 0:
+          if (index >= 0) expected.remove(index);
+          expected.add(element);
+          list.moveToLast(element);
+          list.add(element);
+          break;
+        case 1:
+          if (index >= 0) expected.remove(index);
+          expected.add(0, element);
+          list.moveToFirst(element);
+          list.addFirst(element);
+          break;
+        case 2:
+          if (index >= 0) expected.remove(index);
+          list.remove(element);
+          break;
+        default:
+          assertEquals(index, list.indexOf(element));
+          break;
+      }
+      assertEquals(expected.size(), list.size());
+      if (!expected.isEmpty()) {
+        int probe = random.nextInt(expected.size());
+        assertSame(expected.get(probe), list.get(probe));
+      }
+    }
+    assertEquals(expected, list);
+  }
+}
@@ -23,6 +23,8 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
 import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
 import org.tinyuml.draw.DrawingContext.FontType;
@@ -95,6 +97,41 @@ public class DrawingContextImplTest extends MockObjectTestCase {
     drawingContext.drawGridLine(0, 1, 100, 101);
   }
   
+  /**
+   * Tests that drawGrid() does not draw outside of the clip bounds.
+   */
+  public void testDrawGridOutsideClip() {
+    drawingContext.drawGrid(2000, 2000, 500, 500, 35);
+  }
+
+  /**
+   * Tests drawGrid() on an image, once with a scale factor that allows
+   * drawing from a grid tile and once with a transform that does not.
+   */
+  public void testDrawGrid() {
+    BufferedImage image = new BufferedImage(100, 100,
+      BufferedImage.TYPE_INT_RGB);
+    Graphics2D g2d = image.createGraphics();
+    drawingContext.setGraphics2D(g2d, new Rectangle(0, 0, 100, 100));
+    drawingContext.drawGrid(10, 10, 80, 80, 35);
+    int black = image.getRGB(0, 0);
+    assertFalse(black == image.getRGB(10, 30));
+    assertFalse(black == image.getRGB(45, 30));
+    assertFalse(black == image.getRGB(30, 80));
+    assertEquals(black, image.getRGB(30, 30));
+    assertEquals(black, image.getRGB(5, 5));
+    assertEquals(black, image.getRGB(95, 30));
+
+    // the clip bounds restrict the drawn area
+    image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+    g2d = image.createGraphics();
+    g2d.shear(0.0001, 0);
+    drawingContext.setGraphics2D(g2d, new Rectangle(0, 0, 30, 100));
+    drawingContext.drawGrid(10, 10, 80, 80, 35);
+    assertFalse(black == image.getRGB(10, 30));
+    assertEquals(black, image.getRGB(45, 30));
+  }
+
   /**
    * Tests the drawLine() method.
    */
@@ -118,14 +155,12 @@ public class DrawingContextImplTest extends MockObjectTestCase {
     mockG2d.expects(once()).method("draw");
     drawingContext.drawRectangle(0, 1, 100, 101, Color.RED, Color.BLUE);
      
-    // unfilled
-    mockG2d.expects(once()).method("setStroke");
+    // unfilled, the stroke is already set
     mockG2d.expects(once()).method("setColor").with(eq(Color.BLACK));
     mockG2d.expects(once()).method("draw");
     drawingContext.drawRectangle(0, 1, 100, 101, null);
 
     // filled
-    mockG2d.expects(once()).method("setStroke");
     mockG2d.expects(once()).method("setColor").with(eq(Color.BLACK));
     mockG2d.expects(once()).method("setColor").with(eq(Color.WHITE));
     mockG2d.expects(once()).method("draw");
@@ -133,6 +168,85 @@ public class DrawingContextImplTest extends MockObjectTestCase {
     drawingContext.drawRectangle(0, 1, 100, 101, Color.WHITE);
   }
 
+  /**
+   * Tests that unchanged state is not passed on to the Graphics2D object.
+   */
+  public void testRedundantStateChanges() {
+    mockG2d.expects(once()).method("setStroke");
+    mockG2d.expects(once()).method("setColor").with(eq(Color.BLACK));
+    mockG2d.expects(exactly(3)).method("draw");
+    drawingContext.drawLine(0, 1, 100, 101);
+    drawingContext.drawLine(0, 1, 50, 51);
+    drawingContext.drawRectangle(0, 1, 100, 101, null);
+    assertEquals(2, drawingContext.getStateChangeCount());
+    assertEquals(4, drawingContext.getSkippedStateChangeCount());
+
+    // after direct access to the Graphics2D object, the state is set again
+    drawingContext.getGraphics2D();
+    mockG2d.expects(once()).method("setFont");
+    mockG2d.expects(exactly(2)).method("drawString");
+    drawingContext.drawLabel("text", 1, 2, FontType.DEFAULT);
+    drawingContext.drawLabel("text", 1, 20, FontType.DEFAULT);
+    mockG2d.expects(once()).method("setStroke");
+    mockG2d.expects(once()).method("setColor").with(eq(Color.BLACK));
+    mockG2d.expects(once()).method("draw");
+    drawingContext.drawLine(0, 1, 100, 101);
+    assertEquals(5, drawingContext.getStateChangeCount());
+
+    // a new frame resets the counts
+    drawingContext.setGraphics2D((Graphics2D) mockG2d.proxy(), bounds);
+    assertEquals(0, drawingContext.getStateChangeCount());
+    assertEquals(0, drawingContext.getSkippedStateChangeCount());
+  }
+
+  /**
+   * Tests that lines are collected in a batch and outlined shapes are drawn
+   * after them.
+   */
+  public void testBatch() {
+    Mock mockShape = mock(Shape.class);
+    drawingContext.beginBatch();
+    drawingContext.drawLine(0, 1, 100, 101);
+    drawingContext.drawLine(100, 101, 100, 200);
+    drawingContext.draw((Shape) mockShape.proxy(), Color.WHITE);
+    drawingContext.drawDashedLine(0, 1, 50, 51);
+    drawingContext.drawLine(100, 200, 200, 200);
+
+    mockG2d.expects(exactly(2)).method("setStroke");
+    mockG2d.expects(exactly(2)).method("setColor").with(eq(Color.BLACK));
+    mockG2d.expects(once()).method("setColor").with(eq(Color.WHITE));
+    mockG2d.expects(once()).method("draw").with(isA(Path2D.class))
+      .id("dashed");
+    mockG2d.expects(once()).method("draw").with(isA(Path2D.class))
+      .after("dashed").id("solid");
+    mockG2d.expects(once()).method("fill").with(eq(mockShape.proxy()))
+      .after("solid");
+    mockG2d.expects(once()).method("draw").with(eq(mockShape.proxy()));
+    drawingContext.endBatch();
+
+    // after the batch, lines are drawn directly
+    mockG2d.expects(once()).method("draw");
+    drawingContext.drawLine(0, 1, 100, 101);
+  }
+
+  /**
+   * Tests that a label drawn in a batch is drawn in black after the lines.
+   */
+  public void testBatchLabel() {
+    drawingContext.beginBatch();
+    drawingContext.drawLine(0, 1, 100, 101);
+    drawingContext.drawLabel("text", 1, 2, FontType.DEFAULT);
+    drawingContext.drawLine(100, 101, 100, 200);
+
+    mockG2d.expects(once()).method("setStroke");
+    mockG2d.expects(once()).method("setColor").with(eq(Color.BLACK));
+    mockG2d.expects(once()).method("draw").with(isA(Path2D.class))
+      .id("solid");
+    mockG2d.expects(once()).method("setFont");
+    mockG2d.expects(once()).method("drawString").after("solid");
+    drawingContext.endBatch();
+  }
+
   /**
    * Tests the fillRectangle() method.
    */
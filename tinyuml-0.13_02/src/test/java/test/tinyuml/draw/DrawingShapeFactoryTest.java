@@ -86,6 +86,32 @@ public class DrawingShapeFactoryTest extends TestCase {
     assertEquals(4.0, line.getY2());
   }
 
+  /**
+   * Tests that each thread gets its own shapes.
+   * @throws InterruptedException if the thread was interrupted
+   */
+  public void testShapesPerThread() throws InterruptedException {
+    final Rectangle2D[] otherRect = new Rectangle2D[1];
+    final Line2D[] otherLine = new Line2D[1];
+    Rectangle2D rect = factory.createRect2d(1, 2, 3, 4);
+    Line2D line = factory.createLine2d(1, 2, 3, 4);
+    Thread thread = new Thread() {
+      /** {@inheritDoc} */
+      @Override
+      public void run() {
+        otherRect[0] = factory.createRect2d(5, 6, 7, 8);
+        otherLine[0] = factory.createLine2d(5, 6, 7, 8);
+      }
+    };
+    thread.start();
+    thread.join();
+    assertNotSame(rect, otherRect[0]);
+    assertNotSame(line, otherLine[0]);
+    assertEquals(1.0, rect.getX());
+    assertEquals(1.0, line.getX1());
+    assertSame(rect, factory.createRect2d(0, 0, 1, 1));
+  }
+
   /**
    * Tests valid Stroke creation, stroke appearance is not tested.
    */
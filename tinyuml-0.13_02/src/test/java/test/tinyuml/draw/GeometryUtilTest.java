@@ -124,4 +124,25 @@ public class GeometryUtilTest extends TestCase {
     p2.setLocation(20, 20);
     assertEquals(Orientation.UNDEFINED, util.getSegmentOrientation(p1, p2));
   }
+
+  /**
+   * Tests the intersectsLine() method against Rectangle2D.intersectsLine().
+   */
+  public void testIntersectsLine() {
+    GeometryUtil util = GeometryUtil.getInstance();
+    Rectangle2D rect = new Rectangle2D.Double(10, 20, 30, 40);
+    double[] coords = { 0, 10, 15, 25, 40, 45, 60, 70 };
+    for (double x1 : coords) {
+      for (double y1 : coords) {
+        for (double x2 : coords) {
+          for (double y2 : coords) {
+            assertEquals(rect.intersectsLine(x1, y1, x2, y2),
+              util.intersectsLine(10, 20, 30, 40, x1, y1, x2, y2));
+          }
+        }
+      }
+    }
+    // empty rectangles do not intersect anything
+    assertFalse(util.intersectsLine(10, 20, 0, 40, 0, 30, 50, 30));
+  }
 }
@@ -28,6 +28,7 @@ import org.tinyuml.draw.CompositeNode;
 import org.tinyuml.draw.DiagramOperations;
 import org.tinyuml.draw.DoubleDimension;
 import org.tinyuml.draw.DrawingContext;
+import org.tinyuml.draw.DrawingContext.FontType;
 import org.tinyuml.draw.Label;
 import org.tinyuml.draw.LabelSource;
 import org.tinyuml.draw.NullSelection;
@@ -130,8 +131,8 @@ public class LabelTest extends MockObjectTestCase {
       will(returnValue(mockFontMetrics.proxy()));
     mockDrawingContext.expects(once()).method("drawLabel");
     mockFontMetrics.expects(once()).method("getMaxAscent").will(returnValue(5));
-    mockFontMetrics.expects(once()).method("stringWidth")
-      .will(returnValue(20));
+    mockDrawingContext.expects(once()).method("getTextWidth")
+      .will(returnValue(20.0));
     mockFontMetrics.expects(once()).method("getHeight")
       .will(returnValue(10));
     
@@ -144,8 +145,9 @@ public class LabelTest extends MockObjectTestCase {
   public void testCalculateSize() {
     final int width = 50;
     final int height = 10;
-    mockFontMetrics.expects(once()).method("stringWidth")
-      .will(returnValue(width));
+    mockDrawingContext.expects(once()).method("getTextWidth")
+      .with(eq("text"), eq(FontType.DEFAULT))
+      .will(returnValue((double) width));
     mockFontMetrics.expects(once()).method("getHeight")
       .will(returnValue(height));
     String labeltext = "text";
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.draw;
+
+import java.awt.Font;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.util.List;
+import junit.framework.TestCase;
+import org.tinyuml.draw.MultilineLayouter;
+import org.tinyuml.draw.MultilineLayouter.MultilineLayout;
+
+/**
+ * A test class for MultilineLayouter.
+ * @author agent
+ * @version 1.0
+ */
+public class MultilineLayouterTest extends TestCase {
+
+  private MultilineLayouter layouter = MultilineLayouter.getInstance();
+  private FontRenderContext fontRenderContext =
+    new FontRenderContext(null, true, false);
+  private Font font = new Font("Arial", Font.PLAIN, 12);
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void setUp() {
+    layouter.clearCache();
+  }
+
+  /**
+   * Tests the layout of a text with several paragraphs.
+   */
+  public void testCalculateLayout() {
+    MultilineLayout layout = layouter.calculateLayout(fontRenderContext, font,
+      "first paragraph\n\nsecond paragraph", 200);
+    assertEquals(3, layout.getLines().size());
+    assertEquals("first paragraph", layout.getLineTexts().get(0));
+    assertEquals("", layout.getLineTexts().get(1));
+    assertEquals("second paragraph", layout.getLineTexts().get(2));
+    assertEquals(200.0, layout.getSize().getWidth());
+    // the empty paragraph has the height of a line
+    TextLayout line = layout.getLines().get(0);
+    assertEquals(3 * (line.getAscent() + line.getDescent() +
+      line.getLeading()), layout.getSize().getHeight(), 0.01);
+    assertEquals(0, layouter.calculateLayout(fontRenderContext, font, "",
+      200).getLines().size());
+  }
+
+  /**
+   * Tests that identical texts share their layout.
+   */
+  public void testLayoutIsCached() {
+    MultilineLayout layout = layouter.calculateLayout(fontRenderContext, font,
+      "some note", 100);
+    assertSame(layout, layouter.calculateLayout(fontRenderContext, font,
+      "some note", 100));
+    assertNotSame(layout, layouter.calculateLayout(fontRenderContext, font,
+      "some note", 120));
+    assertEquals(2, layouter.getCachedLayoutCount());
+  }
+
+  /**
+   * Tests that only the changed paragraph is laid out again.
+   */
+  public void testIncrementalLayout() {
+    List<TextLayout> lines = layouter.calculateLayout(fontRenderContext, font,
+      "first\nsecond\nthird", 200).getLines();
+    List<TextLayout> editedLines = layouter.calculateLayout(fontRenderContext,
+      font, "first\nsecond edited\nthird", 200).getLines();
+    assertEquals(3, editedLines.size());
+    assertSame(lines.get(0), editedLines.get(0));
+    assertNotSame(lines.get(1), editedLines.get(1));
+    assertSame(lines.get(2), editedLines.get(2));
+  }
+}
@@ -170,7 +170,7 @@ public class NodeSelectionTest extends MockObjectTestCase {
     mockNewParent.expects(atLeastOnce()).method("isAncestor")
       .with(eq(mockNode.proxy())).will(returnValue(false));
     mockNewParent.expects(atLeastOnce()).method("getAbsoluteBounds")
-      .will(returnValue(new Rectangle2D.Double(0, 0, 100, 100)));
+      .will(returnValue(new Rectangle2D.Double(0, 0, 500, 500)));
     mockDrawingContext.expects(once()).method("drawRectangle");
   }
   
@@ -180,9 +180,6 @@ public class NodeSelectionTest extends MockObjectTestCase {
   public void testDragIntoNestingParent() {
     Mock mockNewParent = mock(CompositeNode.class);
     setYesDropTargetExpectations(mockNewParent);
-    Rectangle2D nodeBounds = new Rectangle2D.Double(5, 5, 10, 10);
-    mockNode.expects(atLeastOnce()).method("getAbsoluteBounds")
-      .will(returnValue(nodeBounds));
     setStandardDragFixture();
 
     // stop dragging
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.draw;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.*;
+import org.tinyuml.draw.Polyline;
+
+/**
+ * A test for Polyline.
+ * @author agent
+ * @version 1.0
+ */
+public class PolylineTest extends TestCase {
+
+  /**
+   * Tests adding, inserting and removing points beyond the initial capacity.
+   */
+  public void testModification() {
+    Polyline polyline = new Polyline();
+    assertTrue(polyline.isEmpty());
+    for (int i = 0; i < 10; i++) polyline.addPoint(i, i * 2);
+    assertEquals(10, polyline.size());
+    assertEquals(9.0, polyline.getX(9));
+    assertEquals(18.0, polyline.getY(9));
+
+    polyline.addPoint(0, -1, -2);
+    assertEquals(11, polyline.size());
+    assertEquals(-1.0, polyline.getX(0));
+    assertEquals(0.0, polyline.getX(1));
+    polyline.removePoint(0);
+    polyline.setPoint(3, 30, 31);
+    assertEquals(10, polyline.size());
+    assertEquals(0.0, polyline.getX(0));
+    assertEquals(31.0, polyline.getY(3));
+
+    polyline.clear();
+    assertTrue(polyline.isEmpty());
+    try {
+      polyline.getX(0);
+      fail("IndexOutOfBoundsException expected");
+    } catch (IndexOutOfBoundsException expected) { }
+  }
+
+  /**
+   * Tests the List view.
+   */
+  public void testListView() {
+    List<Point2D> points = new ArrayList<Point2D>();
+    points.add(new Point2D.Double(1, 2));
+    points.add(new Point2D.Double(3, 4));
+    Polyline polyline = new Polyline(points);
+    List<Point2D> view = polyline.asList();
+    assertEquals(points, view);
+    assertSame(view.get(1), view.get(1));
+
+    // the points write through
+    view.get(1).setLocation(5, 6);
+    assertEquals(5.0, polyline.getX(1));
+    assertEquals(6.0, polyline.getY(1));
+
+    // clones are detached
+    Point2D cloned = (Point2D) view.get(0).clone();
+    view.get(0).setLocation(7, 8);
+    assertEquals(new Point2D.Double(1, 2), cloned);
+
+    view.add(new Point2D.Double(9, 10));
+    assertEquals(3, polyline.size());
+    assertEquals(new Point2D.Double(5, 6), view.remove(1));
+    assertEquals(2, polyline.size());
+    assertEquals(9.0, polyline.getX(1));
+    view.clear();
+    assertTrue(polyline.isEmpty());
+  }
+
+  /**
+   * Tests that the points of the List view move with their points and keep
+   * their coordinates after they were removed.
+   */
+  public void testListViewIdentity() {
+    Polyline polyline = new Polyline();
+    polyline.addPoint(1, 2);
+    polyline.addPoint(3, 4);
+    List<Point2D> view = polyline.asList();
+    Point2D second = view.get(1);
+    polyline.addPoint(0, -1, -2);
+    assertSame(second, view.get(2));
+    assertEquals(new Point2D.Double(3, 4), second);
+
+    polyline.removePoint(2);
+    assertEquals(new Point2D.Double(3, 4), second);
+    second.setLocation(5, 6);
+    assertEquals(2, polyline.size());
+    assertEquals(1.0, polyline.getX(1));
+    Point2D first = view.get(0);
+    polyline.clear();
+    assertEquals(new Point2D.Double(-1, -2), first);
+  }
+
+  /**
+   * Tests the clone() method.
+   */
+  public void testClone() {
+    Polyline polyline = new Polyline();
+    polyline.addPoint(1, 2);
+    Polyline cloned = polyline.clone();
+    polyline.setPoint(0, 3, 4);
+    cloned.addPoint(5, 6);
+    assertEquals(1, polyline.size());
+    assertEquals(2, cloned.size());
+    assertEquals(1.0, cloned.getX(0));
+  }
+}
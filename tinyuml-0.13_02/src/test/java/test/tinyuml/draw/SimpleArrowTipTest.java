@@ -19,9 +19,12 @@
  */
 package test.tinyuml.draw;
 
+import java.awt.Shape;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import org.jmock.Mock;
+import org.jmock.core.Constraint;
 import org.jmock.cglib.MockObjectTestCase;
 import org.tinyuml.draw.DrawingContext;
 import org.tinyuml.draw.SimpleArrowTip;
@@ -40,11 +43,45 @@ public class SimpleArrowTipTest extends MockObjectTestCase {
    */
   public void testDraw() {
     Mock mockDrawingContext = mock(DrawingContext.class);
-    Mock mockTransform = mock(AffineTransform.class);
     Point2D endpoint = new Point2D.Double(10.0, 10.0);
-    mockTransform.expects(atLeastOnce()).method("transform");
-    mockDrawingContext.expects(atLeastOnce()).method("drawLine");
+    AffineTransform rotation = AffineTransform.getRotateInstance(1.0, 0.0,
+      10.0, 10.0);
+    mockDrawingContext.expects(once()).method("drawSymbol").
+      with(new SymbolPlacement(), eq(createExpectedTransform(rotation)),
+      NULL);
     arrowtip.draw((DrawingContext) mockDrawingContext.proxy(), endpoint,
-      (AffineTransform) mockTransform.proxy());
+      rotation);
+  }
+
+  /**
+   * The expected transform, the rotation applied to the symbol moved to the
+   * end point.
+   * @param rotation the rotation
+   * @return the transform
+   */
+  private AffineTransform createExpectedTransform(AffineTransform rotation) {
+    AffineTransform expected = new AffineTransform(rotation);
+    expected.translate(10.0, 10.0);
+    return expected;
+  }
+
+  /**
+   * Checks that the symbol is the arrow tip with its tip at the origin.
+   */
+  private static class SymbolPlacement implements Constraint {
+    /**
+     * {@inheritDoc}
+     */
+    public boolean eval(Object o) {
+      Rectangle2D bounds = ((Shape) o).getBounds2D();
+      return bounds.equals(new Rectangle2D.Double(-10, -4, 10, 8));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public StringBuffer describeTo(StringBuffer buffer) {
+      return buffer.append("arrow tip symbol");
+    }
   }
 }
@@ -22,10 +22,16 @@ package test.tinyuml.draw;
 import java.awt.Rectangle;
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.util.ArrayList;
 import java.util.List;
 import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
+import org.tinyuml.draw.AbstractConnection;
 import org.tinyuml.draw.CompositeNode;
 import org.tinyuml.draw.Connection;
 import org.tinyuml.draw.DiagramOperations;
@@ -43,6 +49,26 @@ import org.tinyuml.model.UmlRelation;
  */
 public class SimpleConnectionTest extends MockObjectTestCase {
 
+  /**
+   * A dashed connection with the points (10, 20), (30.5, 40) and (50, 60.25),
+   * serialized by TinyUML 0.13 before the points were stored in a Polyline,
+   * in hexadecimal.
+   */
+  private static final String LEGACY_STREAM =
+    "aced0005737200216f72672e74696e79756d6c2e647261772e53696d706c6543" +
+    "6f6e6e656374696f6e90c1519979eb4a7e020000787200236f72672e74696e79" +
+    "756d6c2e647261772e4162737472616374436f6e6e656374696f6ef1eb786fc8" +
+    "d1d62c0200065a000869734461736865645a0007697356616c69644c00056e6f" +
+    "6465317400174c6f72672f74696e79756d6c2f647261772f4e6f64653b4c0005" +
+    "6e6f64653271007e00024c0006706172656e747400204c6f72672f74696e7975" +
+    "6d6c2f647261772f436f6d706f736974654e6f64653b4c0006706f696e747374" +
+    "00104c6a6176612f7574696c2f4c6973743b78700101707070737200146a6176" +
+    "612e7574696c2e4c696e6b65644c6973740c29535d4a60882203000078707704" +
+    "000000037372001c6a6176612e6177742e67656f6d2e506f696e74324424446f" +
+    "75626c65555bf8ca09a31d5f0200024400017844000179787040240000000000" +
+    "0040340000000000007371007e0008403e800000000000404400000000000073" +
+    "71007e00084049000000000000404e20000000000078";
+
   private Line2D line = new Line2D.Double();
   private UmlRelation association = new UmlRelation();
   private SimpleConnection connection = new SimpleConnection();
@@ -113,7 +139,6 @@ public class SimpleConnectionTest extends MockObjectTestCase {
   public void testInitial() {
     // has no effect
     connection.recalculateSize(drawingContext);
-    // always true at the moment
     assertTrue(connection.isVisible(new Rectangle(0, 0, 120, 100)));
     assertEquals(2, connection.getPoints().size());
     assertNull(connection.getLabelAt(0.0, 0.0));
@@ -264,4 +289,43 @@ public class SimpleConnectionTest extends MockObjectTestCase {
     points.add(new Point2D.Double(231323, 76573));
     points.add(new Point2D.Double(23, 73));    
   }
+
+  /**
+   * Converts a string of hexadecimal digits into bytes.
+   * @param hex the hexadecimal string
+   * @return the bytes
+   */
+  private static byte[] parseHex(String hex) {
+    byte[] result = new byte[hex.length() / 2];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+    return result;
+  }
+
+  /**
+   * Tests reading a connection that was serialized by a previous version.
+   * @throws Exception if an error occurred
+   */
+  public void testReadLegacyStream() throws Exception {
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+      parseHex(LEGACY_STREAM)));
+    SimpleConnection legacy = (SimpleConnection) in.readObject();
+    assertTrue(legacy.isDashed());
+    assertEquals(3, legacy.getPolyline().size());
+    assertEquals(new Point2D.Double(30.5, 40), legacy.getPoints().get(1));
+    assertEquals(new Point2D.Double(50, 60.25), legacy.getPoints().get(2));
+
+    // the points are still serialized as a list
+    assertEquals(List.class, ObjectStreamClass.lookup(AbstractConnection.class)
+      .getField("points").getType());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ObjectOutputStream objectOut = new ObjectOutputStream(out);
+    objectOut.writeObject(legacy);
+    objectOut.close();
+    in = new ObjectInputStream(new ByteArrayInputStream(out.toByteArray()));
+    SimpleConnection written = (SimpleConnection) in.readObject();
+    assertTrue(written.isDashed());
+    assertEquals(legacy.getPoints(), written.getPoints());
+  }
 }
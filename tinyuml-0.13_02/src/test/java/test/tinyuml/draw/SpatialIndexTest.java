@@ -0,0 +1,172 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.draw;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.tinyuml.draw.SpatialIndex;
+
+/**
+ * A test class for SpatialIndex.
+ * @author agent
+ * @version 1.0
+ */
+public class SpatialIndexTest extends TestCase {
+
+  private SpatialIndex<String> index = new SpatialIndex<String>();
+
+  /**
+   * Tests the initial state.
+   */
+  public void testInitial() {
+    assertEquals(0, index.size());
+    assertFalse(index.contains("a"));
+    List<String> result = new ArrayList<String>();
+    index.query(10, 10, result);
+    assertEquals(0, result.size());
+  }
+
+  /**
+   * Tests point queries.
+   */
+  public void testQueryPoint() {
+    index.insert("a", new Rectangle2D.Double(10, 10, 20, 20), 0);
+    index.insert("b", new Rectangle2D.Double(25, 25, 20, 20), 1);
+    assertEquals(2, index.size());
+    List<String> result = new ArrayList<String>();
+    index.query(15, 15, result);
+    assertEquals(1, result.size());
+    assertEquals("a", result.get(0));
+    result.clear();
+    index.query(27, 27, result);
+    assertEquals(2, result.size());
+    result.clear();
+    index.query(100, 100, result);
+    assertEquals(0, result.size());
+    // edges are inclusive
+    result.clear();
+    index.query(45, 45, result);
+    assertEquals(1, result.size());
+    assertEquals("b", result.get(0));
+  }
+
+  /**
+   * Tests area queries, including elements outside of the initial root and
+   * elements with negative coordinates.
+   */
+  public void testQueryArea() {
+    index.insert("a", new Rectangle2D.Double(10, 10, 20, 20), 0);
+    index.insert("far", new Rectangle2D.Double(10000, 8000, 50, 50), 1);
+    index.insert("neg", new Rectangle2D.Double(-300, -200, 50, 50), 2);
+    index.insert("huge", new Rectangle2D.Double(0, 0, 50000, 50000), 3);
+    List<String> result = new ArrayList<String>();
+    index.query(new Rectangle2D.Double(9990, 7990, 20, 20), result);
+    assertEquals(2, result.size());
+    assertEquals("far", result.get(0));
+    assertEquals("huge", result.get(1));
+    result.clear();
+    index.query(new Rectangle2D.Double(-400, -400, 200, 200), result);
+    assertEquals(1, result.size());
+    assertEquals("neg", result.get(0));
+    result.clear();
+    index.query(new Rectangle2D.Double(-1000, -1000, 20000, 20000), result);
+    assertEquals(4, result.size());
+  }
+
+  /**
+   * Tests that the results are sorted by their order values.
+   */
+  public void testOrder() {
+    index.insert("a", new Rectangle2D.Double(0, 0, 100, 100), 5);
+    index.insert("b", new Rectangle2D.Double(10, 10, 10, 10), 2);
+    index.insert("c", new Rectangle2D.Double(500, 500, 10, 10), 3);
+    List<String> result = new ArrayList<String>();
+    index.query(15, 15, result);
+    assertEquals("b", result.get(0));
+    assertEquals("a", result.get(1));
+    index.setOrder("b", 6);
+    result.clear();
+    index.query(15, 15, result);
+    assertEquals("a", result.get(0));
+    assertEquals("b", result.get(1));
+  }
+
+  /**
+   * Tests update() and remove().
+   */
+  public void testUpdateAndRemove() {
+    index.insert("a", new Rectangle2D.Double(10, 10, 20, 20), 0);
+    assertTrue(index.update("a", new Rectangle2D.Double(3000, 10, 20, 20)));
+    assertFalse(index.update("b", new Rectangle2D.Double(0, 0, 10, 10)));
+    List<String> result = new ArrayList<String>();
+    index.query(15, 15, result);
+    assertEquals(0, result.size());
+    index.query(3010, 15, result);
+    assertEquals(1, result.size());
+    assertTrue(index.remove("a"));
+    assertFalse(index.remove("a"));
+    assertEquals(0, index.size());
+    result.clear();
+    index.query(3010, 15, result);
+    assertEquals(0, result.size());
+  }
+
+  /**
+   * Tests that a reusable result is replaced by each query and sorted.
+   */
+  public void testReusableResult() {
+    index.insert("a", new Rectangle2D.Double(0, 0, 100, 100), 5);
+    index.insert("b", new Rectangle2D.Double(10, 10, 10, 10), 2);
+    SpatialIndex.Result<String> result = new SpatialIndex.Result<String>();
+    index.query(15, 15, 15, 15, result);
+    assertEquals(2, result.size());
+    assertEquals("b", result.get(0));
+    assertEquals("a", result.get(1));
+    index.query(50, 50, 60, 60, result);
+    assertEquals(1, result.size());
+    assertEquals("a", result.get(0));
+    result.clear();
+    assertEquals(0, result.size());
+  }
+
+  /**
+   * Compares the index against a linear search with many elements.
+   */
+  public void testManyElements() {
+    List<Rectangle2D> rects = new ArrayList<Rectangle2D>();
+    SpatialIndex<Rectangle2D> rectIndex = new SpatialIndex<Rectangle2D>();
+    for (int i = 0; i < 500; i++) {
+      Rectangle2D rect = new Rectangle2D.Double((i * 37) % 2000,
+        (i * 53) % 1500, 10 + i % 90, 10 + (i * 7) % 60);
+      rects.add(rect);
+      rectIndex.insert(rect, rect, i);
+    }
+    Rectangle2D area = new Rectangle2D.Double(400, 300, 250, 180);
+    List<Rectangle2D> result = new ArrayList<Rectangle2D>();
+    rectIndex.query(area, result);
+    List<Rectangle2D> expected = new ArrayList<Rectangle2D>();
+    for (Rectangle2D rect : rects) {
+      if (rect.intersects(area)) expected.add(rect);
+    }
+    assertEquals(expected, result);
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.draw;
+
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import javax.xml.parsers.DocumentBuilderFactory;
+import junit.framework.TestCase;
+import org.tinyuml.draw.DrawingContext.FontType;
+import org.tinyuml.draw.SvgDrawingContext;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * A test class for SvgDrawingContext.
+ * @author agent
+ * @version 1.0
+ */
+public class SvgDrawingContextTest extends TestCase {
+
+  private static final String XLINK = "http://www.w3.org/1999/xlink";
+  private StringWriter out = new StringWriter();
+  private SvgDrawingContext context = new SvgDrawingContext(out);
+
+  /**
+   * Parses the written document.
+   * @return the document
+   * @throws Exception if the document is not well-formed
+   */
+  private Document parse() throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    return factory.newDocumentBuilder().parse(
+      new ByteArrayInputStream(out.toString().getBytes("UTF-8")));
+  }
+
+  /**
+   * Tests the document structure and the written elements.
+   * @throws Exception if an error occurred
+   */
+  public void testWriteDocument() throws Exception {
+    context.setTextAsShapes(false);
+    context.startDocument(300, 200);
+    assertEquals(300, context.getClipBounds().width);
+    context.drawRectangle(10, 10, 50.5, 20, Color.WHITE);
+    context.fillRectangle(0, 0, 5, 5, new Color(255, 0, 0));
+    context.drawLabel("a < b & \"c\"", 12, 25.125, FontType.ABSTRACT_ELEMENT);
+    context.drawDashedLine(0, 0, 10, 10);
+    context.endDocument();
+    assertNull(context.getError());
+
+    Document doc = parse();
+    Element svg = doc.getDocumentElement();
+    assertEquals("svg", svg.getTagName());
+    assertEquals("300", svg.getAttribute("width"));
+    NodeList rects = doc.getElementsByTagName("rect");
+    assertEquals(2, rects.getLength());
+    Element rect = (Element) rects.item(0);
+    assertEquals("50.5", rect.getAttribute("width"));
+    assertEquals("#ffffff", rect.getAttribute("fill"));
+    assertEquals("#ff0000", ((Element) rects.item(1)).getAttribute("fill"));
+    Element text = (Element) doc.getElementsByTagName("text").item(0);
+    assertEquals("a < b & \"c\"", text.getTextContent());
+    assertEquals("25.13", text.getAttribute("y"));
+    assertEquals("bold", text.getAttribute("font-weight"));
+    assertEquals("italic", text.getAttribute("font-style"));
+    Element path = (Element) doc.getElementsByTagName("path").item(0);
+    assertEquals("M0 0L10 10", path.getAttribute("d"));
+    assertEquals("4,6", path.getAttribute("stroke-dasharray"));
+  }
+
+  /**
+   * Tests that symbols are defined once and that the lines of a batch are
+   * written within their element's group.
+   * @throws Exception if an error occurred
+   */
+  public void testSymbolsAndGroups() throws Exception {
+    GeneralPath triangle = new GeneralPath();
+    triangle.moveTo(0, 0);
+    triangle.lineTo(5, 5);
+    triangle.lineTo(0, 5);
+    triangle.closePath();
+    context.startDocument(100, 100);
+    context.beginBatch();
+    context.beginGroup(new MyCompositeNode());
+    context.drawLine(0, 0, 10, 0);
+    context.drawSymbol(triangle, AffineTransform.getTranslateInstance(10, 0),
+      Color.BLACK);
+    context.endGroup();
+    context.drawSymbol(triangle, AffineTransform.getRotateInstance(Math.PI),
+      null);
+    context.endBatch();
+    context.endDocument();
+    assertEquals(1, context.getSymbolCount());
+
+    Document doc = parse();
+    Element symbol = (Element) doc.getElementsByTagName("defs").item(0)
+      .getFirstChild();
+    assertEquals("M0 0L5 5L0 5Z", symbol.getAttribute("d"));
+    NodeList uses = doc.getElementsByTagName("use");
+    assertEquals(2, uses.getLength());
+    Element use = (Element) uses.item(0);
+    assertEquals("#s1", use.getAttributeNS(XLINK, "href"));
+    assertEquals("translate(10 0)", use.getAttribute("transform"));
+    assertEquals("#000000", use.getAttribute("fill"));
+    assertEquals("matrix(-1 0 0 -1 0 0)",
+      ((Element) uses.item(1)).getAttribute("transform"));
+    Element group = (Element) use.getParentNode();
+    assertEquals("MyCompositeNode", group.getAttribute("class"));
+    assertEquals("M0 0L10 0",
+      ((Element) group.getElementsByTagName("path").item(0)).getAttribute("d"));
+  }
+
+  /**
+   * Tests that text is written as glyph outlines that are defined once.
+   * @throws Exception if an error occurred
+   */
+  public void testTextAsShapes() throws Exception {
+    context.startDocument(100, 100);
+    context.drawLabel("a a", 10, 20, FontType.DEFAULT);
+    context.drawLabel("a", 10, 40, FontType.DEFAULT);
+    context.endDocument();
+    assertEquals(1, context.getGlyphCount());
+
+    Document doc = parse();
+    assertEquals(0, doc.getElementsByTagName("text").getLength());
+    NodeList uses = doc.getElementsByTagName("use");
+    assertEquals(3, uses.getLength());
+    Element use = (Element) uses.item(0);
+    assertEquals("#g1", use.getAttributeNS(XLINK, "href"));
+    assertEquals("10", use.getAttribute("x"));
+    assertEquals("20", use.getAttribute("y"));
+    assertEquals("a a", ((Element) use.getParentNode()).getAttribute(
+      "aria-label"));
+  }
+
+  /**
+   * Tests that the first I/O error is recorded.
+   */
+  public void testError() {
+    final IOException error = new IOException("disk full");
+    Writer failing = new Writer() {
+      public void write(char[] cbuf, int off, int len) throws IOException {
+        throw error;
+      }
+      public void flush() { }
+      public void close() { }
+    };
+    SvgDrawingContext failingContext = new SvgDrawingContext(failing);
+    failingContext.startDocument(10, 10);
+    failingContext.drawLine(0, 0, 1, 1);
+    failingContext.endDocument();
+    assertSame(error, failingContext.getError());
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.draw;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import junit.framework.TestCase;
+import org.tinyuml.draw.DrawingContext.FontType;
+import org.tinyuml.draw.TextMeasurementCache;
+
+/**
+ * A test class for TextMeasurementCache.
+ * @author agent
+ * @version 1.0
+ */
+public class TextMeasurementCacheTest extends TestCase {
+
+  private TextMeasurementCache cache = new TextMeasurementCache(2);
+  private Graphics2D g2d =
+    new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+  private FontMetrics fontMetrics =
+    g2d.getFontMetrics(new Font("Arial", Font.PLAIN, 12));
+
+  /**
+   * Tests that texts are measured once.
+   */
+  public void testHitsAndMisses() {
+    int width = cache.getStringWidth(FontType.DEFAULT, "text", fontMetrics);
+    assertEquals(fontMetrics.stringWidth("text"), width);
+    assertEquals(width, cache.getStringWidth(FontType.DEFAULT, "text",
+      fontMetrics));
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+    // different font types and render contexts are cached separately
+    cache.getStringWidth(FontType.ELEMENT_NAME, "text", fontMetrics);
+    assertEquals(2, cache.getMissCount());
+    g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS,
+      RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+    cache.getStringWidth(FontType.DEFAULT, "text",
+      g2d.getFontMetrics(fontMetrics.getFont()));
+    assertEquals(3, cache.getMissCount());
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getMissCount());
+  }
+
+  /**
+   * Tests that the least recently used texts are discarded.
+   */
+  public void testEviction() {
+    cache.getStringWidth(FontType.DEFAULT, "a", fontMetrics);
+    cache.getStringWidth(FontType.DEFAULT, "b", fontMetrics);
+    cache.getStringWidth(FontType.DEFAULT, "a", fontMetrics);
+    cache.getStringWidth(FontType.DEFAULT, "c", fontMetrics);
+    assertEquals(2, cache.size());
+    assertEquals(3, cache.getMissCount());
+    cache.getStringWidth(FontType.DEFAULT, "a", fontMetrics);
+    assertEquals(3, cache.getMissCount());
+    cache.getStringWidth(FontType.DEFAULT, "b", fontMetrics);
+    assertEquals(4, cache.getMissCount());
+  }
+}
@@ -0,0 +1,482 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.ui.commands;
+
+import java.awt.geom.Point2D;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.*;
+import org.tinyuml.draw.DiagramElement;
+import org.tinyuml.draw.Node;
+import org.tinyuml.draw.SimpleConnection;
+import org.tinyuml.model.ElementType;
+import org.tinyuml.model.Multiplicity;
+import org.tinyuml.model.Relation.ReadingDirection;
+import org.tinyuml.model.RelationType;
+import org.tinyuml.model.UmlClass;
+import org.tinyuml.model.UmlModel;
+import org.tinyuml.model.UmlModelImpl;
+import org.tinyuml.model.UmlProperty;
+import org.tinyuml.model.UmlRelation;
+import org.tinyuml.model.UmlStereotype;
+import org.tinyuml.ui.commands.BinaryModelInput;
+import org.tinyuml.ui.commands.BinaryModelOutput;
+import org.tinyuml.ui.commands.BinaryModelReader;
+import org.tinyuml.ui.commands.BinaryModelWriter;
+import org.tinyuml.ui.commands.LazyDiagramList;
+import org.tinyuml.ui.commands.ModelReader;
+import org.tinyuml.ui.commands.ModelWriter;
+import org.tinyuml.umldraw.shared.NoteElement;
+import org.tinyuml.umldraw.shared.UmlConnection;
+import org.tinyuml.umldraw.shared.UmlNode;
+import org.tinyuml.umldraw.structure.Association;
+import org.tinyuml.umldraw.structure.ClassElement;
+import org.tinyuml.umldraw.structure.DiagramElementFactory;
+import org.tinyuml.umldraw.structure.PackageElement;
+import org.tinyuml.umldraw.structure.StructureDiagram;
+
+/**
+ * Tests the binary model format.
+ * @author agent
+ * @version 1.0
+ */
+public class BinaryModelReaderTest extends TestCase {
+
+  private UmlModel model;
+  private StructureDiagram diagram;
+  private DiagramElementFactory factory;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void setUp() {
+    model = new UmlModelImpl();
+    diagram = new StructureDiagram(model);
+    diagram.setName("Main");
+    diagram.setGridSize(7);
+    model.addDiagram(diagram);
+    factory = diagram.getElementFactory();
+  }
+
+  /**
+   * Adds a node to the specified parent.
+   * @param parent the parent
+   * @param type the element type
+   * @param x the x position
+   * @param y the y position
+   * @return the node
+   */
+  private UmlNode addNode(PackageElement parent, ElementType type, double x,
+    double y) {
+    UmlNode node = factory.createNode(type);
+    if (parent == null) diagram.addChild(node); else parent.addChild(node);
+    node.setOrigin(x, y);
+    return node;
+  }
+
+  /**
+   * Adds a connection to the diagram.
+   * @param type the relation type
+   * @param node1 the first node
+   * @param node2 the second node
+   * @param coords the point coordinates
+   * @return the connection
+   */
+  private UmlConnection addConnection(RelationType type, UmlNode node1,
+    UmlNode node2, double... coords) {
+    UmlConnection conn = factory.createConnection(type, node1, node2);
+    List<Point2D> points = new ArrayList<Point2D>();
+    for (int i = 0; i < coords.length; i += 2) {
+      points.add(new Point2D.Double(coords[i], coords[i + 1]));
+    }
+    conn.setPoints(points);
+    diagram.addChild(conn);
+    return conn;
+  }
+
+  /**
+   * Writes the model and reads it back.
+   * @return the model that was read
+   * @throws IOException if an error occurred
+   */
+  private UmlModel writeAndRead() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BinaryModelWriter().writeModel(model, out);
+    return new BinaryModelReader().readModel(
+      ByteBuffer.wrap(out.toByteArray()));
+  }
+
+  /**
+   * Tests that the structure and the data of a diagram survive a round trip.
+   * @throws IOException if an error occurred
+   */
+  public void testRoundTrip() throws IOException {
+    ClassElement class1 =
+      (ClassElement) addNode(null, ElementType.CLASS, 14, 21.5);
+    class1.setSize(130.25, 90);
+    UmlClass umlclass = (UmlClass) class1.getModelElement();
+    umlclass.setName("Person");
+    umlclass.setAbstract(true);
+    UmlProperty attribute = (UmlProperty) UmlProperty.getPrototype().clone();
+    attribute.setName("name : String");
+    umlclass.setAttributes(Arrays.asList(attribute));
+    umlclass.setMethods(new ArrayList<UmlProperty>());
+    UmlStereotype stereotype =
+      (UmlStereotype) UmlStereotype.getPrototype().clone();
+    stereotype.setName("entity");
+    umlclass.setStereotypes(Arrays.asList(stereotype));
+    class1.setShowAttributes(true);
+    class1.setShowOperations(false);
+    class1.setShowStereotypes(true);
+    PackageElement pkg =
+      (PackageElement) addNode(null, ElementType.PACKAGE, 300, 40);
+    pkg.getModelElement().setName("util");
+    UmlNode component = addNode(pkg, ElementType.COMPONENT, 10, 30);
+    component.getModelElement().setName("Störung");
+    NoteElement note = (NoteElement) addNode(null, ElementType.NOTE, 50, 400);
+    note.setLabelText("a note\nwith two lines");
+
+    Association assoc = (Association) addConnection(RelationType.AGGREGATION,
+      class1, component, 144.25, 60, 200, 60, 200, 1.0 / 3, 310, 1.0 / 3);
+    UmlRelation relation = (UmlRelation) assoc.getModelElement();
+    relation.setName("uses");
+    relation.setNavigableToElement2(true);
+    relation.setNameReadingDirection(ReadingDirection.RIGHT_LEFT);
+    relation.setElement1Multiplicity(Multiplicity.getBoundedInstance(0, 1));
+    relation.setElement2Multiplicity(Multiplicity.getUnboundedInstance(1));
+    assoc.setShowName(true);
+    UmlConnection inheritance = addConnection(RelationType.INHERITANCE,
+      component, class1, 320, 80, 80, 111.5);
+    SimpleConnection simple = new SimpleConnection();
+    simple.copyData(inheritance.getConnection());
+    inheritance.setConnection(simple);
+    inheritance.setPoints(new ArrayList<Point2D>(Arrays.asList(
+      new Point2D.Double(320, 80), new Point2D.Double(80, 111.5))));
+    UmlConnection noteConnection = addConnection(RelationType.NOTE_CONNECTOR,
+      note, class1, 60, 400, 60, 111.5);
+    noteConnection.invalidate();
+    diagram.setSize(1234.5, 987);
+
+    UmlModel result = writeAndRead();
+    assertEquals(1, result.getDiagrams().size());
+    StructureDiagram diagram2 = (StructureDiagram) result.getDiagrams().get(0);
+    assertEquals("Main", diagram2.getName());
+    assertEquals(7, diagram2.getGridSize());
+    assertEquals(1234.5, diagram2.getSize().getWidth());
+    assertEquals(987.0, diagram2.getSize().getHeight());
+    List<DiagramElement> children = diagram2.getChildren();
+    assertEquals(6, children.size());
+
+    ClassElement class2 = (ClassElement) children.get(0);
+    UmlClass umlclass2 = (UmlClass) class2.getModelElement();
+    assertEquals("Person", umlclass2.getName());
+    assertTrue(umlclass2.isAbstract());
+    assertEquals("name : String", umlclass2.getAttributes().get(0).getName());
+    assertEquals(0, umlclass2.getMethods().size());
+    assertEquals("entity", umlclass2.getStereotypes().get(0).getName());
+    assertTrue(class2.showAttributes());
+    assertFalse(class2.showOperations());
+    assertTrue(class2.showStereotypes());
+    assertEquals(new Point2D.Double(14, 21.5), class2.getOrigin());
+    assertEquals(130.25, class2.getSize().getWidth());
+    assertSame(diagram2, class2.getParent());
+
+    PackageElement pkg2 = (PackageElement) children.get(1);
+    assertEquals("util", pkg2.getModelElement().getName());
+    assertEquals(pkg.getSize(), pkg2.getSize());
+    Node component2 = (Node) pkg2.getChildren().get(0);
+    assertEquals("Störung",
+      ((UmlNode) component2).getModelElement().getName());
+    assertEquals(new Point2D.Double(10, 30), component2.getOrigin());
+    assertEquals(component.getAbsoluteX1(), component2.getAbsoluteX1());
+    assertEquals("a note\nwith two lines",
+      ((NoteElement) children.get(2)).getLabelText());
+
+    Association assoc2 = (Association) children.get(3);
+    assertSame(class2, assoc2.getNode1());
+    assertSame(component2, assoc2.getNode2());
+    assertEquals(Association.AssociationType.AGGREGATION,
+      assoc2.getAssociationType());
+    assertTrue(assoc2.isRectilinear());
+    assertTrue(assoc2.isValid());
+    assertEquals(assoc.getPoints(), assoc2.getPoints());
+    assertTrue(assoc2.showName());
+    assertFalse(assoc2.showMultiplicities());
+    UmlRelation relation2 = (UmlRelation) assoc2.getModelElement();
+    assertEquals("uses", relation2.getName());
+    assertFalse(relation2.isNavigableToElement1());
+    assertTrue(relation2.isNavigableToElement2());
+    assertEquals(ReadingDirection.RIGHT_LEFT,
+      relation2.getNameReadingDirection());
+    assertEquals(Multiplicity.getBoundedInstance(0, 1),
+      relation2.getElement1Multiplicity());
+    assertEquals(Multiplicity.getUnboundedInstance(1),
+      relation2.getElement2Multiplicity());
+    assertSame(umlclass2, relation2.getElement1());
+    assertTrue(class2.getConnections().contains(assoc2));
+
+    UmlConnection inheritance2 = (UmlConnection) children.get(4);
+    assertFalse(inheritance2.isRectilinear());
+    assertSame(component2, inheritance2.getNode1());
+    assertEquals(inheritance.getPoints(), inheritance2.getPoints());
+    UmlConnection noteConnection2 = (UmlConnection) children.get(5);
+    assertSame(children.get(2), noteConnection2.getNode1());
+    assertNull(noteConnection2.getModelElement());
+    assertFalse(noteConnection2.isValid());
+  }
+
+  /**
+   * Tests the coordinate encoding, which has to be lossless.
+   * @throws IOException if an error occurred
+   */
+  public void testCoordinates() throws IOException {
+    double[] values = { 0, 1, -1, 12.5, 1.0 / 64, 1.0 / 3, -1234567.75,
+      Double.MAX_VALUE, Double.NaN, Double.NEGATIVE_INFINITY, 0, -0.0, 0 };
+    BinaryModelOutput out = new BinaryModelOutput(16);
+    double reference = 0;
+    for (double value : values) {
+      out.writeCoordinate(value, reference);
+      reference = value;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    out.writeTo(bytes);
+    BinaryModelInput in =
+      new BinaryModelInput(ByteBuffer.wrap(bytes.toByteArray()));
+    reference = 0;
+    for (double value : values) {
+      reference = in.readCoordinate(reference);
+      assertEquals(Double.doubleToLongBits(value),
+        Double.doubleToLongBits(reference));
+    }
+    // small integral differences take one byte, fractions two bytes
+    out = new BinaryModelOutput(16);
+    out.writeCoordinate(30, 20);
+    assertEquals(1, out.size());
+    out.writeCoordinate(20.5, 20);
+    assertEquals(3, out.size());
+  }
+
+  /**
+   * Tests that diagrams are only decoded when they are accessed and that
+   * diagrams which were never accessed are written back unchanged.
+   * @throws IOException if an error occurred
+   */
+  public void testLazyLoading() throws IOException {
+    addNode(null, ElementType.CLASS, 10, 10);
+    StructureDiagram diagram2 = new StructureDiagram(model);
+    diagram2.setName("Second");
+    model.addDiagram(diagram2);
+    diagram2.addChild(diagram2.getElementFactory().createNode(
+      ElementType.NOTE));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BinaryModelWriter().writeModel(model, out);
+    UmlModel result = writeAndRead();
+    LazyDiagramList diagrams = (LazyDiagramList) result.getDiagrams();
+    assertEquals(2, diagrams.size());
+    assertFalse(diagrams.isLoaded(0));
+    assertFalse(diagrams.isLoaded(1));
+    assertEquals("Main", diagrams.getDiagramName(0));
+    assertEquals("Second", diagrams.getDiagramName(1));
+
+    assertEquals("Main", diagrams.get(0).getName());
+    assertTrue(diagrams.isLoaded(0));
+    assertFalse(diagrams.isLoaded(1));
+    assertNull(diagrams.getChunk(0));
+
+    ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+    new BinaryModelWriter().writeModel(result, out2);
+    assertTrue(Arrays.equals(out.toByteArray(), out2.toByteArray()));
+    assertFalse(diagrams.isLoaded(1));
+
+    UmlModel result2 = new BinaryModelReader().readModel(
+      ByteBuffer.wrap(out2.toByteArray()));
+    StructureDiagram second = (StructureDiagram) result2.getDiagrams().get(1);
+    assertEquals("Second", second.getName());
+    assertTrue(second.getChildren().get(0) instanceof NoteElement);
+  }
+
+  /**
+   * Tests that compressed files are read lazily and that compressed chunks
+   * are copied or decompressed when the model is written again.
+   * @throws IOException if an error occurred
+   */
+  public void testCompression() throws IOException {
+    for (int i = 0; i < 20; i++) {
+      addNode(null, ElementType.CLASS, 10 + i * 140, 10);
+    }
+    ByteArrayOutputStream plain = new ByteArrayOutputStream();
+    new BinaryModelWriter().writeModel(model, plain);
+    BinaryModelWriter writer = new BinaryModelWriter();
+    writer.setCompressionLevel(6);
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    writer.writeModel(model, compressed);
+    assertTrue(compressed.size() < plain.size());
+
+    UmlModel result = new BinaryModelReader().readModel(
+      ByteBuffer.wrap(compressed.toByteArray()));
+    LazyDiagramList diagrams = (LazyDiagramList) result.getDiagrams();
+    assertNotNull(diagrams.getCompressedChunk(0));
+    ByteArrayOutputStream copy = new ByteArrayOutputStream();
+    writer.writeModel(result, copy);
+    assertTrue(Arrays.equals(compressed.toByteArray(), copy.toByteArray()));
+    ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+    new BinaryModelWriter().writeModel(result, uncompressed);
+    assertTrue(Arrays.equals(plain.toByteArray(),
+      uncompressed.toByteArray()));
+
+    StructureDiagram diagram2 = (StructureDiagram) diagrams.get(0);
+    assertEquals(20, diagram2.getChildren().size());
+    assertNull(diagrams.getCompressedChunk(0));
+
+    byte[] corrupt = compressed.toByteArray();
+    corrupt[corrupt.length - 10] ^= 0x55;
+    result = new BinaryModelReader().readModel(ByteBuffer.wrap(corrupt));
+    try {
+      result.getDiagrams().get(0);
+      fail("corrupt data should not be accepted");
+    } catch (IllegalStateException expected) { }
+  }
+
+  /**
+   * Tests that all diagrams are decoded by worker threads and that a corrupt
+   * diagram does not prevent the others from being loaded.
+   * @throws IOException if an error occurred
+   */
+  public void testLoadAll() throws IOException {
+    for (int i = 1; i < 6; i++) {
+      StructureDiagram other = new StructureDiagram(model);
+      other.setName("Diagram " + i);
+      model.addDiagram(other);
+      for (int j = 0; j < i; j++) {
+        other.addChild(other.getElementFactory().createNode(
+          ElementType.CLASS));
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryModelWriter writer = new BinaryModelWriter();
+    writer.setCompressionLevel(1);
+    writer.writeModel(model, out);
+    UmlModel result = new BinaryModelReader().readModel(
+      ByteBuffer.wrap(out.toByteArray()));
+    LazyDiagramList diagrams = (LazyDiagramList) result.getDiagrams();
+    diagrams.get(2);
+    diagrams.loadAll(3);
+    for (int i = 1; i < 6; i++) {
+      assertTrue(diagrams.isLoaded(i));
+      StructureDiagram diagram2 = (StructureDiagram) diagrams.get(i);
+      assertEquals("Diagram " + i, diagram2.getName());
+      assertEquals(i, diagram2.getChildren().size());
+    }
+
+    result = new BinaryModelReader().readModel(
+      ByteBuffer.wrap(out.toByteArray()));
+    diagrams = (LazyDiagramList) result.getDiagrams();
+    diagrams.setChunk(3, "Corrupt", ByteBuffer.wrap(new byte[] { 5, 1 }));
+    try {
+      diagrams.loadAll(2);
+      fail("corrupt data should not be accepted");
+    } catch (IOException expected) { }
+    assertFalse(diagrams.isLoaded(3));
+    assertTrue(diagrams.isLoaded(5));
+  }
+
+  /**
+   * Tests that strings are decoded from buffers that are not backed by an
+   * array, as the buffers of mapped files.
+   * @throws IOException if an error occurred
+   */
+  public void testStringsFromDirectBuffer() throws IOException {
+    BinaryModelOutput out = new BinaryModelOutput(16);
+    out.writeRawString("Customer");
+    out.writeRawString("Gr\u00f6\u00dfe \u20ac");
+    out.writeRawString("");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    out.writeTo(bytes);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+    buffer.put(bytes.toByteArray());
+    buffer.flip();
+    BinaryModelInput in = new BinaryModelInput(buffer);
+    assertEquals("Customer", in.readRawString());
+    assertEquals("Gr\u00f6\u00dfe \u20ac", in.readRawString());
+    assertEquals("", in.readRawString());
+    assertFalse(buffer.hasRemaining());
+  }
+
+  /**
+   * Tests that corrupt data is reported as an IOException.
+   */
+  public void testCorruptData() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    addNode(null, ElementType.CLASS, 10, 10);
+    try {
+      new BinaryModelWriter().writeModel(model, out);
+    } catch (IOException ex) {
+      fail("writing failed");
+    }
+    byte[] data = out.toByteArray();
+    byte[] truncated = Arrays.copyOf(data, data.length - 3);
+    try {
+      new BinaryModelReader().readModel(ByteBuffer.wrap(truncated));
+      fail("truncated data should not be accepted");
+    } catch (IOException expected) { }
+    data[4] = 99;
+    try {
+      new BinaryModelReader().readModel(ByteBuffer.wrap(data));
+      fail("unknown version should not be accepted");
+    } catch (IOException expected) { }
+  }
+
+  /**
+   * Tests that ModelWriter writes the binary format and ModelReader reads
+   * both the binary and the serialized format.
+   * @throws IOException if an error occurred
+   */
+  public void testReadBinaryAndSerializedFiles() throws IOException {
+    addNode(null, ElementType.CLASS, 10, 10);
+    File file = File.createTempFile("tinyuml", ".tsm");
+    try {
+      file.delete();
+      ModelWriter.getInstance().writeModel(null, file, model);
+      UmlModel result = ModelReader.getInstance().readModel(file);
+      assertEquals("Main", result.getDiagrams().get(0).getName());
+
+      ObjectOutputStream out =
+        new ObjectOutputStream(new FileOutputStream(file));
+      out.writeObject(model);
+      out.close();
+      result = ModelReader.getInstance().readModel(file);
+      StructureDiagram diagram2 =
+        (StructureDiagram) result.getDiagrams().get(0);
+      assertEquals("Main", diagram2.getName());
+      assertEquals(1, diagram2.getChildren().size());
+    } finally {
+      file.delete();
+    }
+  }
+}
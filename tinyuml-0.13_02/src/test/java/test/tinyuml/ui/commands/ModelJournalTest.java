@@ -0,0 +1,203 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.ui.commands;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import javax.swing.SwingUtilities;
+import junit.framework.*;
+import org.tinyuml.model.ElementType;
+import org.tinyuml.model.UmlModel;
+import org.tinyuml.model.UmlModelImpl;
+import org.tinyuml.ui.commands.ModelJournal;
+import org.tinyuml.ui.commands.ModelReader;
+import org.tinyuml.ui.commands.ModelWriter;
+import org.tinyuml.umldraw.structure.StructureDiagram;
+
+/**
+ * Tests the ModelJournal class.
+ * @author agent
+ * @version 1.0
+ */
+public class ModelJournalTest extends TestCase {
+
+  private File dir;
+  private File modelFile;
+  private UmlModel model;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("tinyuml", "");
+    dir.delete();
+    dir.mkdir();
+    UmlModel original = new UmlModelImpl();
+    for (String name : new String[] { "First", "Second" }) {
+      StructureDiagram diagram = new StructureDiagram(original);
+      diagram.setName(name);
+      original.addDiagram(diagram);
+      addClass(diagram);
+    }
+    modelFile = ModelWriter.getInstance().writeModel(null,
+      new File(dir, "model"), original);
+    model = ModelReader.getInstance().readModel(modelFile);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void tearDown() {
+    for (File file : dir.listFiles()) file.delete();
+    dir.delete();
+  }
+
+  /**
+   * Adds a class to the diagram.
+   * @param diagram the diagram
+   */
+  private void addClass(StructureDiagram diagram) {
+    diagram.addChild(diagram.getElementFactory().createNode(
+      ElementType.CLASS));
+  }
+
+  /**
+   * Returns the diagram at the specified index.
+   * @param aModel the model
+   * @param index the index
+   * @return the diagram
+   */
+  private StructureDiagram getDiagram(UmlModel aModel, int index) {
+    return (StructureDiagram) aModel.getDiagrams().get(index);
+  }
+
+  /**
+   * Tests that the recorded changes are recovered and that a record that was
+   * not written completely is ignored.
+   * @throws IOException if an error occurred
+   */
+  public void testFlushAndRecover() throws IOException {
+    ModelJournal journal = new ModelJournal(modelFile);
+    File journalFile = ModelJournal.getJournalFile(modelFile);
+    assertFalse(ModelJournal.canRecover(modelFile));
+    journal.flush(model);
+    journal.waitForWrites();
+    assertFalse(journalFile.exists());
+
+    StructureDiagram second = getDiagram(model, 1);
+    addClass(second);
+    journal.diagramModified(second);
+    journal.flush(model);
+    journal.waitForWrites();
+    assertTrue(ModelJournal.canRecover(modelFile));
+    long length = journalFile.length();
+
+    second.setName("Renamed");
+    journal.diagramModified(second);
+    journal.flush(model);
+    journal.waitForWrites();
+    RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+    file.setLength(journalFile.length() - 2);
+    file.close();
+    assertTrue(journalFile.length() > length);
+
+    UmlModel recovered = ModelJournal.recover(modelFile);
+    assertEquals(2, recovered.getDiagrams().size());
+    assertEquals("First", getDiagram(recovered, 0).getName());
+    assertEquals(1, getDiagram(recovered, 0).getChildren().size());
+    assertEquals("Second", getDiagram(recovered, 1).getName());
+    assertEquals(2, getDiagram(recovered, 1).getChildren().size());
+  }
+
+  /**
+   * Tests that records which were encoded while the model was modified are
+   * not written, the diagram is recorded again with the next flush.
+   * @throws Exception if an error occurred
+   */
+  public void testModifiedWhileEncoding() throws Exception {
+    final ModelJournal journal = new ModelJournal(modelFile);
+    final StructureDiagram second = getDiagram(model, 1);
+    SwingUtilities.invokeAndWait(new Runnable() {
+      public void run() {
+        try {
+          addClass(second);
+          journal.diagramModified(second);
+          journal.flush(model);
+          addClass(second);
+          journal.diagramModified(second);
+          journal.waitForWrites();
+        } catch (IOException ex) {
+          fail(ex.getMessage());
+        }
+      }
+    });
+    assertFalse(ModelJournal.canRecover(modelFile));
+    journal.flush(model);
+    journal.waitForWrites();
+    UmlModel recovered = ModelJournal.recover(modelFile);
+    assertEquals(3, getDiagram(recovered, 1).getChildren().size());
+  }
+
+  /**
+   * Tests that a compacted journal contains the whole model.
+   * @throws IOException if an error occurred
+   */
+  public void testCompact() throws IOException {
+    ModelJournal journal = new ModelJournal(modelFile);
+    StructureDiagram first = getDiagram(model, 0);
+    addClass(first);
+    addClass(first);
+    journal.compact(model);
+    journal.waitForWrites();
+    addClass(getDiagram(model, 1));
+    journal.diagramModified(getDiagram(model, 1));
+    journal.flush(model);
+    journal.waitForWrites();
+
+    UmlModel recovered = ModelJournal.recover(modelFile);
+    assertEquals(3, getDiagram(recovered, 0).getChildren().size());
+    assertEquals(2, getDiagram(recovered, 1).getChildren().size());
+  }
+
+  /**
+   * Tests that a journal is not recovered if the model file was changed and
+   * that a journal is deleted when the model was saved.
+   * @throws IOException if an error occurred
+   */
+  public void testJournalMatchesModelFile() throws IOException {
+    ModelJournal journal = new ModelJournal(modelFile);
+    journal.diagramModified(getDiagram(model, 0));
+    journal.flush(model);
+    journal.waitForWrites();
+    assertTrue(ModelJournal.canRecover(modelFile));
+    modelFile.setLastModified(modelFile.lastModified() - 10000);
+    assertFalse(ModelJournal.canRecover(modelFile));
+
+    journal.saveStarted();
+    journal.diagramModified(getDiagram(model, 0));
+    journal.flush(model);
+    journal.waitForWrites();
+    journal.saveFinished(modelFile);
+    assertFalse(ModelJournal.getJournalFile(modelFile).exists());
+  }
+}
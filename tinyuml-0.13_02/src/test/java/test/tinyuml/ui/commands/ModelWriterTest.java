@@ -0,0 +1,170 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.ui.commands;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.*;
+import org.tinyuml.model.ElementType;
+import org.tinyuml.model.UmlModel;
+import org.tinyuml.model.UmlModelImpl;
+import org.tinyuml.ui.commands.BinaryModelOutput;
+import org.tinyuml.ui.commands.BinaryModelWriter;
+import org.tinyuml.ui.commands.LazyDiagramList;
+import org.tinyuml.ui.commands.ModelReader;
+import org.tinyuml.ui.commands.ModelSaveListener;
+import org.tinyuml.ui.commands.ModelWriter;
+import org.tinyuml.umldraw.shared.UmlNode;
+import org.tinyuml.umldraw.structure.StructureDiagram;
+
+/**
+ * Tests the ModelWriter class.
+ * @author agent
+ * @version 1.0
+ */
+public class ModelWriterTest extends TestCase {
+
+  private File dir;
+  private File savedFile;
+  private IOException saveException;
+  private CountDownLatch finished = new CountDownLatch(1);
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void setUp() throws IOException {
+    dir = File.createTempFile("tinyuml", "");
+    dir.delete();
+    dir.mkdir();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void tearDown() {
+    for (File file : dir.listFiles()) file.delete();
+    dir.delete();
+  }
+
+  /**
+   * Tests that a background save writes the state of the model at the time
+   * the save was requested, even if the model is changed afterwards.
+   * @throws Exception if an error occurred
+   */
+  public void testSaveWritesSnapshot() throws Exception {
+    UmlModel model = new UmlModelImpl();
+    StructureDiagram diagram = new StructureDiagram(model);
+    diagram.setName("Main");
+    model.addDiagram(diagram);
+    diagram.addChild(diagram.getElementFactory().createNode(
+      ElementType.CLASS));
+
+    File file = ModelWriter.getInstance().saveModel(null,
+      new File(dir, "model"), model, new ModelSaveListener() {
+        public void saveProgress(File aFile, int percent) { }
+        public void saveFinished(File aFile) {
+          savedFile = aFile;
+          finished.countDown();
+        }
+        public void saveFailed(File aFile, IOException ex) {
+          saveException = ex;
+          finished.countDown();
+        }
+      });
+    // changes after the call must not end up in the file
+    diagram.setName("Changed");
+    diagram.addChild(diagram.getElementFactory().createNode(
+      ElementType.NOTE));
+
+    assertEquals("model.tsm", file.getName());
+    assertTrue(finished.await(10, TimeUnit.SECONDS));
+    assertNull(saveException);
+    assertEquals(file, savedFile);
+    LazyDiagramList diagrams = (LazyDiagramList)
+      ModelReader.getInstance().readModel(file).getDiagrams();
+    // files are not compressed by default
+    assertEquals(-1, diagrams.getUncompressedSize(0));
+    StructureDiagram result = (StructureDiagram) diagrams.get(0);
+    assertEquals("Main", result.getName());
+    assertEquals(1, result.getChildren().size());
+    // the temporary file was renamed
+    assertEquals(1, dir.listFiles().length);
+  }
+
+  /**
+   * Tests saving a model over the file it was read from, when the file is
+   * large enough to be mapped into memory. The file is overwritten in place,
+   * so the diagrams that were not loaded yet must not refer to it anymore.
+   * @throws Exception if an error occurred
+   */
+  public void testSaveOverMappedFile() throws Exception {
+    UmlModel model = new UmlModelImpl();
+    Random random = new Random(4711);
+    for (int i = 0; i < 3; i++) {
+      StructureDiagram diagram = new StructureDiagram(model);
+      diagram.setName("Diagram " + i);
+      model.addDiagram(diagram);
+      for (int j = 0; j < 3000; j++) {
+        UmlNode node = diagram.getElementFactory().createNode(
+          ElementType.CLASS);
+        node.getModelElement().setName(Long.toHexString(random.nextLong()) +
+          Long.toHexString(random.nextLong()));
+        diagram.addChild(node);
+      }
+    }
+    File file = new File(dir, "large.tsm");
+    FileOutputStream out = new FileOutputStream(file);
+    try {
+      new BinaryModelWriter().writeModel(model, out);
+    } finally {
+      out.close();
+    }
+    assertTrue(file.length() >= 256 * 1024);
+
+    UmlModel opened = ModelReader.getInstance().readModel(file);
+    LazyDiagramList diagrams = (LazyDiagramList) opened.getDiagrams();
+    assertTrue(diagrams.isMapped());
+    diagrams.get(0).setName("Changed");
+    // the steps of ModelWriter.writeModel()
+    BinaryModelOutput snapshot = new BinaryModelWriter().encodeModel(opened);
+    ModelReader.getInstance().releaseFile(opened);
+    assertFalse(diagrams.isMapped());
+    out = new FileOutputStream(file);
+    try {
+      snapshot.writeTo(out);
+    } finally {
+      out.close();
+    }
+
+    assertFalse(diagrams.isLoaded(2));
+    StructureDiagram unloaded = (StructureDiagram) diagrams.get(2);
+    assertEquals("Diagram 2", unloaded.getName());
+    assertEquals(3000, unloaded.getChildren().size());
+    StructureDiagram saved = (StructureDiagram)
+      ModelReader.getInstance().readModel(file).getDiagrams().get(0);
+    assertEquals("Changed", saved.getName());
+  }
+}
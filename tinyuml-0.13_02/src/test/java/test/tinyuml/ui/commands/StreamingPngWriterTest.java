@@ -0,0 +1,89 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.ui.commands;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import junit.framework.*;
+import org.tinyuml.ui.commands.StreamingPngWriter;
+
+/**
+ * Tests the StreamingPngWriter class.
+ * @author agent
+ * @version 1.0
+ */
+public class StreamingPngWriterTest extends TestCase {
+
+  /**
+   * Writes an image that spans several data chunks and reads it back.
+   * @throws IOException if an error occurred
+   */
+  public void testWriteAndRead() throws IOException {
+    int width = 300, height = 250;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StreamingPngWriter writer = new StreamingPngWriter(out, width, height);
+    int[] row = new int[width];
+    Random random = new Random(42);
+    int[] pixels = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        // random pixels do not compress, so the data exceeds one chunk
+        row[x] = random.nextInt() & 0xffffff;
+        pixels[y * width + x] = row[x];
+      }
+      writer.writeRow(row, 0);
+    }
+    assertEquals(height, writer.getRowsWritten());
+    writer.close();
+
+    BufferedImage image =
+      ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(width, image.getWidth());
+    assertEquals(height, image.getHeight());
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        assertEquals(pixels[y * width + x], image.getRGB(x, y) & 0xffffff);
+      }
+    }
+  }
+
+  /**
+   * Closing the writer before all rows were written is an error.
+   * @throws IOException if an error occurred
+   */
+  public void testIncompleteImage() throws IOException {
+    StreamingPngWriter writer =
+      new StreamingPngWriter(new ByteArrayOutputStream(), 2, 2);
+    writer.writeRow(new int[2], 0);
+    try {
+      writer.close();
+      fail("should throw an IOException");
+    } catch (IOException expected) { }
+    writer.writeRow(new int[2], 0);
+    try {
+      writer.writeRow(new int[2], 0);
+      fail("should throw an IllegalStateException");
+    } catch (IllegalStateException expected) { }
+  }
+}
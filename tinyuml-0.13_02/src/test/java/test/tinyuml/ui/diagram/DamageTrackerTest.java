@@ -0,0 +1,195 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.ui.diagram;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import org.jmock.Mock;
+import org.jmock.cglib.MockObjectTestCase;
+import org.tinyuml.draw.SimpleConnection;
+import org.tinyuml.model.UmlModel;
+import org.tinyuml.ui.diagram.DamageTracker;
+import org.tinyuml.umldraw.structure.StructureDiagram;
+import test.tinyuml.draw.MyCompositeNode;
+
+/**
+ * A test class for DamageTracker.
+ * @author agent
+ * @version 1.0
+ */
+public class DamageTrackerTest extends MockObjectTestCase {
+
+  private Mock mockModel = mock(UmlModel.class);
+  private StructureDiagram diagram;
+  private MyCompositeNode node = new MyCompositeNode();
+  private DamageTracker tracker;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  protected void setUp() {
+    diagram = new StructureDiagram((UmlModel) mockModel.proxy());
+    node.setOrigin(100, 100);
+    node.setSize(50, 40);
+    diagram.addChild(node);
+    tracker = new DamageTracker(diagram);
+  }
+
+  /**
+   * Tests the initial state.
+   */
+  public void testInitial() {
+    tracker.update();
+    assertNull(tracker.takeDamage());
+    tracker.update();
+    assertNull(tracker.takeDamage());
+  }
+
+  /**
+   * Tests that moving a node damages the old and the new area.
+   */
+  public void testMoveNode() {
+    tracker.update();
+    node.setOrigin(200, 100);
+    tracker.elementChanged(node);
+    tracker.update();
+    Rectangle2D damage = tracker.takeDamage();
+    assertEquals(new Rectangle2D.Double(98, 98, 154, 44), damage);
+    assertNull(tracker.takeDamage());
+  }
+
+  /**
+   * Tests adding and removing nodes.
+   */
+  public void testAddRemoveNode() {
+    tracker.update();
+    MyCompositeNode node2 = new MyCompositeNode();
+    node2.setOrigin(300, 200);
+    node2.setSize(20, 20);
+    diagram.addChild(node2);
+    tracker.elementChanged(node2);
+    tracker.update();
+    assertEquals(new Rectangle2D.Double(298, 198, 24, 24),
+      tracker.takeDamage());
+    diagram.removeChild(node);
+    tracker.elementChanged(node);
+    tracker.update();
+    assertEquals(new Rectangle2D.Double(98, 98, 54, 44),
+      tracker.takeDamage());
+  }
+
+  /**
+   * Tests that only reported elements are compared, unless all elements are
+   * scanned.
+   */
+  public void testScanAll() {
+    tracker.update();
+    node.setOrigin(200, 100);
+    tracker.update();
+    assertNull("unreported changes are not detected", tracker.takeDamage());
+    tracker.scanAll();
+    tracker.update();
+    assertEquals(new Rectangle2D.Double(98, 98, 154, 44),
+      tracker.takeDamage());
+  }
+
+  /**
+   * Tests that the children of a reported element are compared as well.
+   */
+  public void testChangedChild() {
+    MyCompositeNode child = new MyCompositeNode();
+    child.setOrigin(10, 10);
+    child.setSize(10, 10);
+    node.addChild(child);
+    tracker.update();
+    child.setSize(20, 10);
+    tracker.elementChanged(node);
+    tracker.update();
+    assertEquals(new Rectangle2D.Double(108, 108, 24, 14),
+      tracker.takeDamage());
+  }
+
+  /**
+   * Tests that the connections of a reported node are compared once they
+   * recalculated their points.
+   */
+  public void testConnectionOfChangedNode() {
+    MyCompositeNode node2 = new MyCompositeNode();
+    node2.setOrigin(300, 100);
+    node2.setSize(50, 40);
+    diagram.addChild(node2);
+    SimpleConnection conn = new SimpleConnection();
+    conn.setNode1(node);
+    conn.setNode2(node2);
+    node.addConnection(conn);
+    node2.addConnection(conn);
+    conn.setPoints(createPoints(150, 120, 300, 120));
+    diagram.addChild(conn);
+    tracker.update();
+
+    node.setAbsolutePos(100, 200);
+    assertFalse(conn.isValid());
+    tracker.elementChanged(node);
+    tracker.update();
+    Rectangle2D damage = tracker.takeDamage();
+    assertTrue("previous connection area",
+      damage.contains(new Rectangle2D.Double(150, 119, 150, 2)));
+
+    // the connection is drawn after it was moved
+    conn.setPoints(createPoints(150, 220, 300, 120));
+    tracker.update();
+    damage = tracker.takeDamage();
+    assertTrue("current connection area",
+      damage.contains(new Rectangle2D.Double(150, 120, 150, 100)));
+    tracker.update();
+    assertNull(tracker.takeDamage());
+  }
+
+  /**
+   * Creates a list of two points.
+   * @param x1 the x coordinate of the first point
+   * @param y1 the y coordinate of the first point
+   * @param x2 the x coordinate of the second point
+   * @param y2 the y coordinate of the second point
+   * @return the points
+   */
+  private List<Point2D> createPoints(double x1, double y1, double x2,
+    double y2) {
+    List<Point2D> points = new ArrayList<Point2D>();
+    points.add(new Point2D.Double(x1, y1));
+    points.add(new Point2D.Double(x2, y2));
+    return points;
+  }
+
+  /**
+   * Tests explicit damage.
+   */
+  public void testAddDamage() {
+    tracker.addDamage(node);
+    tracker.addDamage(new Rectangle2D.Double(10, 10, 10, 10));
+    assertEquals(new Rectangle2D.Double(10, 10, 142, 132),
+      tracker.takeDamage());
+    tracker.damageAll();
+    assertTrue(tracker.takeDamage().contains(diagram.getAbsoluteBounds()));
+  }
+}
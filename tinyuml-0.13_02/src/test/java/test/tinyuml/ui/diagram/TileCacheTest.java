@@ -0,0 +1,176 @@
+/**
+ * Copyright 2007 Wei-ju Wu
+ *
+ * This file is part of TinyUML.
+ *
+ * TinyUML is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * TinyUML is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with TinyUML; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package test.tinyuml.ui.diagram;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.tinyuml.ui.diagram.TileCache;
+
+/**
+ * A test class for TileCache.
+ * @author agent
+ * @version 1.0
+ */
+public class TileCacheTest extends TestCase {
+
+  private static final int TILE_SIZE = 100;
+  private static final long TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+  private TileCache cache = new TileCache(TILE_SIZE, 16 * TILE_BYTES);
+  private List<Rectangle2D> renderedAreas = new ArrayList<Rectangle2D>();
+  private TileCache.TileRenderer renderer = new TileCache.TileRenderer() {
+    public void renderTile(Graphics2D g2d, Rectangle2D area) {
+      renderedAreas.add(area);
+    }
+  };
+  private BufferedImage image =
+    new BufferedImage(400, 400, BufferedImage.TYPE_INT_RGB);
+
+  /**
+   * Paints the specified device area.
+   * @param x the x coordinate
+   * @param y the y coordinate
+   * @param width the width
+   * @param height the height
+   * @param scaleFactor the scale factor
+   */
+  private void paint(int x, int y, int width, int height, double scaleFactor) {
+    Graphics2D g2d = image.createGraphics();
+    cache.paint(g2d, new Rectangle(x, y, width, height), scaleFactor,
+      renderer);
+    g2d.dispose();
+  }
+
+  /**
+   * Tests that tiles are only rendered once.
+   */
+  public void testHitsAndMisses() {
+    paint(0, 0, 200, 150, 1.0);
+    assertEquals(4, cache.getMissCount());
+    assertEquals(0, cache.getHitCount());
+    assertEquals(4, renderedAreas.size());
+    assertEquals(new Rectangle2D.Double(100, 100, 100, 100),
+      renderedAreas.get(3));
+    assertEquals(4, cache.getTileCount());
+    assertEquals(4 * TILE_BYTES, cache.getMemoryUsage());
+
+    paint(50, 50, 100, 50, 1.0);
+    assertEquals(4, cache.getMissCount());
+    assertEquals(2, cache.getHitCount());
+
+    cache.resetStatistics();
+    assertEquals(0, cache.getMissCount());
+    assertEquals(0, cache.getHitCount());
+  }
+
+  /**
+   * Tests that tiles are kept per scale factor.
+   */
+  public void testScaleFactor() {
+    paint(0, 0, 100, 100, 1.0);
+    paint(0, 0, 100, 100, 2.0);
+    assertEquals(2, cache.getMissCount());
+    assertEquals(new Rectangle2D.Double(0, 0, 50, 50), renderedAreas.get(1));
+  }
+
+  /**
+   * Tests that the tiles are rendered in device resolution if the Graphics2D
+   * object is scaled, e.g. on HiDPI screens.
+   */
+  public void testDeviceScale() {
+    paint(0, 0, 100, 100, 1.0);
+    Graphics2D g2d = image.createGraphics();
+    g2d.scale(2.0, 2.0);
+    cache.paint(g2d, new Rectangle(0, 0, 100, 100), 1.0, renderer);
+    assertEquals("the tiles are kept per device scale", 5,
+      cache.getMissCount());
+    assertEquals(new Rectangle2D.Double(0, 0, 50, 50), renderedAreas.get(1));
+    assertEquals(new Rectangle2D.Double(50, 50, 50, 50),
+      renderedAreas.get(4));
+    assertEquals("the transform is restored", 2.0,
+      g2d.getTransform().getScaleX());
+    g2d.dispose();
+  }
+
+  /**
+   * Tests invalidation of a diagram area.
+   */
+  public void testInvalidate() {
+    paint(0, 0, 200, 200, 1.0);
+    paint(0, 0, 200, 200, 2.0);
+    assertEquals(8, cache.getTileCount());
+    cache.invalidate(new Rectangle2D.Double(120, 20, 10, 10));
+    // at scale 2 the painted tiles only cover the area up to x = 100
+    assertEquals(7, cache.getTileCount());
+    renderedAreas.clear();
+    paint(0, 0, 200, 200, 1.0);
+    assertEquals(1, renderedAreas.size());
+    assertEquals(new Rectangle2D.Double(100, 0, 100, 100),
+      renderedAreas.get(0));
+    cache.invalidateAll();
+    assertEquals(0, cache.getTileCount());
+  }
+
+  /**
+   * Tests that the least recently used tiles are evicted.
+   */
+  public void testEviction() {
+    cache.getMemoryBudget().setLimit(2 * TILE_BYTES);
+    paint(0, 0, 100, 100, 1.0);
+    paint(100, 0, 100, 100, 1.0);
+    paint(0, 0, 100, 100, 1.0);
+    paint(200, 0, 100, 100, 1.0);
+    assertEquals(2, cache.getTileCount());
+    assertEquals(3, cache.getMissCount());
+    // (1, 0) was the least recently used tile
+    paint(0, 0, 100, 100, 1.0);
+    assertEquals(3, cache.getMissCount());
+    paint(100, 0, 100, 100, 1.0);
+    assertEquals(4, cache.getMissCount());
+
+    cache.getMemoryBudget().setLimit(TILE_BYTES);
+    assertEquals(1, cache.getTileCount());
+  }
+
+  /**
+   * Tests that caches with a shared memory budget evict the least recently
+   * used tiles of all of them.
+   */
+  public void testSharedBudget() {
+    TileCache other = new TileCache(TILE_SIZE, cache.getMemoryBudget());
+    cache.getMemoryBudget().setLimit(3 * TILE_BYTES);
+    paint(0, 0, 200, 100, 1.0);
+    Graphics2D g2d = image.createGraphics();
+    other.paint(g2d, new Rectangle(0, 0, 100, 100), 1.0, renderer);
+    assertEquals(3 * TILE_BYTES, cache.getMemoryBudget().getUsage());
+    // the first tile of the first cache is the least recently used one
+    other.paint(g2d, new Rectangle(100, 0, 100, 100), 1.0, renderer);
+    g2d.dispose();
+    assertEquals(1, cache.getTileCount());
+    assertEquals(2, other.getTileCount());
+    renderedAreas.clear();
+    paint(100, 0, 100, 100, 1.0);
+    assertEquals(0, renderedAreas.size());
+  }
+}
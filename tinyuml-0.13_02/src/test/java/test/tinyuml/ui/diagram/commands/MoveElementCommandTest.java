@@ -85,6 +85,29 @@ public class MoveElementCommandTest extends MockObjectTestCase {
     setRunExpectations();
     command.redo();    
   }
+
+  /**
+   * Tests that the operations are executed in a change transaction on the
+   * diagram.
+   */
+  public void testRunInTransaction() {
+    Mock mockDiagram = mock(CompositeNode.class);
+    MoveElementCommand transactionCommand = new MoveElementCommand(
+      (DiagramEditorNotification) mockNotification.proxy(),
+      (CompositeNode) mockDiagram.proxy(),
+      new Command[] { new TranslateConnectionOperation(
+        (Connection) mockConn.proxy(), transx, transy) });
+    mockDiagram.expects(once()).method("beginChanges");
+    mockConn.expects(once()).method("getPoints").after(mockDiagram,
+      "beginChanges").will(returnValue(originalPoints));
+    mockConn.expects(once()).method("setPoints")
+      .with(eq(translatedPoints));
+    mockDiagram.expects(once()).method("commitChanges").after(mockConn,
+      "setPoints");
+    mockNotification.expects(once()).method("notifyElementsMoved")
+      .after(mockDiagram, "commitChanges");
+    transactionCommand.run();
+  }
   
   /**
    * Sets the expectations for run().
@@ -60,6 +60,8 @@ public class BaseConnectionTest extends MockObjectTestCase {
   @Override
   protected void setUp() {
     connection = new MyBaseConnection();
+    // the connection is not in a diagram yet
+    mockConnection.expects(once()).method("getParent").will(returnValue(null));
     connection.setConnection((Connection) mockConnection.proxy());
   }
   
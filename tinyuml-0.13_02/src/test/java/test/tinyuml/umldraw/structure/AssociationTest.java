@@ -186,8 +186,8 @@ public class AssociationTest extends MockObjectTestCase {
       .will(returnValue(fontMetrics));    
     mockFontMetrics.expects(atLeastOnce()).method("getMaxAscent")
       .will(returnValue(19));
-    mockFontMetrics.expects(atLeastOnce()).method("stringWidth")
-      .will(returnValue(20));
+    mockDrawingContext.expects(atLeastOnce()).method("getTextWidth")
+      .will(returnValue(20.0));
     mockFontMetrics.expects(atLeastOnce()).method("getHeight")
       .will(returnValue(20));
     mockDrawingContext.expects(atLeastOnce()).method("drawLabel");
@@ -201,7 +201,7 @@ public class AssociationTest extends MockObjectTestCase {
     relation.setNavigableToElement2(true);
     try {
       mockDrawingContext.expects(atLeastOnce()).method("drawLine");
-      mockDrawingContext.expects(atLeastOnce()).method("draw");
+      mockDrawingContext.expects(atLeastOnce()).method("drawSymbol");
       prototype.draw((DrawingContext) mockDrawingContext.proxy());
     } catch (Exception ex) {
       ex.printStackTrace();
@@ -216,7 +216,7 @@ public class AssociationTest extends MockObjectTestCase {
     relation.setNavigableToElement2(true);
     try {
       mockDrawingContext.expects(atLeastOnce()).method("drawLine");
-      mockDrawingContext.expects(atLeastOnce()).method("draw");
+      mockDrawingContext.expects(atLeastOnce()).method("drawSymbol");
       prototype.draw((DrawingContext) mockDrawingContext.proxy());
     } catch (Exception ex) {
       ex.printStackTrace();
@@ -231,6 +231,7 @@ public class AssociationTest extends MockObjectTestCase {
     relation.setNavigableToElement2(true);
     try {
       mockDrawingContext.expects(atLeastOnce()).method("drawLine");
+      mockDrawingContext.expects(exactly(2)).method("drawSymbol");
       prototype.draw((DrawingContext) mockDrawingContext.proxy());
     } catch (Exception ex) {
       ex.printStackTrace();
@@ -19,10 +19,15 @@
  */
 package test.tinyuml.umldraw.structure;
 
+import java.awt.Rectangle;
 import java.awt.geom.Dimension2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
 import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
+import org.tinyuml.draw.BoundsDrawingContext;
 import org.tinyuml.draw.CompositeNode;
 import org.tinyuml.draw.Connection;
 import org.tinyuml.draw.DiagramElement;
@@ -30,6 +35,7 @@ import org.tinyuml.draw.DoubleDimension;
 import org.tinyuml.draw.Node;
 import org.tinyuml.draw.NullElement;
 import org.tinyuml.draw.SimpleConnection;
+import org.tinyuml.umldraw.shared.NoteConnection;
 import org.tinyuml.umldraw.structure.StructureDiagram;
 import org.tinyuml.model.UmlModel;
 import test.tinyuml.draw.MyCompositeNode;
@@ -245,4 +251,93 @@ public class UmlDiagramTest extends MockObjectTestCase {
     assertEquals("child3 should now be at index 0",
       0, diagram.getChildren().indexOf(child3));    
   }
+
+  /**
+   * Tests hit testing on many connections, which are kept in a spatial index.
+   */
+  public void testManyConnections() {
+    // the diagram is resized to cover the node and the connections
+    MyCompositeNode node = new MyCompositeNode();
+    node.setOrigin(600, 1500);
+    node.setSize(5, 5);
+    diagram.addChild(node);
+    SimpleConnection[] conns = new SimpleConnection[100];
+    for (int i = 0; i < conns.length; i++) {
+      conns[i] = new SimpleConnection();
+      conns[i].setPoints(createLine(100, 10 * i + 20, 400));
+      diagram.addChild(conns[i]);
+    }
+    assertSame(conns[50], diagram.getChildAt(200, 521));
+    assertSame(NullElement.getInstance(), diagram.getChildAt(200, 525));
+    List<DiagramElement> candidates = new ArrayList<DiagramElement>();
+    diagram.getChildrenInSpecifiedBounds(
+      new Rectangle2D.Double(150, 515, 10, 10), candidates);
+    assertEquals(1, candidates.size());
+    assertSame(conns[50], candidates.get(0));
+
+    // moved connections are found at their new position
+    conns[50].setPoints(createLine(100, 1200, 400));
+    assertSame(NullElement.getInstance(), diagram.getChildAt(200, 520));
+    assertSame(conns[50], diagram.getChildAt(200, 1200));
+    diagram.removeChild(conns[50]);
+    assertSame(NullElement.getInstance(), diagram.getChildAt(200, 1200));
+
+    // replacing the wrapped connection of a child and restoring it, like
+    // converting the connection type and undoing it
+    NoteConnection wrapper = (NoteConnection)
+      NoteConnection.getPrototype().clone();
+    wrapper.setPoints(createLine(100, 1300, 400));
+    diagram.addChild(wrapper);
+    assertSame(wrapper, diagram.getChildAt(200, 1300));
+    Connection original = wrapper.getConnection();
+    SimpleConnection replacement = new SimpleConnection();
+    replacement.setParent(diagram);
+    replacement.setPoints(createLine(100, 1400, 400));
+    wrapper.setConnection(replacement);
+    assertSame(NullElement.getInstance(), diagram.getChildAt(200, 1300));
+    assertSame(wrapper, diagram.getChildAt(200, 1400));
+    wrapper.setConnection(original);
+    assertSame(wrapper, diagram.getChildAt(200, 1300));
+    assertSame(NullElement.getInstance(), diagram.getChildAt(200, 1400));
+  }
+
+  /**
+   * Tests that drawing many connections only draws the connections within
+   * the clip bounds, which are found in the spatial index.
+   */
+  public void testDrawManyConnections() {
+    diagram.setName("diagram");
+    SimpleConnection[] conns = new SimpleConnection[100];
+    for (int i = 0; i < conns.length; i++) {
+      conns[i] = new SimpleConnection();
+      conns[i].setPoints(createLine(100, 10 * i + 20, 400));
+      diagram.addChild(conns[i]);
+    }
+    final List<DiagramElement> drawn = new ArrayList<DiagramElement>();
+    BoundsDrawingContext drawingContext = new BoundsDrawingContext() {
+      @Override
+      public void beginGroup(DiagramElement element) { drawn.add(element); }
+    };
+    drawingContext.setGraphics2D(null, new Rectangle(150, 510, 100, 20));
+    diagram.draw(drawingContext, false);
+    // the lines within the decoration margin of the clip bounds, in order
+    assertEquals(5, drawn.size());
+    for (int i = 0; i < drawn.size(); i++) {
+      assertSame(conns[48 + i], drawn.get(i));
+    }
+  }
+
+  /**
+   * Creates the points of a horizontal line.
+   * @param x1 the start x coordinate
+   * @param y the y coordinate
+   * @param x2 the end x coordinate
+   * @return the points
+   */
+  private List<Point2D> createLine(double x1, double y, double x2) {
+    List<Point2D> points = new ArrayList<Point2D>();
+    points.add(new Point2D.Double(x1, y));
+    points.add(new Point2D.Double(x2, y));
+    return points;
+  }
 }